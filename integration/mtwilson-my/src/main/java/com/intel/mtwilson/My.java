@@ -116,7 +116,7 @@ public class My {
         return pm;
     }
 
-    public static MyJdbc jdbc() throws IOException {
+    public static synchronized MyJdbc jdbc() throws IOException { // synchronized so there is only one connection pool
         if (jdbc == null) {
             jdbc = new MyJdbc(configuration());
         }
@@ -8,8 +8,22 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
 
 /**
+ * connection() opens a new database connection every time and is meant for
+ * setup tasks. The JDBI DAOs (login, tag, feature, TLS policy, TPM 
+ * endorsement) share the connection pool from dataSource().
+ * 
+ * The pool uses the same database settings as the ASDataPU persistence unit
+ * and is configured with the dbcp.* settings copied by 
+ * MyPersistenceManager.copyDbcpProperties:
+ * dbcp.max.active, dbcp.max.idle, dbcp.min.idle, dbcp.max.wait (milliseconds),
+ * dbcp.validation.query (default SELECT 1), dbcp.validation.on.borrow,
+ * dbcp.validation.on.return, dbcp.pool.prepared.statements,
+ * dbcp.max.open.prepared.statements, dbcp.remove.abandoned,
+ * dbcp.remove.abandoned.timeout (seconds), dbcp.log.abandoned
  *
  * @author jbuhacoff
  */
@@ -17,6 +31,7 @@ public class MyJdbc {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MyJdbc.class);
 
     private MyConfiguration config;
+    private BasicDataSource dataSource = null;
     public MyJdbc(MyConfiguration config) {
         this.config = config;
     }
@@ -88,7 +103,8 @@ public class MyJdbc {
     }
     
     /**
-     * Caller must close() the connection.
+     * Caller must close() the connection. The connection is not pooled; use
+     * dataSource() for frequent queries.
      * @return
      * @throws ClassNotFoundException
      * @throws SQLException 
@@ -100,4 +116,80 @@ public class MyJdbc {
         Connection c = DriverManager.getConnection(url(), config.getDatabaseUsername(), config.getDatabasePassword());
         return c;
     }
+    
+    /**
+     * Connections from the pool must be closed to return them to the pool.
+     * A connection that is not closed within dbcp.remove.abandoned.timeout
+     * seconds is reclaimed when the pool is nearly exhausted, and logged
+     * with the stack trace of the code that borrowed it if dbcp.log.abandoned
+     * is enabled.
+     * 
+     * @return the connection pool shared by all the JDBI DAOs
+     */
+    public synchronized DataSource dataSource() {
+        if( dataSource == null ) {
+            dataSource = createDataSource();
+        }
+        return dataSource;
+    }
+    
+    private BasicDataSource createDataSource() {
+        Properties p = MyPersistenceManager.getASDataJpaProperties(config);
+        BasicDataSource ds = new BasicDataSource();
+        ds.setDriverClassName(p.getProperty("javax.persistence.jdbc.driver"));
+        ds.setUrl(p.getProperty("javax.persistence.jdbc.url"));
+        ds.setUsername(p.getProperty("javax.persistence.jdbc.user"));
+        ds.setPassword(p.getProperty("javax.persistence.jdbc.password"));
+        ds.setMaxActive(Integer.valueOf(p.getProperty("dbcp.max.active")));
+        ds.setMaxIdle(Integer.valueOf(p.getProperty("dbcp.max.idle")));
+        ds.setMinIdle(Integer.valueOf(p.getProperty("dbcp.min.idle")));
+        ds.setMaxWait(Long.valueOf(p.getProperty("dbcp.max.wait")));
+        String validationQuery = p.getProperty("dbcp.validation.query");
+        ds.setValidationQuery(validationQuery.isEmpty() ? "SELECT 1" : validationQuery); // both mysql and postgresql accept SELECT 1
+        ds.setTestOnBorrow(Boolean.valueOf(p.getProperty("dbcp.validation.on.borrow")));
+        ds.setTestOnReturn(Boolean.valueOf(p.getProperty("dbcp.validation.on.return")));
+        ds.setPoolPreparedStatements(Boolean.valueOf(p.getProperty("dbcp.pool.prepared.statements")));
+        ds.setMaxOpenPreparedStatements(Integer.valueOf(p.getProperty("dbcp.max.open.prepared.statements")));
+        ds.setRemoveAbandoned(Boolean.valueOf(p.getProperty("dbcp.remove.abandoned")));
+        ds.setRemoveAbandonedTimeout(Integer.valueOf(p.getProperty("dbcp.remove.abandoned.timeout")));
+        ds.setLogAbandoned(Boolean.valueOf(p.getProperty("dbcp.log.abandoned")));
+        log.debug("Created JDBC connection pool for {} max active {} max idle {} min idle {}", ds.getUrl(), ds.getMaxActive(), ds.getMaxIdle(), ds.getMinIdle());
+        return ds;
+    }
+    
+    /**
+     * @return the number of pooled connections currently borrowed, or 0 if the pool was not created yet
+     */
+    public synchronized int getActiveConnections() {
+        return dataSource == null ? 0 : dataSource.getNumActive();
+    }
+    
+    /**
+     * @return the number of pooled connections waiting to be borrowed, or 0 if the pool was not created yet
+     */
+    public synchronized int getIdleConnections() {
+        return dataSource == null ? 0 : dataSource.getNumIdle();
+    }
+    
+    /**
+     * Closes the idle connections of the pool; borrowed connections are
+     * closed when they are returned. The next call to dataSource() creates
+     * a new pool.
+     */
+    public synchronized void close() {
+        if( dataSource != null ) {
+            try {
+                dataSource.close();
+            }
+            catch(SQLException e) {
+                log.warn("Cannot close JDBC connection pool: {}", e.getMessage());
+            }
+            dataSource = null;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("active=%d idle=%d", getActiveConnections(), getIdleConnections());
+    }
 }
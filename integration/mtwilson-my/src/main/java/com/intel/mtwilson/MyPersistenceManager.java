@@ -125,7 +125,7 @@ public class MyPersistenceManager extends PersistenceManager {
     }    
     
     // copies some properties described in http://commons.apache.org/proper/commons-dbcp/configuration.html
-    // using same defaults as shown on that page
+    // using same defaults as shown on that page, except the ones after validation.on.return which are only used by the MyJdbc pool
     public static void copyDbcpProperties(Configuration myConfig, Properties prop) {
         prop.setProperty("dbcp.max.active", myConfig.getInteger("dbcp.max.active", 100).toString());
         prop.setProperty("dbcp.max.idle", myConfig.getInteger("dbcp.max.idle", 64).toString());
@@ -133,6 +133,12 @@ public class MyPersistenceManager extends PersistenceManager {
         prop.setProperty("dbcp.validation.query", myConfig.getString("dbcp.validation.query","")); // for example SELECT 1 ; we provide empty string default because Properties would throw NullPointerException for a null value
         prop.setProperty("dbcp.validation.on.borrow",String.valueOf( myConfig.getBoolean("dbcp.validation.on.borrow", true))); 
         prop.setProperty("dbcp.validation.on.return", String.valueOf(myConfig.getBoolean("dbcp.validation.on.return", false))); 
+        prop.setProperty("dbcp.max.wait", myConfig.getString("dbcp.max.wait", "30000")); // milliseconds to wait for a connection when all are in use, -1 to wait forever
+        prop.setProperty("dbcp.pool.prepared.statements", String.valueOf(myConfig.getBoolean("dbcp.pool.prepared.statements", true)));
+        prop.setProperty("dbcp.max.open.prepared.statements", myConfig.getString("dbcp.max.open.prepared.statements", "100")); // per connection
+        prop.setProperty("dbcp.remove.abandoned", String.valueOf(myConfig.getBoolean("dbcp.remove.abandoned", true)));
+        prop.setProperty("dbcp.remove.abandoned.timeout", myConfig.getString("dbcp.remove.abandoned.timeout", "300")); // seconds
+        prop.setProperty("dbcp.log.abandoned", String.valueOf(myConfig.getBoolean("dbcp.log.abandoned", false))); // records a stack trace for every connection that is borrowed
     }
     
     
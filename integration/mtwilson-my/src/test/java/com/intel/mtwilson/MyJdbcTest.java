@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson;
+
+import java.util.Properties;
+import org.apache.commons.dbcp.BasicDataSource;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MyJdbcTest {
+
+    private MyJdbc createJdbc() {
+        Properties properties = new Properties();
+        properties.setProperty("mtwilson.db.driver", "org.postgresql.Driver");
+        properties.setProperty("mtwilson.db.host", "127.0.0.1");
+        properties.setProperty("mtwilson.db.port", "5432");
+        properties.setProperty("mtwilson.db.schema", "mw_as");
+        properties.setProperty("dbcp.max.active", "5");
+        properties.setProperty("dbcp.pool.prepared.statements", "false");
+        return new MyJdbc(new MyConfiguration(properties));
+    }
+
+    @Test
+    public void testPoolIsSharedAndConfigured() {
+        MyJdbc jdbc = createJdbc();
+        BasicDataSource ds = (BasicDataSource) jdbc.dataSource();
+        assertSame(ds, jdbc.dataSource());
+        assertEquals(5, ds.getMaxActive());
+        assertFalse(ds.isPoolPreparedStatements());
+        assertEquals("SELECT 1", ds.getValidationQuery());
+        assertTrue(ds.getRemoveAbandoned());
+        // no connection is opened until one is borrowed
+        assertEquals(0, jdbc.getActiveConnections());
+        jdbc.close();
+        assertNotSame(ds, jdbc.dataSource());
+    }
+}
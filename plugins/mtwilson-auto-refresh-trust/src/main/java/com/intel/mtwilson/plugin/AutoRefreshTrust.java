@@ -4,14 +4,21 @@
  */
 package com.intel.mtwilson.plugin;
 
+import com.intel.mtwilson.as.business.trust.AttestationResultWriter;
 import com.intel.mtwilson.as.business.trust.BulkHostTrustBO;
 import com.intel.mtwilson.as.controller.TblSamlAssertionJpaController;
 import com.intel.mtwilson.plugin.api.Plugin;
+import com.intel.mtwilson.threads.AttestationScheduler;
 import com.intel.mtwilson.My;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import org.apache.commons.configuration.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +30,19 @@ import org.slf4j.LoggerFactory;
  * This bean should be executed periodically (once every minute, or every 5 minutes) in order to automatically
  * refresh the trust status
  * 
+ * By default the hosts are refreshed by a RefreshSchedule that is loaded from the database at startup
+ * and reloaded every mtwilson.auto.refresh.trust.resync.seconds (default 600) to pick up new and deleted hosts
+ * and hosts that were attested on demand. Each host is refreshed shortly before its saml assertion expires,
+ * at most mtwilson.auto.refresh.trust.max.per.second hosts per second (default 10, 0 for no limit) and
+ * mtwilson.auto.refresh.trust.max.batch hosts per bulk request (default 100), with up to
+ * mtwilson.auto.refresh.trust.jitter.seconds (default 60) of random jitter.
+ * A host whose refresh failed is retried after mtwilson.auto.refresh.trust.retry.seconds (default 60),
+ * doubling with each consecutive failure up to mtwilson.auto.refresh.trust.max.retry.seconds (default 3600).
+ * The schedule metrics are logged at every reload and are available from
+ * AutoRefreshTrustLoader.getAutoRefreshTrust().getSchedule().
+ * Set mtwilson.auto.refresh.trust.scheduler=interval to use the previous behavior of refreshing
+ * all expired hosts every interval instead.
+ * 
  * @author jbuhacoff
  */
 public class AutoRefreshTrust implements Runnable, Plugin {
@@ -43,6 +63,7 @@ public class AutoRefreshTrust implements Runnable, Plugin {
     public void setBulkHostTrustBO(BulkHostTrustBO bulkHostTrustBO) { this.bulkHostTrustBO = bulkHostTrustBO; }
     public void setTblSamlAssertionJpaController(TblSamlAssertionJpaController samlJpa) { this.samlJpa = samlJpa; }
     private volatile boolean running;
+    private volatile RefreshSchedule schedule = null;
 
     public AutoRefreshTrust(long interval, TimeUnit intervalUnits) {
         this.interval = interval;
@@ -54,17 +75,123 @@ public class AutoRefreshTrust implements Runnable, Plugin {
         running = false;
     }
     
+    /**
+     * @return the refresh schedule with its lag and missed deadline metrics, or null if the interval scheduler is used
+     */
+    public RefreshSchedule getSchedule() {
+        return schedule;
+    }
+    
     @Override
     public void run() {
         running = true;
+        if( "interval".equalsIgnoreCase(My.configuration().getConfiguration().getString("mtwilson.auto.refresh.trust.scheduler", "deadline")) ) {
+            runInterval();
+        }
+        else {
+            runSchedule();
+        }
+    }
+    
+    private void runSchedule() {
+        Configuration config = My.configuration().getConfiguration();
+        long resyncMillis = TimeUnit.SECONDS.toMillis(config.getLong("mtwilson.auto.refresh.trust.resync.seconds", 600));
+        long jitterMillis = TimeUnit.SECONDS.toMillis(config.getLong("mtwilson.auto.refresh.trust.jitter.seconds", 60));
+        double maxPerSecond = config.getDouble("mtwilson.auto.refresh.trust.max.per.second", 10);
+        int maxBatch = config.getInt("mtwilson.auto.refresh.trust.max.batch", 100);
+        long retryMillis = TimeUnit.SECONDS.toMillis(config.getLong("mtwilson.auto.refresh.trust.retry.seconds", 60));
+        long maxRetryMillis = TimeUnit.SECONDS.toMillis(config.getLong("mtwilson.auto.refresh.trust.max.retry.seconds", 3600));
+        long intervalMillis = TimeUnit.MILLISECONDS.convert(interval, intervalUnits);
+        schedule = new RefreshSchedule(TimeUnit.SECONDS.toMillis(My.configuration().getSamlValidityTimeInSeconds()), TimeUnit.SECONDS.toMillis(refreshTimeBeforeSamlExpiry), jitterMillis, maxPerSecond, maxBatch, retryMillis, maxRetryMillis, new Random());
+        long lastLoad = 0;
         while (running) {
+            // results of the previous refresh may still be queued for writing, and reloading would schedule those hosts again
+            AttestationResultWriter writer = AttestationResultWriter.getInstance();
+            if( writer.isAsync() && writer.isFlushBeforeRefresh() && !writer.flush() ) {
+                log.warn("AutoRefreshTrust: Attestation results not yet written: {}", writer);
+            }
+            long now = System.currentTimeMillis();
+            if( lastLoad == 0 || now - lastLoad >= resyncMillis ) {
+                loadSchedule();
+                lastLoad = now;
+                log.info("AutoRefreshTrust schedule: {}", schedule);
+            }
+            List<String> due = schedule.takeDue(now);
+            if( !due.isEmpty() ) {
+                log.info("AutoRefreshTrust refreshing {} hosts, {} scheduled, lag {}ms, missed deadlines {}", due.size(), schedule.size(), schedule.getLagMillis(now), schedule.getMissedDeadlines());
+                Set<String> succeeded = refresh(new HashSet<>(due));
+                long refreshed = System.currentTimeMillis();
+                for(String hostname : due) {
+                    if( succeeded.contains(hostname) ) {
+                        schedule.refreshed(hostname, refreshed);
+                    }
+                    else {
+                        schedule.failed(hostname, refreshed);
+                    }
+                }
+                if( succeeded.size() < due.size() ) {
+                    log.warn("AutoRefreshTrust: {} of {} hosts were not refreshed and will be retried", due.size() - succeeded.size(), due.size());
+                }
+                continue;
+            }
+            if( !running ) { break; }
+            // sleep until the next host is due, but check at least once per interval and at most once per second
+            long next = schedule.getNextRefreshTime();
+            long wait = next < 0 ? intervalMillis : Math.min(next - now, intervalMillis);
+            wait = Math.min(Math.max(wait, 1000), Math.max(lastLoad + resyncMillis - now, 1000));
+            try {
+                log.debug("AutoRefreshTrust: next refresh in {}ms", wait);
+                Thread.sleep(wait);
+            } catch (InterruptedException ex) {
+                log.info("AutoRefreshTrust: Error during waiting for the next process: {}", ex.getMessage());
+            }
+        }
+    }
+    
+    private void loadSchedule() {
+        try {
+            Map<String,Date> lastCreated = My.jpa().mwSamlAssertion().findLastCreatedTsByHostname();
+            schedule.retainAll(lastCreated.keySet());
+            for(Map.Entry<String,Date> entry : lastCreated.entrySet()) {
+                schedule.schedule(entry.getKey(), entry.getValue());
+            }
+            log.debug("AutoRefreshTrust: Loaded refresh schedule for {} hosts", schedule.size());
+        } catch (Exception ex) {
+            log.error("AutoRefreshTrust:loadSchedule - Error during retrieval of host refresh schedule.", ex);
+        }
+    }
+    
+    /**
+     * @param hosts
+     * @return the hosts that were refreshed, possibly empty
+     */
+    private Set<String> refresh(HashSet<String> hosts) {
+        long bulkBOTimeout = My.configuration().getConfiguration().getLong("mtwilson.ms.registration.hostTimeout", 60); // Default is 60 seconds
+        bulkHostTrustBO = new BulkHostTrustBO((int)bulkBOTimeout, AttestationScheduler.Lane.BACKGROUND);
+        try {
+            Set<String> refreshed = bulkHostTrustBO.refreshBulkTrustSaml(hosts);
+            log.debug("Auto bulk refresh of {} hosts: {} refreshed", hosts.size(), refreshed.size());
+            return refreshed;
+        } catch (Exception ex) {
+            log.error("AutoRefreshTrust: Error during bulk refresh of {} hosts.", hosts.size(), ex);
+            return Collections.emptySet();
+        }
+    }
+    
+    private void runInterval() {
+        while (running) {
+            // results of the previous refresh may still be queued for writing, and those hosts would be found again
+            AttestationResultWriter writer = AttestationResultWriter.getInstance();
+            if( writer.isAsync() && writer.isFlushBeforeRefresh() && !writer.flush() ) {
+                log.warn("AutoRefreshTrust: Attestation results not yet written: {}", writer);
+            }
             // make a list of hosts whose last trust status check is more than max cache duration ago
             List<String> hostsToRefresh = findHostnamesWithExpiredCache();
             if (hostsToRefresh != null && hostsToRefresh.size() > 0) {
                 log.info("AutoRefreshTrust got {} hosts to refresh", hostsToRefresh.size());
                 HashSet<String> hosts = new HashSet<>(hostsToRefresh);
                 long bulkBOTimeout = My.configuration().getConfiguration().getLong("mtwilson.ms.registration.hostTimeout", 60); // Default is 60 seconds
-                bulkHostTrustBO = new BulkHostTrustBO((int)bulkBOTimeout);
+                bulkHostTrustBO = new BulkHostTrustBO((int)bulkBOTimeout, AttestationScheduler.Lane.BACKGROUND);
                 String saml = bulkHostTrustBO.getBulkTrustSaml(hosts, true);
                 log.info("Auto bulk refresh SAML: {}", saml);
             } else {
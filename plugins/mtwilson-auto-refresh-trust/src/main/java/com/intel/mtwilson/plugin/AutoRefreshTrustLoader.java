@@ -25,9 +25,16 @@ public class AutoRefreshTrustLoader implements ServletContextListener {
     private static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
     private static final long DEFAULT_AUTO_REFRESH_TRUST_INTERVAL = 120;
     private Thread mainThread;
-    private AutoRefreshTrust art = null;
+    private static AutoRefreshTrust art = null;
     private ScheduledFuture<?> future = null;
     
+    /**
+     * @return the running AutoRefreshTrust, for its schedule metrics, or null if it is disabled
+     */
+    public static AutoRefreshTrust getAutoRefreshTrust() {
+        return art;
+    }
+    
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         log.info("AutoRefreshTrust: About to start the thread");
@@ -47,6 +54,9 @@ public class AutoRefreshTrustLoader implements ServletContextListener {
     public void contextDestroyed(ServletContextEvent sce) {
         if (art != null) {
             log.info("AutoRefreshTrust: About to end the thread");
+            if( art.getSchedule() != null ) {
+                log.info("AutoRefreshTrust schedule: {}", art.getSchedule());
+            }
             art.cancel();
 //            mainThread.interrupt();
             
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * In-memory schedule of host trust refreshes ordered by the time each host's
+ * saml assertion expires.
+ *
+ * Each host is due for refresh a fixed time before its assertion expires,
+ * minus a random jitter so that hosts registered or refreshed together do not
+ * all come due at the same moment. takeDue returns the hosts that are due, at
+ * most the configured rate allows, so a backlog is worked off gradually
+ * instead of in one large bulk request.
+ *
+ * A refresh that starts after the host's assertion has already expired is
+ * counted as a missed deadline.
+ *
+ * A host whose refresh failed is retried after retryMillis, doubling with
+ * each consecutive failure up to maxRetryMillis, until a refresh succeeds.
+ * Reloading the schedule keeps the retry time of a failing host, because a
+ * failed attestation also stores an assertion and its creation time would
+ * otherwise move the host to the end of a full validity period.
+ *
+ * This class is thread-safe.
+ */
+public class RefreshSchedule {
+    private final long validityMillis;
+    private final long refreshBeforeMillis;
+    private final long jitterMillis;
+    private final double maxPerSecond;
+    private final int maxBatch;
+    private final long retryMillis;
+    private final long maxRetryMillis;
+    private final Random random;
+    private final HashMap<String,Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> queue = new TreeSet<>();
+    private final HashMap<String,Entry> taken = new HashMap<>(); // returned by takeDue and not yet refreshed or failed
+    private final HashMap<String,Integer> failures = new HashMap<>(); // consecutive failures by hostname
+    private final HashMap<String,Long> retryAt = new HashMap<>(); // earliest refresh time of failing hosts
+    private double tokens;
+    private long lastTokenUpdate = -1;
+    private long sequence = 0;
+    private long refreshed = 0;
+    private long failed = 0;
+    private long missedDeadlines = 0;
+
+    private static class Entry implements Comparable<Entry> {
+        private final String hostname;
+        private final long expiry;
+        private final long refreshAt;
+        private final long sequence; // tie breaker so entries with the same refresh time are distinct
+
+        private Entry(String hostname, long expiry, long refreshAt, long sequence) {
+            this.hostname = hostname;
+            this.expiry = expiry;
+            this.refreshAt = refreshAt;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if( refreshAt != other.refreshAt ) {
+                return refreshAt < other.refreshAt ? -1 : 1;
+            }
+            if( sequence != other.sequence ) {
+                return sequence < other.sequence ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * @param validityMillis how long a saml assertion is valid after it is created
+     * @param refreshBeforeMillis how long before the expiry a host should be refreshed
+     * @param jitterMillis maximum random amount by which a refresh is moved earlier
+     * @param maxPerSecond maximum number of hosts returned by takeDue per second on average, or 0 for no limit
+     * @param maxBatch maximum number of hosts returned by one call to takeDue
+     * @param retryMillis how long after a failed refresh the host is retried the first time
+     * @param maxRetryMillis maximum time between retries of a failing host
+     * @param random
+     */
+    public RefreshSchedule(long validityMillis, long refreshBeforeMillis, long jitterMillis, double maxPerSecond, int maxBatch, long retryMillis, long maxRetryMillis, Random random) {
+        this.validityMillis = validityMillis;
+        this.refreshBeforeMillis = refreshBeforeMillis;
+        this.jitterMillis = jitterMillis;
+        this.maxPerSecond = maxPerSecond;
+        this.maxBatch = maxBatch;
+        this.retryMillis = retryMillis;
+        this.maxRetryMillis = maxRetryMillis;
+        this.random = random;
+        this.tokens = maxBatch;
+    }
+
+    /**
+     * Adds or replaces the schedule of a host.
+     *
+     * @param hostname
+     * @param lastAssertionCreated creation time of the host's most recent saml assertion, or null if the host does not have one and should be refreshed now
+     */
+    public synchronized void schedule(String hostname, Date lastAssertionCreated) {
+        long expiry;
+        long refreshAt;
+        if( lastAssertionCreated == null ) {
+            // no deadline to miss, but due now
+            expiry = Long.MAX_VALUE;
+            refreshAt = System.currentTimeMillis();
+        }
+        else {
+            expiry = lastAssertionCreated.getTime() + validityMillis;
+            refreshAt = expiry - refreshBeforeMillis - jitter();
+        }
+        Long retry = retryAt.get(hostname);
+        if( retry != null ) {
+            refreshAt = retry;
+        }
+        put(hostname, expiry, refreshAt);
+    }
+
+    /**
+     * Records that the host was refreshed at the given time and schedules its
+     * next refresh.
+     *
+     * @param hostname
+     * @param now
+     */
+    public synchronized void refreshed(String hostname, long now) {
+        taken.remove(hostname);
+        failures.remove(hostname);
+        retryAt.remove(hostname);
+        schedule(hostname, new Date(now));
+    }
+
+    /**
+     * Records that the refresh of the host failed and schedules a retry.
+     *
+     * @param hostname
+     * @param now
+     */
+    public synchronized void failed(String hostname, long now) {
+        Entry previous = taken.remove(hostname);
+        Integer count = failures.get(hostname);
+        count = count == null ? 1 : count + 1;
+        failures.put(hostname, count);
+        failed++;
+        long delay = Math.min(retryMillis << Math.min(count - 1, 20), maxRetryMillis);
+        retryAt.put(hostname, now + delay);
+        // the assertion still expires at the same time, so a late retry is a missed deadline too
+        put(hostname, previous == null ? Long.MAX_VALUE : previous.expiry, now + delay);
+    }
+
+    public synchronized void remove(String hostname) {
+        Entry entry = entries.remove(hostname);
+        if( entry != null ) {
+            queue.remove(entry);
+        }
+        taken.remove(hostname);
+        failures.remove(hostname);
+        retryAt.remove(hostname);
+    }
+
+    /**
+     * Removes the hosts that are not in the given collection, for example
+     * hosts that were deleted since the schedule was loaded.
+     *
+     * @param hostnames
+     */
+    public synchronized void retainAll(Collection<String> hostnames) {
+        HashSet<String> keep = new HashSet<>(hostnames);
+        Iterator<Entry> it = queue.iterator();
+        while(it.hasNext()) {
+            Entry entry = it.next();
+            if( !keep.contains(entry.hostname) ) {
+                it.remove();
+                entries.remove(entry.hostname);
+            }
+        }
+        taken.keySet().retainAll(keep);
+        failures.keySet().retainAll(keep);
+        retryAt.keySet().retainAll(keep);
+    }
+
+    /**
+     * Removes and returns the hosts whose refresh time has come, earliest
+     * first, limited by the maximum rate and batch size. The hosts are not
+     * in the schedule again until they are passed to refreshed or schedule.
+     *
+     * @param now
+     * @return a list of hostnames, possibly empty
+     */
+    public synchronized List<String> takeDue(long now) {
+        int limit = maxBatch;
+        if( maxPerSecond > 0 ) {
+            if( lastTokenUpdate >= 0 ) {
+                tokens = Math.min(maxBatch, tokens + (now - lastTokenUpdate) * maxPerSecond / 1000);
+            }
+            lastTokenUpdate = now;
+            limit = Math.min(limit, (int)tokens);
+        }
+        ArrayList<String> due = new ArrayList<>();
+        while(due.size() < limit && !queue.isEmpty() && queue.first().refreshAt <= now) {
+            Entry entry = queue.pollFirst();
+            entries.remove(entry.hostname);
+            taken.put(entry.hostname, entry);
+            if( entry.expiry < now ) {
+                missedDeadlines++;
+            }
+            due.add(entry.hostname);
+        }
+        if( maxPerSecond > 0 ) {
+            tokens -= due.size();
+        }
+        refreshed += due.size();
+        return due;
+    }
+
+    /**
+     * @return the time at which the next host is due, or -1 if the schedule is empty
+     */
+    public synchronized long getNextRefreshTime() {
+        if( queue.isEmpty() ) {
+            return -1;
+        }
+        return queue.first().refreshAt;
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * @param now
+     * @return how long the earliest due host has been waiting past its refresh time, or 0 if no host is overdue
+     */
+    public synchronized long getLagMillis(long now) {
+        if( queue.isEmpty() || queue.first().refreshAt >= now ) {
+            return 0;
+        }
+        return now - queue.first().refreshAt;
+    }
+
+    /**
+     * @return number of hosts returned by takeDue
+     */
+    public synchronized long getRefreshed() {
+        return refreshed;
+    }
+
+    /**
+     * @return number of refreshes passed to failed
+     */
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return number of hosts whose last refresh failed
+     */
+    public synchronized int getFailing() {
+        return failures.size();
+    }
+
+    /**
+     * @return number of hosts returned by takeDue after their assertion had already expired
+     */
+    public synchronized long getMissedDeadlines() {
+        return missedDeadlines;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("size=%d refreshed=%d failed=%d failing=%d lag=%dms missed deadlines=%d", size(), refreshed, failed, getFailing(), getLagMillis(System.currentTimeMillis()), missedDeadlines);
+    }
+
+    private void put(String hostname, long expiry, long refreshAt) {
+        Entry previous = entries.remove(hostname);
+        if( previous != null ) {
+            queue.remove(previous);
+        }
+        Entry entry = new Entry(hostname, expiry, refreshAt, sequence++);
+        entries.put(hostname, entry);
+        queue.add(entry);
+    }
+
+    private long jitter() {
+        if( jitterMillis <= 0 ) {
+            return 0;
+        }
+        return (long)(random.nextDouble() * jitterMillis);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.plugin;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class RefreshScheduleTest {
+
+    @Test
+    public void testEarliestExpiryFirst() {
+        RefreshSchedule schedule = new RefreshSchedule(1000, 100, 0, 0, 10, 0, 0, new Random());
+        schedule.schedule("host2", new Date(200));
+        schedule.schedule("host1", new Date(100));
+        schedule.schedule("host3", new Date(300));
+        assertEquals(1000, schedule.getNextRefreshTime());
+        assertTrue(schedule.takeDue(999).isEmpty());
+        assertEquals(Arrays.asList("host1", "host2"), schedule.takeDue(1100));
+        assertEquals(1, schedule.size());
+        assertEquals(0, schedule.getMissedDeadlines());
+        // host3 expires at 1300
+        assertEquals(Arrays.asList("host3"), schedule.takeDue(1400));
+        assertEquals(1, schedule.getMissedDeadlines());
+        assertEquals(-1, schedule.getNextRefreshTime());
+    }
+
+    @Test
+    public void testRefreshedReschedules() {
+        RefreshSchedule schedule = new RefreshSchedule(1000, 100, 0, 0, 10, 0, 0, new Random());
+        schedule.schedule("host1", new Date(0));
+        schedule.schedule("host1", new Date(500)); // replaces the first entry
+        assertEquals(1, schedule.size());
+        List<String> due = schedule.takeDue(1400);
+        assertEquals(Arrays.asList("host1"), due);
+        schedule.refreshed("host1", 1450);
+        assertEquals(2350, schedule.getNextRefreshTime());
+    }
+
+    @Test
+    public void testRateLimit() {
+        RefreshSchedule schedule = new RefreshSchedule(1000, 100, 0, 2, 4, 0, 0, new Random());
+        for(int i = 0; i < 12; i++) {
+            schedule.schedule("host" + i, null);
+        }
+        long now = System.currentTimeMillis();
+        assertEquals(4, schedule.takeDue(now).size());
+        assertEquals(0, schedule.takeDue(now).size());
+        assertEquals(2, schedule.takeDue(now + 1000).size());
+        // tokens do not accumulate beyond the batch size
+        assertEquals(4, schedule.takeDue(now + 60000).size());
+        assertTrue(schedule.getLagMillis(now + 60000) > 0);
+    }
+
+    @Test
+    public void testRetainAll() {
+        RefreshSchedule schedule = new RefreshSchedule(1000, 100, 50, 0, 10, 0, 0, new Random(1));
+        schedule.schedule("host1", new Date(0));
+        schedule.schedule("host2", new Date(0));
+        schedule.retainAll(Arrays.asList("host2", "host3"));
+        assertEquals(1, schedule.size());
+        long next = schedule.getNextRefreshTime();
+        assertTrue(next > 850 && next <= 900);
+        assertEquals(Arrays.asList("host2"), schedule.takeDue(900));
+    }
+
+    @Test
+    public void testFailedHostIsRetriedWithBackoff() {
+        RefreshSchedule schedule = new RefreshSchedule(1000, 100, 0, 0, 10, 50, 150, new Random());
+        schedule.schedule("host1", new Date(0));
+        assertEquals(Arrays.asList("host1"), schedule.takeDue(900));
+        schedule.failed("host1", 900);
+        assertEquals(950, schedule.getNextRefreshTime());
+        assertEquals(1, schedule.getFailing());
+        assertEquals(Arrays.asList("host1"), schedule.takeDue(950));
+        schedule.failed("host1", 950);
+        assertEquals(1050, schedule.getNextRefreshTime());
+        // reloading the schedule from the database does not move the retry earlier
+        schedule.schedule("host1", new Date(0));
+        assertEquals(1050, schedule.getNextRefreshTime());
+        // the assertion expired at 1000
+        assertEquals(Arrays.asList("host1"), schedule.takeDue(1050));
+        assertEquals(1, schedule.getMissedDeadlines());
+        schedule.failed("host1", 1050);
+        assertEquals(1200, schedule.getNextRefreshTime()); // at most 150 between retries
+        assertEquals(3, schedule.getFailed());
+    }
+
+    @Test
+    public void testReloadKeepsRetryOfFailingHost() {
+        RefreshSchedule schedule = new RefreshSchedule(1000, 100, 0, 0, 10, 50, 150, new Random());
+        schedule.schedule("host1", new Date(0));
+        assertEquals(Arrays.asList("host1"), schedule.takeDue(900));
+        schedule.failed("host1", 900);
+        // the failed attestation stored an error assertion created at 900
+        schedule.schedule("host1", new Date(900));
+        assertEquals(950, schedule.getNextRefreshTime());
+        assertEquals(Arrays.asList("host1"), schedule.takeDue(950));
+        schedule.failed("host1", 950);
+        schedule.schedule("host1", new Date(950));
+        assertEquals(1050, schedule.getNextRefreshTime());
+    }
+
+    @Test
+    public void testRefreshedClearsFailures() {
+        RefreshSchedule schedule = new RefreshSchedule(1000, 100, 0, 0, 10, 50, 150, new Random());
+        schedule.schedule("host1", new Date(0));
+        schedule.takeDue(900);
+        schedule.failed("host1", 900);
+        schedule.takeDue(950);
+        schedule.refreshed("host1", 960);
+        assertEquals(0, schedule.getFailing());
+        assertEquals(1860, schedule.getNextRefreshTime());
+        schedule.takeDue(1860);
+        schedule.failed("host1", 1860);
+        // the backoff starts over
+        assertEquals(1910, schedule.getNextRefreshTime());
+    }
+}
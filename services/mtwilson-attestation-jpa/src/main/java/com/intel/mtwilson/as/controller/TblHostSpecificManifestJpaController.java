@@ -54,6 +54,7 @@ public class TblHostSpecificManifestJpaController implements Serializable {
                 em.merge(moduleManifestID);
             }
             em.getTransaction().commit();
+            WhitelistVersion.hostSpecificManifestChanged(tblHostSpecificManifest.getHostID());
         } finally {
                 em.close();
         }
@@ -80,6 +81,7 @@ public class TblHostSpecificManifestJpaController implements Serializable {
                 em.merge(moduleManifestIDNew);
             }
             em.getTransaction().commit();
+            WhitelistVersion.hostSpecificManifestChanged(tblHostSpecificManifest.getHostID());
         } catch (Exception ex) {
             String msg = ex.getLocalizedMessage();
             if (msg == null || msg.length() == 0) {
@@ -110,8 +112,10 @@ public class TblHostSpecificManifestJpaController implements Serializable {
                 moduleManifestID.getTblHostSpecificManifestCollection().remove(tblHostSpecificManifest);
                 em.merge(moduleManifestID);
             }
+            int hostId = tblHostSpecificManifest.getHostID();
             em.remove(tblHostSpecificManifest);
             em.getTransaction().commit();
+            WhitelistVersion.hostSpecificManifestChanged(hostId);
         } finally {
                 em.close();
         }
@@ -198,6 +202,19 @@ public class TblHostSpecificManifestJpaController implements Serializable {
         }    	    	
     }
     
+    public List<TblHostSpecificManifest> findByHostIdPcrBank(int hostId, String pcrBank) {
+        EntityManager em = getEntityManager();
+        try {
+            Query query = em.createNamedQuery("TblHostSpecificManifest.findByHostIdPcrBank");
+            query.setParameter("hostID", hostId);
+            query.setParameter("pcrBank", pcrBank);
+
+            return (List<TblHostSpecificManifest>)query.getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
     public TblHostSpecificManifest findByModuleIdHostIdPcrBank(int hostId, int moduleID, String pcrBank) {
         EntityManager em = getEntityManager();
         try {
@@ -16,7 +16,9 @@ import com.intel.mtwilson.as.data.TblSamlAssertion;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import org.slf4j.Logger;
@@ -281,4 +283,24 @@ public class TblSamlAssertionJpaController implements Serializable {
             em.close();
         }
     }
+
+    /**
+     * Used by AutoRefreshTrust to build its refresh schedule.
+     * 
+     * @return the creation time of the most recent saml assertion of each host, by host name; the value is null for hosts without any saml assertion
+     */
+    public Map<String,Date> findLastCreatedTsByHostname() {
+        EntityManager em = getEntityManager();
+        try {
+            Query query = em.createNativeQuery("SELECT h.Name, MAX(t.created_ts) FROM mw_hosts as h LEFT JOIN mw_saml_assertion as t ON h.ID = t.host_id GROUP BY h.Name");
+            List<Object[]> results = query.getResultList();
+            HashMap<String,Date> map = new HashMap<String,Date>();
+            for (Object[] result : results) {
+                map.put((String)result[0], (Date)result[1]);
+            }
+            return map;
+        } finally {
+            em.close();
+        }
+    }
 }
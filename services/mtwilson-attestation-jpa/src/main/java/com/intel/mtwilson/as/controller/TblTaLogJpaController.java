@@ -12,7 +12,9 @@ import javax.persistence.Query;
 import javax.persistence.EntityNotFoundException;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
+import com.intel.mtwilson.as.data.TblHosts;
 import com.intel.mtwilson.as.data.TblModuleManifestLog;
+import com.intel.mtwilson.as.data.TblSamlAssertion;
 import com.intel.mtwilson.as.data.TblTaLog;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -65,6 +67,50 @@ public class TblTaLogJpaController implements Serializable {
         }
     }
 
+    public void createAll(Collection<TblTaLog> tblTaLogs, Collection<TblModuleManifestLog> tblModuleManifestLogs) {
+        createAll(tblTaLogs, tblModuleManifestLogs, new ArrayList<TblSamlAssertion>());
+    }
+
+    /**
+     * Creates all the given records in a single transaction. The ta log records
+     * are persisted first so the module manifest log records can refer to them.
+     * The saml assertions of the same attestations can be written in the same
+     * transaction.
+     * 
+     * @param tblTaLogs new records without ids
+     * @param tblModuleManifestLogs new records without ids, each referring to one of the tblTaLogs
+     * @param tblSamlAssertions new records without ids
+     */
+    public void createAll(Collection<TblTaLog> tblTaLogs, Collection<TblModuleManifestLog> tblModuleManifestLogs, Collection<TblSamlAssertion> tblSamlAssertions) {
+        EntityManager em = getEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (TblTaLog tblTaLog : tblTaLogs) {
+                if (tblTaLog.getTblModuleManifestLogCollection() == null) {
+                    tblTaLog.setTblModuleManifestLogCollection(new ArrayList<TblModuleManifestLog>());
+                }
+                em.persist(tblTaLog);
+            }
+            for (TblModuleManifestLog tblModuleManifestLog : tblModuleManifestLogs) {
+                em.persist(tblModuleManifestLog);
+            }
+            for (TblSamlAssertion tblSamlAssertion : tblSamlAssertions) {
+                TblHosts hostId = tblSamlAssertion.getHostId();
+                if (hostId != null) {
+                    hostId = em.getReference(hostId.getClass(), hostId.getId());
+                    tblSamlAssertion.setHostId(hostId);
+                }
+                em.persist(tblSamlAssertion);
+            }
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
     public void edit(TblTaLog tblTaLog) throws IllegalOrphanException, NonexistentEntityException, ASDataException {
         EntityManager em = getEntityManager();
         try {
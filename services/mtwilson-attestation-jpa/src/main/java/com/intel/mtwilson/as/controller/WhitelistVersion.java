@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.controller;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks in-memory version numbers for the whitelist (mw_mle, mw_pcr_manifest,
+ * mw_module_manifest) and for the host-specific manifests of each host, so that
+ * anything derived from those tables, such as compiled trust policies, can
+ * tell when it is out of date.
+ *
+ * The whitelist version is incremented by the whitelist business objects after
+ * they add, update, or delete an MLE, PCR, or module. The host-specific version
+ * of a host is incremented by TblHostSpecificManifestJpaController whenever a
+ * host-specific manifest record for that host is created, edited, or deleted.
+ *
+ * The versions are not persisted; they only need to be consistent within
+ * a single server process.
+ */
+public class WhitelistVersion {
+    private static final AtomicLong whitelistVersion = new AtomicLong(0);
+    private static final ConcurrentHashMap<Integer,AtomicLong> hostSpecificVersion = new ConcurrentHashMap<Integer,AtomicLong>();
+
+    private WhitelistVersion() { }
+
+    public static long getWhitelistVersion() {
+        return whitelistVersion.get();
+    }
+
+    public static void whitelistChanged() {
+        whitelistVersion.incrementAndGet();
+    }
+
+    public static long getHostSpecificVersion(Integer hostId) {
+        if( hostId == null ) { return 0; }
+        AtomicLong version = hostSpecificVersion.get(hostId);
+        if( version == null ) { return 0; }
+        return version.get();
+    }
+
+    public static void hostSpecificManifestChanged(Integer hostId) {
+        if( hostId == null ) { return; }
+        AtomicLong version = hostSpecificVersion.get(hostId);
+        if( version == null ) {
+            AtomicLong created = new AtomicLong(0);
+            version = hostSpecificVersion.putIfAbsent(hostId, created);
+            if( version == null ) { version = created; }
+        }
+        version.incrementAndGet();
+    }
+}
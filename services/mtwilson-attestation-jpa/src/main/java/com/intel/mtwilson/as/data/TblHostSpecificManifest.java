@@ -33,6 +33,7 @@ import org.eclipse.persistence.annotations.Customizer;
     @NamedQuery(name = "TblHostSpecificManifest.findById", query = "SELECT t FROM TblHostSpecificManifest t WHERE t.id = :id"),
     @NamedQuery(name = "TblHostSpecificManifest.findByHostID", query = "SELECT t FROM TblHostSpecificManifest t WHERE t.hostID = :hostID"),
     @NamedQuery(name = "TblHostSpecificManifest.findByModuleAndHostID", query = "SELECT t FROM TblHostSpecificManifest t WHERE t.hostID = :hostID AND t.moduleManifestID.id = :Module_Manifest_ID"),
+    @NamedQuery(name = "TblHostSpecificManifest.findByHostIdPcrBank", query = "SELECT t FROM TblHostSpecificManifest t WHERE t.hostID = :hostID AND t.pcrBank = :pcrBank"),
     @NamedQuery(name = "TblHostSpecificManifest.findByDigestValue", query = "SELECT t FROM TblHostSpecificManifest t WHERE t.digestValue = :digestValue")})
     @NamedQuery(name = "TblHostSpecificManifest.findByModuleIdHostIdPcrBank", query = "SELECT t FROM TblHostSpecificManifest t where t.hostID = :hostID AND t.moduleManifestID.id = :Module_Manifest_ID AND t.pcrBank = :pcrBank")
 public class TblHostSpecificManifest implements Serializable {
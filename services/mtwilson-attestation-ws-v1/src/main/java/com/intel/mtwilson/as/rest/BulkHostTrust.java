@@ -13,6 +13,10 @@ import com.intel.mtwilson.datatypes.TxtHostRecord;
 import com.intel.mtwilson.datatypes.TxtHostRecordList;
 import com.intel.mtwilson.launcher.ws.ext.V1;
 import com.intel.mtwilson.model.Nonce;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -25,6 +29,7 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 import org.apache.shiro.authz.annotation.RequiresPermissions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -134,6 +139,109 @@ public class BulkHostTrust {
                 return bulkHostTrustBO.getBulkTrustJson(hostSet, forceVerify);
         }
 
+        /**
+         * Same as getTrustSaml but sends the result of each host as soon as
+         * it is available instead of after all the hosts are done, followed
+         * by a Summary element with the names of the hosts that timed out.
+         * 
+         * REST Web Service Example: GET /hosts/bulk/trust/saml/stream?hosts=host_name_1
+         * ,host_name_2,host_name_3&force_verify=true
+         *
+         * @param hosts
+         * @param challengeHex
+         * @param forceVerify
+         * @param timeout
+         * @return
+         */
+        @GET
+        @Produces({MediaType.APPLICATION_XML})
+        @Path("/trust/saml/stream")
+        @RequiresPermissions("host_attestations:create,retrieve")
+        public StreamingOutput getTrustSamlStream(
+                @QueryParam("hosts") String hosts,
+                @QueryParam("challenge") String challengeHex,
+                @QueryParam("force_verify") @DefaultValue("false") final Boolean forceVerify,
+                @QueryParam("timeout") Integer timeout) {
+                final Set<String> hostSet = getHostSet(hosts);
+                final Nonce challenge = getChallenge(challengeHex);
+                final BulkHostTrustBO bulkHostTrustBO = new BulkHostTrustBO(getTimeout(timeout));
+                return new StreamingOutput() {
+                    @Override
+                    public void write(OutputStream output) throws IOException {
+                        Writer writer = new OutputStreamWriter(output, "UTF-8");
+                        bulkHostTrustBO.writeBulkTrustSaml(hostSet, forceVerify, challenge, writer);
+                    }
+                };
+        }
+
+        /**
+         * Same as getTrustJson but sends the result of each host as soon as
+         * it is available instead of after all the hosts are done. The
+         * response also has the number of hosts in Total and the names of
+         * the hosts that timed out in TimedOut.
+         * 
+         * REST Web Service Example: GET /hosts/bulk/trust/stream?hosts=host_name_1
+         * ,host_name_2,host_name_3&force_verify=true
+         *
+         * @param hosts
+         * @param challengeHex
+         * @param forceVerify
+         * @param timeout
+         * @return
+         */
+        @GET
+        @Produces({MediaType.APPLICATION_JSON})
+        @Path("/trust/stream")
+        @RequiresPermissions("host_attestations:create,retrieve")
+        public StreamingOutput getTrustJsonStream(
+                @QueryParam("hosts") String hosts,
+                @QueryParam("challenge") String challengeHex,
+                @QueryParam("force_verify") @DefaultValue("false") final Boolean forceVerify,
+                @QueryParam("timeout") Integer timeout) {
+                final Set<String> hostSet = getHostSet(hosts);
+                final Nonce challenge = getChallenge(challengeHex);
+                final BulkHostTrustBO bulkHostTrustBO = new BulkHostTrustBO(getTimeout(timeout));
+                return new StreamingOutput() {
+                    @Override
+                    public void write(OutputStream output) throws IOException {
+                        Writer writer = new OutputStreamWriter(output, "UTF-8");
+                        bulkHostTrustBO.writeBulkTrustJson(hostSet, forceVerify, challenge, writer);
+                    }
+                };
+        }
+
+        private Set<String> getHostSet(String hosts) {
+                ValidationUtil.validate(hosts);
+                if (hosts == null || hosts.length() == 0) {
+                        throw new ASException(com.intel.mtwilson.i18n.ErrorCode.AS_MISSING_INPUT,
+                                "hosts");
+                }
+                Set<String> hostSet = new HashSet<>();
+                for(String host : Arrays.asList(hosts.split(","))) {
+                    if( !host.trim().isEmpty() ) {
+                        hostSet.add(host.trim());
+                    }
+                }
+                return hostSet;
+        }
+
+        private Nonce getChallenge(String challengeHex) {
+                if( challengeHex == null || challengeHex.isEmpty() ) {
+                    return null;
+                }
+                if( !Digest.sha1().isValidHex(challengeHex) ) {
+                    throw new ASException(com.intel.mtwilson.i18n.ErrorCode.AS_INVALID_INPUT, "challenge");
+                }
+                return new Nonce(Digest.sha1().valueHex(challengeHex).getBytes());
+        }
+
+        private int getTimeout(Integer timeout) {
+                if (timeout == null) {
+                        return ASConfig.getConfiguration().getInt("com.intel.mountwilson.as.attestation.hostTimeout", 600);
+                }
+                return timeout;
+        }
+
         /**
          * This function support bulk host registration.
          *
@@ -15,6 +15,7 @@ import com.intel.mtwilson.as.rest.v2.model.HostAttestation;
 import com.intel.mtwilson.as.rest.v2.model.HostAttestationCollection;
 import com.intel.mtwilson.as.rest.v2.model.HostAttestationFilterCriteria;
 import com.intel.mtwilson.as.business.trust.HostTrustBO;
+import com.intel.mtwilson.as.business.trust.SamlAssertionCache;
 import com.intel.mtwilson.as.controller.TblHostsJpaController;
 import com.intel.mtwilson.as.data.TblSamlAssertion;
 import com.intel.mtwilson.as.rest.v2.model.HostAttestationLocator;
@@ -25,12 +26,19 @@ import com.intel.mtwilson.repository.RepositoryException;
 import com.intel.mtwilson.repository.RepositoryInvalidInputException;
 import com.intel.mtwilson.repository.RepositoryRetrieveException;
 import com.intel.mtwilson.repository.RepositorySearchException;
+import com.intel.mtwilson.threads.Attestation;
+import com.intel.mtwilson.threads.AttestationScheduler;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.apache.shiro.authz.annotation.RequiresPermissions;
 
 
@@ -44,6 +52,7 @@ public class HostAttestationRepository implements DocumentRepository<HostAttesta
     
     private static final int DEFAULT_CACHE_VALIDITY_SECS = 3600;
     private static final int CACHE_VALIDITY_SECS = ASConfig.getConfiguration().getInt("saml.validity.seconds", DEFAULT_CACHE_VALIDITY_SECS);
+    private static final int HOST_TIMEOUT_SECS = ASConfig.getConfiguration().getInt("com.intel.mountwilson.as.attestation.hostTimeout", 600);
         
     @Override
     @RequiresPermissions("host_attestations:search")    
@@ -58,15 +67,25 @@ public class HostAttestationRepository implements DocumentRepository<HostAttesta
                     hostAttestationCollection.getHostAttestations().add(new HostTrustBO().buildHostAttestation(tblHosts, tblSamlAssertion));
                 }
             } else {
+                SamlAssertionCache samlAssertionCache = SamlAssertionCache.getInstance();
                 TblHosts tblHosts;
                 if (criteria.hostUuid != null) {
-                    tblHosts = My.jpa().mwHosts().findHostByUuid(criteria.hostUuid.toString());
+                    tblHosts = samlAssertionCache.getHostByUuid(criteria.hostUuid.toString());
+                    if (tblHosts == null) {
+                        tblHosts = My.jpa().mwHosts().findHostByUuid(criteria.hostUuid.toString());
+                    }
                 } else if (criteria.aikSha1 != null && !criteria.aikSha1.isEmpty()) {
-                    tblHosts = My.jpa().mwHosts().findByAikSha1(criteria.aikSha1);
+                    tblHosts = samlAssertionCache.getHostByAikSha1(criteria.aikSha1);
+                    if (tblHosts == null) {
+                        tblHosts = My.jpa().mwHosts().findByAikSha1(criteria.aikSha1);
+                    }
                 } else if ( criteria.aikPublicKeySha1 != null && !criteria.aikPublicKeySha1.isEmpty()) {
                     tblHosts = My.jpa().mwHosts().findByAikPublicKeySha1(criteria.aikPublicKeySha1);
                 } else if (criteria.nameEqualTo != null && !criteria.nameEqualTo.isEmpty()) {
-                    tblHosts = My.jpa().mwHosts().findByName(criteria.nameEqualTo);
+                    tblHosts = samlAssertionCache.getHostByName(criteria.nameEqualTo);
+                    if (tblHosts == null) {
+                        tblHosts = My.jpa().mwHosts().findByName(criteria.nameEqualTo);
+                    }
                 } else {
                     tblHosts = null;  // no condition specified
                 }
@@ -74,7 +93,7 @@ public class HostAttestationRepository implements DocumentRepository<HostAttesta
                 if (tblHosts != null) {
                     if (criteria.numberOfDays == 0 && criteria.fromDate == null) {
                         log.debug("HostAttestation:Search - No additional criteria are specified. Retrieving the default valid SAML assertions.");
-                        List<TblSamlAssertion> tblSamlAssertionList = My.jpa().mwSamlAssertion().findListByHostAndExpiry(tblHosts.getName());
+                        List<TblSamlAssertion> tblSamlAssertionList = samlAssertionCache.findValid(tblHosts);
                         if (tblSamlAssertionList != null && !tblSamlAssertionList.isEmpty()) {
                             for (TblSamlAssertion tblSamlAssertion : tblSamlAssertionList) {
                                 hostAttestationCollection.getHostAttestations().add(new HostTrustBO().buildHostAttestation(tblHosts, tblSamlAssertion));
@@ -198,17 +217,17 @@ public class HostAttestationRepository implements DocumentRepository<HostAttesta
                 throw new RepositoryInvalidInputException(locator);
             }
             String challengeHex = item.getChallenge();
-            HostAttestation hostAttestation;
+            final Nonce challenge;
             if( challengeHex == null || challengeHex.isEmpty() ) {
-                hostAttestation = new HostTrustBO().getTrustWithSaml(obj, obj.getName(), item.getId().toString(), true);
+                challenge = null;
             }
             else {
                 if( !Digest.sha1().isValidHex(challengeHex) ) {
                     throw new RepositoryCreateException("Invalid challenge");
                 }
-                Nonce challenge = new Nonce(Digest.sha1().valueHex(challengeHex).getBytes());
-                hostAttestation = new HostTrustBO().getTrustWithSaml(obj, obj.getName(), item.getId().toString(), true, challenge);
+                challenge = new Nonce(Digest.sha1().valueHex(challengeHex).getBytes());
             }
+            HostAttestation hostAttestation = attest(obj, item.getId().toString(), challenge);
             // issue #4978 use specified nonce, if available
             item.setAikSha1(hostAttestation.getAikSha1());
             item.setChallenge(hostAttestation.getChallenge());
@@ -229,6 +248,35 @@ public class HostAttestationRepository implements DocumentRepository<HostAttesta
         }
     }
 
+    /**
+     * Runs the attestation in the interactive lane of the attestation
+     * scheduler so that it does not wait behind bulk and background
+     * attestations.
+     */
+    private HostAttestation attest(final TblHosts tblHosts, final String id, final Nonce challenge) throws Exception {
+        Callable<HostAttestation> task = new Callable<HostAttestation>() {
+            @Override
+            public HostAttestation call() throws Exception {
+                if( challenge == null ) {
+                    return new HostTrustBO().getTrustWithSaml(tblHosts, tblHosts.getName(), id, true);
+                }
+                return new HostTrustBO().getTrustWithSaml(tblHosts, tblHosts.getName(), id, true, challenge);
+            }
+        };
+        ExecutorService executor = Attestation.getScheduler().executor(AttestationScheduler.Lane.INTERACTIVE, AttestationScheduler.getCurrentClient());
+        Future<HostAttestation> future = executor.submit(task);
+        try {
+            return future.get(HOST_TIMEOUT_SECS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if( e.getCause() instanceof Exception ) {
+                throw (Exception)e.getCause();
+            }
+            throw e;
+        } finally {
+            future.cancel(true);
+        }
+    }
+
     @Override
     @RequiresPermissions("host_attestations:delete")    
     public void delete(HostAttestationLocator locator) {
@@ -8,6 +8,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intel.dcsg.cpg.validation.ValidationUtil;
 import com.intel.mtwilson.My;
+import com.intel.mtwilson.as.business.trust.SamlAssertionCache;
 import com.intel.mtwilson.as.controller.TblHostsJpaController;
 import com.intel.mtwilson.as.data.TblHosts;
 import com.intel.mtwilson.as.data.TblSamlAssertion;
@@ -96,7 +97,7 @@ public class HostAttestations extends AbstractJsonapiResource<HostAttestation, H
             } else return null;
             
             // since we have found the host with the specified criteria lets check if there is a valid cached saml assertion
-            TblSamlAssertion tblSamlAssertion = My.jpa().mwSamlAssertion().findByHostAndExpiry(obj.getName()); //.getId().toString());
+            TblSamlAssertion tblSamlAssertion = SamlAssertionCache.getInstance().findLatest(obj); //.getId().toString());
             if(tblSamlAssertion != null){
                 if(tblSamlAssertion.getErrorMessage() == null|| tblSamlAssertion.getErrorMessage().isEmpty()) {
                     log.debug("Found assertion in cache. Expiry time : " + tblSamlAssertion.getExpiryTs());
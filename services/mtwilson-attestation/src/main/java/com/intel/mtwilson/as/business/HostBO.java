@@ -26,6 +26,7 @@ import com.intel.mtwilson.as.data.TblSamlAssertion;
 import java.io.IOException;
 import com.intel.mtwilson.as.data.TblTaLog;
 import com.intel.mtwilson.as.ASComponentFactory;
+import com.intel.mtwilson.as.business.trust.SamlAssertionCache;
 import com.intel.dcsg.cpg.crypto.CryptographyException;
 import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
 import com.intel.dcsg.cpg.crypto.RsaUtil;
@@ -451,6 +452,10 @@ public class HostBO {
                         if (tblHosts == null) {
                                 throw new ASException(ErrorCode.AS_HOST_NOT_FOUND, host.getHostName().toString());
                         }
+                        // the host name, AIK, and whitelists may change, so cached assertions no longer apply
+                        SamlAssertionCache.getInstance().remove(tblHosts.getName());
+                        // the connection string or TLS policy may change, so pooled connections to the host no longer apply
+                        new HostAgentFactory().closeConnections(tblHosts.getAddOnConnectionInfo());
 
                         TblMle  biosMleId = findBiosMleForHost(host); 
                         TblMle  vmmMleId = findVmmMleForHost(host); 
@@ -584,6 +589,7 @@ public class HostBO {
                         
 			My.jpa().mwHosts().edit(tblHosts);
 			log.info("Updated host: {}", tblHosts.getName());
+                        SamlAssertionCache.getInstance().remove(tblHosts.getName());
                         
                         if(tblHostSpecificManifests != null){
                             log.debug("Updating Host Specific Manifest in database");
@@ -629,11 +635,13 @@ public class HostBO {
                         deleteTALogs(tblHosts.getId());
 
                         deleteSAMLAssertions(tblHosts);
+                        SamlAssertionCache.getInstance().remove(tblHosts.getName());
                         
                         deletePrivateTlsPolicy(tblHosts);
 
                         My.jpa().mwHosts().destroy(tblHosts.getId());
                         log.info("Deleted host: {}", hostName.toString());
+                        new HostAgentFactory().closeConnections(tblHosts.getAddOnConnectionInfo());
                         
                         // Now that the host is deleted, we need to remove any asset tag certificate mapped to this host
                         unmapAssetTagCertFromHost(tblHosts.getId(), tblHosts.getName());
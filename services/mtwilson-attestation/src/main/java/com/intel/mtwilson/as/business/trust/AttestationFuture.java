@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mtwilson.threads.AttestationScheduler;
+import java.util.Queue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The attestation of one host in a bulk request. It is added to the
+ * completed queue when it finishes or is cancelled.
+ *
+ * When the attestation waits for an asynchronous call to the host, the call
+ * is set with setRequest so cancelling the attestation also cancels the
+ * call, and resume schedules the rest of the attestation when the call
+ * finishes.
+ *
+ * @param <T> the task
+ */
+class AttestationFuture<T> extends FutureTask<T> {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttestationFuture.class);
+    private final Queue<? super AttestationFuture<T>> completed;
+    private volatile Future<?> request = null;
+
+    AttestationFuture(Runnable task, T result, Queue<? super AttestationFuture<T>> completed) {
+        super(task, result);
+        this.completed = completed;
+    }
+
+    /**
+     * @param request the asynchronous call to the host, cancelled if this attestation is cancelled
+     */
+    void setRequest(Future<?> request) {
+        this.request = request;
+        if (isCancelled()) {
+            request.cancel(true);
+        }
+    }
+
+    /**
+     * Cancels the attestation before the call to the host, so that the
+     * callback of the call sees that the attestation is done and does not
+     * resume it.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        Future<?> pending = request;
+        if (cancelled && pending != null) {
+            pending.cancel(true);
+        }
+        return cancelled;
+    }
+
+    /**
+     * Called on a thread of the HTTP client when the call to the host has
+     * finished. Does not block: the rest of the attestation runs on an
+     * attestation thread. If the scheduler is shut down the attestation is
+     * cancelled, and the host is reported as timed out.
+     */
+    void resume(AttestationScheduler scheduler, AttestationScheduler.Lane lane, String client) {
+        if (isDone()) {
+            return; // cancelled after the timeout
+        }
+        try {
+            scheduler.resume(lane, client, this);
+        } catch (RejectedExecutionException e) {
+            log.debug("Cannot resume attestation: {}", e.getMessage());
+            cancel(false);
+        }
+    }
+
+    @Override
+    protected void done() {
+        completed.add(this);
+    }
+}
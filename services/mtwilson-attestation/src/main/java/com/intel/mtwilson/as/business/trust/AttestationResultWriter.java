@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mtwilson.My;
+import com.intel.mtwilson.as.controller.TblTaLogJpaController;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Writes the results of attestations (mw_ta_log, mw_module_manifest_log, and
+ * mw_saml_assertion records) to the database.
+ *
+ * In sync mode, which is the default, each result is written on the calling
+ * thread before the attestation returns, as it always was.
+ *
+ * In async mode the result is added to a bounded queue and the attestation
+ * returns immediately. A background thread takes up to batch.size results from
+ * the queue at a time, from any number of hosts, and writes them in a single
+ * transaction. When the queue is full the caller waits up to offer.timeout
+ * milliseconds for space and then writes its own result, so a slow database
+ * slows down attestations instead of dropping results. If the transaction of
+ * a batch fails, each result in it is written again in its own transaction.
+ *
+ * Because queued results are not yet in the database, readers of those tables
+ * such as the saml assertion cache lookups may not see the latest result
+ * until it is written. Call flush() where that matters; AutoRefreshTrust
+ * calls it before looking for hosts to refresh when
+ * mtwilson.attestation.write.flush.before.refresh is true.
+ *
+ * The Attestation listener calls shutdown() when the application stops, which
+ * writes the queued results while the database is still available. Results
+ * written after that are written on the calling thread.
+ *
+ * Configuration:
+ * mtwilson.attestation.write.mode sync or async (default sync)
+ * mtwilson.attestation.write.queue.size maximum number of queued results (default 1000)
+ * mtwilson.attestation.write.batch.size maximum number of results written in one transaction (default 100)
+ * mtwilson.attestation.write.offer.timeout milliseconds to wait for space in a full queue (default 5000)
+ * mtwilson.attestation.write.flush.before.refresh (default true)
+ * mtwilson.attestation.write.flush.timeout milliseconds to wait for the queue to be written in flush() (default 60000)
+ */
+public class AttestationResultWriter {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttestationResultWriter.class);
+    private static AttestationResultWriter instance = null;
+
+    private final boolean async;
+    private final int batchSize;
+    private final long offerTimeoutMillis;
+    private final long flushTimeoutMillis;
+    private final boolean flushBeforeRefresh;
+    private final LinkedBlockingQueue<Pending> queue;
+    private final Object lock = new Object();
+    private int pending = 0; // queued or being written; guarded by lock
+    private boolean stopped = false; // guarded by lock
+    private Thread worker = null;
+    private final AtomicLong written = new AtomicLong(0);
+    private final AtomicLong rowsWritten = new AtomicLong(0);
+    private final AtomicLong batches = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong callerWrites = new AtomicLong(0);
+    private volatile long lastBatchLagMillis = 0;
+    private volatile long lastBatchMillis = 0;
+
+    private static class Pending {
+        private final TrustLogBatch trustLogs;
+        private final long queued;
+
+        private Pending(TrustLogBatch trustLogs) {
+            this.trustLogs = trustLogs;
+            this.queued = System.currentTimeMillis();
+        }
+    }
+
+    public AttestationResultWriter(boolean async, int queueSize, int batchSize, long offerTimeoutMillis, long flushTimeoutMillis, boolean flushBeforeRefresh) {
+        this.async = async;
+        this.batchSize = batchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.flushTimeoutMillis = flushTimeoutMillis;
+        this.flushBeforeRefresh = flushBeforeRefresh;
+        this.queue = new LinkedBlockingQueue<Pending>(queueSize);
+    }
+
+    public static synchronized AttestationResultWriter getInstance() {
+        if( instance == null ) {
+            Configuration config = My.configuration().getConfiguration();
+            boolean async = "async".equalsIgnoreCase(config.getString("mtwilson.attestation.write.mode", "sync"));
+            int queueSize = config.getInt("mtwilson.attestation.write.queue.size", 1000);
+            int batchSize = config.getInt("mtwilson.attestation.write.batch.size", 100);
+            long offerTimeout = config.getLong("mtwilson.attestation.write.offer.timeout", 5000);
+            long flushTimeout = config.getLong("mtwilson.attestation.write.flush.timeout", 60000);
+            boolean flushBeforeRefresh = config.getBoolean("mtwilson.attestation.write.flush.before.refresh", true);
+            log.debug("Creating attestation result writer async={} queue size={} batch size={}", async, queueSize, batchSize);
+            instance = new AttestationResultWriter(async, queueSize, batchSize, offerTimeout, flushTimeout, flushBeforeRefresh);
+        }
+        return instance;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public boolean isFlushBeforeRefresh() {
+        return flushBeforeRefresh;
+    }
+
+    /**
+     * The caller must not modify the records after calling this method.
+     *
+     * @param trustLogs the records of one attestation
+     * @throws IOException if the records are written on the calling thread and the database is not available
+     */
+    public void write(TrustLogBatch trustLogs) throws IOException {
+        if( trustLogs.size() == 0 ) {
+            return;
+        }
+        if( !async ) {
+            trustLogs.flush(getTaLogController());
+            return;
+        }
+        // the check and the count are made together so shutdown either waits for this result or it is written here
+        boolean stopping;
+        synchronized(lock) {
+            stopping = stopped;
+            if( !stopping ) {
+                pending++;
+            }
+        }
+        if( stopping ) {
+            callerWrites.incrementAndGet();
+            trustLogs.flush(getTaLogController());
+            return;
+        }
+        startWorker();
+        boolean queued = false;
+        try {
+            queued = queue.offer(new Pending(trustLogs), offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            if( !queued ) {
+                done(1);
+            }
+        }
+        if( !queued ) {
+            log.warn("Attestation result queue is full, writing result on the calling thread");
+            callerWrites.incrementAndGet();
+            trustLogs.flush(getTaLogController());
+        }
+    }
+
+    /**
+     * Writes the queued results and stops the background thread. Results
+     * written after this are written on the calling thread.
+     *
+     * @return true if the queue was written, false if the flush timeout was reached first
+     */
+    public boolean shutdown() {
+        if( !async ) {
+            return true;
+        }
+        synchronized(lock) {
+            stopped = true;
+        }
+        boolean flushed = flush();
+        Thread thread;
+        synchronized(this) {
+            thread = worker;
+        }
+        if( !flushed ) {
+            // the writer may still be in a transaction, so it is left to finish on its own
+            log.error("Attestation result writer stopped with {} results not yet written", getQueueDepth());
+        }
+        else if( thread != null ) {
+            thread.interrupt();
+        }
+        log.info("Attestation result writer stopped: {}", this);
+        return flushed;
+    }
+
+    /**
+     * @return the controller used to write the records
+     * @throws IOException if the database is not available
+     */
+    protected TblTaLogJpaController getTaLogController() throws IOException {
+        return My.jpa().mwTaLog();
+    }
+
+    /**
+     * Waits until the queue is empty and every queued result has been written,
+     * or until the flush timeout.
+     *
+     * @return true if the queue was written, false if the timeout was reached first
+     */
+    public boolean flush() {
+        if( !async ) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + flushTimeoutMillis;
+        synchronized(lock) {
+            while(pending > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if( remaining <= 0 ) {
+                    log.warn("Timeout waiting for {} attestation results to be written", pending);
+                    return false;
+                }
+                try {
+                    lock.wait(remaining);
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void done(int count) {
+        synchronized(lock) {
+            pending -= count;
+            if( pending == 0 ) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private synchronized void startWorker() {
+        if( worker != null ) {
+            return;
+        }
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while(true) {
+                    ArrayList<Pending> batch = new ArrayList<Pending>();
+                    try {
+                        batch.add(queue.take());
+                    }
+                    catch(InterruptedException e) {
+                        log.debug("Attestation result writer interrupted");
+                        return;
+                    }
+                    queue.drainTo(batch, batchSize - 1);
+                    try {
+                        writeBatch(batch);
+                    }
+                    finally {
+                        done(batch.size());
+                    }
+                }
+            }
+        }, "attestation-result-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void writeBatch(List<Pending> batch) {
+        long start = System.currentTimeMillis();
+        TrustLogBatch combined = new TrustLogBatch();
+        for(Pending item : batch) {
+            combined.addAll(item.trustLogs);
+        }
+        int rows = combined.size();
+        int failed = 0;
+        try {
+            combined.flush(getTaLogController());
+        }
+        catch(Exception e) {
+            // write each result separately so one bad result does not prevent the others from being written;
+            // the records are copied because the failed transaction may have changed them
+            log.error("Cannot write {} attestation results in one transaction, writing them separately", batch.size(), e);
+            rows = 0;
+            for(Pending item : batch) {
+                try {
+                    int size = item.trustLogs.size();
+                    item.trustLogs.copy().flush(getTaLogController());
+                    rows += size;
+                }
+                catch(Exception e2) {
+                    log.error("Cannot write attestation result", e2);
+                    failed++;
+                }
+            }
+        }
+        long end = System.currentTimeMillis();
+        written.addAndGet(batch.size() - failed);
+        failures.addAndGet(failed);
+        rowsWritten.addAndGet(rows);
+        batches.incrementAndGet();
+        lastBatchLagMillis = end - batch.get(0).queued;
+        lastBatchMillis = end - start;
+        log.debug("performance: wrote {} attestation results with {} records in {}ms, lag {}ms, queue depth {}", batch.size(), rows, lastBatchMillis, lastBatchLagMillis, queue.size());
+    }
+
+    /**
+     * @return number of results waiting in the queue
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return age in milliseconds of the oldest result in the queue, or 0 if the queue is empty
+     */
+    public long getLagMillis() {
+        Pending oldest = queue.peek();
+        if( oldest == null ) {
+            return 0;
+        }
+        return System.currentTimeMillis() - oldest.queued;
+    }
+
+    /**
+     * @return time in milliseconds between queueing the oldest result of the last batch and writing it
+     */
+    public long getLastBatchLagMillis() {
+        return lastBatchLagMillis;
+    }
+
+    public long getLastBatchMillis() {
+        return lastBatchMillis;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return number of results written by the caller because the queue was full
+     */
+    public long getCallerWrites() {
+        return callerWrites.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queue=%d lag=%dms written=%d rows=%d batches=%d failures=%d callerWrites=%d", getQueueDepth(), getLagMillis(), getWritten(), getRowsWritten(), getBatches(), getFailures(), getCallerWrites());
+    }
+}
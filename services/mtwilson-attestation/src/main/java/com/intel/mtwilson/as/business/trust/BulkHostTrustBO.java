@@ -4,35 +4,93 @@
  */
 package com.intel.mtwilson.as.business.trust;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intel.mountwilson.as.common.ASException;
+import com.intel.mtwilson.My;
+import com.intel.mtwilson.agent.AsyncHostAgent;
+import com.intel.mtwilson.agent.HostAgent;
+import com.intel.mtwilson.agent.HostAgentCallback;
 import com.intel.mtwilson.datatypes.BulkHostTrustResponse;
 import com.intel.mtwilson.i18n.ErrorCode;
 import com.intel.mtwilson.datatypes.HostTrust;
 import com.intel.mtwilson.model.Nonce;
+import com.intel.mtwilson.model.PcrManifest;
+import com.intel.mtwilson.saml.SAMLSignature;
 import com.intel.mtwilson.threads.Attestation;
+import com.intel.mtwilson.threads.AttestationScheduler;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * When forceVerify is set, hosts whose agent implements AsyncHostAgent are
+ * attested in two steps so that the attestation threads do not wait for the
+ * trust agents: an attestation thread creates the agent and starts retrieving
+ * the PCR manifest, and when the manifest arrives the rest of the attestation
+ * (policies, saml, database) is scheduled in the same lane. Other hosts are
+ * attested in one step as before.
+ *
+ * The trust agent client still uses a blocking HTTP connector, so the calls
+ * to the trust agents run on the small shared pool of TrustAgentClient and
+ * hosts beyond its size wait in its queue. Until a non-blocking connector is
+ * configured the two-step path is off by default.
+ *
+ * Configuration:
+ * mtwilson.bulktrust.async.enabled (default false)
+ * mtwilson.bulktrust.async.max maximum number of hosts waiting for their trust agent, for all requests; when it is reached, hosts are attested in one step (default 1000)
  *
  * @author jbuhacoff
  */
 public class BulkHostTrustBO {
 
     private Logger log = LoggerFactory.getLogger(getClass());
+    private static Semaphore asyncPermits = null;
+    private static boolean asyncEnabled = true;
 //    private HostTrustBO hostTrustBO = ASComponentFactory.getHostTrustBO(); 
     private int timeout;
+    private AttestationScheduler.Lane lane;
+    private String client;
 
     public BulkHostTrustBO(int timeout) {
+        this(timeout, AttestationScheduler.Lane.BULK);
+    }
+
+    /**
+     * @param timeout in seconds
+     * @param lane the attestation scheduler lane for the hosts of this request; the client is the current Shiro subject, if any
+     */
+    public BulkHostTrustBO(int timeout, AttestationScheduler.Lane lane) {
         this.timeout = timeout;
+        this.lane = lane;
+        this.client = AttestationScheduler.getCurrentClient();
+    }
+
+    /**
+     * @return the permits for hosts waiting for their trust agent, or null if asynchronous attestation is disabled
+     */
+    private static synchronized Semaphore getAsyncPermits() {
+        if( asyncPermits == null && asyncEnabled ) {
+            Configuration config = My.configuration().getConfiguration();
+            asyncEnabled = config.getBoolean("mtwilson.bulktrust.async.enabled", false);
+            asyncPermits = new Semaphore(config.getInt("mtwilson.bulktrust.async.max", 1000));
+        }
+        return asyncEnabled ? asyncPermits : null;
     }
 
     public String getBulkTrustSaml(Set<String> hosts, boolean forceVerify) {
@@ -41,7 +99,11 @@ public class BulkHostTrustBO {
 
     public String getBulkTrustSaml(Set<String> hosts, boolean forceVerify, Nonce challenge) {
         try {
-            log.debug("getBulkTrustSaml started at {}", System.currentTimeMillis());
+            long started = System.currentTimeMillis();
+            log.debug("getBulkTrustSaml started at {}", started);
+            SAMLSignature signer = getSigner();
+            long signaturesBefore = signer == null ? 0 : signer.getSignatures();
+            long signingMillisBefore = signer == null ? 0 : signer.getSigningMillis();
             Set<HostQuoteSaml> tasks = new HashSet<>();
             for (String host : hosts) {
                 HostQuoteSaml task = new HostQuoteSaml(host, forceVerify, challenge);
@@ -49,7 +111,7 @@ public class BulkHostTrustBO {
             }
             
             log.debug("getBulkTrustSaml invokeAll with timeout: {} seconds", timeout);
-            Attestation.getExecutor().invokeAll(tasks, timeout, TimeUnit.SECONDS);
+            invokeInCompletionOrder(tasks, new ResultsInTasks<HostQuoteSaml>());
             List<String> results = new ArrayList<>();
             for (HostQuoteSaml task : tasks) {
                 // Bug:547 - Since the comment mentioned that the return value will not be used and the java.util.concurrent.TimeoutException was being thrown
@@ -67,7 +129,15 @@ public class BulkHostTrustBO {
             }
 
             String report = String.format("<Hosts>%s</Hosts>", StringUtils.join(results, ""));
-            log.debug("getBulkTrustSaml finished at {}", System.currentTimeMillis());
+            long finished = System.currentTimeMillis();
+            log.debug("getBulkTrustSaml finished at {}", finished);
+            // all the hosts are signed with the shared signer, in parallel on the attestation threads; other requests signing
+            // at the same time are included in the counts, so the aggregate rate is the throughput of the server during this request
+            if (signer != null) {
+                long signed = signer.getSignatures() - signaturesBefore;
+                double aggregate = finished > started ? signed * 1000.0 / (finished - started) : 0;
+                log.debug("performance: getBulkTrustSaml signed {} assertions in {}ms of signing time, {} signatures per second on all threads, {} per second per thread", signed, signer.getSigningMillis() - signingMillisBefore, String.format("%.1f", aggregate), String.format("%.1f", signer.getSignaturesPerSecondPerThread()));
+            }
             return report;
         } catch (Exception ex) {
             // throw new ASException(ex);
@@ -78,6 +148,260 @@ public class BulkHostTrustBO {
         }
     }
 
+    /**
+     * Attests the hosts and saves a new saml assertion for each of them, like
+     * getBulkTrustSaml with forceVerify, but returns which hosts succeeded
+     * instead of the assertions.
+     *
+     * @param hosts
+     * @return the hosts that were attested; hosts that failed or timed out are not included
+     */
+    public Set<String> refreshBulkTrustSaml(Set<String> hosts) {
+        try {
+            Set<HostQuoteSaml> tasks = new HashSet<>();
+            for (String host : hosts) {
+                tasks.add(new HostQuoteSaml(host, true, null));
+            }
+            invokeInCompletionOrder(tasks, new ResultsInTasks<HostQuoteSaml>());
+            HashSet<String> refreshed = new HashSet<>();
+            for (HostQuoteSaml task : tasks) {
+                if (task.getResult() != null && !task.isError()) {
+                    refreshed.add(task.hostname);
+                }
+            }
+            return refreshed;
+        } catch (Exception ex) {
+            log.error("Error during bulk host trust refresh.", ex);
+            throw new ASException(ErrorCode.AS_BULK_HOST_TRUST_ERROR, ex.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Same as getBulkTrustSaml but writes the result of each host as soon as
+     * it is available, in the order in which the hosts finish, instead of
+     * waiting for all the hosts. The hosts that did not finish within the
+     * timeout are written last with the AS_ASYNC_TIMEOUT error code, followed
+     * by a Summary element with the number of hosts and the names of the
+     * hosts that timed out:
+     * {@code <Hosts><Host>...</Host>...<Summary><Total>3</Total><TimedOut><Name>host3</Name></TimedOut></Summary></Hosts>}
+     * 
+     * The writer is flushed after each host so the response can be sent in
+     * chunks.
+     * 
+     * @param hosts
+     * @param forceVerify
+     * @param challenge may be null
+     * @param out
+     * @throws IOException if the writer fails, for example because the client disconnected; the hosts that did not finish yet are cancelled
+     */
+    public void writeBulkTrustSaml(Set<String> hosts, boolean forceVerify, Nonce challenge, final Writer out) throws IOException {
+        log.debug("writeBulkTrustSaml started at {}", System.currentTimeMillis());
+        ArrayList<HostQuoteSaml> tasks = new ArrayList<>();
+        for (String host : hosts) {
+            tasks.add(new HostQuoteSaml(host, forceVerify, challenge));
+        }
+        final BulkTrustSamlWriter response = new BulkTrustSamlWriter(out);
+        invokeInCompletionOrder(tasks, new TaskListener<HostQuoteSaml>() {
+            @Override
+            public void accepted() throws IOException {
+                response.start();
+            }
+
+            @Override
+            public void completed(HostQuoteSaml task) throws IOException {
+                response.completed(task.getResult() == null ? task.getTimeoutResult() : task.getResult());
+            }
+
+            @Override
+            public void timedOut(HostQuoteSaml task) throws IOException {
+                response.timedOut(task.getHostname(), task.getTimeoutResult());
+            }
+        });
+        response.finish(tasks.size());
+        log.debug("writeBulkTrustSaml finished at {} with {} of {} hosts timed out", System.currentTimeMillis(), response.getTimedOut().size(), tasks.size());
+    }
+
+    /**
+     * Same as getBulkTrustJson but writes the result of each host as soon as
+     * it is available, in the order in which the hosts finish. The output is
+     * a BulkHostTrustResponse with the additional properties Total and
+     * TimedOut, which has the names of the hosts that did not finish within
+     * the timeout:
+     * {@code {"Hosts":[...],"Total":3,"TimedOut":["host3"]}}
+     * 
+     * @param hosts
+     * @param forceVerify
+     * @param challenge may be null
+     * @param out
+     * @throws IOException if the writer fails, for example because the client disconnected; the hosts that did not finish yet are cancelled
+     */
+    public void writeBulkTrustJson(Set<String> hosts, boolean forceVerify, Nonce challenge, final Writer out) throws IOException {
+        ArrayList<HostQuoteJson> tasks = new ArrayList<>();
+        for (String host : hosts) {
+            tasks.add(new HostQuoteJson(host, forceVerify, challenge));
+        }
+        final BulkTrustJsonWriter response = new BulkTrustJsonWriter(out, new ObjectMapper());
+        invokeInCompletionOrder(tasks, new TaskListener<HostQuoteJson>() {
+            @Override
+            public void accepted() throws IOException {
+                response.start();
+            }
+
+            @Override
+            public void completed(HostQuoteJson task) throws IOException {
+                response.completed(task.getResult() == null ? task.getTimeoutResult() : task.getResult());
+            }
+
+            @Override
+            public void timedOut(HostQuoteJson task) throws IOException {
+                response.timedOut(task.getHostname(), task.getTimeoutResult());
+            }
+        });
+        response.finish(tasks.size());
+    }
+
+    private interface TaskListener<T> {
+        void accepted() throws IOException;
+        void completed(T task) throws IOException;
+        void timedOut(T task) throws IOException;
+    }
+
+    /**
+     * For callers that read the results from the tasks after all of them
+     * finished or timed out.
+     */
+    private static class ResultsInTasks<T> implements TaskListener<T> {
+        @Override
+        public void accepted() {
+        }
+
+        @Override
+        public void completed(T task) {
+        }
+
+        @Override
+        public void timedOut(T task) {
+        }
+    }
+
+    /**
+     * Runs the tasks in the lane of this request and calls the listener once
+     * the scheduler accepts them, then for each task as soon as it finishes.
+     * When the timeout is reached the remaining tasks are cancelled and the
+     * listener is called for each of them, in the order they were given. The
+     * listener is only called on the calling thread.
+     */
+    private <T extends HostQuote> void invokeInCompletionOrder(Collection<T> tasks, TaskListener<T> listener) throws IOException {
+        LinkedBlockingQueue<Future<T>> completed = new LinkedBlockingQueue<>();
+        LinkedHashMap<Future<T>, T> pending = new LinkedHashMap<>();
+        ArrayList<Runnable> futures = new ArrayList<>();
+        Semaphore permits = getAsyncPermits();
+        for (T task : tasks) {
+            AttestationFuture<T> future = new AttestationFuture<>(task, task, completed);
+            pending.put(future, task);
+            if (permits != null && task.forceVerify) {
+                futures.add(startAsync(task, future, permits));
+            } else {
+                futures.add(future);
+            }
+        }
+        // all the hosts are accepted by the scheduler or the request is rejected
+        try {
+            Attestation.getScheduler().executeAll(lane, client, futures);
+        } catch (RejectedExecutionException e) {
+            log.error("Bulk host trust request rejected: {}", e.getMessage());
+            throw new ASException(ErrorCode.AS_BULK_HOST_TRUST_ERROR, e.getClass().getSimpleName());
+        }
+        listener.accepted();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        try {
+            while (!pending.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                Future<T> done = completed.poll(remaining, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    break;
+                }
+                listener.completed(pending.remove(done));
+            }
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while waiting for hosts", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<T> future : pending.keySet()) {
+                future.cancel(true);
+            }
+        }
+        for (Map.Entry<Future<T>, T> entry : pending.entrySet()) {
+            if (entry.getKey().isDone() && !entry.getKey().isCancelled()) {
+                listener.completed(entry.getValue()); // finished just before it could be cancelled
+            } else {
+                listener.timedOut(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Runs on an attestation thread. Creates the agent for the host and, if
+     * it implements AsyncHostAgent, starts retrieving the PCR manifest and
+     * returns; the attestation is scheduled again when the manifest arrives.
+     * The agent remembers the manifest, or the error, so the attestation
+     * does not contact the host again. If the agent is synchronous, or too
+     * many hosts are already waiting for their trust agent, the host is
+     * attested now.
+     */
+    private <T extends HostQuote> Runnable startAsync(final T task, final AttestationFuture<T> future, final Semaphore permits) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (future.isDone() || !permits.tryAcquire()) {
+                    future.run();
+                    return;
+                }
+                boolean started = false;
+                try {
+                    HostAgent agent = task.getHostTrustBO().createHostAgent(task.hostname);
+                    if (agent instanceof AsyncHostAgent) {
+                        future.setRequest(((AsyncHostAgent) agent).getPcrManifestAsync(task.challenge, new HostAgentCallback<PcrManifest>() {
+                            @Override
+                            public void completed(PcrManifest result) {
+                                permits.release();
+                                future.resume(Attestation.getScheduler(), lane, client);
+                            }
+
+                            @Override
+                            public void failed(Throwable e) {
+                                permits.release();
+                                future.resume(Attestation.getScheduler(), lane, client);
+                            }
+                        }));
+                        started = true;
+                    }
+                } catch (Exception e) {
+                    // the attestation looks up the host again and reports the error
+                    log.debug("Cannot start asynchronous attestation of {}: {}", task.hostname, e.toString());
+                } finally {
+                    if (!started) {
+                        permits.release();
+                        future.run();
+                    }
+                }
+            }
+        };
+    }
+
+    private SAMLSignature getSigner() {
+        try {
+            return Attestation.getSamlGenerator().getSignatureGenerator();
+        } catch (Throwable e) {
+            // cached results can still be returned without a signer
+            log.debug("SAML signer is not available", e);
+            return null;
+        }
+    }
+
     public BulkHostTrustResponse getBulkTrustJson(Set<String> hosts, boolean forceVerify) {
         return getBulkTrustJson(hosts, forceVerify, null);
     }
@@ -87,24 +411,16 @@ public class BulkHostTrustBO {
 
             Set<HostQuoteJson> tasks = new HashSet<HostQuoteJson>();
 //            ExecutorService scheduler = Executors.newFixedThreadPool(maxThreads);
-            ArrayList<Future<?>> taskStatus = new ArrayList<Future<?>>();
 
             List<HostTrust> results = new ArrayList<HostTrust>();
 
             for (String host : hosts) {
                 HostQuoteJson task = new HostQuoteJson(host, forceVerify, challenge);
                 tasks.add(task);
-                Future<?> status = Attestation.getExecutor().submit(task);
-                taskStatus.add(status);
             }
 
-            for (Future<?> status : taskStatus) {
-                try {
-                    status.get(timeout, TimeUnit.SECONDS); // return value will always be null because we submitted "Runnable" tasks
-                } catch (Exception e) {
-                    log.error("Error while waiting for task to complete: {}", e);
-                }
-            }
+            // all the hosts are accepted by the scheduler or the request is rejected; hosts still running after the timeout are cancelled
+            invokeInCompletionOrder(tasks, new ResultsInTasks<HostQuoteJson>());
 
 //            scheduler.shutdown();
 
@@ -140,20 +456,47 @@ public class BulkHostTrustBO {
         }
     }
 
-    private class HostQuoteSaml implements Runnable, Callable<String> {
+    private abstract class HostQuote implements Runnable {
 
-        private String hostname = null; // example: "10.1.71.174"
-        private boolean forceVerify;
-        private String result = null;
-        private boolean isError = false;
-        private Nonce challenge = null;
+        protected String hostname = null; // example: "10.1.71.174"
+        protected boolean forceVerify;
+        protected boolean isError = false;
+        protected Nonce challenge = null;
+        private HostTrustBO hostTrustBO = null;
 
-        public HostQuoteSaml(String hostname, boolean forceVerify, Nonce challenge) {
+        public HostQuote(String hostname, boolean forceVerify, Nonce challenge) {
             this.hostname = hostname;
             this.forceVerify = forceVerify;
             this.challenge = challenge;
         }
 
+        /**
+         * @return the HostTrustBO for this host, which has the host agent if it was created by startAsync
+         */
+        protected HostTrustBO getHostTrustBO() {
+            if (hostTrustBO == null) {
+                hostTrustBO = new HostTrustBO();
+            }
+            return hostTrustBO;
+        }
+
+        public boolean isError() {
+            return isError;
+        }
+
+        public String getHostname() {
+            return hostname;
+        }
+    }
+
+    private class HostQuoteSaml extends HostQuote implements Callable<String> {
+
+        private String result = null;
+
+        public HostQuoteSaml(String hostname, boolean forceVerify, Nonce challenge) {
+            super(hostname, forceVerify, challenge);
+        }
+
         @Override
         public void run() {
             if (isError()) {
@@ -161,36 +504,28 @@ public class BulkHostTrustBO {
             } // avoid clobbering previous error
             try {
 //        HostBO hostBO = new HostBO();
-                HostTrustBO hostTrustBO = new HostTrustBO();
+                HostTrustBO hostTrustBO = getHostTrustBO();
 //        hostTrustBO.setHostBO(hostBO);
 
                 String saml = hostTrustBO.getTrustWithSaml(hostname, forceVerify, challenge);
-                result = String.format("<Host><Name>%s</Name><ErrorCode>%s</ErrorCode><Assertion><![CDATA[%s]]></Assertion></Host>", hostname, ErrorCode.OK.toString(), saml);
+                result = String.format("<Host><Name>%s</Name><ErrorCode>%s</ErrorCode><Assertion><![CDATA[%s]]></Assertion></Host>", BulkTrustSamlWriter.escape(hostname), ErrorCode.OK.toString(), saml);
             } catch (ASException e) {
                 isError = true;
-                result = String.format("<Host><Name>%s</Name><ErrorCode>%s</ErrorCode><ErrorMessage>%s</ErrorMessage></Host>", hostname, e.getErrorCode().toString(), e.getErrorMessage());
+                result = String.format("<Host><Name>%s</Name><ErrorCode>%s</ErrorCode><ErrorMessage>%s</ErrorMessage></Host>", BulkTrustSamlWriter.escape(hostname), e.getErrorCode().toString(), BulkTrustSamlWriter.escape(e.getErrorMessage()));
             } catch (Exception e) {
                 isError = true;
                 // result = String.format("<Host><Name>%s</Name><ErrorCode>%s</ErrorCode><ErrorMessage>%s</ErrorMessage></Host>", hostname, ErrorCode.UNKNOWN_ERROR.toString(), e.getLocalizedMessage());
                 result = String.format("<Host><Name>%s</Name><ErrorCode>%s</ErrorCode><ErrorMessage>%s</ErrorMessage></Host>",
-                        hostname, ErrorCode.AS_HOST_TRUST_ERROR.toString(), String.format(ErrorCode.AS_HOST_TRUST_ERROR.getMessage(), e.getClass().getSimpleName()));
+                        BulkTrustSamlWriter.escape(hostname), ErrorCode.AS_HOST_TRUST_ERROR.toString(), String.format(ErrorCode.AS_HOST_TRUST_ERROR.getMessage(), e.getClass().getSimpleName()));
             }
         }
 
-        public boolean isError() {
-            return isError;
-        }
-
         public String getResult() {
             return result;
         }
 
-        public String getHostname() {
-            return hostname;
-        }
-
         public String getTimeoutResult() {
-            return String.format("<Host><Name>%s</Name><ErrorCode>%s</ErrorCode><ErrorMessage>%s</ErrorMessage></Host>", hostname, ErrorCode.AS_ASYNC_TIMEOUT.toString(), "Exceeded timeout of " + timeout + " seconds");
+            return String.format("<Host><Name>%s</Name><ErrorCode>%s</ErrorCode><ErrorMessage>%s</ErrorMessage></Host>", BulkTrustSamlWriter.escape(hostname), ErrorCode.AS_ASYNC_TIMEOUT.toString(), "Exceeded timeout of " + timeout + " seconds");
         }
 
         @Override
@@ -200,18 +535,12 @@ public class BulkHostTrustBO {
         }
     }
 
-    private class HostQuoteJson implements Runnable {
+    private class HostQuoteJson extends HostQuote {
 
-        private String hostname = null; // example: "10.1.71.174"
-        private boolean forceVerify;
         private HostTrust result = null;
-        private boolean isError = false;
-        private Nonce challenge = null;
 
         public HostQuoteJson(String hostname, boolean forceVerify, Nonce challenge) {
-            this.hostname = hostname;
-            this.forceVerify = forceVerify;
-            this.challenge = challenge;
+            super(hostname, forceVerify, challenge);
         }
 
         @Override
@@ -220,7 +549,7 @@ public class BulkHostTrustBO {
                 return;
             } // avoid clobbering previous error
             try {
-                HostTrustBO hostTrustBO = new HostTrustBO();
+                HostTrustBO hostTrustBO = getHostTrustBO();
 //                HostBO hostBO = new HostBO();
 //        hostTrustBO.setHostBO(hostBO);
 
@@ -235,18 +564,10 @@ public class BulkHostTrustBO {
             }
         }
 
-        public boolean isError() {
-            return isError;
-        }
-
         public HostTrust getResult() {
             return result;
         }
 
-        public String getHostname() {
-            return hostname;
-        }
-
         public HostTrust getTimeoutResult() {
             return new HostTrust(ErrorCode.AS_ASYNC_TIMEOUT, "Exceeded timeout of " + timeout + " seconds", hostname, null, null);
         }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the response of BulkHostTrustBO.writeBulkTrustJson: a
+ * BulkHostTrustResponse whose Hosts array is written one host at a time as
+ * the hosts finish, with the additional properties Total and TimedOut.
+ */
+class BulkTrustJsonWriter {
+    private final Writer out;
+    private final ObjectMapper mapper;
+    private final ArrayList<String> timedOut = new ArrayList<>();
+    private boolean first = true;
+
+    BulkTrustJsonWriter(Writer out, ObjectMapper mapper) {
+        this.out = out;
+        this.mapper = mapper;
+    }
+
+    void start() throws IOException {
+        out.write("{\"Hosts\":[");
+        out.flush();
+    }
+
+    /**
+     * @param result the HostTrust of a host that finished
+     */
+    void completed(Object result) throws IOException {
+        write(result);
+        out.flush();
+    }
+
+    /**
+     * @param hostname
+     * @param result the HostTrust with the timeout error
+     */
+    void timedOut(String hostname, Object result) throws IOException {
+        write(result);
+        timedOut.add(hostname);
+    }
+
+    void finish(int total) throws IOException {
+        out.write(String.format("],\"Total\":%d,\"TimedOut\":%s}", total, mapper.writeValueAsString(timedOut)));
+        out.flush();
+    }
+
+    List<String> getTimedOut() {
+        return timedOut;
+    }
+
+    private void write(Object result) throws IOException {
+        if (!first) {
+            out.write(",");
+        }
+        first = false;
+        out.write(mapper.writeValueAsString(result));
+    }
+}
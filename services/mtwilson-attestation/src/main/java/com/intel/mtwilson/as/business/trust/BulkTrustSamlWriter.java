@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang.StringEscapeUtils;
+
+/**
+ * Writes the response of BulkHostTrustBO.writeBulkTrustSaml: the Host
+ * element of each host as soon as it is available, then the Host elements of
+ * the hosts that timed out, and a Summary element with the number of hosts
+ * and the names of the hosts that timed out.
+ */
+class BulkTrustSamlWriter {
+    private final Writer out;
+    private final ArrayList<String> timedOut = new ArrayList<>();
+
+    BulkTrustSamlWriter(Writer out) {
+        this.out = out;
+    }
+
+    void start() throws IOException {
+        out.write("<Hosts>");
+        out.flush();
+    }
+
+    /**
+     * @param host the Host element of a host that finished
+     */
+    void completed(String host) throws IOException {
+        out.write(host);
+        out.flush();
+    }
+
+    /**
+     * @param hostname
+     * @param host the Host element with the timeout error
+     */
+    void timedOut(String hostname, String host) throws IOException {
+        out.write(host);
+        timedOut.add(hostname);
+    }
+
+    void finish(int total) throws IOException {
+        out.write(String.format("<Summary><Total>%d</Total><TimedOut>", total));
+        for (String hostname : timedOut) {
+            out.write(String.format("<Name>%s</Name>", escape(hostname)));
+        }
+        out.write("</TimedOut></Summary></Hosts>");
+        out.flush();
+    }
+
+    List<String> getTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Host names and error messages come from the request or the host, so
+     * they are escaped before they are written into an element.
+     */
+    static String escape(String text) {
+        return StringEscapeUtils.escapeXml(text);
+    }
+}
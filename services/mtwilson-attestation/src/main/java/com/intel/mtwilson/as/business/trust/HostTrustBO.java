@@ -32,9 +32,6 @@ import com.intel.mtwilson.datatypes.*;
 import com.intel.dcsg.cpg.io.FileResource;
 import com.intel.dcsg.cpg.io.Resource;
 import com.intel.dcsg.cpg.io.UUID;
-import com.intel.mtwilson.as.controller.exceptions.ASDataException;
-import com.intel.mtwilson.as.controller.exceptions.IllegalOrphanException;
-import com.intel.mtwilson.as.controller.exceptions.NonexistentEntityException;
 import com.intel.mtwilson.as.data.TblPcrManifest;
 import com.intel.mtwilson.as.rest.v2.model.HostAttestation;
 import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
@@ -107,6 +104,8 @@ public class HostTrustBO {
 
     
     private HostBO hostBO;
+    private HostAgent hostAgent = null;
+    private String hostConnectionString = null;
     
     public HostTrustBO() {
         super();
@@ -122,6 +121,50 @@ public class HostTrustBO {
     
     public void setHostBO(HostBO hostBO) { this.hostBO = hostBO; }
     
+    /**
+     * Makes getTrustWithSaml and getTrustReportForHost use an agent that was
+     * already created by HostAgentFactory instead of creating a new one. 
+     * BulkHostTrustBO uses this to attest a host after retrieving its PCR 
+     * manifest with AsyncHostAgent, which the agent remembers.
+     * 
+     * @param agent for the host that will be attested, or null to create one with HostAgentFactory
+     * @param hostConnectionString from the HostAgentFactory that created the agent
+     */
+    public void setHostAgent(HostAgent agent, String hostConnectionString) {
+        this.hostAgent = agent;
+        this.hostConnectionString = hostConnectionString;
+    }
+    
+    /**
+     * Creates the agent for a registered host and keeps it for the next 
+     * attestation, as with setHostAgent.
+     * 
+     * @param host name of a registered host
+     * @return the agent that will be used to attest the host
+     * @throws IOException 
+     */
+    public HostAgent createHostAgent(String host) throws IOException {
+        if( ASDataCipher.cipher == null ) {
+            log.warn("ASDataCipher was not initialized");
+            My.initDataEncryptionKey();
+        }
+        TblHosts tblHosts = getHostByName(new Hostname(host));
+        HostAgentFactory factory = new HostAgentFactory();
+        HostAgent agent = factory.getHostAgent(tblHosts);
+        setHostAgent(agent, factory.getHostConnectionString());
+        return agent;
+    }
+    
+    /**
+     * Rules are applied in parallel when mtwilson.policy.engine.parallel=true.
+     * 
+     * @param verdictOnly true when only the trusted/untrusted status of the markers is needed
+     * and not the full list of faults, for example when checking which MLE matches a host
+     */
+    private PolicyEngine newPolicyEngine(boolean verdictOnly) {
+        return new PolicyEngine(configuration.getBoolean("mtwilson.policy.engine.parallel", false), verdictOnly);
+    }
+    
 
     public HostTrustStatus getTrustStatus(Hostname hostName) throws IOException {
         return getTrustStatus(hostName, null);
@@ -292,7 +335,7 @@ public class HostTrustBO {
                     }
                     
                     Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForMLEVerification(tblHosts, tblHosts.getName()); 
-                    PolicyEngine policyEngine = new PolicyEngine();
+                    PolicyEngine policyEngine = newPolicyEngine(true);
                     TrustReport trustReport = policyEngine.apply(hostReport, trustPolicy);
 
                     // Let us update the TxtHostRecord object with the details. We will use that object for host registration later                        
@@ -374,7 +417,7 @@ public class HostTrustBO {
                     }
 
                     Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForMLEVerification(tblHosts, tblHosts.getName()); 
-                    PolicyEngine policyEngine = new PolicyEngine();
+                    PolicyEngine policyEngine = newPolicyEngine(true);
                     TrustReport trustReport = policyEngine.apply(hostReport, trustPolicy);
 
                     // Let us update the TxtHostRecord object with the details. We will use it for host registration later                        
@@ -528,7 +571,7 @@ public class HostTrustBO {
                         Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForHost(tblHosts, tblHosts.getName()); 
                         long t1 = System.currentTimeMillis();
                         log.trace("performance: hostTrustPolicyFactory.loadTrustPolicyForHost: {}ms", t1-t0);
-                        PolicyEngine policyEngine = new PolicyEngine();
+                        PolicyEngine policyEngine = newPolicyEngine(true);
                         TrustReport tempTrustReport = policyEngine.apply(hostReport, trustPolicy);
                        long t2 = System.currentTimeMillis();
                         log.trace("performance: policyEngine.apply: {}ms", t2-t1);
@@ -611,7 +654,7 @@ public class HostTrustBO {
                         tblHosts.setVmmMleId(vmmMLE);
 
                         Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForMLEVerification(tblHosts, tblHosts.getName()); 
-                        PolicyEngine policyEngine = new PolicyEngine();
+                        PolicyEngine policyEngine = newPolicyEngine(true);
                         TrustReport tempTrustReport = policyEngine.apply(hostReport, trustPolicy);
 
                         if (tempTrustReport != null && tempTrustReport.isTrustedForMarker(TrustMarker.VMM.name())) {
@@ -668,7 +711,7 @@ public class HostTrustBO {
 
             tblHosts.setId(hostID);
             Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForHost(tblHosts, tblHosts.getName()); 
-            PolicyEngine policyEngine = new PolicyEngine();
+            PolicyEngine policyEngine = newPolicyEngine(false);
             TrustReport finalTrustReport = policyEngine.apply(hostReport, trustPolicy);            
             
             long updateHostIfUntrustedStop = System.currentTimeMillis();
@@ -738,8 +781,7 @@ public class HostTrustBO {
         trust.asset_tag = trustReport.isTrustedForMarker(TrustMarker.ASSET_TAG.name());
         
         Date today = new Date(System.currentTimeMillis()); // create the date here and pass it down, in order to ensure that all created records use the same timestamp
-        logOverallTrustStatus(tblHosts, trust, today);
-        logPcrTrustStatus(tblHosts, trustReport, today);
+        logTrustStatus(tblHosts, trust, trustReport, today);
         
 
         String userName = new AuditLogger().getAuditUserName();
@@ -752,6 +794,18 @@ public class HostTrustBO {
     }
     
     public void logTrustReport(TblHosts tblHosts, TrustReport trustReport) {
+        TrustLogBatch trustLogs = new TrustLogBatch();
+        try {
+            logTrustReport(tblHosts, trustReport, trustLogs);
+        }
+        catch(RuntimeException | Error e) {
+            writeTrustLogsAfterError(trustLogs);
+            throw e;
+        }
+        writeTrustLogs(trustLogs);
+    }
+
+    private void logTrustReport(TblHosts tblHosts, TrustReport trustReport, TrustLogBatch trustLogs) {
 
         if( trustReport.getHostReport() == null || trustReport.getHostReport().pcrManifest == null ) {
             throw new ASException(ErrorCode.AS_HOST_MANIFEST_MISSING_PCRS);
@@ -763,8 +817,7 @@ public class HostTrustBO {
         trust.asset_tag = trustReport.isTrustedForMarker(TrustMarker.ASSET_TAG.name());
         
         Date today = new Date(System.currentTimeMillis()); // create the date here and pass it down, in order to ensure that all created records use the same timestamp
-        logOverallTrustStatus(tblHosts, trust, today);
-        logPcrTrustStatus(tblHosts, trustReport, today);
+        logTrustStatus(tblHosts, trust, trustReport, today, trustLogs);
         
     }
     
@@ -783,13 +836,13 @@ public class HostTrustBO {
         // bug #538 first check if the host supports tpm
         HostAgentFactory factory = new HostAgentFactory();
         long getAgentStart = System.currentTimeMillis(); 
-        HostAgent agent = factory.getHostAgent(tblHosts);
+        HostAgent agent = hostAgent != null ? hostAgent : factory.getHostAgent(tblHosts);
         long getAgentStop = System.currentTimeMillis();
         log.trace("performance: getHostAgent: {}ms", getAgentStop-getAgentStart);
         if( !agent.isTpmEnabled() || !agent.isIntelTxtEnabled() ) {
             throw new ASException(ErrorCode.AS_INTEL_TXT_NOT_ENABLED, hostId);
         }
-        tblHosts.setAddOnConnectionInfo(factory.getHostConnectionString());
+        tblHosts.setAddOnConnectionInfo(hostAgent != null ? hostConnectionString : factory.getHostConnectionString());
         
         
         long getAgentManifestStart = System.currentTimeMillis(); 
@@ -847,7 +900,7 @@ public class HostTrustBO {
         long getTrustPolicyStop = System.currentTimeMillis();
         log.trace("performance: loadTrustPolicyForHost: {}ms", getTrustPolicyStop-getTrustPolicyStart);
 //        trustPolicy.setName(policy for hostId) // do we even need a name? or is that just a management thing for the app?
-        PolicyEngine policyEngine = new PolicyEngine();
+        PolicyEngine policyEngine = newPolicyEngine(false);
         long applyPolicyStart = System.currentTimeMillis();
         TrustReport trustReport = policyEngine.apply(hostReport, trustPolicy);
         long applyPolicyStop = System.currentTimeMillis();
@@ -972,49 +1025,91 @@ public class HostTrustBO {
 
     }
     * */
-    private void logOverallTrustStatus(TblHosts host, HostTrustStatus status, Date today) {
+    /**
+     * Writes the overall trust status and the PCR trust status of one
+     * attestation to the mw_ta_log and mw_module_manifest_log tables in a
+     * single transaction.
+     */
+    private void logTrustStatus(TblHosts host, HostTrustStatus status, TrustReport report, Date today) {
+        TrustLogBatch trustLogs = new TrustLogBatch();
         try {
-            TblTaLog taLog = new TblTaLog();
-            taLog.setHostID(host.getId());
-            taLog.setMleId(0);
-            taLog.setTrustStatus(status.bios && status.vmm); 
-            taLog.setError(toString(status));
-            taLog.setManifestName(" ");
-            taLog.setManifestValue(" ");
-            taLog.setHost_uuid_hex(host.getUuid_hex());
-            taLog.setUuid_hex(new UUID().toString());
-            taLog.setUpdatedOn(today);
-
-            TblTaLogJpaController talog = My.jpa().mwTaLog();
-            
-            talog.create(taLog); // overall status
-    /*        
-            // bios
-            TblTaLog taLogBios = new TblTaLog();
-            taLogBios.setHostID(host.getId());
-            taLogBios.setMleId(host.getBiosMleId().getId());
-            taLogBios.setTrustStatus(status.bios); 
-            taLogBios.setError(toString(status));
-            taLogBios.setManifestName(" "); 
-            taLogBios.setManifestValue(" ");
-            taLogBios.setUpdatedOn(today);
-            talog.create(taLogBios);
-            
-            TblTaLog taLogVmm = new TblTaLog();
-            taLogVmm.setHostID(host.getId());
-            taLogVmm.setMleId(host.getVmmMleId().getId());
-            taLogVmm.setTrustStatus(status.vmm); 
-            taLogVmm.setError(toString(status));
-            taLogVmm.setManifestName(" ");
-            taLogVmm.setManifestValue(" ");
-            taLogVmm.setUpdatedOn(today);
-            talog.create(taLogVmm);
-            */
+            logTrustStatus(host, status, report, today, trustLogs);
+        }
+        catch(RuntimeException | Error e) {
+            writeTrustLogsAfterError(trustLogs);
+            throw e;
+        }
+        writeTrustLogs(trustLogs);
+    }
+
+    private void logTrustStatus(TblHosts host, HostTrustStatus status, TrustReport report, Date today, TrustLogBatch trustLogs) {
+        logOverallTrustStatus(host, status, today, trustLogs);
+        logPcrTrustStatus(host, report, today, trustLogs);
+    }
+
+    /**
+     * Writes the records now, or queues them when the attestation result
+     * writer is in async mode.
+     */
+    private void writeTrustLogs(TrustLogBatch trustLogs) {
+        try {
+            AttestationResultWriter.getInstance().write(trustLogs);
         } catch (IOException ex) {
-            log.error("Error during logging of the overall trust status", ex);
+            log.error("Error during logging of the trust status", ex);
             throw new ASException(ErrorCode.SYSTEM_ERROR, ex.getClass().getSimpleName());
         }
     }
+
+    /**
+     * Writes the records collected before the attestation failed, as they
+     * were written when each record had its own transaction. An error here is
+     * only logged so the caller sees the exception that stopped the
+     * attestation.
+     */
+    private void writeTrustLogsAfterError(TrustLogBatch trustLogs) {
+        try {
+            AttestationResultWriter.getInstance().write(trustLogs);
+        } catch (Exception ex) {
+            log.error("Error during logging of the trust status of a failed attestation", ex);
+        }
+    }
+
+    private void logOverallTrustStatus(TblHosts host, HostTrustStatus status, Date today, TrustLogBatch trustLogs) {
+        TblTaLog taLog = new TblTaLog();
+        taLog.setHostID(host.getId());
+        taLog.setMleId(0);
+        taLog.setTrustStatus(status.bios && status.vmm); 
+        taLog.setError(toString(status));
+        taLog.setManifestName(" ");
+        taLog.setManifestValue(" ");
+        taLog.setHost_uuid_hex(host.getUuid_hex());
+        taLog.setUuid_hex(new UUID().toString());
+        taLog.setUpdatedOn(today);
+
+        trustLogs.add(taLog); // overall status
+    /*        
+        // bios
+        TblTaLog taLogBios = new TblTaLog();
+        taLogBios.setHostID(host.getId());
+        taLogBios.setMleId(host.getBiosMleId().getId());
+        taLogBios.setTrustStatus(status.bios); 
+        taLogBios.setError(toString(status));
+        taLogBios.setManifestName(" "); 
+        taLogBios.setManifestValue(" ");
+        taLogBios.setUpdatedOn(today);
+        talog.create(taLogBios);
+        
+        TblTaLog taLogVmm = new TblTaLog();
+        taLogVmm.setHostID(host.getId());
+        taLogVmm.setMleId(host.getVmmMleId().getId());
+        taLogVmm.setTrustStatus(status.vmm); 
+        taLogVmm.setError(toString(status));
+        taLogVmm.setManifestName(" ");
+        taLogVmm.setManifestValue(" ");
+        taLogVmm.setUpdatedOn(today);
+        talog.create(taLogVmm);
+        */
+    }
     
     /**
      * Searches for all the PcrMatchesConstant policies in the TrustReport and creates 
@@ -1024,10 +1119,8 @@ public class HostTrustBO {
      * @param host
      * @param report 
      */
-    private void logPcrTrustStatus(TblHosts host, TrustReport report, Date today) {
+    private void logPcrTrustStatus(TblHosts host, TrustReport report, Date today, TrustLogBatch trustLogs) {
         try {
-            TblTaLogJpaController talogJpa = My.jpa().mwTaLog();
-            TblModuleManifestLogJpaController moduleLogJpa = My.jpa().mwModuleManifestLog();
             List<String> biosPcrList = Arrays.asList(host.getBiosMleId().getRequiredManifestList().split(","));
             List<String> vmmPcrList = Arrays.asList(host.getVmmMleId().getRequiredManifestList().split(","));
             List<RuleResult> results = report.getResults();
@@ -1226,26 +1319,12 @@ public class HostTrustBO {
                             }
                             
                             if (pcr != null) {
-                                if (pcr.getId() != null) {
-                                    log.debug("TaTblLog ID {} already exists.", pcr.getId());
-                                    pcr = talogJpa.findTblTaLog(pcr.getId());
-                                }
                                 pcr.setTrustStatus(false); 
                                 if (pcr.getError()== null || pcr.getError().isEmpty())
                                     pcr.setError("Missing modules");
                                 else
                                     pcr.setError(pcr.getError() + " and " + " Missing modules");
-                                if (pcr.getId() == null) {
-                                    log.debug("TaTblLog ID does not exist. Creating a new one. {}-{}", pcr.getTrustStatus(), pcr.getError());
-                                    talogJpa.create(pcr);
-                                } else {                            
-                                    try {
-                                        log.debug("Editing the existing TaTblLog ID. {}-{}", pcr.getTrustStatus(), pcr.getError());
-                                        talogJpa.edit(pcr);
-                                    } catch (IllegalOrphanException | NonexistentEntityException | ASDataException ex) {
-                                        log.error("Error updating the status in the TaLog table.", ex);
-                                    }
-                                }
+                                trustLogs.add(pcr);
                                 taLogMap.put(missingEntriesFault.getPcrIndex() + type, pcr);
 
                                 Set<Measurement> missingEntries = missingEntriesFault.getMissingEntries();
@@ -1268,7 +1347,7 @@ public class HostTrustBO {
                                     event.setTaLogId(pcr);
                                     event.setValue( found == null ? "" : found.getValue().toString() ); // we don't know from our report what the "actual" value is since we only logged that an expected value was missing... so maybe there's a module with the same name and wrong value in the host report, which we don't know here... see comment above,  this probably needs to change.
                                     event.setWhitelistValue(m.getValue().toString());
-                                    moduleLogJpa.create(event);
+                                    trustLogs.add(event);
                                 }
                             }
                         }
@@ -1300,26 +1379,12 @@ public class HostTrustBO {
                             PcrEventLogMissingExpectedEntries missingEntriesFault = (PcrEventLogMissingExpectedEntries)fault;
                             
                             if (pcr != null) {
-                                if (pcr.getId() != null) {
-                                    log.debug("TaTblLog ID {} already exists.", pcr.getId());
-                                    pcr = talogJpa.findTblTaLog(pcr.getId());
-                                }
                                 pcr.setTrustStatus(false); 
                                 if (pcr.getError()== null || pcr.getError().isEmpty())
                                     pcr.setError("Missing modules");
                                 else
                                     pcr.setError(pcr.getError() + " and " + " Missing modules");
-                                if (pcr.getId() == null) {
-                                    log.debug("TaTblLog ID does not exist. Creating a new one. {}-{}", pcr.getTrustStatus(), pcr.getError());
-                                    talogJpa.create(pcr);
-                                } else {                            
-                                    try {
-                                        log.debug("Editing the existing TaTblLog ID. {}-{}", pcr.getTrustStatus(), pcr.getError());
-                                        talogJpa.edit(pcr);
-                                    } catch (IllegalOrphanException | NonexistentEntityException | ASDataException ex) {
-                                        log.error("Error updating the status in the TaLog table.", ex);
-                                    }
-                                }
+                                trustLogs.add(pcr);
                                 taLogMap.put(missingEntriesFault.getPcrIndex() + type, pcr);
 
                                 Set<Measurement> missingEntries = missingEntriesFault.getMissingEntries();
@@ -1348,24 +1413,19 @@ public class HostTrustBO {
                                         }
                                     }
                                     // does the host have a module with the same name but different value? if so, we should log it in TblModuleManifestLog... but from here we don't have access to the HostReport.
-                                    TblModuleManifestLog findByTaLogIdAndName = moduleLogJpa.findByTaLogIdAndName(pcr, mInfo.get("ComponentName"));
+                                    TblModuleManifestLog findByTaLogIdAndName = trustLogs.findModuleManifestLog(pcr, mInfo.get("ComponentName"));
                                     if (findByTaLogIdAndName == null) {
                                         TblModuleManifestLog event = new TblModuleManifestLog();
                                         event.setName(mInfo.get("ComponentName"));
                                         event.setTaLogId(pcr);
                                         event.setValue( found == null ? "" : found.getValue().toString() ); // we don't know from our report what the "actual" value is since we only logged that an expected value was missing... so maybe there's a module with the same name and wrong value in the host report, which we don't know here... see comment above,  this probably needs to change.
                                         event.setWhitelistValue(m.getValue().toString()); // since this is a additional module on the host, the white list would be null
-                                        moduleLogJpa.create(event);
+                                        trustLogs.add(event);
                                     } else {
                                         if (findByTaLogIdAndName.getValue() == null || findByTaLogIdAndName.getValue().isEmpty())
                                             findByTaLogIdAndName.setValue(found == null ? "" : found.getValue().toString() );
                                         if (findByTaLogIdAndName.getWhitelistValue() == null || findByTaLogIdAndName.getWhitelistValue().isEmpty())
                                             findByTaLogIdAndName.setWhitelistValue(m.getValue().toString());
-                                        try {
-                                            moduleLogJpa.edit(findByTaLogIdAndName);
-                                        } catch (NonexistentEntityException | ASDataException ex) {
-                                            log.error("Exception while updating the module manifest log record.", ex);
-                                        }
                                     }
                                 }
                             }
@@ -1375,26 +1435,12 @@ public class HostTrustBO {
                             PcrEventLogContainsUnexpectedEntries unexpectedEntriesFault = (PcrEventLogContainsUnexpectedEntries)fault;
 
                             if (pcr != null) {
-                                if (pcr.getId() != null) {
-                                    log.debug("TaTblLog ID {} already exists.", pcr.getId());
-                                    pcr = talogJpa.findTblTaLog(pcr.getId());
-                                }
                                 pcr.setTrustStatus(false);
                                 if (pcr.getError() == null || pcr.getError().isEmpty())
                                     pcr.setError("Additional modules");
                                 else
                                     pcr.setError(pcr.getError() + " and " + "Additional modules");
-                                if (pcr.getId() == null) {
-                                    log.debug("TaTblLog ID does not exist. Creating a new one. {}-{}", pcr.getTrustStatus(), pcr.getError());
-                                    talogJpa.create(pcr);
-                                } else {
-                                    try {
-                                        log.debug("Editing the existing TaTblLog ID. {}-{}", pcr.getTrustStatus(), pcr.getError());
-                                        talogJpa.edit(pcr);
-                                    } catch (Exception ex) {
-                                        log.error("Error updating the status in the TaLog table.", ex);
-                                    }
-                                }
+                                trustLogs.add(pcr);
                                 taLogMap.put(unexpectedEntriesFault.getPcrIndex() + type, pcr);
 
                                 List<Measurement> unexpectedEntries = unexpectedEntriesFault.getUnexpectedEntries();
@@ -1423,24 +1469,19 @@ public class HostTrustBO {
                                         }
                                     }
                                     // does the host have a module with the same name but different value? if so, we should log it in TblModuleManifestLog... but from here we don't have access to the HostReport.
-                                    TblModuleManifestLog findByTaLogIdAndName = moduleLogJpa.findByTaLogIdAndName(pcr, mInfo.get("ComponentName"));
+                                    TblModuleManifestLog findByTaLogIdAndName = trustLogs.findModuleManifestLog(pcr, mInfo.get("ComponentName"));
                                     if (findByTaLogIdAndName == null) {
                                         TblModuleManifestLog event = new TblModuleManifestLog();
                                         event.setName(mInfo.get("FullComponentName"));
                                         event.setTaLogId(pcr);
                                         event.setValue( found == null ? "" : found.getValue().toString() ); // we don't know from our report what the "actual" value is since we only logged that an expected value was missing... so maybe there's a module with the same name and wrong value in the host report, which we don't know here... see comment above,  this probably needs to change.
                                         event.setWhitelistValue(""); // since this is a additional module on the host, the white list would be null
-                                        moduleLogJpa.create(event);
+                                        trustLogs.add(event);
                                     } else {
                                         if (findByTaLogIdAndName.getValue() == null || findByTaLogIdAndName.getValue().isEmpty())
                                             findByTaLogIdAndName.setValue(found == null ? "" : found.getValue().toString() );
                                         if (findByTaLogIdAndName.getWhitelistValue() == null || findByTaLogIdAndName.getWhitelistValue().isEmpty())
                                             findByTaLogIdAndName.setWhitelistValue("");
-                                        try {
-                                            moduleLogJpa.edit(findByTaLogIdAndName);
-                                        } catch (NonexistentEntityException | ASDataException ex) {
-                                            log.error("Exception while updating the module manifest log record.", ex);
-                                        }
                                     }
                                 }
                             }
@@ -1478,27 +1519,12 @@ public class HostTrustBO {
                             XmlMeasurementLogValueMismatchEntries mismatchEntriesFault = (XmlMeasurementLogValueMismatchEntries)fault;
 
                             if (pcr != null) {
-                                if (pcr.getId() != null) {
-                                    log.debug("TaTblLog ID {} already exists.", pcr.getId());
-                                    pcr = talogJpa.findTblTaLog(pcr.getId());
-                                }
                                 pcr.setTrustStatus(false); 
                                 if (pcr.getError()== null || pcr.getError().isEmpty())
                                     pcr.setError("Mismatch of tbootxm modules");
                                 else
                                     pcr.setError(pcr.getError() + " and " + " Mismatch of tbootxm modules");
-                                if (pcr.getId() == null) {
-                                    log.debug("TaTblLog ID does not exist. Creating a new one. {}-{}", pcr.getTrustStatus(), pcr.getError());
-                                    talogJpa.create(pcr);
-                                    log.debug("TaTblLog ID created - {}", pcr.getId());
-                                } else {                            
-                                    try {
-                                        log.debug("Editing the existing TaTblLog ID {} . {} - {}", pcr.getId(), pcr.getTrustStatus(), pcr.getError());
-                                        talogJpa.edit(pcr);
-                                    } catch (IllegalOrphanException | NonexistentEntityException | ASDataException ex) {
-                                        log.error("Error updating the status in the TaLog table.", ex);
-                                    }
-                                }
+                                trustLogs.add(pcr);
                                 taLogMap.put(mismatchEntriesFault.getPcrIndex() + type, pcr);
 
                                 Set<Measurement> mismatchEntries = mismatchEntriesFault.getMismatchEntries();
@@ -1510,14 +1536,14 @@ public class HostTrustBO {
                                         throw new ASException(ErrorCode.AS_MISSING_PCR_MANIFEST);
                                     }
 
-                                    TblModuleManifestLog findByTaLogIdAndName = moduleLogJpa.findByTaLogIdAndName(pcr, m.getLabel());
+                                    TblModuleManifestLog findByTaLogIdAndName = trustLogs.findModuleManifestLog(pcr, m.getLabel());
                                     if (findByTaLogIdAndName == null) {
                                         TblModuleManifestLog event = new TblModuleManifestLog();
                                         event.setName("tbootxm-" + m.getLabel());
                                         event.setTaLogId(pcr);
                                         event.setValue(mInfo.get("Actual_Value"));
                                         event.setWhitelistValue(m.getValue().toString());
-                                        moduleLogJpa.create(event);
+                                        trustLogs.add(event);
                                     } 
                                 }
                             }
@@ -1527,27 +1553,12 @@ public class HostTrustBO {
                             XmlMeasurementLogMissingExpectedEntries missingEntriesFault = (XmlMeasurementLogMissingExpectedEntries)fault;
 
                             if (pcr != null) {
-                                if (pcr.getId() != null) {
-                                    log.debug("TaTblLog ID {} already exists.", pcr.getId());
-                                    pcr = talogJpa.findTblTaLog(pcr.getId());
-                                }
                                 pcr.setTrustStatus(false); 
                                 if (pcr.getError()== null || pcr.getError().isEmpty())
                                     pcr.setError("Missing tbootxm modules");
                                 else
                                     pcr.setError(pcr.getError() + " and " + " Missing tbootxm modules");
-                                if (pcr.getId() == null) {
-                                    log.debug("TaTblLog ID does not exist. Creating a new one. {}-{}", pcr.getTrustStatus(), pcr.getError());
-                                    talogJpa.create(pcr);
-                                    log.debug("TaTblLog ID created - {}", pcr.getId());
-                                } else {                            
-                                    try {
-                                        log.debug("Editing the existing TaTblLog ID {} . {} - {}", pcr.getId(), pcr.getTrustStatus(), pcr.getError());
-                                        talogJpa.edit(pcr);
-                                    } catch (IllegalOrphanException | NonexistentEntityException | ASDataException ex) {
-                                        log.error("Error updating the status in the TaLog table.", ex);
-                                    }
-                                }
+                                trustLogs.add(pcr);
                                 taLogMap.put(missingEntriesFault.getPcrIndex() + type, pcr);
 
                                 Set<Measurement> missingEntries = missingEntriesFault.getMissingEntries();
@@ -1558,14 +1569,14 @@ public class HostTrustBO {
                                         throw new ASException(ErrorCode.AS_MISSING_PCR_MANIFEST);
                                     }
 
-                                    TblModuleManifestLog findByTaLogIdAndName = moduleLogJpa.findByTaLogIdAndName(pcr, m.getLabel());
+                                    TblModuleManifestLog findByTaLogIdAndName = trustLogs.findModuleManifestLog(pcr, m.getLabel());
                                     if (findByTaLogIdAndName == null) {
                                         TblModuleManifestLog event = new TblModuleManifestLog();
                                         event.setName("tbootxm-" + m.getLabel());
                                         event.setTaLogId(pcr);
                                         event.setValue(""); // Since the module is missing, there is no current value.
                                         event.setWhitelistValue(m.getValue().toString());
-                                        moduleLogJpa.create(event);
+                                        trustLogs.add(event);
                                     } 
                                 }
                             }
@@ -1575,27 +1586,12 @@ public class HostTrustBO {
                             XmlMeasurementLogContainsUnexpectedEntries unexpectedEntriesFault = (XmlMeasurementLogContainsUnexpectedEntries)fault;
 
                             if (pcr != null) {
-                                if (pcr.getId() != null) {
-                                    log.debug("TaTblLog ID {} already exists.", pcr.getId());
-                                    pcr = talogJpa.findTblTaLog(pcr.getId());
-                                }
                                 pcr.setTrustStatus(false); 
                                 if (pcr.getError()== null || pcr.getError().isEmpty())
                                     pcr.setError("Containing unexpected tbootxm modules");
                                 else
                                     pcr.setError(pcr.getError() + " and " + " Containing unexpected tbootxm modules");
-                                if (pcr.getId() == null) {
-                                    log.debug("TaTblLog ID does not exist. Creating a new one. {}-{}", pcr.getTrustStatus(), pcr.getError());
-                                    talogJpa.create(pcr);
-                                    log.debug("TaTblLog ID created - {}", pcr.getId());
-                                } else {                            
-                                    try {
-                                        log.debug("Editing the existing TaTblLog ID {} . {} - {}", pcr.getId(), pcr.getTrustStatus(), pcr.getError());
-                                        talogJpa.edit(pcr);
-                                    } catch (IllegalOrphanException | NonexistentEntityException | ASDataException ex) {
-                                        log.error("Error updating the status in the TaLog table.", ex);
-                                    }
-                                }
+                                trustLogs.add(pcr);
                                 taLogMap.put(unexpectedEntriesFault.getPcrIndex() + type, pcr);
 
                                 List<Measurement> unexpectedEntries = unexpectedEntriesFault.getUnexpectedEntries();
@@ -1606,14 +1602,14 @@ public class HostTrustBO {
                                         throw new ASException(ErrorCode.AS_MISSING_PCR_MANIFEST);
                                     }
 
-                                    TblModuleManifestLog findByTaLogIdAndName = moduleLogJpa.findByTaLogIdAndName(pcr, m.getLabel());
+                                    TblModuleManifestLog findByTaLogIdAndName = trustLogs.findModuleManifestLog(pcr, m.getLabel());
                                     if (findByTaLogIdAndName == null) {
                                         TblModuleManifestLog event = new TblModuleManifestLog();
                                         event.setName("tbootxm-" + m.getLabel());
                                         event.setTaLogId(pcr);
                                         event.setValue(m.getValue().toString()); 
                                         event.setWhitelistValue(""); // Since this is an unexpected module, there will not be any whitelist associated.
-                                        moduleLogJpa.create(event);
+                                        trustLogs.add(event);
                                     } 
                                 }
                             }
@@ -1622,16 +1618,13 @@ public class HostTrustBO {
                 }
 
             }
-            // now create all those mw_ta_log records (one per pcr)
+            // now add all those mw_ta_log records (one per pcr)
             for(TblTaLog pcr : taLogMap.values()) {
-                if( pcr.getId() == null ) {
-                    log.debug("Creating new entry for {}.", pcr.getManifestName());
-                    talogJpa.create(pcr);
-                }
+                trustLogs.add(pcr);
             }
-        } catch (IOException ex) {
+        } catch (RuntimeException ex) {
             log.error("Error during logging of the PCR trust status", ex);
-            throw new ASException(ErrorCode.SYSTEM_ERROR, ex.getClass().getSimpleName());
+            throw ex;
         }
     }
 
@@ -1893,12 +1886,15 @@ public class HostTrustBO {
      * @return
      */
     public HostAttestation getTrustWithSaml(TblHosts tblHosts, String hostId, String hostAttestationUuid, Nonce challenge) {
+        TrustLogBatch trustLogs = new TrustLogBatch(); // the trust logs and the saml assertion are written together after the assertion is returned
+        TblSamlAssertion created;
+        HostAttestation hostAttestation;
         try {
 
             TrustReport hostTrustReport = getTrustReportForHost(tblHosts, tblHosts.getName(), challenge); // issue #4978 use specified nonce, if available
             log.debug("TRUSTREPORT: {}", mapper.writeValueAsString(hostTrustReport));
             
-            logTrustReport(tblHosts, hostTrustReport); // Need to cache the attestation report ### v1 requirement to log to mw_ta_log
+            logTrustReport(tblHosts, hostTrustReport, trustLogs); // Need to cache the attestation report ### v1 requirement to log to mw_ta_log
 
             HostTrustStatus trust = new HostTrustStatus();
             trust.bios = hostTrustReport.isTrustedForMarker(TrustMarker.BIOS.name());
@@ -1944,10 +1940,11 @@ public class HostTrustBO {
             
             tblSamlAssertion.setTrustReport(mapper.writeValueAsString(hostTrustReport));
                 
-            My.jpa().mwSamlAssertion().create(tblSamlAssertion);
-
-            return buildHostAttestation(tblHosts, tblSamlAssertion);
+            hostAttestation = buildHostAttestation(tblHosts, tblSamlAssertion);
+            trustLogs.add(tblSamlAssertion);
+            created = tblSamlAssertion;
         } catch (ASException e) {
+            writeTrustLogsAfterError(trustLogs);
             // ASException sets HTTP Status to 400 for all errors
             // We override that here to give more specific codes when possible:
             if (e.getErrorCode().equals(ErrorCode.AS_HOST_NOT_FOUND)) {
@@ -1962,14 +1959,17 @@ public class HostTrustBO {
         } catch (Throwable ex) {
             // throw new ASException( e);
             log.error("Error during retrieval of host trust status.", ex);
+            writeTrustLogsAfterError(trustLogs);
             throw new ASException(ErrorCode.AS_HOST_TRUST_ERROR, ex.getClass().getSimpleName());
         }
+        writeTrustLogs(trustLogs);
+        SamlAssertionCache.getInstance().put(tblHosts, created);
+        return hostAttestation;
     }
 
     private SamlGenerator getSamlGenerator() throws UnknownHostException, ConfigurationException, IOException, GeneralSecurityException {
 //        String issuer = conf.getString("saml.issuer", defaultIssuer);
-        SamlGenerator saml = new SamlGenerator(Attestation.getIssuerConfiguration());
-        return saml;
+        return Attestation.getSamlGenerator();
     }
     
     public String getTrustWithSamlByAik(Sha1Digest aik, boolean forceVerify) throws IOException {
@@ -2031,20 +2031,20 @@ public class HostTrustBO {
 //        My.initDataEncryptionKey();
 //        TblHosts tblHosts = getHostByName(new Hostname((host)));
         HostAgentFactory factory = new HostAgentFactory();
-        HostAgent agent = factory.getHostAgent(tblHosts);
+        HostAgent agent = hostAgent != null ? hostAgent : factory.getHostAgent(tblHosts);
        // log.info("Value of the TPM flag is : " +  Boolean.toString(agent.isTpmEnabled()));
         
         if (!agent.isTpmPresent()) {
             throw new ASException(ErrorCode.AS_TPM_NOT_SUPPORTED, hostId);
         }
-        tblHosts.setAddOnConnectionInfo(factory.getHostConnectionString());
+        tblHosts.setAddOnConnectionInfo(hostAgent != null ? hostConnectionString : factory.getHostConnectionString());
         
         if(forceVerify != true){
             //TblSamlAssertion tblSamlAssertion = new TblSamlAssertionJpaController((getEntityManagerFactory())).findByHostAndExpiry(hostId);
             long t0 = System.currentTimeMillis();
-            TblSamlAssertion tblSamlAssertion = My.jpa().mwSamlAssertion().findByHostAndExpiry(tblHosts.getName()); //hostId);
+            TblSamlAssertion tblSamlAssertion = SamlAssertionCache.getInstance().findLatest(tblHosts); //hostId);
             long t1 = System.currentTimeMillis();
-            log.trace("performance: My.jpa().mwSamlAssertion().findByHostAndExpiry: {}ms", t1-t0);
+            log.trace("performance: SamlAssertionCache.findLatest: {}ms", t1-t0);
             if(tblSamlAssertion != null){
                 if(tblSamlAssertion.getErrorMessage() == null|| tblSamlAssertion.getErrorMessage().isEmpty()) {
                     log.debug("Found assertion in cache. Expiry time : " + tblSamlAssertion.getExpiryTs());
@@ -2093,7 +2093,10 @@ public class HostTrustBO {
                 // tblSamlAssertion.setErrorMessage(e.getMessage());
                 // Bug fix for 1038
                 tblSamlAssertion.setErrorMessage(e.getClass().getSimpleName());
-                My.jpa().mwSamlAssertion().create(tblSamlAssertion);
+                TrustLogBatch errorLog = new TrustLogBatch();
+                errorLog.add(tblSamlAssertion);
+                AttestationResultWriter.getInstance().write(errorLog);
+                SamlAssertionCache.getInstance().put(tblHosts, tblSamlAssertion);
             }catch(Exception ex){
                 //log.debug("getTrustwithSaml caugh exception while generating error saml assertion");
                 log.error("getTrustwithSaml caugh exception while generating error saml assertion", ex);
@@ -2362,7 +2365,7 @@ public class HostTrustBO {
                         tblHosts.setBiosMleId(biosMLE);
 
                         Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForMLEVerification(tblHosts, tblHosts.getName()); 
-                        PolicyEngine policyEngine = new PolicyEngine();
+                        PolicyEngine policyEngine = newPolicyEngine(true);
                         TrustReport trustReport = policyEngine.apply(hostReport, trustPolicy);
 
                         if (trustReport != null && trustReport.isTrustedForMarker(TrustMarker.BIOS.name())) {
@@ -2445,7 +2448,7 @@ public class HostTrustBO {
                         tblHosts.setVmmMleId(vmmMLE);
 
                         Policy trustPolicy = hostTrustPolicyFactory.loadTrustPolicyForMLEVerification(tblHosts, tblHosts.getName()); 
-                        PolicyEngine policyEngine = new PolicyEngine();
+                        PolicyEngine policyEngine = newPolicyEngine(true);
                         TrustReport trustReport = policyEngine.apply(hostReport, trustPolicy);
 
 
@@ -2553,6 +2556,7 @@ public class HostTrustBO {
             tblSamlAssertion.setCreatedTs(samlAssertion.created_ts);
                             
             My.jpa().mwSamlAssertion().create(tblSamlAssertion);
+            SamlAssertionCache.getInstance().put(tblHosts, tblSamlAssertion);
 
             return samlAssertion.assertion;
             
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mtwilson.My;
+import com.intel.mtwilson.as.data.TblHosts;
+import com.intel.mtwilson.as.data.TblSamlAssertion;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Keeps the unexpired saml assertions of recently used hosts in memory so that
+ * reading the trust status of a host, which orchestrators do constantly, does
+ * not query mw_saml_assertion every time.
+ *
+ * Hosts can be looked up by name, host UUID, or AIK SHA1. The cache only has
+ * the name, UUID, and AIK SHA1 of each host, not the full mw_hosts record.
+ *
+ * The cache is filled when HostTrustBO creates a new assertion and when a
+ * lookup has to go to the database. A new assertion for a host replaces the
+ * host's latest assertion; deleting or updating a host removes it from the
+ * cache. Expired assertions are never returned.
+ *
+ * Assertions written by another server that shares the database are not seen
+ * until the cached entry is older than mtwilson.saml.cache.ttl.seconds, so set
+ * it when running more than one attestation server.
+ *
+ * Configuration:
+ * mtwilson.saml.cache.enabled (default true)
+ * mtwilson.saml.cache.max.size maximum number of hosts in the cache (default 10000)
+ * mtwilson.saml.cache.ttl.seconds maximum age of a cached entry, or 0 to keep it until its assertions expire (default 0)
+ */
+public class SamlAssertionCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SamlAssertionCache.class);
+    private static SamlAssertionCache instance = null;
+
+    private final boolean enabled;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<String,Entry> cache = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+    private final HashMap<String,String> hostnameByUuid = new HashMap<String,String>();
+    private final HashMap<String,String> hostnameByAikSha1 = new HashMap<String,String>();
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    private static final Comparator<TblSamlAssertion> LATEST_EXPIRY_FIRST = new Comparator<TblSamlAssertion>() {
+        @Override
+        public int compare(TblSamlAssertion o1, TblSamlAssertion o2) {
+            return o2.getExpiryTs().compareTo(o1.getExpiryTs());
+        }
+    };
+
+    private static class Entry {
+        private final TblHosts host;
+        private final ArrayList<TblSamlAssertion> assertions; // latest expiry first
+        private final boolean complete; // true if the entry has all the unexpired assertions in the database, not only the latest one
+        private final long created;
+
+        private Entry(TblHosts host, ArrayList<TblSamlAssertion> assertions, boolean complete) {
+            this.host = host;
+            this.assertions = assertions;
+            this.complete = complete;
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+    public SamlAssertionCache(boolean enabled, int maxSize, long ttlMillis) {
+        this.enabled = enabled;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static synchronized SamlAssertionCache getInstance() {
+        if( instance == null ) {
+            Configuration config = My.configuration().getConfiguration();
+            boolean enabled = config.getBoolean("mtwilson.saml.cache.enabled", true);
+            int maxSize = config.getInt("mtwilson.saml.cache.max.size", 10000);
+            long ttlSeconds = config.getLong("mtwilson.saml.cache.ttl.seconds", 0);
+            log.debug("Creating saml assertion cache enabled={} max size={} ttl={}s", enabled, maxSize, ttlSeconds);
+            instance = new SamlAssertionCache(enabled, maxSize, ttlSeconds * 1000);
+        }
+        return instance;
+    }
+
+    /**
+     * Same as TblSamlAssertionJpaController.findByHostAndExpiry but uses the
+     * cache when possible.
+     *
+     * @param tblHosts
+     * @return the unexpired saml assertion of the host with the latest expiry, or null if there is none
+     * @throws IOException
+     */
+    public TblSamlAssertion findLatest(TblHosts tblHosts) throws IOException {
+        TblSamlAssertion latest = getLatest(tblHosts.getName());
+        if( latest != null ) {
+            return latest;
+        }
+        List<TblSamlAssertion> list = My.jpa().mwSamlAssertion().findListByHostAndExpiry(tblHosts.getName());
+        putAll(tblHosts, list);
+        if( list == null || list.isEmpty() ) {
+            return null;
+        }
+        return list.get(0);
+    }
+
+    /**
+     * Same as TblSamlAssertionJpaController.findListByHostAndExpiry but uses
+     * the cache when possible.
+     *
+     * @param tblHosts
+     * @return the unexpired saml assertions of the host, latest expiry first
+     * @throws IOException
+     */
+    public List<TblSamlAssertion> findValid(TblHosts tblHosts) throws IOException {
+        List<TblSamlAssertion> list = getValid(tblHosts.getName());
+        if( list != null ) {
+            return list;
+        }
+        list = My.jpa().mwSamlAssertion().findListByHostAndExpiry(tblHosts.getName());
+        putAll(tblHosts, list);
+        return list;
+    }
+
+    /**
+     * @param hostname
+     * @return the cached unexpired assertion with the latest expiry, or null if the host is not cached or all its cached assertions have expired
+     */
+    public synchronized TblSamlAssertion getLatest(String hostname) {
+        Entry entry = getEntry(hostname);
+        if( entry == null || entry.assertions.isEmpty() ) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.assertions.get(0);
+    }
+
+    /**
+     * @param hostname
+     * @return all the unexpired assertions of the host, latest expiry first, or null if they are not cached
+     */
+    public synchronized List<TblSamlAssertion> getValid(String hostname) {
+        Entry entry = getEntry(hostname);
+        if( entry == null || !entry.complete ) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ArrayList<TblSamlAssertion>(entry.assertions);
+    }
+
+    /**
+     * @param hostUuid
+     * @return the name, UUID, and AIK SHA1 of the cached host, or null if it is not cached
+     */
+    public synchronized TblHosts getHostByUuid(String hostUuid) {
+        return getHost(hostnameByUuid.get(hostUuid));
+    }
+
+    /**
+     * @param aikSha1
+     * @return the name, UUID, and AIK SHA1 of the cached host, or null if it is not cached
+     */
+    public synchronized TblHosts getHostByAikSha1(String aikSha1) {
+        return getHost(hostnameByAikSha1.get(aikSha1));
+    }
+
+    /**
+     * @param hostname
+     * @return the name, UUID, and AIK SHA1 of the cached host, or null if it is not cached
+     */
+    public synchronized TblHosts getHostByName(String hostname) {
+        return getHost(hostname);
+    }
+
+    /**
+     * Adds a new assertion for the host. Called after the assertion is written
+     * or queued for writing.
+     *
+     * @param tblHosts
+     * @param tblSamlAssertion
+     */
+    public synchronized void put(TblHosts tblHosts, TblSamlAssertion tblSamlAssertion) {
+        if( !enabled || tblSamlAssertion.getExpiryTs() == null ) {
+            return;
+        }
+        Entry existing = cache.get(tblHosts.getName());
+        ArrayList<TblSamlAssertion> assertions = new ArrayList<TblSamlAssertion>();
+        boolean complete = false;
+        if( existing != null && !isExpired(existing) ) {
+            assertions.addAll(existing.assertions);
+            complete = existing.complete;
+        }
+        assertions.add(tblSamlAssertion);
+        add(tblHosts, assertions, complete);
+    }
+
+    /**
+     * Replaces the cached assertions of the host with the unexpired
+     * assertions found in the database.
+     *
+     * @param tblHosts
+     * @param tblSamlAssertions
+     */
+    public synchronized void putAll(TblHosts tblHosts, List<TblSamlAssertion> tblSamlAssertions) {
+        if( !enabled ) {
+            return;
+        }
+        ArrayList<TblSamlAssertion> assertions = new ArrayList<TblSamlAssertion>();
+        if( tblSamlAssertions != null ) {
+            for(TblSamlAssertion tblSamlAssertion : tblSamlAssertions) {
+                if( tblSamlAssertion.getExpiryTs() != null ) {
+                    assertions.add(tblSamlAssertion);
+                }
+            }
+        }
+        add(tblHosts, assertions, true);
+    }
+
+    public synchronized void remove(String hostname) {
+        Entry entry = cache.remove(hostname);
+        if( entry != null ) {
+            unindex(entry);
+        }
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        hostnameByUuid.clear();
+        hostnameByAikSha1.clear();
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d hits=%d misses=%d evictions=%d", size(), getHits(), getMisses(), getEvictions());
+    }
+
+    // caller must hold the lock
+    private void add(TblHosts tblHosts, ArrayList<TblSamlAssertion> assertions, boolean complete) {
+        remove(tblHosts.getName());
+        Collections.sort(assertions, LATEST_EXPIRY_FIRST);
+        Entry entry = new Entry(copyOf(tblHosts), assertions, complete);
+        removeExpired(entry);
+        cache.put(tblHosts.getName(), entry);
+        if( tblHosts.getUuid_hex() != null ) {
+            hostnameByUuid.put(tblHosts.getUuid_hex(), tblHosts.getName());
+        }
+        if( tblHosts.getAikSha1() != null ) {
+            hostnameByAikSha1.put(tblHosts.getAikSha1(), tblHosts.getName());
+        }
+        // the map is in access order so the least recently used entries are at the front
+        Iterator<Entry> it = cache.values().iterator();
+        while(cache.size() > maxSize && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            unindex(eldest);
+            evictions.incrementAndGet();
+        }
+    }
+
+    // caller must hold the lock
+    private Entry getEntry(String hostname) {
+        if( !enabled || hostname == null ) {
+            return null;
+        }
+        Entry entry = cache.get(hostname);
+        if( entry == null ) {
+            return null;
+        }
+        if( isExpired(entry) ) {
+            remove(hostname);
+            evictions.incrementAndGet();
+            return null;
+        }
+        removeExpired(entry);
+        return entry;
+    }
+
+    // caller must hold the lock
+    private TblHosts getHost(String hostname) {
+        Entry entry = getEntry(hostname);
+        if( entry == null ) {
+            return null;
+        }
+        return copyOf(entry.host);
+    }
+
+    // caller must hold the lock
+    private void unindex(Entry entry) {
+        if( entry.host.getUuid_hex() != null && entry.host.getName().equals(hostnameByUuid.get(entry.host.getUuid_hex())) ) {
+            hostnameByUuid.remove(entry.host.getUuid_hex());
+        }
+        if( entry.host.getAikSha1() != null && entry.host.getName().equals(hostnameByAikSha1.get(entry.host.getAikSha1())) ) {
+            hostnameByAikSha1.remove(entry.host.getAikSha1());
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return ttlMillis > 0 && System.currentTimeMillis() - entry.created > ttlMillis;
+    }
+
+    private void removeExpired(Entry entry) {
+        long now = System.currentTimeMillis();
+        Iterator<TblSamlAssertion> it = entry.assertions.iterator();
+        while(it.hasNext()) {
+            if( it.next().getExpiryTs().getTime() <= now ) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * The cached host has only the fields needed to look it up and to build a
+     * HostAttestation, and callers get their own copy.
+     */
+    private static TblHosts copyOf(TblHosts tblHosts) {
+        TblHosts copy = new TblHosts(tblHosts.getId());
+        copy.setName(tblHosts.getName());
+        copy.setUuid_hex(tblHosts.getUuid_hex());
+        copy.setAikSha1(tblHosts.getAikSha1());
+        return copy;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mtwilson.as.controller.TblTaLogJpaController;
+import com.intel.mtwilson.as.data.TblModuleManifestLog;
+import com.intel.mtwilson.as.data.TblSamlAssertion;
+import com.intel.mtwilson.as.data.TblTaLog;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the mw_ta_log, mw_module_manifest_log, and mw_saml_assertion
+ * records of one attestation so they can be written in a single transaction
+ * instead of one transaction per record. The batches of several attestations
+ * can be combined with addAll, see AttestationResultWriter.
+ *
+ * Records are tracked by identity because unsaved TblTaLog instances have no
+ * id and are all equal to each other. A record may be added more than once and
+ * may be modified after it was added; it is written once, with its state at
+ * the time of the flush.
+ *
+ * The size and time of the last flush and the totals of all flushes in this
+ * process are available from the static accessors, and are logged at info
+ * level every REPORT_INTERVAL flushes.
+ */
+public class TrustLogBatch {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TrustLogBatch.class);
+    private final List<TblTaLog> taLogs = new ArrayList<TblTaLog>();
+    private final List<TblModuleManifestLog> moduleManifestLogs = new ArrayList<TblModuleManifestLog>();
+    private final List<TblSamlAssertion> samlAssertions = new ArrayList<TblSamlAssertion>();
+    private final Set<Object> added = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+    private static final long REPORT_INTERVAL = 1000;
+    private static final AtomicLong flushes = new AtomicLong(0);
+    private static final AtomicLong totalRowsWritten = new AtomicLong(0);
+    private static final AtomicLong totalFlushMillis = new AtomicLong(0);
+    private static volatile int lastRowsWritten = 0;
+    private static volatile long lastFlushMillis = 0;
+
+    public void add(TblTaLog taLog) {
+        if( added.add(taLog) ) {
+            taLogs.add(taLog);
+        }
+    }
+
+    public void add(TblModuleManifestLog moduleManifestLog) {
+        if( added.add(moduleManifestLog) ) {
+            moduleManifestLogs.add(moduleManifestLog);
+        }
+    }
+
+    public void add(TblSamlAssertion samlAssertion) {
+        if( added.add(samlAssertion) ) {
+            samlAssertions.add(samlAssertion);
+        }
+    }
+
+    public void addAll(TrustLogBatch other) {
+        for(TblTaLog taLog : other.taLogs) {
+            add(taLog);
+        }
+        for(TblModuleManifestLog moduleManifestLog : other.moduleManifestLogs) {
+            add(moduleManifestLog);
+        }
+        for(TblSamlAssertion samlAssertion : other.samlAssertions) {
+            add(samlAssertion);
+        }
+    }
+
+    /**
+     * Returns a batch with new instances of the same records. A transaction
+     * that is rolled back can leave ids and references to its closed
+     * EntityManager in the records it tried to persist, so records are
+     * copied before they are written again.
+     *
+     * @return a new batch with copies of the records in this batch
+     */
+    public TrustLogBatch copy() {
+        TrustLogBatch copy = new TrustLogBatch();
+        Map<TblTaLog,TblTaLog> taLogCopies = new IdentityHashMap<TblTaLog,TblTaLog>();
+        for(TblTaLog taLog : taLogs) {
+            TblTaLog taLogCopy = new TblTaLog();
+            taLogCopy.setHostID(taLog.getHostID());
+            taLogCopy.setMleId(taLog.getMleId());
+            taLogCopy.setManifestName(taLog.getManifestName());
+            taLogCopy.setManifestValue(taLog.getManifestValue());
+            taLogCopy.setTrustStatus(taLog.getTrustStatus());
+            taLogCopy.setError(taLog.getError());
+            taLogCopy.setUpdatedOn(taLog.getUpdatedOn());
+            taLogCopy.setUuid_hex(taLog.getUuid_hex());
+            taLogCopy.setHost_uuid_hex(taLog.getHost_uuid_hex());
+            taLogCopies.put(taLog, taLogCopy);
+            copy.add(taLogCopy);
+        }
+        for(TblModuleManifestLog moduleManifestLog : moduleManifestLogs) {
+            TblModuleManifestLog moduleManifestLogCopy = new TblModuleManifestLog();
+            moduleManifestLogCopy.setName(moduleManifestLog.getName());
+            moduleManifestLogCopy.setValue(moduleManifestLog.getValue());
+            moduleManifestLogCopy.setWhitelistValue(moduleManifestLog.getWhitelistValue());
+            TblTaLog taLogCopy = taLogCopies.get(moduleManifestLog.getTaLogId());
+            moduleManifestLogCopy.setTaLogId(taLogCopy == null ? moduleManifestLog.getTaLogId() : taLogCopy);
+            copy.add(moduleManifestLogCopy);
+        }
+        for(TblSamlAssertion samlAssertion : samlAssertions) {
+            TblSamlAssertion samlAssertionCopy = new TblSamlAssertion();
+            samlAssertionCopy.setHostId(samlAssertion.getHostId());
+            samlAssertionCopy.setAssertionUuid(samlAssertion.getAssertionUuid());
+            samlAssertionCopy.setSaml(samlAssertion.getSaml());
+            samlAssertionCopy.setTrustReport(samlAssertion.getTrustReport());
+            samlAssertionCopy.setExpiryTs(samlAssertion.getExpiryTs());
+            samlAssertionCopy.setCreatedTs(samlAssertion.getCreatedTs());
+            samlAssertionCopy.setBiosTrust(samlAssertion.getBiosTrust());
+            samlAssertionCopy.setVmmTrust(samlAssertion.getVmmTrust());
+            samlAssertionCopy.setErrorCode(samlAssertion.getErrorCode());
+            samlAssertionCopy.setErrorMessage(samlAssertion.getErrorMessage());
+            copy.add(samlAssertionCopy);
+        }
+        return copy;
+    }
+
+    /**
+     * Same as TblModuleManifestLogJpaController.findByTaLogIdAndName but for
+     * the records in this batch, which are not in the database yet.
+     *
+     * @param taLog
+     * @param name
+     * @return the module manifest log record in this batch for the given ta log and name, or null if there is none
+     */
+    public TblModuleManifestLog findModuleManifestLog(TblTaLog taLog, String name) {
+        for(TblModuleManifestLog moduleManifestLog : moduleManifestLogs) {
+            if( moduleManifestLog.getTaLogId() == taLog && moduleManifestLog.getName() != null && moduleManifestLog.getName().equals(name) ) {
+                return moduleManifestLog;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes all the records in a single transaction and clears the batch.
+     *
+     * @param controller
+     */
+    public void flush(TblTaLogJpaController controller) {
+        if( size() == 0 ) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        controller.createAll(taLogs, moduleManifestLogs, samlAssertions);
+        int rows = size();
+        long elapsed = System.currentTimeMillis() - start;
+        lastRowsWritten = rows;
+        lastFlushMillis = elapsed;
+        totalRowsWritten.addAndGet(rows);
+        totalFlushMillis.addAndGet(elapsed);
+        if( flushes.incrementAndGet() % REPORT_INTERVAL == 0 ) {
+            log.info("Trust log flushes: {}", getFlushStats());
+        }
+        log.debug("performance: wrote {} ta log, {} module manifest log, and {} saml assertion records in {}ms", taLogs.size(), moduleManifestLogs.size(), samlAssertions.size(), elapsed);
+        taLogs.clear();
+        moduleManifestLogs.clear();
+        samlAssertions.clear();
+        added.clear();
+    }
+
+    public int size() {
+        return taLogs.size() + moduleManifestLogs.size() + samlAssertions.size();
+    }
+
+    /**
+     * @return number of batches written in this process
+     */
+    public static long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * @return number of records written by the last flush
+     */
+    public static int getLastRowsWritten() {
+        return lastRowsWritten;
+    }
+
+    /**
+     * @return time taken by the last flush, in milliseconds
+     */
+    public static long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    /**
+     * @return number of records written by all the flushes in this process
+     */
+    public static long getTotalRowsWritten() {
+        return totalRowsWritten.get();
+    }
+
+    /**
+     * @return total time spent in flush in this process, in milliseconds
+     */
+    public static long getTotalFlushMillis() {
+        return totalFlushMillis.get();
+    }
+
+    public static String getFlushStats() {
+        return String.format("flushes=%d last=%d records in %dms total=%d records in %dms", getFlushes(), getLastRowsWritten(), getLastFlushMillis(), getTotalRowsWritten(), getTotalFlushMillis());
+    }
+}
@@ -6,16 +6,20 @@ package com.intel.mtwilson.policy.impl;
 
 import com.intel.mtwilson.My;
 import com.intel.mtwilson.as.business.AssetTagCertBO;
+import com.intel.mtwilson.as.controller.WhitelistVersion;
 import java.util.HashSet;
 import com.intel.mtwilson.as.data.MwAssetTagCertificate;
 import com.intel.mtwilson.as.data.TblHosts;
+import com.intel.mtwilson.as.data.TblMle;
 import com.intel.mtwilson.model.Bios;
 import com.intel.mtwilson.model.Vmm;
 import com.intel.mtwilson.policy.*;
 import com.intel.mtwilson.policy.impl.vendor.*;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.persistence.EntityManagerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +38,11 @@ import org.slf4j.LoggerFactory;
  * TrustPolicy trustPolicy = loadTrustPolicyForHost(tblHostsRecord)
  * PolicyEngine policyEngine = new PolicyEngine();
  * 
+ * The bios and vmm rules are kept in the shared TrustPolicyCache so hosts
+ * that use the same MLEs do not reload the whitelist from the database
+ * for every attestation. The asset tag rules are always loaded because they
+ * are different for every host.
+ * 
  * @author jbuhacoff
  */
 public class HostTrustPolicyManager {
@@ -42,6 +51,8 @@ public class HostTrustPolicyManager {
     
     private EntityManagerFactory entityManagerFactory;
     private JpaPolicyReader reader;
+    private TrustPolicyCache cache = TrustPolicyCache.getInstance();
+    private int lastLoadQueryCount = 0;
 
     private Map<String,VendorHostTrustPolicyFactory> vendorFactoryMap = new HashMap<String,VendorHostTrustPolicyFactory>();
     //private Logger log = LoggerFactory.getLogger(getClass());
@@ -71,6 +82,13 @@ public class HostTrustPolicyManager {
         return entityManagerFactory;
     }
     
+    /**
+     * @return the number of whitelist queries issued by the last call to loadTrustPolicyForHost or loadTrustPolicyForMLEVerification; cache hits use none
+     */
+    public int getLastLoadQueryCount() {
+        return lastLoadQueryCount;
+    }
+    
     
     /**
      * CALL THIS FROM ATTESTATION SERVICE HostTrustBO TO GET THE TRUST POLICY FOR VERIFY HOST TRUST
@@ -106,17 +124,16 @@ public class HostTrustPolicyManager {
      * 
      */
     public Policy loadTrustPolicyForHost(TblHosts host, String hostId) {
+        int queryCount = reader.getQueryCount();
         VendorHostTrustPolicyFactory factory = getVendorHostTrustPolicyFactoryForHost(host);        
         HashSet<Rule> rules = new HashSet<>();
         // only add bios policy if the host is linked with a bios mle
         if( host.getBiosMleId() != null ) {
-            Bios bios = new Bios(host.getBiosMleId().getName(), host.getBiosMleId().getVersion(), host.getBiosMleId().getOemId().getName());
-            rules.addAll(factory.loadTrustRulesForBios(bios, host));
+            rules.addAll(loadBiosRules(factory, host));
         }
         // only add vmm policy if the host is linked with a vmm mle
         if( host.getVmmMleId() != null ) {
-            Vmm vmm = new Vmm(host.getVmmMleId().getName(), host.getVmmMleId().getVersion(), host.getVmmMleId().getOsId().getName(), host.getVmmMleId().getOsId().getVersion());
-            rules.addAll(factory.loadTrustRulesForVmm(vmm,host));
+            rules.addAll(loadVmmRules(factory, host, false));
         }
          // only add location policy if the host is expected to be somewhere specific... otherwise, an empty location will result in a policy that can't be met
         //if( host.getLocation() != null && !host.getLocation().trim().isEmpty() ) {
@@ -145,26 +162,90 @@ public class HostTrustPolicyManager {
         }
         
         Policy policy = new Policy(String.format("Host trust policy for host with AIK %s", hostId), rules);
+        lastLoadQueryCount = reader.getQueryCount() - queryCount;
+        log.debug("Loaded trust policy for host {} with {} rules using {} queries", host.getName(), rules.size(), lastLoadQueryCount);
         return policy;
     }
     
     public Policy loadTrustPolicyForMLEVerification(TblHosts host, String hostId) {
+        int queryCount = reader.getQueryCount();
         VendorHostTrustPolicyFactory factory = getVendorHostTrustPolicyFactoryForHost(host);        
         HashSet<Rule> rules = new HashSet<Rule>();
         // only add bios policy if the host is linked with a bios mle
         if( host.getBiosMleId() != null ) {
-            Bios bios = new Bios(host.getBiosMleId().getName(), host.getBiosMleId().getVersion(), host.getBiosMleId().getOemId().getName());
-            rules.addAll(factory.loadTrustRulesForBios(bios, host));
+            rules.addAll(loadBiosRules(factory, host));
         }
         // only add vmm policy if the host is linked with a vmm mle
         if( host.getVmmMleId() != null ) {
-            Vmm vmm = new Vmm(host.getVmmMleId().getName(), host.getVmmMleId().getVersion(), host.getVmmMleId().getOsId().getName(), host.getVmmMleId().getOsId().getVersion());
-            rules.addAll(factory.loadComparisonRulesForVmm(vmm,host));
+            rules.addAll(loadVmmRules(factory, host, true));
         }
         Policy policy = new Policy(String.format("Host trust policy for host with AIK %s", hostId), rules);
+        lastLoadQueryCount = reader.getQueryCount() - queryCount;
+        log.debug("Loaded MLE verification policy for host {} with {} rules using {} queries", host.getName(), rules.size(), lastLoadQueryCount);
         return policy;
     }
 
+    private Set<Rule> loadBiosRules(VendorHostTrustPolicyFactory factory, TblHosts host) {
+        String key = getCacheKey("bios", factory, host, host.getBiosMleId());
+        Set<Rule> rules = getCachedRules(key);
+        if( rules == null ) {
+            long version = WhitelistVersion.getWhitelistVersion();
+            Bios bios = new Bios(host.getBiosMleId().getName(), host.getBiosMleId().getVersion(), host.getBiosMleId().getOemId().getName());
+            rules = Collections.unmodifiableSet(new HashSet<Rule>(factory.loadTrustRulesForBios(bios, host)));
+            cache.put(key, rules, version);
+        }
+        return rules;
+    }
+
+    /**
+     * @param comparison true to load the rules used for verifying that a host matches the MLE, false to load the rules used for attestation
+     */
+    private Set<Rule> loadVmmRules(VendorHostTrustPolicyFactory factory, TblHosts host, boolean comparison) {
+        String key = getCacheKey(comparison ? "vmm-comparison" : "vmm", factory, host, host.getVmmMleId());
+        Set<Rule> rules = getCachedRules(key);
+        if( rules == null ) {
+            long version = WhitelistVersion.getWhitelistVersion();
+            Vmm vmm = new Vmm(host.getVmmMleId().getName(), host.getVmmMleId().getVersion(), host.getVmmMleId().getOsId().getName(), host.getVmmMleId().getOsId().getVersion());
+            Set<Rule> loaded = comparison ? factory.loadComparisonRulesForVmm(vmm, host) : factory.loadTrustRulesForVmm(vmm, host);
+            rules = Collections.unmodifiableSet(new HashSet<Rule>(loaded));
+            cache.put(key, rules, version);
+        }
+        return rules;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Rule> getCachedRules(String key) {
+        Set<Rule> rules = (Set<Rule>)cache.get(key);
+        log.debug("Trust policy cache {} for {}: {}", rules == null ? "miss" : "hit", key, cache);
+        return rules;
+    }
+
+    /**
+     * The rules for an MLE depend on the vendor factory and the host's PCR bank.
+     * If the MLE has modules with host-specific values, the rules also depend on
+     * the host's own manifest so the host id and its host-specific manifest
+     * version are added to the key.
+     */
+    private String getCacheKey(String type, VendorHostTrustPolicyFactory factory, TblHosts host, TblMle mle) {
+        StringBuilder key = new StringBuilder();
+        key.append(type).append("|").append(factory.getClass().getName()).append("|").append(host.getPcrBank()).append("|mle=").append(mle.getId());
+        if( host.getId() != null && host.getId() != 0 && hasHostSpecificModules(mle) ) {
+            key.append("|host=").append(host.getId()).append(":").append(WhitelistVersion.getHostSpecificVersion(host.getId()));
+        }
+        return key.toString();
+    }
+
+    private boolean hasHostSpecificModules(TblMle mle) {
+        String key = "host-specific|mle=" + mle.getId();
+        Boolean hostSpecific = (Boolean)cache.get(key);
+        if( hostSpecific == null ) {
+            long version = WhitelistVersion.getWhitelistVersion();
+            hostSpecific = reader.hasHostSpecificModules(mle);
+            cache.put(key, hostSpecific, version);
+        }
+        return hostSpecific;
+    }
+
     /*
     public Policy createWhitelistFromHost(TblHosts host) throws IOException {
         HostAgentFactory agentFactory = new HostAgentFactory();
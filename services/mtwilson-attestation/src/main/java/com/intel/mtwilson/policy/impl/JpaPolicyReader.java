@@ -52,7 +52,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.persistence.EntityManagerFactory;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -66,6 +68,12 @@ import org.slf4j.LoggerFactory;
  * classes. For example, creating a PcrMatchesConstant rule out of a mw_pcr_manifest record
  * is the same code regardless of which vendor is using it for what purpose.
  * 
+ * When building the event log rules for a set of modules, the host-specific
+ * manifests of the host are fetched with one query per PCR bank and looked up
+ * in memory, instead of one query per host-specific module. Set
+ * mtwilson.policy.prefetch.host.specific.manifests=false to go back to
+ * querying each module separately.
+ * 
  * @author jbuhacoff
  */
 public class JpaPolicyReader {
@@ -78,20 +86,47 @@ public class JpaPolicyReader {
     private TblModuleManifestJpaController moduleManifestJpaController;
     private TblLocationPcrJpaController locationPcrJpaController;
     private MwMeasurementXmlJpaController measurementXmlJpaController;
+    private boolean prefetchHostSpecificManifests;
+    private final AtomicInteger queryCount = new AtomicInteger(0);
 
     public JpaPolicyReader(EntityManagerFactory entityManagerFactory) {
+        this(entityManagerFactory, new TblHostSpecificManifestJpaController(entityManagerFactory));
+    }
+
+    // for testing the host-specific manifest lookups without a database
+    JpaPolicyReader(EntityManagerFactory entityManagerFactory, TblHostSpecificManifestJpaController pcrHostSpecificManifestJpaController) {
         this.entityManagerFactory = entityManagerFactory;
         mleJpaController = new TblMleJpaController(entityManagerFactory);
         pcrManifestJpaController = new TblPcrManifestJpaController(entityManagerFactory);
         moduleManifestJpaController = new TblModuleManifestJpaController(entityManagerFactory);
         locationPcrJpaController = new TblLocationPcrJpaController(entityManagerFactory);
-        pcrHostSpecificManifestJpaController = new TblHostSpecificManifestJpaController(entityManagerFactory);
+        this.pcrHostSpecificManifestJpaController = pcrHostSpecificManifestJpaController;
         measurementXmlJpaController = new MwMeasurementXmlJpaController(entityManagerFactory);
+        prefetchHostSpecificManifests = My.configuration().getConfiguration().getBoolean("mtwilson.policy.prefetch.host.specific.manifests", true);
+    }
+    
+    public boolean isPrefetchHostSpecificManifests() {
+        return prefetchHostSpecificManifests;
+    }
+
+    public void setPrefetchHostSpecificManifests(boolean prefetchHostSpecificManifests) {
+        this.prefetchHostSpecificManifests = prefetchHostSpecificManifests;
+    }
+    
+    /**
+     * The number of database queries issued by this reader since it was
+     * created. Callers can compare the value before and after loading a policy
+     * to find out how many queries the load used.
+     * Lazy loading of MLE collections is not counted.
+     */
+    public int getQueryCount() {
+        return queryCount.get();
     }
     
     
     public List<PcrIndex> loadBiosPcrIndexList(TblHosts tblHosts) {
         ArrayList<PcrIndex> pcrs = new ArrayList<PcrIndex>();
+        queryCount.incrementAndGet();
         TblMle biosMle = mleJpaController.findMleById(tblHosts.getBiosMleId().getId()); 
         String biosPcrList = biosMle.getRequiredManifestList();
         if (biosPcrList.isEmpty()) {
@@ -109,6 +144,7 @@ public class JpaPolicyReader {
     public List<PcrIndex> loadVmmPcrIndexList(TblHosts tblHosts) {
         ArrayList<PcrIndex> pcrs = new ArrayList<PcrIndex>();
         // Get the Vmm MLE without accessing cache
+        queryCount.incrementAndGet();
         TblMle vmmMle = mleJpaController.findMleById(tblHosts.getVmmMleId().getId()); 
         String vmmPcrList = vmmMle.getRequiredManifestList();
         if (vmmPcrList == null || vmmPcrList.isEmpty()) {
@@ -123,6 +159,23 @@ public class JpaPolicyReader {
         return pcrs;
     }        
 
+    /**
+     * @return true if any module in the MLE's whitelist uses a host-specific digest value
+     */
+    public boolean hasHostSpecificModules(TblMle mle) {
+        queryCount.incrementAndGet();
+        TblMle tblMle = mleJpaController.findMleById(mle.getId());
+        if( tblMle == null || tblMle.getTblModuleManifestCollection() == null ) {
+            return false;
+        }
+        for(TblModuleManifest moduleInfo : tblMle.getTblModuleManifestCollection()) {
+            if( moduleInfo.getUseHostSpecificDigestValue() != null && moduleInfo.getUseHostSpecificDigestValue().booleanValue() ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Rule createPcrMatchesConstantRuleFromTblPcrManifest(TblPcrManifest pcrInfo, String... markers) {
         try {            
             PcrIndex pcrIndex = new PcrIndex(Integer.valueOf(pcrInfo.getName()));
@@ -156,6 +209,7 @@ public class JpaPolicyReader {
     }*/
     
     public Set<Rule> loadPcrMatchesConstantRulesForBios(Bios bios, TblHosts tblHosts) {
+        queryCount.incrementAndGet();
         TblMle biosMle = mleJpaController.findBiosMle(bios.getName(), bios.getVersion(), bios.getOem());
         log.debug("WhitelistUtil found BIOS MLE: {}", biosMle.getName());
         Collection<TblPcrManifest> pcrInfoList = biosMle.getTblPcrManifestCollection();
@@ -163,6 +217,7 @@ public class JpaPolicyReader {
     }
 
     public Set<Rule> loadPcrMatchesConstantRulesForVmm(Vmm vmm, TblHosts tblHosts) {
+        queryCount.incrementAndGet();
         TblMle vmmMle = mleJpaController.findVmmMle(vmm.getName(), vmm.getVersion(), vmm.getOsName(), vmm.getOsVersion());
         log.debug("WhitelistUtil found VMM MLE: {}", vmmMle.getName());
         Collection<TblPcrManifest> pcrInfoList = vmmMle.getTblPcrManifestCollection();
@@ -257,6 +312,48 @@ public class JpaPolicyReader {
     }
     
     public Measurement createMeasurementFromTblModuleManifest(TblModuleManifest moduleInfo, TblHosts host) {
+        return createMeasurementFromTblModuleManifest(moduleInfo, host, null);
+    }
+    
+    /**
+     * Finds the host-specific manifests of the host for every PCR bank used by
+     * a host-specific module in the list, with one query per bank.
+     * 
+     * @return host-specific manifests indexed by module id and pcr bank, or null if
+     * prefetching is disabled or the host is not registered
+     */
+    protected Map<String,TblHostSpecificManifest> findHostSpecificManifests(Collection<TblModuleManifest> pcrModuleInfoList, TblHosts host) {
+        if( !prefetchHostSpecificManifests || host.getId() == null || host.getId() == 0 ) {
+            return null;
+        }
+        HashSet<String> pcrBanks = new HashSet<String>();
+        for(TblModuleManifest moduleInfo : pcrModuleInfoList) {
+            if( moduleInfo.getUseHostSpecificDigestValue() != null && moduleInfo.getUseHostSpecificDigestValue().booleanValue()) {
+                pcrBanks.add(moduleInfo.getPcrBank());
+            }
+        }
+        HashMap<String,TblHostSpecificManifest> index = new HashMap<String,TblHostSpecificManifest>();
+        for(String pcrBank : pcrBanks) {
+            queryCount.incrementAndGet();
+            List<TblHostSpecificManifest> hostSpecificModules = pcrHostSpecificManifestJpaController.findByHostIdPcrBank(host.getId(), pcrBank);
+            for(TblHostSpecificManifest hostSpecificModule : hostSpecificModules) {
+                if( hostSpecificModule.getModuleManifestID() != null ) {
+                    index.put(getHostSpecificManifestKey(hostSpecificModule.getModuleManifestID().getId(), pcrBank), hostSpecificModule);
+                }
+            }
+        }
+        log.debug("Found {} host-specific modules in {} pcr banks for host {}", index.size(), pcrBanks.size(), host.getName());
+        return index;
+    }
+    
+    private String getHostSpecificManifestKey(Integer moduleId, String pcrBank) {
+        return moduleId + ":" + pcrBank;
+    }
+    
+    /**
+     * @param hostSpecificManifests from findHostSpecificManifests, or null to query the host-specific module from the database
+     */
+    public Measurement createMeasurementFromTblModuleManifest(TblModuleManifest moduleInfo, TblHosts host, Map<String,TblHostSpecificManifest> hostSpecificManifests) {
         HashMap<String,String> info = new HashMap<String,String>();
         // info.put("EventType", manifest.getEventType()); 
         info.put("EventName", moduleInfo.getEventID().getName());
@@ -266,7 +363,14 @@ public class JpaPolicyReader {
         // Since we can call this function even without registering the host, the hostID will not be present. So, we need to skip adding this host specific module
         if( moduleInfo.getUseHostSpecificDigestValue() != null && moduleInfo.getUseHostSpecificDigestValue().booleanValue()) {
             if (host.getId() != null && host.getId() != 0) {
-                TblHostSpecificManifest hostSpecificModule = pcrHostSpecificManifestJpaController.findByModuleIdHostIdPcrBank(host.getId(), moduleInfo.getId(), moduleInfo.getPcrBank()); // returns null if not found;  
+                TblHostSpecificManifest hostSpecificModule;
+                if( hostSpecificManifests != null ) {
+                    hostSpecificModule = hostSpecificManifests.get(getHostSpecificManifestKey(moduleInfo.getId(), moduleInfo.getPcrBank())); // returns null if not found
+                }
+                else {
+                    queryCount.incrementAndGet();
+                    hostSpecificModule = pcrHostSpecificManifestJpaController.findByModuleIdHostIdPcrBank(host.getId(), moduleInfo.getId(), moduleInfo.getPcrBank()); // returns null if not found;  
+                }
                 if( hostSpecificModule == null ) {
                     log.error(String.format("Missing host-specific module %s for host %s", moduleInfo.getComponentName(), host.getName()));
                     Measurement m = MeasurementFactory.newInstance(host.getPcrBank(), "", "Missing host-specific module: " + moduleInfo.getComponentName(), info);
@@ -308,17 +412,21 @@ public class JpaPolicyReader {
     public Set<Rule> createPcrEventLogIncludesRuleFromTblModuleManifest(Collection<TblModuleManifest> pcrModuleInfoList, TblHosts host, String... markers) {
         HashSet<Rule> list = new HashSet<Rule>();
         HashMap<PcrIndex,Set<Measurement>> measurements = new HashMap<PcrIndex,Set<Measurement>>();
+        ArrayList<TblModuleManifest> pcrBankModuleInfoList = new ArrayList<TblModuleManifest>();
         for(TblModuleManifest moduleInfo : pcrModuleInfoList) {
-            if(!host.getPcrBank().equals(moduleInfo.getPcrBank())) {
-                continue;
+            if(host.getPcrBank().equals(moduleInfo.getPcrBank())) {
+                pcrBankModuleInfoList.add(moduleInfo);
             }
+        }
+        Map<String,TblHostSpecificManifest> hostSpecificManifests = findHostSpecificManifests(pcrBankModuleInfoList, host);
+        for(TblModuleManifest moduleInfo : pcrBankModuleInfoList) {
             PcrIndex pcrIndex = PcrIndex.valueOf(Integer.valueOf(moduleInfo.getExtendedToPCR()));
             
             if( !measurements.containsKey(pcrIndex) ) {
                 measurements.put(pcrIndex, new HashSet<Measurement>());
             }
             
-            Measurement m = createMeasurementFromTblModuleManifest(moduleInfo, host);
+            Measurement m = createMeasurementFromTblModuleManifest(moduleInfo, host, hostSpecificManifests);
             if (m != null)
                 measurements.get(pcrIndex).add(m);
         }
@@ -342,6 +450,7 @@ public class JpaPolicyReader {
     }
     
     public Set<Rule> loadPcrEventLogIncludesRuleForBios(Bios bios, TblHosts tblHosts) {
+        queryCount.incrementAndGet();
         TblMle biosMle = mleJpaController.findBiosMle(bios.getName(), bios.getVersion(), bios.getOem());
         Collection<TblModuleManifest> pcrModuleInfoList = biosMle.getTblModuleManifestCollection();  
         return createPcrEventLogIncludesRuleFromTblModuleManifest(pcrModuleInfoList, tblHosts, TrustMarker.BIOS.name());
@@ -355,6 +464,7 @@ public class JpaPolicyReader {
         //biosSpecificModules.add("STM_HASH");
         //biosSpecificModules.add("CPU_SCRTM_STAT");
         
+        queryCount.incrementAndGet();
         TblMle biosMle = mleJpaController.findBiosMle(bios.getName(), bios.getVersion(), bios.getOem());
         Collection<TblModuleManifest> pcrModuleInfoList = biosMle.getTblModuleManifestCollection();  
         for(Iterator<TblModuleManifest> it = pcrModuleInfoList.iterator(); it.hasNext();) {
@@ -369,6 +479,7 @@ public class JpaPolicyReader {
     public Set<Rule> loadPcrEventLogIncludesRuleForVmmDaMode(Vmm vmm, TblHosts tblHosts) {
         //HashSet<String> vmmSpecificModules = new HashSet<>();
         
+        queryCount.incrementAndGet();
         TblMle vmmMle = mleJpaController.findVmmMle(vmm.getName(), vmm.getVersion(), vmm.getOsName(), vmm.getOsVersion());
         Collection<TblModuleManifest> pcrModuleInfoList = vmmMle.getTblModuleManifestCollection();  
         for (Iterator<TblModuleManifest> it = pcrModuleInfoList.iterator(); it.hasNext();) {
@@ -381,12 +492,14 @@ public class JpaPolicyReader {
     }
     
     public Set<Rule> loadPcrEventLogIncludesRuleForVmm(Vmm vmm, TblHosts tblHosts) {
+        queryCount.incrementAndGet();
         TblMle vmmMle = mleJpaController.findVmmMle(vmm.getName(), vmm.getVersion(), vmm.getOsName(), vmm.getOsVersion());
         Collection<TblModuleManifest> pcrModuleInfoList = vmmMle.getTblModuleManifestCollection();      
         return createPcrEventLogIncludesRuleFromTblModuleManifest(pcrModuleInfoList, tblHosts, TrustMarker.VMM.name());
     }
     
     public Set<Rule> loadPcrEventLogEqualExcludingVmm(Vmm vmm, TblHosts tblHosts, boolean verifyMLE) {        
+        queryCount.incrementAndGet();
         TblMle vmmMle = mleJpaController.findVmmMle(vmm.getName(), vmm.getVersion(), vmm.getOsName(), vmm.getOsVersion());
         Collection<TblModuleManifest> pcrModuleInfoList = vmmMle.getTblModuleManifestCollection();  
         return createPcrEventLogEqualExcludingRuleFromTblModuleManifest(pcrModuleInfoList, tblHosts, verifyMLE, TrustMarker.VMM.name());
@@ -396,6 +509,7 @@ public class JpaPolicyReader {
     public Set<Rule> createPcrEventLogEqualExcludingRuleFromTblModuleManifest(Collection<TblModuleManifest> pcrModuleInfoList, TblHosts host, boolean verifyMLE, String... markers) {
         HashSet<Rule> list = new HashSet<Rule>();
         HashMap<PcrIndex,ArrayList<Measurement>> measurements = new HashMap<PcrIndex,ArrayList<Measurement>>();
+        Map<String,TblHostSpecificManifest> hostSpecificManifests = findHostSpecificManifests(pcrModuleInfoList, host);
         for(TblModuleManifest moduleInfo : pcrModuleInfoList) {
             PcrIndex pcrIndex = PcrIndex.valueOf(Integer.valueOf(moduleInfo.getExtendedToPCR()));
             
@@ -403,7 +517,7 @@ public class JpaPolicyReader {
                 measurements.put(pcrIndex, new ArrayList<Measurement>());
             }
             
-            Measurement m = createMeasurementFromTblModuleManifest(moduleInfo, host);
+            Measurement m = createMeasurementFromTblModuleManifest(moduleInfo, host, hostSpecificManifests);
             if (m != null)
                 measurements.get(pcrIndex).add(m);
         }
@@ -438,6 +552,7 @@ public class JpaPolicyReader {
         HashSet<Rule> list = new HashSet<>();
         Sha1Digest finalXmlWhitelistValue = null;
         
+        queryCount.incrementAndGet();
         TblMle vmmMle = mleJpaController.findVmmMle(vmm.getName(), vmm.getVersion(), vmm.getOsName(), vmm.getOsVersion());
         Collection<TblModuleManifest> tblModuleManifestCollection = vmmMle.getTblModuleManifestCollection();
         for(TblModuleManifest moduleObj : tblModuleManifestCollection) {
@@ -447,6 +562,7 @@ public class JpaPolicyReader {
             }                    
         }
 
+        queryCount.incrementAndGet();
         MwMeasurementXml xmlMeasurement = measurementXmlJpaController.findByMleId(vmmMle.getId());
         
         // Ensure we have the final hash of measurement log and the measurement log itself is whitelisted before adding the
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.policy.impl;
+
+import com.intel.mtwilson.My;
+import com.intel.mtwilson.as.controller.WhitelistVersion;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * In-memory cache of compiled trust policy rule sets, shared by all
+ * HostTrustPolicyManager instances in the process.
+ *
+ * Each entry remembers the whitelist version (see WhitelistVersion) that was
+ * current when its value was built. An entry whose version is older than the
+ * current whitelist version, or which is older than the configured maximum age,
+ * is discarded on lookup and counted as an invalidation. Host-specific data is
+ * versioned separately and the caller is expected to include the host-specific
+ * version in the cache key when the value depends on it.
+ *
+ * Cached values must be immutable because they are shared between threads.
+ *
+ * Configuration:
+ * mtwilson.policy.cache.enabled (default true)
+ * mtwilson.policy.cache.max.size maximum number of entries before the least recently used is evicted (default 1000)
+ * mtwilson.policy.cache.max.age.seconds entries older than this are rebuilt even if the whitelist did not change, 0 to disable (default 3600)
+ */
+public class TrustPolicyCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TrustPolicyCache.class);
+    private static TrustPolicyCache instance = null;
+
+    private final boolean enabled;
+    private final long maxAgeMillis;
+    private final Map<String,Entry> entries;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong invalidations = new AtomicLong(0);
+
+    private static class Entry {
+        private final Object value;
+        private final long whitelistVersion;
+        private final long created;
+
+        private Entry(Object value, long whitelistVersion) {
+            this.value = value;
+            this.whitelistVersion = whitelistVersion;
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+    public TrustPolicyCache(boolean enabled, final int maxSize, long maxAgeMillis) {
+        this.enabled = enabled;
+        this.maxAgeMillis = maxAgeMillis;
+        this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+                if( size() > maxSize ) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static synchronized TrustPolicyCache getInstance() {
+        if( instance == null ) {
+            Configuration config = My.configuration().getConfiguration();
+            boolean enabled = config.getBoolean("mtwilson.policy.cache.enabled", true);
+            int maxSize = config.getInt("mtwilson.policy.cache.max.size", 1000);
+            long maxAgeSeconds = config.getLong("mtwilson.policy.cache.max.age.seconds", 3600);
+            log.debug("Creating trust policy cache enabled={} max size={} max age={}s", enabled, maxSize, maxAgeSeconds);
+            instance = new TrustPolicyCache(enabled, maxSize, maxAgeSeconds * 1000);
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param key
+     * @return the cached value, or null if there is no current entry for the key
+     */
+    public Object get(String key) {
+        if( !enabled ) { return null; }
+        long currentVersion = WhitelistVersion.getWhitelistVersion();
+        synchronized(entries) {
+            Entry entry = entries.get(key);
+            if( entry == null ) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if( entry.whitelistVersion != currentVersion || (maxAgeMillis > 0 && System.currentTimeMillis() - entry.created > maxAgeMillis) ) {
+                log.debug("Trust policy cache entry {} is out of date", key);
+                entries.remove(key);
+                invalidations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+    }
+
+    /**
+     * @param key
+     * @param value must be immutable
+     * @param whitelistVersion the whitelist version obtained BEFORE the value was loaded from the database, so that a concurrent whitelist change invalidates it
+     */
+    public void put(String key, Object value, long whitelistVersion) {
+        if( !enabled ) { return; }
+        synchronized(entries) {
+            entries.put(key, new Entry(value, whitelistVersion));
+        }
+    }
+
+    public void clear() {
+        synchronized(entries) {
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized(entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d hits=%d misses=%d evictions=%d invalidations=%d", size(), getHits(), getMisses(), getEvictions(), getInvalidations());
+    }
+}
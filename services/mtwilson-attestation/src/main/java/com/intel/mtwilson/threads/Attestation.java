@@ -7,14 +7,15 @@ package com.intel.mtwilson.threads;
 import com.intel.dcsg.cpg.configuration.CommonsConfiguration;
 import com.intel.mountwilson.as.common.ASConfig;
 import com.intel.mtwilson.My;
+import com.intel.mtwilson.as.business.trust.AttestationResultWriter;
 import com.intel.mtwilson.as.business.trust.HostTrustBO;
 import com.intel.mtwilson.saml.IssuerConfiguration;
 import com.intel.mtwilson.saml.SamlConfiguration;
+import com.intel.mtwilson.saml.SamlGenerator;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.security.GeneralSecurityException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -22,27 +23,42 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 import org.apache.commons.configuration.Configuration;
+import org.opensaml.xml.ConfigurationException;
 
 /**
  * Initializes the data encryption key and the SAML issuer configuration
  * once when the attestation starts.
  *
+ * Attestation tasks run on an AttestationScheduler configured with:
+ * mtwilson.bulktrust.threads.max total number of threads (default 16)
+ * mtwilson.attestation.interactive.threads.reserved threads only for single host requests (default 2)
+ * mtwilson.attestation.client.threads.max tasks of one API client running at the same time (default half the threads)
+ * mtwilson.attestation.interactive.queue.max, mtwilson.attestation.bulk.queue.max, mtwilson.attestation.background.queue.max waiting tasks per lane (default 1000, 10000, 10000)
+ * mtwilson.attestation.interactive.weight, mtwilson.attestation.bulk.weight, mtwilson.attestation.background.weight share of the threads per lane (default 8, 4, 1)
+ *
  * @author jbuhacoff
  */
 @WebListener
 public class Attestation implements ServletContextListener {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Attestation.class);
-    private static ExecutorService executor;
+    private static AttestationScheduler executor;
+    private static SamlGenerator samlGenerator;
 
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         try {
         log.debug("Initializing ASDataCipher...");
         My.initDataEncryptionKey();
-        int maxThreads = ASConfig.getConfiguration().getInt("mtwilson.bulktrust.threads.max", 16);
-        log.debug("Creating fixed thread pool with n={}", maxThreads);
-        executor = Executors.newFixedThreadPool(maxThreads, new AttestationThreadFactory());
+        Configuration config = ASConfig.getConfiguration();
+        int maxThreads = config.getInt("mtwilson.bulktrust.threads.max", 16);
+        int reservedThreads = config.getInt("mtwilson.attestation.interactive.threads.reserved", 2);
+        int maxPerClient = config.getInt("mtwilson.attestation.client.threads.max", Math.max(1, maxThreads / 2));
+        log.debug("Creating attestation scheduler with n={} reserved for interactive={} max per client={}", maxThreads, reservedThreads, maxPerClient);
+        executor = new AttestationScheduler(maxThreads, reservedThreads, maxPerClient, new AttestationThreadFactory());
+        executor.setLaneLimits(AttestationScheduler.Lane.INTERACTIVE, config.getInt("mtwilson.attestation.interactive.queue.max", 1000), config.getInt("mtwilson.attestation.interactive.weight", 8));
+        executor.setLaneLimits(AttestationScheduler.Lane.BULK, config.getInt("mtwilson.attestation.bulk.queue.max", 10000), config.getInt("mtwilson.attestation.bulk.weight", 4));
+        executor.setLaneLimits(AttestationScheduler.Lane.BACKGROUND, config.getInt("mtwilson.attestation.background.queue.max", 10000), config.getInt("mtwilson.attestation.background.weight", 1));
         
         if( IssuerConfigurationHolder.samlIssuerConfiguration == null ) {
             log.error("Failed to initialize SAML issuer");
@@ -67,6 +83,9 @@ public class Attestation implements ServletContextListener {
     public void contextDestroyed(ServletContextEvent sce) {
         log.debug("Shutdown thread pool");
         if (executor != null) {
+            for (AttestationScheduler.Lane lane : AttestationScheduler.Lane.values()) {
+                log.info("Attestation scheduler: {}", executor.getStatistics(lane));
+            }
             executor.shutdown(); // Disable new tasks from being submitted
             try {
                 // Wait a while for existing tasks to terminate
@@ -84,16 +103,36 @@ public class Attestation implements ServletContextListener {
                 Thread.currentThread().interrupt();
             }
         }
+        // write the attestation results that are still queued while the database is available
+        AttestationResultWriter.getInstance().shutdown();
     }
 
+    /**
+     * @return the attestation scheduler; tasks submitted through its ExecutorService methods go into the bulk lane
+     */
     public static ExecutorService getExecutor() {
         return executor;
     }
+
+    public static AttestationScheduler getScheduler() {
+        return executor;
+    }
     
     public static IssuerConfiguration getIssuerConfiguration() {
         return IssuerConfigurationHolder.samlIssuerConfiguration;
     }
 
+    /**
+     * @return the SAML generator for the issuer configuration, shared by all threads
+     * @throws ConfigurationException if the signature generator cannot be initialized
+     */
+    public static synchronized SamlGenerator getSamlGenerator() throws ConfigurationException {
+        if( samlGenerator == null ) {
+            samlGenerator = new SamlGenerator(getIssuerConfiguration());
+        }
+        return samlGenerator;
+    }
+
     public static class AttestationThreadFactory implements ThreadFactory {
 
         private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttestationThreadFactory.class);
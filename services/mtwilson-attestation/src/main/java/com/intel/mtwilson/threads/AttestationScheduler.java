@@ -0,0 +1,682 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.threads;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.UnavailableSecurityManagerException;
+import org.apache.shiro.subject.Subject;
+
+/**
+ * Runs attestation tasks on a fixed number of threads with a separate queue
+ * for each kind of caller, so a large bulk request cannot hold up
+ * interactive requests for the duration of the bulk request.
+ *
+ * Lanes: INTERACTIVE for single host requests, BULK for bulk trust requests,
+ * and BACKGROUND for the automatic trust refresh. When all lanes have
+ * waiting tasks, free threads take tasks from the lanes in proportion to
+ * the lane weights, highest priority lane first. Some threads can be
+ * reserved for the interactive lane.
+ *
+ * Each lane has a maximum number of waiting tasks. A submission that would
+ * go over it is rejected right away with RejectedExecutionException instead
+ * of waiting behind the whole queue. Submissions of several tasks with
+ * executeAll or invokeAll are accepted or rejected as a whole.
+ *
+ * Within a lane the tasks of different clients are taken in turn, and each
+ * client can have at most a configured number of tasks running at the same
+ * time across all lanes; its other tasks wait in the queue. Tasks without a
+ * client take their turn together but are not limited, so the internal
+ * callers that submit them are not throttled as if they were one client.
+ *
+ * Tasks submitted through the ExecutorService methods of this class go into
+ * the BULK lane without a client. Use executor(lane, client) to get an
+ * ExecutorService for a specific lane and client.
+ */
+public class AttestationScheduler extends AbstractExecutorService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttestationScheduler.class);
+
+    public static enum Lane {
+        INTERACTIVE, BULK, BACKGROUND
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Condition terminated = lock.newCondition();
+    private final EnumMap<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+    private final HashMap<String, Integer> runningByClient = new HashMap<>();
+    private final ArrayList<Thread> workers = new ArrayList<>();
+    private final int maxPerClient;
+    private int liveWorkers = 0;
+    private boolean shutdown = false;
+    private boolean stopped = false;
+
+    private static class Task {
+        private final Runnable runnable;
+        private final LaneQueue lane;
+        private final String client; // null for tasks without a client
+        private final long enqueued;
+
+        private Task(Runnable runnable, LaneQueue lane, String client) {
+            this.runnable = runnable;
+            this.lane = lane;
+            this.client = client;
+            this.enqueued = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Waiting tasks of one lane, grouped by client in the order in which the
+     * clients are next in turn. Guarded by the scheduler lock.
+     */
+    private class LaneQueue {
+        private final Lane lane;
+        private final LinkedHashMap<String, ArrayDeque<Task>> byClient = new LinkedHashMap<>();
+        private int capacity = Integer.MAX_VALUE;
+        private int weight = 1;
+        private int credits = 0;
+        private int queued = 0;
+        private int running = 0;
+        private long submitted = 0;
+        private long rejected = 0;
+        private long completed = 0;
+        private long totalWaitMillis = 0;
+        private long maxWaitMillis = 0;
+        private long totalServiceMillis = 0;
+
+        private LaneQueue(Lane lane) {
+            this.lane = lane;
+        }
+
+        private void add(Task task) {
+            ArrayDeque<Task> tasks = byClient.get(task.client);
+            if (tasks == null) {
+                tasks = new ArrayDeque<>();
+                byClient.put(task.client, tasks);
+            }
+            tasks.add(task);
+            queued++;
+        }
+
+        /**
+         * @return the next task of the first client in turn that is below
+         * its limit of running tasks, or null if there is none
+         */
+        private Task poll() {
+            Iterator<Map.Entry<String, ArrayDeque<Task>>> it = byClient.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, ArrayDeque<Task>> entry = it.next();
+                if (maxPerClient > 0 && entry.getKey() != null && getRunning(entry.getKey()) >= maxPerClient) {
+                    continue;
+                }
+                ArrayDeque<Task> tasks = entry.getValue();
+                Task task = tasks.poll();
+                it.remove();
+                if (!tasks.isEmpty()) {
+                    byClient.put(entry.getKey(), tasks); // the client goes to the end of the line
+                }
+                queued--;
+                return task;
+            }
+            return null;
+        }
+
+        private void drainTo(List<Runnable> list) {
+            for (ArrayDeque<Task> tasks : byClient.values()) {
+                for (Task task : tasks) {
+                    list.add(task.runnable);
+                }
+            }
+            byClient.clear();
+            queued = 0;
+        }
+    }
+
+    /**
+     * Snapshot of the counters of one lane.
+     */
+    public static class LaneStatistics {
+        private final Lane lane;
+        private final int queued;
+        private final int running;
+        private final long submitted;
+        private final long rejected;
+        private final long completed;
+        private final long totalWaitMillis;
+        private final long maxWaitMillis;
+        private final long totalServiceMillis;
+
+        private LaneStatistics(LaneQueue queue) {
+            this.lane = queue.lane;
+            this.queued = queue.queued;
+            this.running = queue.running;
+            this.submitted = queue.submitted;
+            this.rejected = queue.rejected;
+            this.completed = queue.completed;
+            this.totalWaitMillis = queue.totalWaitMillis;
+            this.maxWaitMillis = queue.maxWaitMillis;
+            this.totalServiceMillis = queue.totalServiceMillis;
+        }
+
+        public Lane getLane() {
+            return lane;
+        }
+
+        /**
+         * @return number of tasks waiting for a thread
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        /**
+         * @return number of tasks accepted into the lane
+         */
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        /**
+         * @return number of tasks rejected because the lane was full
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return average time between submitting a task and starting it, of the tasks that started
+         */
+        public long getAverageWaitMillis() {
+            long started = completed + running;
+            return started == 0 ? 0 : totalWaitMillis / started;
+        }
+
+        public long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        /**
+         * @return average time it took to run a task, of the completed tasks
+         */
+        public long getAverageServiceMillis() {
+            return completed == 0 ? 0 : totalServiceMillis / completed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s queued=%d running=%d submitted=%d rejected=%d completed=%d wait avg=%dms max=%dms service avg=%dms",
+                    lane, queued, running, submitted, rejected, completed, getAverageWaitMillis(), maxWaitMillis, getAverageServiceMillis());
+        }
+    }
+
+    /**
+     * @param threads total number of threads
+     * @param reservedInteractiveThreads number of threads that only run tasks from the interactive lane; at least one thread is always left for the other lanes
+     * @param maxPerClient maximum number of tasks of one client running at the same time, or 0 for no limit
+     * @param threadFactory
+     */
+    public AttestationScheduler(int threads, int reservedInteractiveThreads, int maxPerClient, ThreadFactory threadFactory) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        this.maxPerClient = maxPerClient;
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneQueue(lane));
+        }
+        int reserved = Math.max(0, Math.min(reservedInteractiveThreads, threads - 1));
+        for (int i = 0; i < threads; i++) {
+            workers.add(threadFactory.newThread(new Worker(i < reserved)));
+        }
+        liveWorkers = workers.size();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * @param lane
+     * @param capacity maximum number of waiting tasks in the lane
+     * @param weight share of the threads the lane gets when other lanes also have waiting tasks
+     */
+    public void setLaneLimits(Lane lane, int capacity, int weight) {
+        lock.lock();
+        try {
+            LaneQueue queue = lanes.get(lane);
+            queue.capacity = capacity;
+            queue.weight = Math.max(1, weight);
+            queue.credits = Math.min(queue.credits, queue.weight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public LaneStatistics getStatistics(Lane lane) {
+        lock.lock();
+        try {
+            return new LaneStatistics(lanes.get(lane));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param lane
+     * @param client identifies the caller for the per client limit, or null for tasks that are not limited
+     * @return an executor that submits its tasks to the given lane on behalf of the client; shutting it down shuts down the scheduler
+     */
+    public ExecutorService executor(Lane lane, String client) {
+        return new LaneExecutor(lane, client);
+    }
+
+    /**
+     * @return the primary principal of the current Shiro subject as a string, or null if there is no authenticated subject on this thread
+     */
+    public static String getCurrentClient() {
+        try {
+            Subject subject = SecurityUtils.getSubject();
+            if (subject == null || subject.getPrincipal() == null) {
+                return null;
+            }
+            return subject.getPrincipal().toString();
+        } catch (UnavailableSecurityManagerException e) {
+            return null; // not called from a request, for example from a plugin thread
+        }
+    }
+
+    public void execute(Lane lane, String client, Runnable task) {
+        executeAll(lane, client, Collections.singletonList(task));
+    }
+
+    /**
+     * Adds all the tasks to the lane, or none of them if they do not fit.
+     *
+     * @param lane
+     * @param client may be null for tasks that are not limited per client
+     * @param tasks
+     * @throws RejectedExecutionException if the lane does not have room for all the tasks or the scheduler is shut down
+     */
+    public void executeAll(Lane lane, String client, Collection<? extends Runnable> tasks) {
+        add(lane, client, tasks, true);
+    }
+
+    /**
+     * Adds a task that continues one that was already accepted, for example
+     * an attestation that was waiting for the response of the host. It is
+     * not checked against the lane capacity, because the lane already
+     * accepted it once and rejecting it now would leave the caller to run it
+     * on its own thread.
+     *
+     * @param lane
+     * @param client may be null for tasks that are not limited per client
+     * @param task
+     * @throws RejectedExecutionException if the scheduler is shut down
+     */
+    public void resume(Lane lane, String client, Runnable task) {
+        add(lane, client, Collections.singletonList(task), false);
+    }
+
+    private void add(Lane lane, String client, Collection<? extends Runnable> tasks, boolean checkCapacity) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("Attestation scheduler is shut down");
+            }
+            LaneQueue queue = lanes.get(lane);
+            if (checkCapacity && queue.queued + tasks.size() > queue.capacity) {
+                queue.rejected += tasks.size();
+                log.warn("Rejected {} tasks from client {}: {} queue has {} of {} tasks", tasks.size(), client, lane, queue.queued, queue.capacity);
+                throw new RejectedExecutionException(String.format("%s queue is full", lane));
+            }
+            for (Runnable task : tasks) {
+                queue.add(new Task(task, queue, client));
+            }
+            queue.submitted += tasks.size();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(Lane.BULK, null, command);
+    }
+
+    @Override
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        ArrayList<Runnable> waiting = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            stopped = true;
+            for (LaneQueue queue : lanes.values()) {
+                queue.drainTo(waiting);
+            }
+            available.signalAll();
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return waiting;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        lock.lock();
+        try {
+            return shutdown;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        lock.lock();
+        try {
+            return shutdown && liveWorkers == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!(shutdown && liveWorkers == 0)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = terminated.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // caller must hold the lock
+    private int getRunning(String client) {
+        Integer running = runningByClient.get(client);
+        return running == null ? 0 : running;
+    }
+
+    // caller must hold the lock
+    private int getQueued() {
+        int queued = 0;
+        for (LaneQueue queue : lanes.values()) {
+            queued += queue.queued;
+        }
+        return queued;
+    }
+
+    /**
+     * Weighted round robin over the lanes in priority order: each lane can
+     * take as many tasks as its weight before the lanes after it get a turn,
+     * and the turns start over when no lane with turns left has a task that
+     * can run. Caller must hold the lock.
+     */
+    private Task next(boolean interactiveOnly) {
+        if (interactiveOnly) {
+            return lanes.get(Lane.INTERACTIVE).poll();
+        }
+        if (getQueued() == 0) {
+            return null;
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (LaneQueue queue : lanes.values()) {
+                if (queue.credits > 0) {
+                    Task task = queue.poll();
+                    if (task != null) {
+                        queue.credits--;
+                        return task;
+                    }
+                }
+            }
+            for (LaneQueue queue : lanes.values()) {
+                queue.credits = queue.weight;
+            }
+        }
+        return null;
+    }
+
+    private class Worker implements Runnable {
+        private final boolean interactiveOnly;
+
+        private Worker(boolean interactiveOnly) {
+            this.interactiveOnly = interactiveOnly;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Task task;
+                while ((task = take()) != null) {
+                    long started = System.currentTimeMillis();
+                    try {
+                        task.runnable.run();
+                    } catch (Throwable e) {
+                        log.error("Attestation task failed", e);
+                    } finally {
+                        finished(task, started);
+                    }
+                }
+            } finally {
+                lock.lock();
+                try {
+                    liveWorkers--;
+                    if (liveWorkers == 0) {
+                        terminated.signalAll();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * @return the next task to run, or null when the scheduler is shut
+         * down and there are no more tasks
+         */
+        private Task take() {
+            lock.lock();
+            try {
+                while (!stopped) {
+                    Task task = next(interactiveOnly);
+                    if (task != null) {
+                        started(task);
+                        Thread.interrupted(); // clear an interrupt left over from cancelling the previous task
+                        return task;
+                    }
+                    if (shutdown && getQueued() == 0) {
+                        return null;
+                    }
+                    try {
+                        available.await();
+                    } catch (InterruptedException e) {
+                        log.trace("Attestation worker interrupted while waiting", e);
+                    }
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // caller must hold the lock
+    private void started(Task task) {
+        long wait = System.currentTimeMillis() - task.enqueued;
+        task.lane.running++;
+        task.lane.totalWaitMillis += wait;
+        task.lane.maxWaitMillis = Math.max(task.lane.maxWaitMillis, wait);
+        if (task.client != null) {
+            runningByClient.put(task.client, getRunning(task.client) + 1);
+        }
+    }
+
+    private void finished(Task task, long started) {
+        lock.lock();
+        try {
+            task.lane.running--;
+            task.lane.completed++;
+            task.lane.totalServiceMillis += System.currentTimeMillis() - started;
+            if (task.client != null) {
+                int running = getRunning(task.client) - 1;
+                if (running > 0) {
+                    runningByClient.put(task.client, running);
+                } else {
+                    runningByClient.remove(task.client);
+                }
+            }
+            available.signalAll(); // tasks of this client may be able to run now
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class LaneExecutor extends AbstractExecutorService {
+        private final Lane lane;
+        private final String client;
+
+        private LaneExecutor(Lane lane, String client) {
+            this.lane = lane;
+            this.client = client;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            AttestationScheduler.this.execute(lane, client, command);
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+            return invokeAll(tasks, -1);
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
+            return invokeAll(tasks, System.nanoTime() + unit.toNanos(timeout));
+        }
+
+        /**
+         * Same as AbstractExecutorService.invokeAll except that the tasks
+         * are accepted or rejected together.
+         *
+         * @param deadline in System.nanoTime(), or -1 to wait as long as it takes
+         */
+        private <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long deadline) throws InterruptedException {
+            ArrayList<RunnableFuture<T>> futures = new ArrayList<>();
+            for (Callable<T> task : tasks) {
+                futures.add(newTaskFor(task));
+            }
+            executeAll(lane, client, futures);
+            try {
+                for (RunnableFuture<T> future : futures) {
+                    if (future.isDone()) {
+                        continue;
+                    }
+                    try {
+                        if (deadline == -1) {
+                            future.get();
+                        } else {
+                            future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        }
+                    } catch (ExecutionException | CancellationException e) {
+                        log.trace("Task failed", e); // the caller gets the same exception from the future
+                    } catch (TimeoutException e) {
+                        break;
+                    }
+                }
+            } finally {
+                for (RunnableFuture<T> future : futures) {
+                    if (!future.isDone()) {
+                        future.cancel(true);
+                    }
+                }
+            }
+            return new ArrayList<Future<T>>(futures);
+        }
+
+        /**
+         * Shuts down the scheduler, because the lanes share its threads.
+         */
+        @Override
+        public void shutdown() {
+            AttestationScheduler.this.shutdown();
+        }
+
+        /**
+         * Stops the scheduler, because the lanes share its threads.
+         *
+         * @return the tasks that were waiting in all the lanes
+         */
+        @Override
+        public List<Runnable> shutdownNow() {
+            return AttestationScheduler.this.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return AttestationScheduler.this.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return AttestationScheduler.this.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return AttestationScheduler.this.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mtwilson.threads.Attestation;
+import com.intel.mtwilson.threads.AttestationScheduler;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class AttestationFutureTest {
+
+    private final AtomicInteger runs = new AtomicInteger(0);
+    private final LinkedBlockingQueue<Future<String>> completed = new LinkedBlockingQueue<>();
+
+    private AttestationFuture<String> createFuture() {
+        return new AttestationFuture<>(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, "host1", completed);
+    }
+
+    /**
+     * Like HostAgentFuture, notifies the attestation when the call to the
+     * host is cancelled.
+     */
+    private FutureTask<Object> createRequest(final AttestationFuture<String> future, final AttestationScheduler scheduler) {
+        return new FutureTask<Object>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                future.resume(scheduler, AttestationScheduler.Lane.BULK, "client1");
+            }
+        };
+    }
+
+    private AttestationScheduler createScheduler() {
+        return new AttestationScheduler(1, 0, 0, new Attestation.AttestationThreadFactory());
+    }
+
+    private void shutdown(AttestationScheduler scheduler) throws InterruptedException {
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testResumeRunsOnScheduler() throws Exception {
+        AttestationScheduler scheduler = createScheduler();
+        AttestationFuture<String> future = createFuture();
+        FutureTask<Object> request = createRequest(future, scheduler);
+        future.setRequest(request);
+        request.run(); // the response arrived
+        assertSame(future, completed.poll(5, TimeUnit.SECONDS));
+        assertEquals("host1", future.get());
+        assertEquals(1, runs.get());
+        shutdown(scheduler);
+    }
+
+    @Test
+    public void testCancelDoesNotResume() throws Exception {
+        AttestationScheduler scheduler = createScheduler();
+        AttestationFuture<String> future = createFuture();
+        FutureTask<Object> request = createRequest(future, scheduler);
+        future.setRequest(request);
+        // cancelling the request calls resume, which must see that the attestation was cancelled
+        assertTrue(future.cancel(true));
+        assertTrue(request.isCancelled());
+        shutdown(scheduler);
+        assertEquals(0, runs.get());
+        assertEquals(0, scheduler.getStatistics(AttestationScheduler.Lane.BULK).getSubmitted());
+        assertSame(future, completed.poll());
+        assertNull(completed.poll());
+    }
+
+    @Test
+    public void testRequestSetAfterCancelIsCancelled() throws Exception {
+        AttestationScheduler scheduler = createScheduler();
+        AttestationFuture<String> future = createFuture();
+        future.cancel(true);
+        FutureTask<Object> request = createRequest(future, scheduler);
+        future.setRequest(request);
+        assertTrue(request.isCancelled());
+        shutdown(scheduler);
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void testResumeWhenLaneIsFull() throws Exception {
+        AttestationScheduler scheduler = createScheduler();
+        scheduler.setLaneLimits(AttestationScheduler.Lane.BULK, 1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute(AttestationScheduler.Lane.INTERACTIVE, null, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.execute(AttestationScheduler.Lane.BULK, "client2", new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        // the lane is full, but the attestation was accepted before so it is queued anyway and does not run on this thread
+        AttestationFuture<String> future = createFuture();
+        future.resume(scheduler, AttestationScheduler.Lane.BULK, "client1");
+        assertEquals(0, runs.get());
+        assertEquals(2, scheduler.getStatistics(AttestationScheduler.Lane.BULK).getQueued());
+        release.countDown();
+        assertSame(future, completed.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        shutdown(scheduler);
+    }
+
+    @Test
+    public void testResumeAfterShutdownCancels() throws Exception {
+        AttestationScheduler scheduler = createScheduler();
+        shutdown(scheduler);
+        AttestationFuture<String> future = createFuture();
+        future.resume(scheduler, AttestationScheduler.Lane.BULK, "client1");
+        assertTrue(future.isCancelled());
+        assertEquals(0, runs.get());
+        assertSame(future, completed.poll());
+    }
+}
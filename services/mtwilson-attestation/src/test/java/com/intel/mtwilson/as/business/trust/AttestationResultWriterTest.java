@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mtwilson.as.controller.TblTaLogJpaController;
+import com.intel.mtwilson.as.data.TblModuleManifestLog;
+import com.intel.mtwilson.as.data.TblSamlAssertion;
+import com.intel.mtwilson.as.data.TblTaLog;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class AttestationResultWriterTest {
+
+    /**
+     * Records the transactions instead of writing them, and can be made to
+     * wait or to fail.
+     */
+    private static class TestController extends TblTaLogJpaController {
+        final List<List<TblSamlAssertion>> transactions = Collections.synchronizedList(new ArrayList<List<TblSamlAssertion>>());
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        volatile CountDownLatch started = new CountDownLatch(1);
+        volatile CountDownLatch release = null;
+        volatile boolean failCombined = false;
+        volatile String badError = null;
+
+        TestController() {
+            super(null);
+        }
+
+        @Override
+        public void createAll(Collection<TblTaLog> tblTaLogs, Collection<TblModuleManifestLog> tblModuleManifestLogs, Collection<TblSamlAssertion> tblSamlAssertions) {
+            try {
+                // only the background writer waits, so a result written by the caller is not held up
+                if( release != null && Thread.currentThread().getName().equals("attestation-result-writer") ) {
+                    started.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                }
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            HashSet<String> hosts = new HashSet<String>();
+            for(TblSamlAssertion samlAssertion : tblSamlAssertions) {
+                if( samlAssertion.getErrorMessage() != null && samlAssertion.getErrorMessage().equals(badError) ) {
+                    throw new IllegalStateException("bad record");
+                }
+                hosts.add(samlAssertion.getErrorMessage());
+            }
+            if( failCombined && hosts.size() > 1 ) {
+                throw new IllegalStateException("combined transaction failed");
+            }
+            transactions.add(new ArrayList<TblSamlAssertion>(tblSamlAssertions));
+            threads.add(Thread.currentThread().getName());
+        }
+
+        List<TblSamlAssertion> written() {
+            ArrayList<TblSamlAssertion> written = new ArrayList<TblSamlAssertion>();
+            synchronized(transactions) {
+                for(List<TblSamlAssertion> transaction : transactions) {
+                    written.addAll(transaction);
+                }
+            }
+            return written;
+        }
+    }
+
+    private static AttestationResultWriter createWriter(boolean async, int queueSize, long offerTimeoutMillis, final TestController controller) {
+        return new AttestationResultWriter(async, queueSize, 10, offerTimeoutMillis, 5000, true) {
+            @Override
+            protected TblTaLogJpaController getTaLogController() {
+                return controller;
+            }
+        };
+    }
+
+    private static TrustLogBatch createResult(String name) {
+        TrustLogBatch batch = new TrustLogBatch();
+        TblTaLog taLog = new TblTaLog();
+        taLog.setManifestName(name);
+        batch.add(taLog);
+        TblSamlAssertion samlAssertion = new TblSamlAssertion();
+        samlAssertion.setErrorMessage(name);
+        batch.add(samlAssertion);
+        return batch;
+    }
+
+    @Test
+    public void testSyncWritesOnCallingThread() throws Exception {
+        TestController controller = new TestController();
+        AttestationResultWriter writer = createWriter(false, 10, 100, controller);
+        writer.write(createResult("host1"));
+        assertEquals(1, controller.transactions.size());
+        assertEquals(Thread.currentThread().getName(), controller.threads.get(0));
+        assertTrue(writer.flush());
+    }
+
+    @Test
+    public void testAsyncCombinesResultsAndFlushWaits() throws Exception {
+        TestController controller = new TestController();
+        controller.release = new CountDownLatch(1);
+        AttestationResultWriter writer = createWriter(true, 10, 100, controller);
+        writer.write(createResult("host0"));
+        assertTrue(controller.started.await(10, TimeUnit.SECONDS));
+        for(int i = 1; i <= 4; i++) {
+            writer.write(createResult("host" + i));
+        }
+        assertEquals(4, writer.getQueueDepth());
+        controller.release.countDown();
+        assertTrue(writer.flush());
+        assertEquals(5, writer.getWritten());
+        assertEquals(5, controller.written().size());
+        // the first result was written alone and the other four together
+        assertEquals(2, controller.transactions.size());
+        assertEquals(4, controller.transactions.get(1).size());
+        assertEquals("attestation-result-writer", controller.threads.get(0));
+        assertEquals(0, writer.getCallerWrites());
+        writer.shutdown();
+    }
+
+    @Test
+    public void testCallerWritesWhenQueueIsFull() throws Exception {
+        TestController controller = new TestController();
+        controller.release = new CountDownLatch(1);
+        AttestationResultWriter writer = createWriter(true, 1, 100, controller);
+        writer.write(createResult("host0"));
+        assertTrue(controller.started.await(10, TimeUnit.SECONDS));
+        writer.write(createResult("host1"));
+        // the writer is busy and the queue is full, so this waits for the offer timeout and is then written here
+        long start = System.currentTimeMillis();
+        writer.write(createResult("host2"));
+        assertTrue(System.currentTimeMillis() - start >= 90);
+        assertEquals(1, writer.getCallerWrites());
+        assertEquals(1, controller.transactions.size());
+        assertEquals(Thread.currentThread().getName(), controller.threads.get(0));
+        controller.release.countDown();
+        assertTrue(writer.flush());
+        assertEquals(3, controller.written().size());
+        writer.shutdown();
+    }
+
+    @Test
+    public void testFailedBatchIsWrittenAgainWithNewRecords() throws Exception {
+        TestController controller = new TestController();
+        controller.release = new CountDownLatch(1);
+        AttestationResultWriter writer = createWriter(true, 10, 100, controller);
+        writer.write(createResult("host0"));
+        assertTrue(controller.started.await(10, TimeUnit.SECONDS));
+        controller.failCombined = true;
+        controller.badError = "host2";
+        TrustLogBatch host1 = createResult("host1");
+        TblSamlAssertion host1SamlAssertion = new TblSamlAssertion();
+        host1SamlAssertion.setErrorMessage("host1");
+        host1.add(host1SamlAssertion);
+        writer.write(host1);
+        writer.write(createResult("host2"));
+        writer.write(createResult("host3"));
+        controller.release.countDown();
+        assertTrue(writer.flush());
+        assertEquals(3, writer.getWritten());
+        assertEquals(1, writer.getFailures());
+        List<TblSamlAssertion> written = controller.written();
+        ArrayList<String> names = new ArrayList<String>();
+        for(TblSamlAssertion samlAssertion : written) {
+            names.add(samlAssertion.getErrorMessage());
+            // records that were in the failed transaction are written as new instances
+            assertNotSame(host1SamlAssertion, samlAssertion);
+        }
+        assertEquals(4, names.size());
+        assertTrue(names.contains("host1"));
+        assertTrue(names.contains("host3"));
+        assertFalse(names.contains("host2"));
+        writer.shutdown();
+    }
+
+    @Test
+    public void testShutdownWritesQueuedResults() throws Exception {
+        TestController controller = new TestController();
+        controller.release = new CountDownLatch(1);
+        AttestationResultWriter writer = createWriter(true, 10, 100, controller);
+        writer.write(createResult("host0"));
+        assertTrue(controller.started.await(10, TimeUnit.SECONDS));
+        writer.write(createResult("host1"));
+        writer.write(createResult("host2"));
+        controller.release.countDown();
+        assertTrue(writer.shutdown());
+        assertEquals(3, controller.written().size());
+        assertEquals(0, writer.getQueueDepth());
+        // after shutdown results are written on the calling thread
+        writer.write(createResult("host3"));
+        assertEquals(4, controller.written().size());
+        assertEquals(Thread.currentThread().getName(), controller.threads.get(controller.threads.size() - 1));
+        assertEquals(1, writer.getCallerWrites());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class BulkTrustWriterTest {
+
+    /**
+     * Counts the flushes so the tests can check that each finished host is
+     * sent right away.
+     */
+    private static class CountingWriter extends StringWriter {
+        int flushes = 0;
+
+        @Override
+        public void flush() {
+            flushes++;
+            super.flush();
+        }
+    }
+
+    private static String host(String hostname, String errorCode) {
+        return String.format("<Host><Name>%s</Name><ErrorCode>%s</ErrorCode></Host>", BulkTrustSamlWriter.escape(hostname), errorCode);
+    }
+
+    private static Map<String,String> hostTrust(String hostname, String errorCode) {
+        LinkedHashMap<String,String> result = new LinkedHashMap<>();
+        result.put("Hostname", hostname);
+        result.put("ErrorCode", errorCode);
+        return result;
+    }
+
+    @Test
+    public void testSamlResponse() throws Exception {
+        CountingWriter out = new CountingWriter();
+        BulkTrustSamlWriter response = new BulkTrustSamlWriter(out);
+        response.start();
+        assertEquals("<Hosts>", out.toString());
+        response.completed(host("host1", "OK"));
+        assertEquals(2, out.flushes);
+        response.timedOut("host2", host("host2", "AS_ASYNC_TIMEOUT"));
+        response.finish(2);
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(out.toString().getBytes("UTF-8")));
+        NodeList hosts = document.getElementsByTagName("Host");
+        assertEquals(2, hosts.getLength());
+        assertEquals("host1", ((Element)hosts.item(0)).getElementsByTagName("Name").item(0).getTextContent());
+        Element summary = (Element)document.getElementsByTagName("Summary").item(0);
+        assertEquals("2", summary.getElementsByTagName("Total").item(0).getTextContent());
+        assertEquals("host2", ((Element)summary.getElementsByTagName("TimedOut").item(0)).getElementsByTagName("Name").item(0).getTextContent());
+    }
+
+    @Test
+    public void testSamlResponseEscapesHostnames() throws Exception {
+        StringWriter out = new StringWriter();
+        BulkTrustSamlWriter response = new BulkTrustSamlWriter(out);
+        String hostname = "<Name>evil</Name>&\"host\"";
+        response.start();
+        response.timedOut(hostname, host(hostname, "AS_ASYNC_TIMEOUT"));
+        response.finish(1);
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(out.toString().getBytes("UTF-8")));
+        NodeList names = document.getElementsByTagName("Name");
+        assertEquals(2, names.getLength());
+        assertEquals(hostname, names.item(0).getTextContent());
+        assertEquals(hostname, names.item(1).getTextContent());
+    }
+
+    @Test
+    public void testSamlResponseWithoutHosts() throws Exception {
+        StringWriter out = new StringWriter();
+        BulkTrustSamlWriter response = new BulkTrustSamlWriter(out);
+        response.start();
+        response.finish(0);
+        assertEquals("<Hosts><Summary><Total>0</Total><TimedOut></TimedOut></Summary></Hosts>", out.toString());
+    }
+
+    @Test
+    public void testJsonResponse() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        CountingWriter out = new CountingWriter();
+        BulkTrustJsonWriter response = new BulkTrustJsonWriter(out, mapper);
+        response.start();
+        response.completed(hostTrust("host1", "OK"));
+        response.completed(hostTrust("host\"2", "OK"));
+        assertEquals(3, out.flushes);
+        response.timedOut("host3", hostTrust("host3", "AS_ASYNC_TIMEOUT"));
+        response.finish(3);
+        JsonNode json = mapper.readTree(out.toString());
+        assertEquals(3, json.get("Hosts").size());
+        assertEquals("host\"2", json.get("Hosts").get(1).get("Hostname").asText());
+        assertEquals(3, json.get("Total").asInt());
+        assertEquals(1, json.get("TimedOut").size());
+        assertEquals("host3", json.get("TimedOut").get(0).asText());
+    }
+
+    @Test
+    public void testJsonResponseWithoutHosts() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        StringWriter out = new StringWriter();
+        BulkTrustJsonWriter response = new BulkTrustJsonWriter(out, mapper);
+        response.start();
+        response.finish(0);
+        JsonNode json = mapper.readTree(out.toString());
+        assertEquals(0, json.get("Hosts").size());
+        assertEquals(0, json.get("TimedOut").size());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mtwilson.as.data.TblHosts;
+import com.intel.mtwilson.as.data.TblSamlAssertion;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SamlAssertionCacheTest {
+
+    private TblHosts createHost(String name) {
+        TblHosts host = new TblHosts(name.hashCode());
+        host.setName(name);
+        host.setUuid_hex("uuid-" + name);
+        host.setAikSha1("aik-" + name);
+        return host;
+    }
+
+    private TblSamlAssertion createAssertion(long expiresInMillis) {
+        TblSamlAssertion assertion = new TblSamlAssertion();
+        assertion.setCreatedTs(new Date());
+        assertion.setExpiryTs(new Date(System.currentTimeMillis() + expiresInMillis));
+        return assertion;
+    }
+
+    @Test
+    public void testPutReplacesLatest() {
+        SamlAssertionCache cache = new SamlAssertionCache(true, 10, 0);
+        TblHosts host = createHost("host1");
+        assertNull(cache.getLatest("host1"));
+        TblSamlAssertion first = createAssertion(60000);
+        cache.put(host, first);
+        assertSame(first, cache.getLatest("host1"));
+        TblSamlAssertion second = createAssertion(120000);
+        cache.put(host, second);
+        assertSame(second, cache.getLatest("host1"));
+        // only the assertions written since the host was cached are known, not all the ones in the database
+        assertNull(cache.getValid("host1"));
+    }
+
+    @Test
+    public void testExpiredAssertionsAreNotReturned() {
+        SamlAssertionCache cache = new SamlAssertionCache(true, 10, 0);
+        TblHosts host = createHost("host1");
+        TblSamlAssertion expired = createAssertion(-1000);
+        TblSamlAssertion valid = createAssertion(60000);
+        cache.putAll(host, Arrays.asList(expired, valid));
+        List<TblSamlAssertion> list = cache.getValid("host1");
+        assertEquals(1, list.size());
+        assertSame(valid, list.get(0));
+        cache.putAll(host, Arrays.asList(expired));
+        assertNull(cache.getLatest("host1"));
+        assertTrue(cache.getValid("host1").isEmpty());
+    }
+
+    @Test
+    public void testLookupByUuidAndAik() {
+        SamlAssertionCache cache = new SamlAssertionCache(true, 10, 0);
+        TblHosts host = createHost("host1");
+        cache.put(host, createAssertion(60000));
+        assertEquals("host1", cache.getHostByUuid("uuid-host1").getName());
+        assertEquals("host1", cache.getHostByAikSha1("aik-host1").getName());
+        assertEquals("uuid-host1", cache.getHostByName("host1").getUuid_hex());
+        cache.remove("host1");
+        assertNull(cache.getHostByUuid("uuid-host1"));
+        assertNull(cache.getHostByAikSha1("aik-host1"));
+        assertNull(cache.getLatest("host1"));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        SamlAssertionCache cache = new SamlAssertionCache(true, 2, 0);
+        cache.put(createHost("host1"), createAssertion(60000));
+        cache.put(createHost("host2"), createAssertion(60000));
+        assertNotNull(cache.getLatest("host1"));
+        cache.put(createHost("host3"), createAssertion(60000));
+        assertEquals(2, cache.size());
+        assertNull(cache.getLatest("host2"));
+        assertNull(cache.getHostByUuid("uuid-host2"));
+        assertNotNull(cache.getLatest("host1"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testDisabled() {
+        SamlAssertionCache cache = new SamlAssertionCache(false, 10, 0);
+        cache.put(createHost("host1"), createAssertion(60000));
+        assertNull(cache.getLatest("host1"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.as.business.trust;
+
+import com.intel.mtwilson.as.controller.TblTaLogJpaController;
+import com.intel.mtwilson.as.data.TblModuleManifestLog;
+import com.intel.mtwilson.as.data.TblSamlAssertion;
+import com.intel.mtwilson.as.data.TblTaLog;
+import java.util.Collection;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TrustLogBatchTest {
+
+    private TblModuleManifestLog createModuleManifestLog(TblTaLog taLog, String name) {
+        TblModuleManifestLog event = new TblModuleManifestLog();
+        event.setTaLogId(taLog);
+        event.setName(name);
+        event.setValue("");
+        event.setWhitelistValue("");
+        return event;
+    }
+
+    @Test
+    public void testAddSameRecordOnce() {
+        TrustLogBatch batch = new TrustLogBatch();
+        TblTaLog pcr = new TblTaLog();
+        batch.add(pcr);
+        batch.add(pcr);
+        // unsaved records without ids are distinct even if equals() says otherwise
+        batch.add(new TblTaLog());
+        assertEquals(2, batch.size());
+    }
+
+    @Test
+    public void testFindModuleManifestLog() {
+        TrustLogBatch batch = new TrustLogBatch();
+        TblTaLog pcr17 = new TblTaLog();
+        TblTaLog pcr19 = new TblTaLog();
+        batch.add(pcr17);
+        batch.add(pcr19);
+        TblModuleManifestLog event = createModuleManifestLog(pcr19, "vmlinuz");
+        batch.add(event);
+        assertSame(event, batch.findModuleManifestLog(pcr19, "vmlinuz"));
+        assertNull(batch.findModuleManifestLog(pcr17, "vmlinuz"));
+        assertNull(batch.findModuleManifestLog(pcr19, "initrd"));
+    }
+
+    @Test
+    public void testAddAll() {
+        TblTaLog pcr = new TblTaLog();
+        TrustLogBatch host1 = new TrustLogBatch();
+        host1.add(pcr);
+        host1.add(createModuleManifestLog(pcr, "vmlinuz"));
+        host1.add(new TblSamlAssertion());
+        TrustLogBatch host2 = new TrustLogBatch();
+        host2.add(new TblTaLog());
+        host2.add(new TblSamlAssertion());
+        TrustLogBatch combined = new TrustLogBatch();
+        combined.addAll(host1);
+        combined.addAll(host2);
+        combined.addAll(host1);
+        assertEquals(5, combined.size());
+        assertNotNull(combined.findModuleManifestLog(pcr, "vmlinuz"));
+    }
+
+    @Test
+    public void testCopy() {
+        TblTaLog pcr = new TblTaLog();
+        pcr.setManifestName("17");
+        TrustLogBatch batch = new TrustLogBatch();
+        batch.add(pcr);
+        batch.add(createModuleManifestLog(pcr, "vmlinuz"));
+        TrustLogBatch copy = batch.copy();
+        assertEquals(2, copy.size());
+        // the copied module refers to the copy of its ta log, not to the original
+        assertNull(copy.findModuleManifestLog(pcr, "vmlinuz"));
+        assertNotNull(batch.findModuleManifestLog(pcr, "vmlinuz"));
+    }
+
+    @Test
+    public void testFlushStats() {
+        TblTaLogJpaController controller = new TblTaLogJpaController(null) {
+            @Override
+            public void createAll(Collection<TblTaLog> tblTaLogs, Collection<TblModuleManifestLog> tblModuleManifestLogs, Collection<TblSamlAssertion> tblSamlAssertions) {
+                // nothing to write
+            }
+        };
+        long flushes = TrustLogBatch.getFlushes();
+        long rows = TrustLogBatch.getTotalRowsWritten();
+        TblTaLog pcr = new TblTaLog();
+        TrustLogBatch batch = new TrustLogBatch();
+        batch.add(pcr);
+        batch.add(createModuleManifestLog(pcr, "vmlinuz"));
+        batch.add(new TblSamlAssertion());
+        batch.flush(controller);
+        assertEquals(0, batch.size());
+        assertEquals(3, TrustLogBatch.getLastRowsWritten());
+        // an empty batch is not written and does not count
+        batch.flush(controller);
+        TrustLogBatch other = new TrustLogBatch();
+        other.add(new TblTaLog());
+        other.flush(controller);
+        assertEquals(1, TrustLogBatch.getLastRowsWritten());
+        assertEquals(flushes + 2, TrustLogBatch.getFlushes());
+        assertEquals(rows + 4, TrustLogBatch.getTotalRowsWritten());
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.policy.impl;
+
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.mtwilson.as.controller.TblHostSpecificManifestJpaController;
+import com.intel.mtwilson.as.data.TblEventType;
+import com.intel.mtwilson.as.data.TblHostSpecificManifest;
+import com.intel.mtwilson.as.data.TblHosts;
+import com.intel.mtwilson.as.data.TblModuleManifest;
+import com.intel.mtwilson.model.Measurement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class JpaPolicyReaderTest {
+    private static final String SHA1_DIGEST = "0123456789abcdef0123456789abcdef01234567";
+    private static final String SHA256_DIGEST = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    /**
+     * Answers the host-specific manifest queries from a list, the same way
+     * the named queries of TblHostSpecificManifest select the rows.
+     */
+    private static class HostSpecificManifests extends TblHostSpecificManifestJpaController {
+        private final List<TblHostSpecificManifest> rows = new ArrayList<>();
+        private int hostIdPcrBankQueries = 0;
+        private int moduleIdHostIdPcrBankQueries = 0;
+
+        private HostSpecificManifests() {
+            super(null);
+        }
+
+        @Override
+        public List<TblHostSpecificManifest> findByHostIdPcrBank(int hostId, String pcrBank) {
+            hostIdPcrBankQueries++;
+            ArrayList<TblHostSpecificManifest> found = new ArrayList<>();
+            for(TblHostSpecificManifest row : rows) {
+                if( row.getHostID() == hostId && row.getPcrBank().equals(pcrBank) ) {
+                    found.add(row);
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public TblHostSpecificManifest findByModuleIdHostIdPcrBank(int hostId, int moduleID, String pcrBank) {
+            moduleIdHostIdPcrBankQueries++;
+            for(TblHostSpecificManifest row : rows) {
+                if( row.getHostID() == hostId && row.getModuleManifestID().getId() == moduleID && row.getPcrBank().equals(pcrBank) ) {
+                    return row;
+                }
+            }
+            return null;
+        }
+    }
+
+    private TblHosts createHost(int id, String pcrBank) {
+        TblHosts host = new TblHosts();
+        host.setId(id);
+        host.setName("host" + id);
+        host.setPcrBank(pcrBank);
+        return host;
+    }
+
+    private TblModuleManifest createModule(int id, String pcrBank, boolean hostSpecific) {
+        TblEventType eventType = new TblEventType();
+        eventType.setId(1);
+        eventType.setName("Vim25Api.HostTpmCommandEventDetails");
+        TblModuleManifest module = new TblModuleManifest();
+        module.setId(id);
+        module.setEventID(eventType);
+        module.setComponentName("module" + id);
+        module.setExtendedToPCR("19");
+        module.setPcrBank(pcrBank);
+        module.setUseHostSpecificDigestValue(hostSpecific);
+        module.setDigestValue(pcrBank.equals("SHA256") ? SHA256_DIGEST : SHA1_DIGEST);
+        return module;
+    }
+
+    private TblHostSpecificManifest createHostSpecificManifest(TblHosts host, TblModuleManifest module, String pcrBank, String digest) {
+        TblHostSpecificManifest row = new TblHostSpecificManifest();
+        row.setHostID(host.getId());
+        row.setModuleManifestID(module);
+        row.setPcrBank(pcrBank);
+        row.setDigestValue(digest);
+        return row;
+    }
+
+    private void assertSameMeasurement(Measurement expected, Measurement actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getValue(), actual.getValue());
+        assertEquals(expected.getLabel(), actual.getLabel());
+        assertEquals(expected.getInfo(), actual.getInfo());
+    }
+
+    /**
+     * Every module gets the same measurement from the prefetched manifests as
+     * from the per-module query, including the modules whose host-specific
+     * manifest is missing or only exists in another PCR bank.
+     */
+    private void assertPrefetchMatchesQuery(HostSpecificManifests manifests, TblHosts host, List<TblModuleManifest> modules) {
+        JpaPolicyReader reader = new JpaPolicyReader(null, manifests);
+        Map<String,TblHostSpecificManifest> prefetched = reader.findHostSpecificManifests(modules, host);
+        assertNotNull(prefetched);
+        for(TblModuleManifest module : modules) {
+            Measurement expected = reader.createMeasurementFromTblModuleManifest(module, host, null);
+            Measurement actual = reader.createMeasurementFromTblModuleManifest(module, host, prefetched);
+            assertSameMeasurement(expected, actual);
+        }
+    }
+
+    @Test
+    public void testPrefetchMatchesQuery() {
+        TblHosts host = createHost(1, "SHA1");
+        TblHosts otherHost = createHost(2, "SHA1");
+        TblModuleManifest found = createModule(1, "SHA1", true);
+        TblModuleManifest missing = createModule(2, "SHA1", true);
+        TblModuleManifest otherBank = createModule(3, "SHA1", true);
+        TblModuleManifest notHostSpecific = createModule(4, "SHA1", false);
+        HostSpecificManifests manifests = new HostSpecificManifests();
+        manifests.rows.add(createHostSpecificManifest(host, found, "SHA1", "1111111111111111111111111111111111111111"));
+        manifests.rows.add(createHostSpecificManifest(otherHost, missing, "SHA1", "2222222222222222222222222222222222222222"));
+        manifests.rows.add(createHostSpecificManifest(host, otherBank, "SHA256", SHA256_DIGEST));
+        List<TblModuleManifest> modules = Arrays.asList(found, missing, otherBank, notHostSpecific);
+        assertPrefetchMatchesQuery(manifests, host, modules);
+        // one query for the SHA1 bank instead of one for each host-specific module
+        assertEquals(1, manifests.hostIdPcrBankQueries);
+        assertEquals(3, manifests.moduleIdHostIdPcrBankQueries);
+        JpaPolicyReader reader = new JpaPolicyReader(null, manifests);
+        Map<String,TblHostSpecificManifest> prefetched = reader.findHostSpecificManifests(modules, host);
+        assertEquals(new Sha1Digest("1111111111111111111111111111111111111111"), reader.createMeasurementFromTblModuleManifest(found, host, prefetched).getValue());
+        assertEquals("Missing host-specific module: module3", reader.createMeasurementFromTblModuleManifest(otherBank, host, prefetched).getLabel());
+    }
+
+    @Test
+    public void testPrefetchMatchesQueryForMissingBank() {
+        // the host only has host-specific manifests in the SHA1 bank, for example because it was registered before it used SHA256
+        TblHosts host = createHost(1, "SHA256");
+        TblModuleManifest sha1Module = createModule(1, "SHA1", true);
+        TblModuleManifest sha256Module = createModule(1, "SHA256", true);
+        HostSpecificManifests manifests = new HostSpecificManifests();
+        manifests.rows.add(createHostSpecificManifest(host, sha1Module, "SHA1", SHA1_DIGEST));
+        List<TblModuleManifest> modules = Arrays.asList(sha256Module);
+        assertPrefetchMatchesQuery(manifests, host, modules);
+        JpaPolicyReader reader = new JpaPolicyReader(null, manifests);
+        Map<String,TblHostSpecificManifest> prefetched = reader.findHostSpecificManifests(modules, host);
+        assertTrue(prefetched.isEmpty());
+        assertEquals("Missing host-specific module: module1", reader.createMeasurementFromTblModuleManifest(sha256Module, host, prefetched).getLabel());
+    }
+
+    @Test
+    public void testNoPrefetchWhenDisabledOrNotRegistered() {
+        TblModuleManifest module = createModule(1, "SHA1", true);
+        HostSpecificManifests manifests = new HostSpecificManifests();
+        JpaPolicyReader reader = new JpaPolicyReader(null, manifests);
+        assertNull(reader.findHostSpecificManifests(Arrays.asList(module), createHost(0, "SHA1")));
+        reader.setPrefetchHostSpecificManifests(false);
+        assertNull(reader.findHostSpecificManifests(Arrays.asList(module), createHost(1, "SHA1")));
+        assertEquals(0, manifests.hostIdPcrBankQueries);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.threads;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class AttestationSchedulerTest {
+
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    private Runnable block(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private AttestationScheduler createScheduler(int threads, int maxPerClient) {
+        return new AttestationScheduler(threads, 0, maxPerClient, new Attestation.AttestationThreadFactory());
+    }
+
+    private void shutdown(AttestationScheduler scheduler) throws InterruptedException {
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRejectWhenLaneIsFull() throws InterruptedException {
+        AttestationScheduler scheduler = createScheduler(1, 0);
+        scheduler.setLaneLimits(AttestationScheduler.Lane.BULK, 2, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute(AttestationScheduler.Lane.INTERACTIVE, null, block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        try {
+            scheduler.executeAll(AttestationScheduler.Lane.BULK, "client1", Arrays.asList(record("a"), record("b"), record("c")));
+            fail("Expected the bulk lane to reject three tasks");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        scheduler.executeAll(AttestationScheduler.Lane.BULK, "client1", Arrays.asList(record("a"), record("b")));
+        AttestationScheduler.LaneStatistics bulk = scheduler.getStatistics(AttestationScheduler.Lane.BULK);
+        assertEquals(2, bulk.getQueued());
+        assertEquals(3, bulk.getRejected());
+        release.countDown();
+        shutdown(scheduler);
+        assertEquals(Arrays.asList("a", "b"), order);
+        assertEquals(2, scheduler.getStatistics(AttestationScheduler.Lane.BULK).getCompleted());
+    }
+
+    @Test
+    public void testInteractiveBeforeBulk() throws InterruptedException {
+        AttestationScheduler scheduler = createScheduler(1, 0);
+        scheduler.setLaneLimits(AttestationScheduler.Lane.INTERACTIVE, 100, 2);
+        scheduler.setLaneLimits(AttestationScheduler.Lane.BULK, 100, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute(AttestationScheduler.Lane.BACKGROUND, null, block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.executeAll(AttestationScheduler.Lane.BULK, null, Arrays.asList(record("b1"), record("b2")));
+        scheduler.execute(AttestationScheduler.Lane.BACKGROUND, null, record("r1"));
+        scheduler.executeAll(AttestationScheduler.Lane.INTERACTIVE, null, Arrays.asList(record("i1"), record("i2"), record("i3")));
+        release.countDown();
+        shutdown(scheduler);
+        // two interactive and one bulk, then the turns start over because the background lane used its turn for the first task
+        assertEquals(Arrays.asList("i1", "i2", "b1", "i3", "b2", "r1"), order);
+    }
+
+    @Test
+    public void testClientsTakeTurns() throws InterruptedException {
+        AttestationScheduler scheduler = createScheduler(1, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute(AttestationScheduler.Lane.BULK, "client0", block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.executeAll(AttestationScheduler.Lane.BULK, "client1", Arrays.asList(record("a1"), record("a2"), record("a3")));
+        scheduler.execute(AttestationScheduler.Lane.BULK, "client2", record("b1"));
+        release.countDown();
+        shutdown(scheduler);
+        assertEquals(Arrays.asList("a1", "b1", "a2", "a3"), order);
+    }
+
+    @Test
+    public void testMaxPerClient() throws InterruptedException {
+        AttestationScheduler scheduler = createScheduler(2, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute(AttestationScheduler.Lane.BULK, "client1", block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.execute(AttestationScheduler.Lane.BULK, "client1", record("a2"));
+        scheduler.execute(AttestationScheduler.Lane.BULK, "client2", block(new CountDownLatch(1), new CountDownLatch(0)));
+        scheduler.execute(AttestationScheduler.Lane.BULK, "client2", block(done, new CountDownLatch(0)));
+        // the second thread runs the tasks of client2 while client1 is at its limit
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(order.isEmpty());
+        assertEquals(1, scheduler.getStatistics(AttestationScheduler.Lane.BULK).getQueued());
+        release.countDown();
+        shutdown(scheduler);
+        assertEquals(Arrays.asList("a2"), order);
+    }
+
+    @Test
+    public void testTasksWithoutClientAreNotLimited() throws InterruptedException {
+        AttestationScheduler scheduler = createScheduler(3, 1);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute(AttestationScheduler.Lane.BULK, null, block(started, release));
+        scheduler.execute(AttestationScheduler.Lane.BULK, "", block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // the client named "" is at its limit, the tasks without a client are not
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.execute(AttestationScheduler.Lane.BULK, "", record("e2"));
+        scheduler.execute(AttestationScheduler.Lane.BULK, null, block(done, new CountDownLatch(0)));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(order.isEmpty());
+        assertEquals(1, scheduler.getStatistics(AttestationScheduler.Lane.BULK).getQueued());
+        release.countDown();
+        shutdown(scheduler);
+        assertEquals(Arrays.asList("e2"), order);
+    }
+
+    @Test
+    public void testLaneExecutorShutsDownScheduler() throws InterruptedException {
+        AttestationScheduler scheduler = createScheduler(1, 0);
+        ExecutorService executor = scheduler.executor(AttestationScheduler.Lane.INTERACTIVE, "client1");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(record("i2"));
+        List<Runnable> waiting = executor.shutdownNow();
+        assertEquals(1, waiting.size());
+        assertTrue(scheduler.isShutdown());
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(executor.isTerminated());
+        assertTrue(order.isEmpty());
+        try {
+            scheduler.execute(record("r1"));
+            fail("Expected the scheduler to reject tasks after the lane executor was shut down");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInvokeAllCancelsAfterTimeout() throws InterruptedException {
+        AttestationScheduler scheduler = createScheduler(1, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<String> fast = new Callable<String>() {
+            @Override
+            public String call() {
+                return "fast";
+            }
+        };
+        Callable<String> slow = new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                release.await();
+                return "slow";
+            }
+        };
+        List<Future<String>> futures = scheduler.executor(AttestationScheduler.Lane.INTERACTIVE, "client1").invokeAll(Arrays.asList(fast, slow), 200, TimeUnit.MILLISECONDS);
+        assertEquals(2, futures.size());
+        assertTrue(futures.get(0).isDone() && !futures.get(0).isCancelled());
+        assertTrue(futures.get(1).isCancelled());
+        release.countDown();
+        shutdown(scheduler);
+    }
+}
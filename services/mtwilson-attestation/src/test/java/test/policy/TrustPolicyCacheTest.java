@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package test.policy;
+
+import com.intel.mtwilson.as.controller.WhitelistVersion;
+import com.intel.mtwilson.policy.impl.TrustPolicyCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TrustPolicyCacheTest {
+
+    @Test
+    public void testHitAndMiss() {
+        TrustPolicyCache cache = new TrustPolicyCache(true, 10, 0);
+        assertNull(cache.get("bios|mle=1"));
+        cache.put("bios|mle=1", "rules", WhitelistVersion.getWhitelistVersion());
+        assertEquals("rules", cache.get("bios|mle=1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        TrustPolicyCache cache = new TrustPolicyCache(true, 2, 0);
+        long version = WhitelistVersion.getWhitelistVersion();
+        cache.put("a", "a", version);
+        cache.put("b", "b", version);
+        cache.get("a");
+        cache.put("c", "c", version);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals("a", cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void testWhitelistChangeInvalidates() {
+        TrustPolicyCache cache = new TrustPolicyCache(true, 10, 0);
+        cache.put("vmm|mle=2", "rules", WhitelistVersion.getWhitelistVersion());
+        WhitelistVersion.whitelistChanged();
+        assertNull(cache.get("vmm|mle=2"));
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testHostSpecificVersion() {
+        long before = WhitelistVersion.getHostSpecificVersion(12345);
+        WhitelistVersion.hostSpecificManifestChanged(12345);
+        assertEquals(before + 1, WhitelistVersion.getHostSpecificVersion(12345));
+        assertEquals(0, WhitelistVersion.getHostSpecificVersion(null));
+    }
+
+    @Test
+    public void testDisabled() {
+        TrustPolicyCache cache = new TrustPolicyCache(false, 10, 0);
+        cache.put("bios|mle=1", "rules", WhitelistVersion.getWhitelistVersion());
+        assertNull(cache.get("bios|mle=1"));
+        assertEquals(0, cache.size());
+    }
+}
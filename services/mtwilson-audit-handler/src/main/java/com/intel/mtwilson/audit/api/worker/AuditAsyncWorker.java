@@ -7,34 +7,170 @@ package com.intel.mtwilson.audit.api.worker;
 import com.intel.mtwilson.audit.api.AuditWorker;
 import com.intel.mtwilson.audit.controller.AuditLogEntryJpaController;
 import com.intel.mtwilson.audit.data.AuditLogEntry;
+import com.intel.mtwilson.audit.helper.AuditConfig;
 import com.intel.mtwilson.audit.helper.AuditHandlerException;
 import com.intel.mtwilson.audit.helper.AuditPersistenceManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 //import javax.ejb.Asynchronous;
 //import javax.ejb.LocalBean;
 //import javax.ejb.Stateless;
+import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import org.apache.commons.configuration.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Queues audit log entries in a bounded buffer and writes them to
+ * mw_audit_log_entry from a background thread, many rows per JDBC batch and
+ * transaction, so the caller does not wait for a separate commit for each
+ * audited change.
+ * 
+ * When the buffer is full the overflow policy decides what happens to a new
+ * entry: "sync" writes it on the caller's thread as before, "block" waits for
+ * room in the buffer, and "drop" discards it and counts it as dropped.
+ * 
+ * AuditShutdownListener calls shutdown() when the application stops so that
+ * the queued entries are written.
+ * 
+ * Configuration:
+ * mountwilson.audit.async.queue.size maximum number of queued entries (default 10000)
+ * mountwilson.audit.async.batch.size maximum number of entries per batch (default 100)
+ * mountwilson.audit.async.overflow sync, block, or drop (default sync)
  *
  * @author dsmagadx
  */
 //@Stateless
 //@LocalBean
 public class AuditAsyncWorker implements AuditWorker{
-    private Logger logger = LoggerFactory.getLogger(getClass().getName());
+    private static final Logger logger = LoggerFactory.getLogger(AuditAsyncWorker.class);
+    private static final String INSERT = "INSERT INTO mw_audit_log_entry (transaction_id, entity_id, entity_type, finger_print, create_dt, action, data) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
     
     private static AuditPersistenceManager persistenceManager = new AuditPersistenceManager();
+    private static AuditLogQueue<AuditLogEntry> queue = null;
 
     @Override
 //    @Asynchronous
     public void addLog(AuditLogEntry log) throws AuditHandlerException {
-        logger.debug("Creating the log entry" );
-        AuditLogEntryJpaController controller = new AuditLogEntryJpaController(null,getEntityManagerFactory() );
-        controller.create(log);
+        try {
+            getQueue().add(log);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AuditHandlerException(e);
+        }
     }
-    private EntityManagerFactory getEntityManagerFactory() {
+    
+    /**
+     * Stops the background writer after it writes the queued entries. Entries
+     * added after this are written on the caller's thread.
+     */
+    public static void shutdown() {
+        AuditLogQueue<AuditLogEntry> q;
+        synchronized(AuditAsyncWorker.class) {
+            q = queue;
+        }
+        if( q != null ) {
+            q.shutdown(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS));
+        }
+    }
+    
+    /**
+     * @return number of entries added to the queue
+     */
+    public static long getQueued() {
+        return queue == null ? 0 : queue.getQueued();
+    }
+    
+    /**
+     * @return number of entries written to the database, from the queue or on the caller's thread
+     */
+    public static long getWritten() {
+        return queue == null ? 0 : queue.getWritten();
+    }
+    
+    /**
+     * @return number of entries discarded because the queue was full or could not be written
+     */
+    public static long getDropped() {
+        return queue == null ? 0 : queue.getDropped();
+    }
+    
+    /**
+     * @return number of entries waiting to be written
+     */
+    public static int getPending() {
+        return queue == null ? 0 : queue.getPending();
+    }
+    
+    private static synchronized AuditLogQueue<AuditLogEntry> getQueue() {
+        if( queue == null ) {
+            Configuration config = AuditConfig.getConfiguration();
+            int queueSize = config.getInt("mountwilson.audit.async.queue.size", 10000);
+            int batchSize = config.getInt("mountwilson.audit.async.batch.size", 100);
+            String overflow = config.getString("mountwilson.audit.async.overflow", "sync");
+            logger.debug("Starting audit log writer queue size={} batch size={} overflow={}", queueSize, batchSize, overflow);
+            queue = new AuditLogQueue<>(queueSize, batchSize, AuditLogQueue.Overflow.valueOf(overflow.toUpperCase(Locale.ROOT)), new JdbcSink());
+        }
+        return queue;
+    }
+    
+    private static class JdbcSink implements AuditLogQueue.Sink<AuditLogEntry> {
+        @Override
+        public void writeBatch(List<AuditLogEntry> batch) throws Exception {
+            EntityManager em = null;
+            try {
+                em = getEntityManagerFactory().createEntityManager();
+                em.getTransaction().begin();
+                Connection c = em.unwrap(Connection.class);
+                try (PreparedStatement insert = c.prepareStatement(INSERT)) {
+                    for(AuditLogEntry entry : batch) {
+                        insert.setString(1, entry.getTransactionId());
+                        if( entry.getEntityId() == null ) {
+                            insert.setNull(2, Types.INTEGER);
+                        }
+                        else {
+                            insert.setInt(2, entry.getEntityId());
+                        }
+                        insert.setString(3, entry.getEntityType());
+                        insert.setString(4, entry.getFingerPrint());
+                        insert.setTimestamp(5, new Timestamp(entry.getCreateDt().getTime()));
+                        insert.setString(6, entry.getAction());
+                        insert.setString(7, entry.getData());
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+                em.getTransaction().commit();
+            }
+            catch(Exception | Error e) {
+                if( em != null && em.getTransaction().isActive() ) {
+                    em.getTransaction().rollback();
+                }
+                throw e;
+            }
+            finally {
+                if( em != null ) {
+                    em.close();
+                }
+            }
+        }
+
+        @Override
+        public void write(AuditLogEntry entry) {
+            AuditLogEntryJpaController controller = new AuditLogEntryJpaController(null,getEntityManagerFactory() );
+            controller.create(entry);
+        }
+    }
+    
+    private static EntityManagerFactory getEntityManagerFactory() {
         return persistenceManager.getEntityManagerFactory("AuditDataPU");
     }
 }
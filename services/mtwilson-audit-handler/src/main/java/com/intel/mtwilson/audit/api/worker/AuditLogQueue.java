@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.audit.api.worker;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded queue of audit log entries with one background thread that
+ * writes them in batches.
+ *
+ * The writer thread catches everything thrown while writing, so one bad
+ * batch or an error creating a connection does not stop it. If the thread
+ * dies anyway it is started again by the next add.
+ *
+ * @param <T> the entry type
+ */
+public class AuditLogQueue<T> {
+    private static final Logger log = LoggerFactory.getLogger(AuditLogQueue.class);
+
+    public static enum Overflow {
+        /** write the entry on the caller's thread */
+        SYNC,
+        /** wait for room in the queue */
+        BLOCK,
+        /** discard the entry */
+        DROP
+    }
+
+    /**
+     * Writes entries to the database.
+     */
+    public static interface Sink<T> {
+        /**
+         * Writes all the entries in one transaction.
+         */
+        void writeBatch(List<T> batch) throws Exception;
+
+        /**
+         * Writes one entry in its own transaction.
+         */
+        void write(T entry);
+    }
+
+    private final ArrayBlockingQueue<T> queue;
+    private final int batchSize;
+    private final Overflow overflow;
+    private final Sink<T> sink;
+    private volatile Thread writer = null;
+    private volatile boolean stopping = false;
+    private final AtomicLong queued = new AtomicLong(0);
+    private final AtomicLong written = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong restarts = new AtomicLong(0);
+
+    public AuditLogQueue(int queueSize, int batchSize, Overflow overflow, Sink<T> sink) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.overflow = overflow;
+        this.sink = sink;
+    }
+
+    /**
+     * Queues the entry, or handles it according to the overflow policy if
+     * the queue is full. After shutdown the entry is written on the caller's
+     * thread.
+     *
+     * @param entry
+     * @throws InterruptedException if the policy is BLOCK and the caller is interrupted while waiting
+     */
+    public void add(T entry) throws InterruptedException {
+        if( stopping ) {
+            writeNow(entry);
+            return;
+        }
+        startWriter();
+        if( queue.offer(entry) ) {
+            queued.incrementAndGet();
+            checkStopping(entry);
+            return;
+        }
+        switch(overflow) {
+            case BLOCK:
+                try {
+                    queue.put(entry);
+                }
+                catch(InterruptedException e) {
+                    dropped.incrementAndGet();
+                    throw e;
+                }
+                queued.incrementAndGet();
+                checkStopping(entry);
+                break;
+            case DROP:
+                if( dropped.incrementAndGet() % 1000 == 1 ) {
+                    log.warn("Audit log queue is full; dropped {} entries", dropped.get());
+                }
+                break;
+            default:
+                log.debug("Audit log queue is full; writing the entry now");
+                writeNow(entry);
+        }
+    }
+
+    /**
+     * If shutdown started after the entry was checked, the entry may have
+     * been added after shutdown drained the queue; take it back and write it
+     * here. If it is no longer in the queue then shutdown or the writer has
+     * it.
+     */
+    private void checkStopping(T entry) {
+        if( stopping && removeSame(entry) ) {
+            writeNow(entry);
+        }
+    }
+
+    // entities that are not saved yet can be equal to each other, so compare references
+    private boolean removeSame(T entry) {
+        Iterator<T> it = queue.iterator();
+        while(it.hasNext()) {
+            if( it.next() == entry ) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startWriter() {
+        Thread current = writer;
+        if( current != null && current.isAlive() ) {
+            return;
+        }
+        synchronized(this) {
+            startWriterIfStopped();
+        }
+    }
+
+    private void startWriterIfStopped() {
+        if( stopping || (writer != null && writer.isAlive()) ) {
+            return;
+        }
+        if( writer != null ) {
+            restarts.incrementAndGet();
+            log.error("Audit log writer stopped unexpectedly; starting it again");
+        }
+        writer = new Thread(new Writer(), "audit-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops the writer after it writes the queued entries, and writes
+     * anything it did not get to. Entries added after this are written on
+     * the caller's thread.
+     *
+     * @param timeoutMillis how long to wait for the writer
+     */
+    public void shutdown(long timeoutMillis) {
+        Thread thread;
+        synchronized(this) {
+            if( stopping ) {
+                return;
+            }
+            stopping = true;
+            thread = writer;
+            writer = null;
+        }
+        if( thread != null ) {
+            thread.interrupt();
+            try {
+                thread.join(timeoutMillis);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        ArrayList<T> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        writeInBatches(remaining);
+        log.info("Audit log writer stopped; queued={} written={} dropped={} restarts={}", getQueued(), getWritten(), getDropped(), getRestarts());
+    }
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            ArrayList<T> batch = new ArrayList<>(batchSize);
+            while(!stopping) {
+                try {
+                    batch.add(queue.take());
+                }
+                catch(InterruptedException e) {
+                    break; // shutdown
+                }
+                queue.drainTo(batch, batchSize - 1);
+                try {
+                    write(batch);
+                }
+                catch(Throwable e) {
+                    // write already handles failures of the sink; this is a last resort so the thread keeps running
+                    dropped.addAndGet(batch.size());
+                    log.error("Cannot write {} audit log entries", batch.size(), e);
+                }
+                batch.clear();
+            }
+            // write what is left before exiting
+            queue.drainTo(batch);
+            writeInBatches(batch);
+        }
+    }
+
+    private void writeInBatches(List<T> entries) {
+        for(int i = 0; i < entries.size(); i += batchSize) {
+            try {
+                write(new ArrayList<>(entries.subList(i, Math.min(entries.size(), i + batchSize))));
+            }
+            catch(Throwable e) {
+                log.error("Cannot write audit log entries", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the batch, or each entry on its own if the batch cannot be
+     * written, so one bad entry does not lose the rest of the batch.
+     */
+    private void write(List<T> batch) {
+        try {
+            sink.writeBatch(batch);
+            written.addAndGet(batch.size());
+            return;
+        }
+        catch(Throwable e) {
+            log.error("Cannot write batch of {} audit log entries; writing them one at a time", batch.size(), e);
+        }
+        for(T entry : batch) {
+            try {
+                sink.write(entry);
+                written.incrementAndGet();
+            }
+            catch(Throwable e) {
+                dropped.incrementAndGet();
+                log.error("Cannot write audit log entry {}", entry, e);
+            }
+        }
+    }
+
+    private void writeNow(T entry) {
+        sink.write(entry);
+        written.incrementAndGet();
+    }
+
+    public long getQueued() {
+        return queued.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of times the writer thread was started again after it stopped unexpectedly
+     */
+    public long getRestarts() {
+        return restarts.get();
+    }
+
+    public int getPending() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.audit.helper;
+
+import com.intel.mtwilson.audit.api.worker.AuditAsyncWorker;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Writes the audit log entries that are still queued when the application
+ * stops, while the persistence unit is still available.
+ */
+@WebListener
+public class AuditShutdownListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        AuditAsyncWorker.shutdown();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.audit.api.worker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class AuditLogQueueTest {
+
+    /**
+     * Records what was written, and can be made to wait or fail.
+     */
+    private static class TestSink implements AuditLogQueue.Sink<String> {
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        final List<String> single = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> singleThreads = Collections.synchronizedList(new ArrayList<String>());
+        volatile CountDownLatch started = new CountDownLatch(1);
+        volatile CountDownLatch release = null;
+        volatile Throwable batchFailure = null;
+        volatile String badEntry = null;
+
+        @Override
+        public void writeBatch(List<String> batch) throws Exception {
+            started.countDown();
+            if( release != null ) {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            Throwable failure = batchFailure;
+            if( failure instanceof Error ) {
+                throw (Error)failure;
+            }
+            if( failure instanceof Exception ) {
+                throw (Exception)failure;
+            }
+            batches.add(new ArrayList<>(batch));
+        }
+
+        @Override
+        public void write(String entry) {
+            if( entry.equals(badEntry) ) {
+                throw new IllegalArgumentException(entry);
+            }
+            single.add(entry);
+            singleThreads.add(Thread.currentThread().getName());
+        }
+
+        int total() {
+            int count = single.size();
+            synchronized(batches) {
+                for(List<String> batch : batches) {
+                    count += batch.size();
+                }
+            }
+            return count;
+        }
+    }
+
+    private void waitForWritten(AuditLogQueue<String> queue, long count) throws InterruptedException {
+        for(int i = 0; i < 500 && queue.getWritten() + queue.getDropped() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, queue.getWritten() + queue.getDropped());
+    }
+
+    /**
+     * Adds one entry and waits until the writer has taken it and is blocked
+     * in the sink.
+     */
+    private void blockWriter(AuditLogQueue<String> queue, TestSink sink) throws InterruptedException {
+        sink.release = new CountDownLatch(1);
+        queue.add("first");
+        assertTrue(sink.started.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        TestSink sink = new TestSink();
+        AuditLogQueue<String> queue = new AuditLogQueue<>(100, 5, AuditLogQueue.Overflow.SYNC, sink);
+        blockWriter(queue, sink);
+        for(int i = 0; i < 12; i++) {
+            queue.add("entry" + i);
+        }
+        sink.release.countDown();
+        waitForWritten(queue, 13);
+        assertEquals(13, sink.total());
+        assertEquals(0, sink.single.size());
+        synchronized(sink.batches) {
+            for(List<String> batch : sink.batches) {
+                assertTrue(batch.size() <= 5);
+            }
+        }
+        queue.shutdown(1000);
+    }
+
+    @Test
+    public void testOverflowDrop() throws Exception {
+        TestSink sink = new TestSink();
+        AuditLogQueue<String> queue = new AuditLogQueue<>(2, 10, AuditLogQueue.Overflow.DROP, sink);
+        blockWriter(queue, sink);
+        queue.add("a");
+        queue.add("b");
+        queue.add("c");
+        assertEquals(1, queue.getDropped());
+        assertEquals(2, queue.getPending());
+        sink.release.countDown();
+        waitForWritten(queue, 4);
+        assertEquals(3, sink.total());
+        queue.shutdown(1000);
+    }
+
+    @Test
+    public void testOverflowSync() throws Exception {
+        TestSink sink = new TestSink();
+        AuditLogQueue<String> queue = new AuditLogQueue<>(1, 10, AuditLogQueue.Overflow.SYNC, sink);
+        blockWriter(queue, sink);
+        queue.add("a");
+        queue.add("b");
+        assertEquals(Collections.singletonList("b"), sink.single);
+        assertEquals(Thread.currentThread().getName(), sink.singleThreads.get(0));
+        assertEquals(0, queue.getDropped());
+        sink.release.countDown();
+        waitForWritten(queue, 3);
+        queue.shutdown(1000);
+    }
+
+    @Test
+    public void testOverflowBlock() throws Exception {
+        TestSink sink = new TestSink();
+        final AuditLogQueue<String> queue = new AuditLogQueue<>(1, 10, AuditLogQueue.Overflow.BLOCK, sink);
+        blockWriter(queue, sink);
+        queue.add("a");
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.add("b");
+                    added.countDown();
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        assertFalse(added.await(200, TimeUnit.MILLISECONDS));
+        sink.release.countDown();
+        assertTrue(added.await(10, TimeUnit.SECONDS));
+        producer.join();
+        waitForWritten(queue, 3);
+        assertEquals(3, sink.total());
+        assertEquals(0, queue.getDropped());
+        queue.shutdown(1000);
+    }
+
+    @Test
+    public void testWriterSurvivesError() throws Exception {
+        TestSink sink = new TestSink();
+        sink.batchFailure = new OutOfMemoryError("test");
+        AuditLogQueue<String> queue = new AuditLogQueue<>(10, 10, AuditLogQueue.Overflow.BLOCK, sink);
+        queue.add("a");
+        waitForWritten(queue, 1);
+        // the batch failed so the entry was written by itself
+        assertEquals(Collections.singletonList("a"), sink.single);
+        sink.batchFailure = null;
+        queue.add("b");
+        waitForWritten(queue, 2);
+        assertEquals(0, queue.getDropped());
+        assertEquals(0, queue.getRestarts());
+        queue.shutdown(1000);
+    }
+
+    @Test
+    public void testBadEntryDoesNotLoseBatch() throws Exception {
+        TestSink sink = new TestSink();
+        AuditLogQueue<String> queue = new AuditLogQueue<>(10, 10, AuditLogQueue.Overflow.SYNC, sink);
+        blockWriter(queue, sink);
+        sink.batchFailure = new IllegalStateException("constraint violation");
+        sink.badEntry = "b";
+        queue.add("a");
+        queue.add("b");
+        queue.add("c");
+        sink.release.countDown();
+        waitForWritten(queue, 4);
+        assertEquals(1, queue.getDropped());
+        assertTrue(sink.single.contains("a"));
+        assertTrue(sink.single.contains("c"));
+        assertFalse(sink.single.contains("b"));
+        queue.shutdown(1000);
+    }
+
+    @Test
+    public void testShutdownWritesQueuedEntries() throws Exception {
+        TestSink sink = new TestSink();
+        AuditLogQueue<String> queue = new AuditLogQueue<>(100, 10, AuditLogQueue.Overflow.SYNC, sink);
+        for(int i = 0; i < 25; i++) {
+            queue.add("entry" + i);
+        }
+        queue.shutdown(1000);
+        assertEquals(25, queue.getWritten());
+        assertEquals(25, sink.total());
+        assertEquals(0, queue.getPending());
+    }
+
+    @Test
+    public void testAddAfterShutdown() throws Exception {
+        TestSink sink = new TestSink();
+        AuditLogQueue<String> queue = new AuditLogQueue<>(100, 10, AuditLogQueue.Overflow.DROP, sink);
+        queue.shutdown(1000);
+        queue.add("late");
+        assertEquals(Collections.singletonList("late"), sink.single);
+        assertEquals(Thread.currentThread().getName(), sink.singleThreads.get(0));
+        assertEquals(1, queue.getWritten());
+        assertEquals(0, queue.getPending());
+    }
+}
@@ -4,9 +4,7 @@
  */
 package com.intel.mtwilson.feature.dao;
 
-import com.intel.dcsg.cpg.jpa.PersistenceManager;
 import com.intel.mtwilson.My;
-import com.intel.mtwilson.MyPersistenceManager;
 import com.intel.mtwilson.feature.dao.jdbi.FeaturePermissionDAO;
 import java.io.IOException;
 import java.sql.SQLException;
@@ -22,7 +20,7 @@ public class FeatureJdbi {
     
     synchronized public static void createDataSource() throws IOException {
         if( ds == null ) {
-            ds = PersistenceManager.createDataSource(MyPersistenceManager.getASDataJpaProperties(My.configuration()));
+            ds = My.jdbc().dataSource(); // shared with the other JDBI DAOs
        }
     }
 
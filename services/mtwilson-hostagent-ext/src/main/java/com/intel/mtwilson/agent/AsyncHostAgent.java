@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent;
+
+import com.intel.mtwilson.model.Nonce;
+import com.intel.mtwilson.model.PcrManifest;
+import com.intel.mtwilson.trustagent.model.VMAttestationRequest;
+import com.intel.mtwilson.trustagent.model.VMQuoteResponse;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.Future;
+
+/**
+ * Optional interface for host agents that can make their calls to the host
+ * without blocking the calling thread for the network round trip.
+ *
+ * The methods return immediately. The returned future completes, and the
+ * callback is notified, with the same result or IOException that the
+ * corresponding blocking method in HostAgent would have returned or thrown.
+ * A host agent that implements this interface remembers the results the same
+ * way as its blocking methods do, so after getPcrManifestAsync completes the
+ * attestation service can call getPcrManifest and getAikCertificate without
+ * contacting the host again.
+ *
+ * Use instanceof to check whether the HostAgent returned by HostAgentFactory
+ * supports asynchronous calls; agents that do not are used with the blocking
+ * methods from a thread pool as before.
+ */
+public interface AsyncHostAgent extends HostAgent {
+
+    /**
+     * @param challenge may be null
+     * @param callback may be null
+     * @return a future for the PCR manifest
+     */
+    Future<PcrManifest> getPcrManifestAsync(Nonce challenge, HostAgentCallback<PcrManifest> callback);
+
+    /**
+     * @param callback may be null
+     * @return a future for the AIK certificate
+     */
+    Future<X509Certificate> getAikCertificateAsync(HostAgentCallback<X509Certificate> callback);
+
+    /**
+     * @param obj
+     * @param callback may be null
+     * @return a future for the VM attestation report
+     */
+    Future<VMQuoteResponse> getVMAttestationReportAsync(VMAttestationRequest obj, HostAgentCallback<VMQuoteResponse> callback);
+}
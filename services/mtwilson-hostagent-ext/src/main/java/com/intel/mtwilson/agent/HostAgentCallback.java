@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent;
+
+/**
+ * Notified when an asynchronous AsyncHostAgent request finishes.
+ *
+ * The methods are called on the thread of the HTTP client that received the
+ * response, so they should not block. Work such as evaluating policies,
+ * signing assertions, or writing to the database should be handed off to an
+ * executor.
+ *
+ * @param <T> the type of the result
+ */
+public interface HostAgentCallback<T> {
+
+    void completed(T result);
+
+    /**
+     * @param e the IOException or other exception that caused the request to fail, or a CancellationException if it was cancelled
+     */
+    void failed(Throwable e);
+}
@@ -165,5 +165,29 @@ public class HostAgentFactory {
         }
         throw new UnsupportedOperationException("No agent factory registered for this host");
     }
+
+    /**
+     * Closes the connections that the vendor factory keeps open to the host,
+     * if it keeps any. Call it after the host is deleted or before its
+     * connection string or TLS policy is updated.
+     *
+     * @param connectionString the AddOn_Connection_String of the host, with the vendor prefix
+     */
+    public void closeConnections(String connectionString) {
+        if( connectionString == null ) {
+            return;
+        }
+        try {
+            ConnectionString cs = new ConnectionString(connectionString);
+            String vendorProtocol = cs.getVendor().name().toLowerCase();
+            VendorHostAgentFactory factory = Plugins.findByAttribute(VendorHostAgentFactory.class, "vendorProtocol", vendorProtocol);
+            if( factory instanceof PooledHostAgentFactory ) {
+                ((PooledHostAgentFactory)factory).closeConnections(cs.getConnectionString());
+            }
+        }
+        catch(IOException | RuntimeException e) {
+            log.debug("Cannot close connections for host: {}", e.toString());
+        }
+    }
     
 }
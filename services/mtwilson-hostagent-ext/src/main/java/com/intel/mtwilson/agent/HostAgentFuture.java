@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The Future returned by AsyncHostAgent. It is completed by the host agent
+ * when the last response from the host has been processed, and notifies the
+ * optional callback when that happens.
+ *
+ * An asynchronous request usually needs several calls to the host, one after
+ * the other. The host agent sets the call that is currently in flight with
+ * setPending so that cancelling this future also cancels that call.
+ *
+ * @param <T> the type of the result
+ */
+public class HostAgentFuture<T> implements Future<T> {
+    private static final Callable<Object> NOT_RUNNABLE = new Callable<Object>() {
+        @Override
+        public Object call() {
+            throw new IllegalStateException("HostAgentFuture is completed by the host agent");
+        }
+    };
+
+    private final HostAgentCallback<T> callback;
+    private final Result result = new Result();
+    private volatile Future<?> pending = null;
+
+    /**
+     * Keeps the result; it is never run, only completed with set or
+     * setException, which FutureTask does not make public.
+     */
+    private class Result extends FutureTask<T> {
+        @SuppressWarnings("unchecked")
+        private Result() {
+            super((Callable<T>)NOT_RUNNABLE);
+        }
+
+        @Override
+        protected void set(T value) {
+            super.set(value);
+        }
+
+        @Override
+        protected void setException(Throwable e) {
+            super.setException(e);
+        }
+
+        @Override
+        protected void done() {
+            HostAgentFuture.this.done();
+        }
+    }
+
+    /**
+     * @param callback to notify when the future is done, may be null
+     */
+    public HostAgentFuture(HostAgentCallback<T> callback) {
+        this.callback = callback;
+    }
+
+    public void complete(T value) {
+        result.set(value);
+    }
+
+    public void fail(Throwable e) {
+        result.setException(e);
+    }
+
+    /**
+     * @param request the call to the host that is in flight, cancelled if this future is cancelled
+     */
+    public void setPending(Future<?> request) {
+        if( request.isDone() ) {
+            return; // the next call may already have been set from the callback of this one
+        }
+        pending = request;
+        if( isCancelled() ) {
+            request.cancel(true);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Future<?> request = pending; // done() clears it
+        boolean cancelled = result.cancel(mayInterruptIfRunning);
+        if( cancelled && request != null ) {
+            request.cancel(true);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return result.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        return result.get();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(timeout, unit);
+    }
+
+    private void done() {
+        pending = null;
+        if( callback == null ) {
+            return;
+        }
+        T value;
+        try {
+            value = result.get();
+        } catch (CancellationException e) {
+            callback.failed(e);
+            return;
+        } catch (ExecutionException e) {
+            callback.failed(e.getCause());
+            return;
+        } catch (InterruptedException e) {
+            // get() does not wait once the future is done
+            Thread.currentThread().interrupt();
+            callback.failed(e);
+            return;
+        }
+        callback.completed(value);
+    }
+}
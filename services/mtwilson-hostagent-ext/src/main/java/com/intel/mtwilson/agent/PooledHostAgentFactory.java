@@ -0,0 +1,22 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent;
+
+/**
+ * Optional interface for vendor host agent factories that keep connections
+ * to hosts open between requests. HostAgentFactory.closeConnections uses it
+ * when a host is deleted or its connection string changes, so the pooled
+ * connections do not stay open with stale credentials or TLS policies.
+ *
+ * Factories implement it in addition to VendorHostAgentFactory, which is
+ * the interface they are registered under.
+ */
+public interface PooledHostAgentFactory {
+
+    /**
+     * @param vendorConnectionString the connection string of the host without the vendor prefix
+     */
+    void closeConnections(String vendorConnectionString);
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HostAgentFutureTest {
+
+    private static class RecordingCallback implements HostAgentCallback<String> {
+        final List<String> completed = new ArrayList<>();
+        final List<Throwable> failed = new ArrayList<>();
+
+        @Override
+        public void completed(String result) {
+            completed.add(result);
+        }
+
+        @Override
+        public void failed(Throwable e) {
+            failed.add(e);
+        }
+    }
+
+    // a call to the host that is still in flight
+    private static FutureTask<Object> createRequest() {
+        return new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+    }
+
+    @Test
+    public void testCompleteNotifiesCallback() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        HostAgentFuture<String> future = new HostAgentFuture<>(callback);
+        assertFalse(future.isDone());
+        future.complete("manifest");
+        assertTrue(future.isDone());
+        assertEquals("manifest", future.get());
+        assertEquals(1, callback.completed.size());
+        assertEquals("manifest", callback.completed.get(0));
+        assertTrue(callback.failed.isEmpty());
+    }
+
+    @Test
+    public void testFailNotifiesCallbackWithCause() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        HostAgentFuture<String> future = new HostAgentFuture<>(callback);
+        IOException error = new IOException("host unreachable");
+        future.fail(error);
+        try {
+            future.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+        assertTrue(callback.completed.isEmpty());
+        assertSame(error, callback.failed.get(0));
+    }
+
+    @Test
+    public void testCancelCancelsPendingRequest() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        HostAgentFuture<String> future = new HostAgentFuture<>(callback);
+        FutureTask<Object> request = createRequest();
+        future.setPending(request);
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertTrue(request.isCancelled());
+        assertTrue(callback.failed.get(0) instanceof CancellationException);
+        // the result of a call that finished anyway is ignored
+        future.complete("late");
+        assertTrue(callback.completed.isEmpty());
+        assertEquals(1, callback.failed.size());
+    }
+
+    @Test
+    public void testPendingSetAfterCancelIsCancelled() throws Exception {
+        HostAgentFuture<String> future = new HostAgentFuture<>(null);
+        future.cancel(true);
+        FutureTask<Object> request = createRequest();
+        future.setPending(request);
+        assertTrue(request.isCancelled());
+    }
+
+    @Test
+    public void testCompletedRequestIsNotCancelled() throws Exception {
+        HostAgentFuture<String> future = new HostAgentFuture<>(null);
+        FutureTask<Object> request = createRequest();
+        future.setPending(request);
+        future.complete("manifest");
+        assertFalse(future.cancel(true));
+        assertFalse(request.isCancelled());
+    }
+}
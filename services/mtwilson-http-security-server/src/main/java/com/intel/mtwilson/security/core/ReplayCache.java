@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.security.core;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the (source, digest) of signed requests for the anti-replay
+ * window so that a request can be rejected if it was already received,
+ * without a query and an insert on mw_request_log for every request.
+ *
+ * Entries are kept in buckets by request time, each covering 1/BUCKETS of
+ * the window. A whole bucket is dropped when all its entries are older than
+ * the window, so expired entries cost nothing to remove.
+ *
+ * A request dated before the start of the window cannot be checked and is
+ * rejected. The window starts when the cache is created, because requests
+ * received before a restart are not known, and moves forward with the clock.
+ * If the cache reaches its maximum size the oldest bucket is dropped early
+ * and the window start moves past it, so memory stays bounded while a
+ * replayed request is still always rejected. Requests dated more than the
+ * window in the future are rejected too, because they would have to be
+ * remembered for longer than the window.
+ *
+ * The cache is kept in the memory of one server. When several Mt Wilson
+ * servers share a database, a request replayed to a different server than
+ * the one that received it is not detected, which the request log used to
+ * catch. Use TLS between clients and every server, or send each client to
+ * the same server, if that matters.
+ *
+ * Only requests whose signature was verified should be added, otherwise a
+ * client could fill the cache with requests it made up.
+ */
+public class ReplayCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ReplayCache.class);
+    private static final int BUCKETS = 16;
+
+    private final long windowMillis;
+    private final long bucketMillis;
+    private final int maxSize;
+    private final TreeMap<Long,HashSet<String>> buckets = new TreeMap<>(); // bucket start time -> source and digest
+    private long windowStartMin; // requests dated before this are rejected even if within the window
+    private int size = 0;
+    private final AtomicLong replays = new AtomicLong(0);
+    private final AtomicLong outsideWindow = new AtomicLong(0);
+
+    /**
+     * @param windowMillis the allowed clock skew between clients and this server
+     * @param maxSize maximum number of requests to remember
+     */
+    public ReplayCache(long windowMillis, int maxSize) {
+        if( windowMillis <= 0 || maxSize <= 0 ) {
+            throw new IllegalArgumentException("Anti-replay window and maximum size must be positive");
+        }
+        this.windowMillis = windowMillis;
+        this.bucketMillis = Math.max(1, windowMillis / BUCKETS);
+        this.maxSize = maxSize;
+        this.windowStartMin = System.currentTimeMillis();
+    }
+
+    /**
+     * Records the request if it is new.
+     *
+     * @param source client name or address
+     * @param digest digest of the signed request content
+     * @param requestTime the date of the request that is covered by its signature
+     * @return true if the request is new and within the window; false if it is a replay or cannot be checked
+     */
+    public synchronized boolean add(String source, String digest, long requestTime) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        String key = source + " " + digest;
+        if( !accepts(key, requestTime, now) ) {
+            return false;
+        }
+        long bucket = requestTime - (requestTime % bucketMillis);
+        HashSet<String> entries = buckets.get(bucket);
+        if( entries == null ) {
+            entries = new HashSet<>();
+            buckets.put(bucket, entries);
+        }
+        entries.add(key);
+        size++;
+        while( size > maxSize && buckets.size() > 1 ) {
+            Map.Entry<Long,HashSet<String>> eldest = buckets.pollFirstEntry();
+            size -= eldest.getValue().size();
+            windowStartMin = Math.max(windowStartMin, eldest.getKey() + bucketMillis);
+            log.debug("Anti-replay cache is full; window now starts at {}", windowStartMin);
+        }
+        return true;
+    }
+
+    /**
+     * Checks the request without recording it, so a request can be rejected
+     * before its signature is verified.
+     *
+     * @param source client name or address
+     * @param digest digest of the signed request content
+     * @param requestTime the date of the request that is covered by its signature
+     * @return true if add would record the request
+     */
+    public synchronized boolean accepts(String source, String digest, long requestTime) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        return accepts(source + " " + digest, requestTime, now);
+    }
+
+    /**
+     * @param source
+     * @param digest
+     * @return true if a request with the source and digest was received within the window
+     */
+    public synchronized boolean contains(String source, String digest) {
+        expire(System.currentTimeMillis());
+        return contains(source + " " + digest);
+    }
+
+    /**
+     * @return the earliest request time that is accepted
+     */
+    public synchronized long getWindowStart() {
+        return getWindowStart(System.currentTimeMillis());
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public long getReplays() {
+        return replays.get();
+    }
+
+    public long getOutsideWindow() {
+        return outsideWindow.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d replays=%d outside window=%d", size(), getReplays(), getOutsideWindow());
+    }
+
+    private long getWindowStart(long now) {
+        return Math.max(windowStartMin, now - windowMillis);
+    }
+
+    // caller must hold the lock
+    private boolean accepts(String key, long requestTime, long now) {
+        if( requestTime < getWindowStart(now) || requestTime > now + windowMillis ) {
+            outsideWindow.incrementAndGet();
+            log.debug("Request time {} is outside the anti-replay window", requestTime);
+            return false;
+        }
+        if( contains(key) ) {
+            replays.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    // caller must hold the lock
+    private boolean contains(String key) {
+        for(HashSet<String> entries : buckets.values()) {
+            if( entries.contains(key) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // caller must hold the lock
+    private void expire(long now) {
+        long windowStart = getWindowStart(now);
+        Iterator<Map.Entry<Long,HashSet<String>>> it = buckets.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<Long,HashSet<String>> bucket = it.next();
+            if( bucket.getKey() + bucketMillis > windowStart ) {
+                break;
+            }
+            size -= bucket.getValue().size();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.security.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes request log entries on a single background thread, so that
+ * authenticating a request does not wait for the insert into
+ * mw_request_log. Replay detection uses the ReplayCache, not the log.
+ * Entries still queued when the server stops are lost.
+ */
+public class RequestLogWriter {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RequestLogWriter.class);
+    private static ExecutorService executor = null;
+
+    /**
+     * @param insert writes one entry to the request log; exceptions are logged
+     */
+    public static void write(final Runnable insert) {
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        insert.run();
+                    }
+                    catch(Exception e) {
+                        log.error("Cannot write request log entry", e);
+                    }
+                }
+            });
+        }
+        catch(RejectedExecutionException e) {
+            log.error("Cannot write request log entry", e);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if( executor == null ) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "request-log-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
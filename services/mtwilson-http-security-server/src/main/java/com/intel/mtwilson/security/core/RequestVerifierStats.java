@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.security.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the signed requests checked by a request verifier and the time
+ * spent looking up the client and verifying the signature.
+ */
+public class RequestVerifierStats {
+    private final AtomicLong lookups = new AtomicLong(0);
+    private final AtomicLong lookupNanos = new AtomicLong(0);
+    private final AtomicLong verifications = new AtomicLong(0);
+    private final AtomicLong verificationNanos = new AtomicLong(0);
+
+    public void addLookup(long nanos) {
+        lookups.incrementAndGet();
+        lookupNanos.addAndGet(nanos);
+    }
+
+    public void addVerification(long nanos) {
+        verifications.incrementAndGet();
+        verificationNanos.addAndGet(nanos);
+    }
+
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public long getLookupNanos() {
+        return lookupNanos.get();
+    }
+
+    public long getVerifications() {
+        return verifications.get();
+    }
+
+    public long getVerificationNanos() {
+        return verificationNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        long l = getLookups();
+        long v = getVerifications();
+        return String.format("lookups=%d average lookup=%dus verifications=%d average verification=%dus",
+                l, l == 0 ? 0 : getLookupNanos() / l / 1000,
+                v, v == 0 ? 0 : getVerificationNanos() / v / 1000);
+    }
+}
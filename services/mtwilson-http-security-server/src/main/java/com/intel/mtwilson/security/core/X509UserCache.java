@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.security.core;
+
+import com.intel.mtwilson.My;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Keeps the X509UserInfo of recently seen API client fingerprints so that
+ * verifying a signed request does not load the client certificate and roles
+ * from the database every time.
+ *
+ * Unknown fingerprints are cached too, for a shorter time, so that requests
+ * from an unregistered or disabled client do not query the database each
+ * time either.
+ *
+ * The cache is shared by all the X509UserFinder instances in the
+ * application. ApiClientBO clears it when an API client is registered,
+ * approved, rejected, deleted, or has its roles changed. Changes made by
+ * another server that shares the database are seen when the cached entry
+ * expires.
+ *
+ * Configuration:
+ * mtwilson.api.client.cache.max.size maximum number of cached fingerprints (default 10000)
+ * mtwilson.api.client.cache.ttl.seconds how long a registered client is cached (default 300)
+ * mtwilson.api.client.cache.negative.ttl.seconds how long an unknown fingerprint is cached (default 30)
+ */
+public class X509UserCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(X509UserCache.class);
+    private static X509UserCache instance = null;
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final ConcurrentHashMap<String,Entry> cache = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong generation = new AtomicLong(0); // incremented when entries are removed, so a lookup that started before is not cached
+
+    private static class Entry {
+        private final X509UserInfo userInfo; // null for an unknown fingerprint
+        private final long expires;
+
+        private Entry(X509UserInfo userInfo, long expires) {
+            this.userInfo = userInfo;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param maxSize maximum number of fingerprints to remember
+     * @param ttlMillis how long to remember a known fingerprint
+     * @param negativeTtlMillis how long to remember an unknown fingerprint
+     */
+    public X509UserCache(int maxSize, long ttlMillis, long negativeTtlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    public static synchronized X509UserCache getInstance() {
+        if( instance == null ) {
+            Configuration config = My.configuration().getConfiguration();
+            int maxSize = config.getInt("mtwilson.api.client.cache.max.size", 10000);
+            long ttlSeconds = config.getLong("mtwilson.api.client.cache.ttl.seconds", 300);
+            long negativeTtlSeconds = config.getLong("mtwilson.api.client.cache.negative.ttl.seconds", 30);
+            log.debug("Creating X509 user cache max size={} ttl={}s negative ttl={}s", maxSize, ttlSeconds, negativeTtlSeconds);
+            instance = new X509UserCache(maxSize, ttlSeconds * 1000, negativeTtlSeconds * 1000);
+        }
+        return instance;
+    }
+
+    /**
+     * Same as finder.getUserForX509Identity but uses the cache when possible.
+     *
+     * @param fingerprint
+     * @param finder
+     * @return the user info, or null if the fingerprint is not registered
+     */
+    public X509UserInfo getUserForX509Identity(byte[] fingerprint, X509UserFinder finder) {
+        String key = Hex.encodeHexString(fingerprint);
+        Entry entry = cache.get(key);
+        if( entry != null && entry.expires > System.currentTimeMillis() ) {
+            hits.incrementAndGet();
+            return entry.userInfo;
+        }
+        misses.incrementAndGet();
+        long started = generation.get();
+        X509UserInfo userInfo = finder.getUserForX509Identity(fingerprint);
+        put(key, userInfo, started);
+        return userInfo;
+    }
+
+    public void invalidate(byte[] fingerprint) {
+        generation.incrementAndGet();
+        cache.remove(Hex.encodeHexString(fingerprint));
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d hits=%d misses=%d", size(), getHits(), getMisses());
+    }
+
+    private void put(String key, X509UserInfo userInfo, long started) {
+        long now = System.currentTimeMillis();
+        if( cache.size() >= maxSize ) {
+            removeExpired(now);
+            if( cache.size() >= maxSize ) {
+                log.debug("X509 user cache is full");
+                return;
+            }
+        }
+        cache.put(key, new Entry(userInfo, now + (userInfo == null ? negativeTtlMillis : ttlMillis)));
+        if( generation.get() != started ) {
+            cache.remove(key); // the client may have changed while it was being looked up
+        }
+    }
+
+    private void removeExpired(long now) {
+        Iterator<Entry> it = cache.values().iterator();
+        while(it.hasNext()) {
+            if( it.next().expires <= now ) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.intel.mtwilson.security.jersey;
 
 import com.intel.mtwilson.security.core.PublicKeyUserFinder;
 import com.intel.mtwilson.security.core.PublicKeyUserInfo;
+import com.intel.mtwilson.security.core.RequestVerifierStats;
 import com.intel.mtwilson.security.http.RsaSignatureInput;
 import com.intel.dcsg.cpg.crypto.CryptographyException;
 import com.intel.mtwilson.model.Md5Digest;
@@ -38,6 +39,7 @@ import org.slf4j.LoggerFactory;
 public class PublicKeyRequestVerifier {
     private static Logger log = LoggerFactory.getLogger(PublicKeyRequestVerifier.class);
     private PublicKeyUserFinder finder;
+    private final RequestVerifierStats stats = new RequestVerifierStats();
     private int requestsExpireAfterMs = 60 * 60 * 1000; // 60 minutes
     
     private String headerAttributeNameValuePair = "([a-zA-Z0-9_-]+)=\"([^\"]+)\"";
@@ -48,6 +50,13 @@ public class PublicKeyRequestVerifier {
         
     }
     
+    /**
+     * @return the number of requests checked and the time spent finding the client and verifying the signature
+     */
+    public RequestVerifierStats getStats() {
+        return stats;
+    }
+    
     /**
      * Verifies the signature for a given request method, url, Authorization header, and request body.
      * Information from the request is collected and signed by the secret key
@@ -107,7 +116,10 @@ public class PublicKeyRequestVerifier {
             byte[] signature = Base64.decodeBase64(a.signatureBase64);
             String signatureAlgorithm = signatureAlgorithm(a.signatureAlgorithm);
             byte[] fingerprint = Base64.decodeBase64(a.fingerprintBase64);
+            long lookupStart = System.nanoTime();
             PublicKeyUserInfo userInfo = finder.getUserForIdentity(fingerprint);
+            long lookupNanos = System.nanoTime() - lookupStart;
+            stats.addLookup(lookupNanos);
 
             log.debug("PublicKeyAuthorization Fingerprint: "+a.fingerprintBase64);
             log.debug("PublicKeyAuthorization:  Signature: "+a.signatureBase64);
@@ -121,9 +133,12 @@ public class PublicKeyRequestVerifier {
             
             boolean isValid = false;
             if( userInfo.publicKey != null ) {
+                long verifyStart = System.nanoTime();
                 try {
                     isValid = verifySignature(document, userInfo.publicKey, signatureAlgorithm, signature);
-                    log.debug("PublicKeyAuthorization verified signature using public key; result= "+isValid);
+                    long verifyNanos = System.nanoTime() - verifyStart;
+                    stats.addVerification(verifyNanos);
+                    log.debug("PublicKeyAuthorization verified signature using public key; result= {} lookup {}us verify {}us", isValid, lookupNanos / 1000, verifyNanos / 1000);
                 } catch (NoSuchAlgorithmException ex) {
                     throw new CryptographyException("Signature algorithm not supported: "+signatureAlgorithm, ex);
                 } catch (InvalidKeyException ex) {
@@ -1,5 +1,6 @@
 package com.intel.mtwilson.security.jersey;
 
+import com.intel.mtwilson.security.core.RequestVerifierStats;
 import com.intel.mtwilson.security.core.X509UserFinder;
 import com.intel.mtwilson.security.core.X509UserInfo;
 import com.intel.mtwilson.security.http.RsaSignatureInput;
@@ -37,6 +38,7 @@ import org.slf4j.LoggerFactory;
 public class X509RequestVerifier {
     private static Logger log = LoggerFactory.getLogger(X509RequestVerifier.class);
     private X509UserFinder finder;
+    private final RequestVerifierStats stats = new RequestVerifierStats();
     private int requestsExpireAfterMs = 60 * 60 * 1000; // 1 hour, in milliseconds
     
     private String headerAttributeNameValuePair = "([a-zA-Z0-9_-]+)=\"([^\"]+)\"";
@@ -47,6 +49,13 @@ public class X509RequestVerifier {
         
     }
     
+    /**
+     * @return the number of requests checked and the time spent finding the client and verifying the signature
+     */
+    public RequestVerifierStats getStats() {
+        return stats;
+    }
+    
     /**
      * Verifies the signature for a given request method, url, Authorization header, and request body.
      * Information from the request is collected and signed by the secret key
@@ -107,7 +116,10 @@ public class X509RequestVerifier {
             byte[] signature = Base64.decodeBase64(a.signatureBase64);
             String signatureAlgorithm = signatureAlgorithm(a.signatureAlgorithm);
             byte[] fingerprint = Base64.decodeBase64(a.fingerprintBase64);
+            long lookupStart = System.nanoTime();
             X509UserInfo userInfo = finder.getUserForX509Identity(fingerprint);
+            long lookupNanos = System.nanoTime() - lookupStart;
+            stats.addLookup(lookupNanos);
 
             log.debug("X509CertificateAuthorization Fingerprint: {}",a.fingerprintBase64);
             log.debug("X509CertificateAuthorization:  Signature: {}",a.signatureBase64);
@@ -121,6 +133,7 @@ public class X509RequestVerifier {
             
             boolean isValid = false;
             if( userInfo.certificate != null ) {
+                long verifyStart = System.nanoTime();
                 try {
                     isValid = verifySignature(document, userInfo.certificate, signatureAlgorithm, signature);
                 } catch (NoSuchAlgorithmException ex) {
@@ -130,7 +143,9 @@ public class X509RequestVerifier {
                 } catch (SignatureException ex) {
                     throw new CryptographyException("Unable to verify signature: "+ex.getMessage(), ex);
                 }
-                log.debug("X509CertificateAuthorization verified signature using certificate; result= {}", isValid);
+                long verifyNanos = System.nanoTime() - verifyStart;
+                stats.addVerification(verifyNanos);
+                log.debug("X509CertificateAuthorization verified signature using certificate; result= {} lookup {}us verify {}us", isValid, lookupNanos / 1000, verifyNanos / 1000);
                 if( !isValid ) {
                     throw new IllegalArgumentException("Authorization signature is invalid");
                 }
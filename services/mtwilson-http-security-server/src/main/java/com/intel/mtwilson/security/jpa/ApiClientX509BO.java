@@ -6,6 +6,7 @@ import com.intel.mtwilson.ms.data.ApiClientX509;
 import com.intel.mtwilson.ms.data.ApiRoleX509;
 import com.intel.mtwilson.security.core.PublicKeyUserFinder;
 import com.intel.mtwilson.security.core.PublicKeyUserInfo;
+import com.intel.mtwilson.security.core.X509UserCache;
 import com.intel.mtwilson.security.core.X509UserFinder;
 import com.intel.mtwilson.security.core.X509UserInfo;
 import java.io.ByteArrayInputStream;
@@ -30,6 +31,8 @@ import org.slf4j.LoggerFactory;
  * Secret key lookup provider for the authentication filter that secures
  * the REST API.
  * 
+ * Lookups go through the shared X509UserCache.
+ * 
  * @since 0.5.1
  * @author jbuhacoff
  */
@@ -37,6 +40,12 @@ public class ApiClientX509BO implements X509UserFinder, PublicKeyUserFinder {
     private static Logger log = LoggerFactory.getLogger(ApiClientX509BO.class);
     
     private ApiClientX509JpaController controller;
+    private final X509UserFinder database = new X509UserFinder() {
+        @Override
+        public X509UserInfo getUserForX509Identity(byte[] fingerprint) {
+            return findUserForX509Identity(fingerprint);
+        }
+    };
     
     public ApiClientX509BO(EntityManagerFactory factory) {
         controller = new ApiClientX509JpaController(factory);
@@ -85,6 +94,10 @@ public class ApiClientX509BO implements X509UserFinder, PublicKeyUserFinder {
     
     @Override
     public X509UserInfo getUserForX509Identity(byte[] fingerprint) {
+        return X509UserCache.getInstance().getUserForX509Identity(fingerprint, database);
+    }
+    
+    private X509UserInfo findUserForX509Identity(byte[] fingerprint) {
         ApiClientX509 apiClient = getApiClientByFingerprint(fingerprint);
         if( apiClient == null ) {
             return null;
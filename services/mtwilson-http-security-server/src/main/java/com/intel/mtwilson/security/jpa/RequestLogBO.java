@@ -4,12 +4,17 @@ import com.intel.mtwilson.as.controller.MwRequestLogJpaController;
 import com.intel.mtwilson.as.data.MwRequestLog;
 import com.intel.mtwilson.security.core.RequestInfo;
 import com.intel.mtwilson.security.core.RequestLog;
+import com.intel.mtwilson.security.core.RequestLogWriter;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import javax.persistence.EntityManagerFactory;
 
 /**
+ * The v1 filter does not call this class (bug #380); replay detection for
+ * the v2 API is done by JdbcCertificateRealm with a ReplayCache. Entries are
+ * written on the RequestLogWriter thread.
+ * 
  * @since 1.2
  * @author jbuhacoff
  */
@@ -38,13 +43,18 @@ public class RequestLogBO implements RequestLog {
 
     @Override
     public void logRequestInfo(RequestInfo request) {
-        MwRequestLog entry = new MwRequestLog();
+        final MwRequestLog entry = new MwRequestLog();
         entry.setInstance(request.instance);
         entry.setReceived(request.received);
         entry.setSource(request.source);
         entry.setMd5Hash(request.md5Hash);
         entry.setContent(request.content);
-        controller.create(entry);
+        RequestLogWriter.write(new Runnable() {
+            @Override
+            public void run() {
+                controller.create(entry);
+            }
+        });
     }
 
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.security.core;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ReplayCacheTest {
+
+    @Test
+    public void testReplayIsRejected() {
+        ReplayCache cache = new ReplayCache(60000, 100);
+        long now = System.currentTimeMillis();
+        assertTrue(cache.add("client1", "digest1", now));
+        assertTrue(cache.contains("client1", "digest1"));
+        assertFalse(cache.add("client1", "digest1", now));
+        assertEquals(1, cache.getReplays());
+        // same digest from another source is a different request
+        assertTrue(cache.add("client2", "digest1", now));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testAcceptsDoesNotRecord() {
+        ReplayCache cache = new ReplayCache(60000, 100);
+        long now = System.currentTimeMillis();
+        assertTrue(cache.accepts("client1", "digest1", now));
+        assertTrue(cache.accepts("client1", "digest1", now));
+        assertEquals(0, cache.size());
+        assertTrue(cache.add("client1", "digest1", now));
+        assertFalse(cache.accepts("client1", "digest1", now));
+    }
+
+    @Test
+    public void testRequestOutsideWindowIsRejected() {
+        ReplayCache cache = new ReplayCache(60000, 100);
+        long now = System.currentTimeMillis();
+        // the window starts when the cache is created
+        assertFalse(cache.add("client1", "digest1", now - 1000));
+        assertFalse(cache.add("client1", "digest2", now + 120000));
+        assertEquals(2, cache.getOutsideWindow());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiredRequestsAreDropped() throws InterruptedException {
+        ReplayCache cache = new ReplayCache(160, 100);
+        assertTrue(cache.add("client1", "digest1", System.currentTimeMillis()));
+        Thread.sleep(250);
+        assertFalse(cache.contains("client1", "digest1"));
+        assertEquals(0, cache.size());
+        // a replay of the expired request is now outside the window
+        assertTrue(cache.getWindowStart() > System.currentTimeMillis() - 200);
+    }
+
+    @Test
+    public void testFullCacheMovesWindowStart() {
+        ReplayCache cache = new ReplayCache(16000, 2);
+        long now = System.currentTimeMillis();
+        assertTrue(cache.add("client1", "digest1", now));
+        assertTrue(cache.add("client1", "digest2", now + 2000));
+        assertTrue(cache.add("client1", "digest3", now + 4000));
+        assertEquals(2, cache.size());
+        // the oldest request was dropped, but its replay is still rejected
+        assertFalse(cache.contains("client1", "digest1"));
+        assertFalse(cache.add("client1", "digest1", now));
+        assertTrue(cache.getWindowStart() > now);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.security.core;
+
+import java.util.HashMap;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class X509UserCacheTest {
+
+    private static class TestFinder implements X509UserFinder {
+        final HashMap<String,X509UserInfo> users = new HashMap<>();
+        int lookups = 0;
+
+        @Override
+        public X509UserInfo getUserForX509Identity(byte[] fingerprint) {
+            lookups++;
+            return users.get(new String(fingerprint));
+        }
+    }
+
+    private X509UserInfo createUser(String loginName) {
+        X509UserInfo userInfo = new X509UserInfo();
+        userInfo.loginName = loginName;
+        return userInfo;
+    }
+
+    @Test
+    public void testKnownFingerprintIsCached() {
+        X509UserCache cache = new X509UserCache(10, 60000, 60000);
+        TestFinder finder = new TestFinder();
+        X509UserInfo user = createUser("client1");
+        finder.users.put("aa", user);
+        assertSame(user, cache.getUserForX509Identity("aa".getBytes(), finder));
+        assertSame(user, cache.getUserForX509Identity("aa".getBytes(), finder));
+        assertEquals(1, finder.lookups);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testUnknownFingerprintIsCachedForNegativeTtl() throws InterruptedException {
+        X509UserCache cache = new X509UserCache(10, 60000, 50);
+        TestFinder finder = new TestFinder();
+        assertNull(cache.getUserForX509Identity("aa".getBytes(), finder));
+        assertNull(cache.getUserForX509Identity("aa".getBytes(), finder));
+        assertEquals(1, finder.lookups);
+        // the client is registered after the negative entry was cached
+        X509UserInfo user = createUser("client1");
+        finder.users.put("aa", user);
+        Thread.sleep(100);
+        assertSame(user, cache.getUserForX509Identity("aa".getBytes(), finder));
+        assertEquals(2, finder.lookups);
+    }
+
+    @Test
+    public void testInvalidate() {
+        X509UserCache cache = new X509UserCache(10, 60000, 60000);
+        TestFinder finder = new TestFinder();
+        assertNull(cache.getUserForX509Identity("aa".getBytes(), finder));
+        X509UserInfo user = createUser("client1");
+        finder.users.put("aa", user);
+        cache.invalidate("aa".getBytes());
+        assertSame(user, cache.getUserForX509Identity("aa".getBytes(), finder));
+        assertEquals(2, finder.lookups);
+    }
+
+    @Test
+    public void testLookupDuringClearIsNotCached() {
+        final X509UserCache cache = new X509UserCache(10, 60000, 60000);
+        final X509UserInfo before = createUser("client1");
+        X509UserFinder finder = new X509UserFinder() {
+            @Override
+            public X509UserInfo getUserForX509Identity(byte[] fingerprint) {
+                // the client is changed and the cache cleared while this lookup is in flight
+                cache.clear();
+                return before;
+            }
+        };
+        assertSame(before, cache.getUserForX509Identity("aa".getBytes(), finder));
+        assertEquals(0, cache.size());
+        TestFinder next = new TestFinder();
+        X509UserInfo after = createUser("client1");
+        next.users.put("aa", after);
+        assertSame(after, cache.getUserForX509Identity("aa".getBytes(), next));
+        assertEquals(1, next.lookups);
+    }
+
+    @Test
+    public void testMaxSize() {
+        X509UserCache cache = new X509UserCache(2, 60000, 60000);
+        TestFinder finder = new TestFinder();
+        cache.getUserForX509Identity("aa".getBytes(), finder);
+        cache.getUserForX509Identity("bb".getBytes(), finder);
+        cache.getUserForX509Identity("cc".getBytes(), finder);
+        assertEquals(2, cache.size());
+        cache.getUserForX509Identity("cc".getBytes(), finder);
+        assertEquals(4, finder.lookups);
+    }
+}
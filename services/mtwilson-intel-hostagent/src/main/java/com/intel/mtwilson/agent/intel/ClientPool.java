@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent.intel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The map behind TrustAgentConnectionPool: clients by key in least recently
+ * used order, with idle, per host, and total limits.
+ *
+ * Pooled clients are shared, so a client that is evicted may still be in use
+ * by an attestation that got it earlier. Evicted clients are therefore
+ * closed once they have not been handed out for closeDelayMillis. Clients
+ * that were idle for longer than that are closed right away. The retired
+ * clients are checked whenever the pool is used.
+ *
+ * @param <C> the client type
+ */
+class ClientPool<C> {
+    private static final Logger log = LoggerFactory.getLogger(ClientPool.class);
+
+    /**
+     * Releases the connections of a client that is no longer pooled.
+     */
+    static interface Closer<C> {
+        void close(C client);
+    }
+
+    private static class Entry<C> {
+        private final String host;
+        private final C client;
+        private long lastAccess;
+
+        private Entry(String host, C client) {
+            this.host = host;
+            this.client = client;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    private final long maxIdleMillis;
+    private final int maxClientsPerHost;
+    private final int maxSize;
+    private final long closeDelayMillis;
+    private final Closer<C> closer;
+    private final LinkedHashMap<String,Entry<C>> pool = new LinkedHashMap<>(16, 0.75f, true);
+    private final ArrayList<Entry<C>> retired = new ArrayList<>();
+    private long evictions = 0;
+    private long closed = 0;
+
+    /**
+     * @param maxIdleMillis clients not handed out for this long are evicted, or 0 to keep them
+     * @param maxClientsPerHost maximum number of clients for one host, for example with different TLS policies or credentials
+     * @param maxSize maximum number of clients
+     * @param closeDelayMillis how long after it was last handed out an evicted client is closed
+     * @param closer
+     */
+    ClientPool(long maxIdleMillis, int maxClientsPerHost, int maxSize, long closeDelayMillis, Closer<C> closer) {
+        this.maxIdleMillis = maxIdleMillis;
+        this.maxClientsPerHost = maxClientsPerHost;
+        this.maxSize = maxSize;
+        this.closeDelayMillis = closeDelayMillis;
+        this.closer = closer;
+    }
+
+    /**
+     * @param key
+     * @return the pooled client for the key, or null
+     */
+    synchronized C get(String key) {
+        evictIdle();
+        closeRetired();
+        Entry<C> entry = pool.get(key);
+        if( entry == null ) {
+            return null;
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        return entry.client;
+    }
+
+    /**
+     * Adds the client unless another thread added one for the same key
+     * first; in that case the given client is closed and the pooled one is
+     * returned.
+     *
+     * @param key
+     * @param host address of the host, for the per host limit and remove
+     * @param client
+     * @return the pooled client for the key
+     */
+    C put(String key, String host, C client) {
+        C existing;
+        synchronized(this) {
+            Entry<C> entry = pool.get(key);
+            if( entry == null ) {
+                pool.put(key, new Entry<>(host, client));
+                evictExcess(host);
+                return client;
+            }
+            entry.lastAccess = System.currentTimeMillis();
+            existing = entry.client;
+        }
+        close(client); // never handed out
+        return existing;
+    }
+
+    /**
+     * Evicts all the clients for the host.
+     *
+     * @param host
+     * @return the number of clients evicted
+     */
+    synchronized int remove(String host) {
+        int count = 0;
+        Iterator<Entry<C>> it = pool.values().iterator();
+        while(it.hasNext()) {
+            Entry<C> entry = it.next();
+            if( entry.host.equals(host) ) {
+                it.remove();
+                retire(entry);
+                count++;
+            }
+        }
+        closeRetired();
+        return count;
+    }
+
+    synchronized void clear() {
+        for(Entry<C> entry : pool.values()) {
+            retire(entry);
+        }
+        pool.clear();
+        closeRetired();
+    }
+
+    synchronized int size() {
+        return pool.size();
+    }
+
+    /**
+     * @return number of evicted clients that are not closed yet
+     */
+    synchronized int getRetired() {
+        return retired.size();
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized long getClosed() {
+        return closed;
+    }
+
+    // caller must hold the lock
+    private void retire(Entry<C> entry) {
+        evictions++;
+        retired.add(entry);
+    }
+
+    // caller must hold the lock
+    private void closeRetired() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry<C>> it = retired.iterator();
+        while(it.hasNext()) {
+            Entry<C> entry = it.next();
+            if( now - entry.lastAccess >= closeDelayMillis ) {
+                it.remove();
+                close(entry.client);
+            }
+        }
+    }
+
+    private void close(C client) {
+        try {
+            closer.close(client);
+        }
+        catch(RuntimeException e) {
+            log.debug("Cannot close pooled client", e);
+        }
+        synchronized(this) {
+            closed++;
+        }
+    }
+
+    // caller must hold the lock
+    private void evictIdle() {
+        if( maxIdleMillis <= 0 ) { return; }
+        long now = System.currentTimeMillis();
+        // the map is in access order so the idle entries are at the front
+        Iterator<Entry<C>> it = pool.values().iterator();
+        while(it.hasNext()) {
+            Entry<C> entry = it.next();
+            if( now - entry.lastAccess <= maxIdleMillis ) {
+                break;
+            }
+            log.debug("Evicting idle client for {}", entry.host);
+            it.remove();
+            retire(entry);
+        }
+    }
+
+    // caller must hold the lock
+    private void evictExcess(String host) {
+        int sameHost = 0;
+        for(Entry<C> entry : pool.values()) {
+            if( entry.host.equals(host) ) {
+                sameHost++;
+            }
+        }
+        // least recently used first
+        int excess = sameHost - maxClientsPerHost;
+        Iterator<Entry<C>> it = pool.values().iterator();
+        while(it.hasNext() && (excess > 0 || pool.size() > maxSize)) {
+            Entry<C> entry = it.next();
+            if( excess > 0 && entry.host.equals(host) ) {
+                it.remove();
+                retire(entry);
+                excess--;
+            }
+            else if( pool.size() > maxSize ) {
+                it.remove();
+                retire(entry);
+            }
+        }
+        closeRetired();
+    }
+}
@@ -5,8 +5,11 @@
 package com.intel.mtwilson.agent.intel;
 
 import com.intel.dcsg.cpg.io.UUID;
+import com.intel.dcsg.cpg.x509.X509Util;
 import com.intel.mtwilson.trustagent.model.HostInfo;
-import com.intel.mtwilson.agent.HostAgent;
+import com.intel.mtwilson.agent.AsyncHostAgent;
+import com.intel.mtwilson.agent.HostAgentCallback;
+import com.intel.mtwilson.agent.HostAgentFuture;
 import com.intel.mtwilson.datatypes.TxtHostRecord;
 import com.intel.mtwilson.model.Aik;
 import com.intel.mtwilson.model.InternetAddress;
@@ -15,6 +18,7 @@ import com.intel.mtwilson.model.PcrIndex;
 import com.intel.mtwilson.model.PcrManifest;
 import com.intel.mtwilson.model.TpmQuote;
 import com.intel.mtwilson.trustagent.client.jaxrs.TrustAgentClient;
+import com.intel.mtwilson.trustagent.model.TpmQuoteResponse;
 import com.intel.mtwilson.trustagent.model.VMAttestationRequest;
 import com.intel.mtwilson.trustagent.model.VMAttestationResponse;
 import com.intel.mtwilson.trustagent.model.VMQuoteResponse;
@@ -24,14 +28,30 @@ import java.security.cert.X509Certificate;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.client.InvocationCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Instances of VmwareAgent should be created by the VmwareAgentFactory
+ *
+ * The asynchronous methods use the async methods of TrustAgentClient, so the
+ * calling thread does not wait for the trust agent. getPcrManifestAsync
+ * makes the host info, AIK, and quote calls one after the other from the
+ * response callbacks. The callbacks run on the shared async pool of
+ * TrustAgentClient, so the work that can block, such as reading the aikqverify configuration and
+ * verifying the quote, is handed to a small shared pool of verifier threads.
  * @author jbuhacoff
  */
-public class IntelHostAgent2 implements HostAgent {
+public class IntelHostAgent2 implements AsyncHostAgent {
     private transient Logger log = LoggerFactory.getLogger(getClass());
     private transient final TrustAgentClient client;
 //    private final String hostname;
@@ -39,12 +59,44 @@ public class IntelHostAgent2 implements HostAgent {
     private Boolean isTpmAvailable = null;
     private String vendorHostReport = null;
     private String vmmName = null;
-    private PcrManifest pcrManifest = null;
+    private volatile PcrManifest pcrManifest = null;
+    private volatile X509Certificate aikCertificate = null; // only set by the asynchronous methods
+    private volatile IOException pcrManifestError = null; // only set by getPcrManifestAsync
+    private transient final Executor verifier;
+
+    private static final ThreadPoolExecutor defaultVerifier = createVerifier();
 
     public IntelHostAgent2(TrustAgentClient client, InternetAddress hostAddress) throws Exception {
+        this(client, hostAddress, defaultVerifier);
+    }
+
+    /**
+     * @param client
+     * @param hostAddress
+     * @param verifier runs the work that follows the responses of the asynchronous calls
+     */
+    IntelHostAgent2(TrustAgentClient client, InternetAddress hostAddress, Executor verifier) {
         this.client = client;
         this.hostAddress = hostAddress;
 //        this.hostname = hostname;
+        this.verifier = verifier;
+    }
+
+    // one thread per processor because verifying a quote is cpu bound; idle threads exit so they do not outlive an undeployed application
+    private static ThreadPoolExecutor createVerifier() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "host-agent-verifier-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
 
@@ -83,6 +135,9 @@ public class IntelHostAgent2 implements HostAgent {
 
     @Override
     public X509Certificate getAikCertificate() {
+        if( aikCertificate != null ) {
+            return aikCertificate;
+        }
         try {
             X509Certificate aik = client.getAik();
             isTpmAvailable = true;
@@ -135,6 +190,9 @@ public class IntelHostAgent2 implements HostAgent {
      */
     @Override
     public PcrManifest getPcrManifest(Nonce challenge) throws IOException {
+        if( pcrManifest == null && pcrManifestError != null ) {
+            throw pcrManifestError;
+        }
         if( pcrManifest == null ) {
             try {
                 TAHelper helper = new TAHelper(getHostDetails());
@@ -147,9 +205,150 @@ public class IntelHostAgent2 implements HostAgent {
         return pcrManifest;
     }
 
+    @Override
+    public Future<PcrManifest> getPcrManifestAsync(final Nonce challenge, HostAgentCallback<PcrManifest> callback) {
+        final HostAgentFuture<PcrManifest> future = new HostAgentFuture<>(callback);
+        if( pcrManifest != null ) {
+            future.complete(pcrManifest);
+            return future;
+        }
+        future.setPending(client.getHostInfoAsync(new InvocationCallback<HostInfo>() {
+            @Override
+            public void completed(final HostInfo hostInfo) {
+                verify(future, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            getAikAndQuoteAsync(toTxtHostRecord(hostInfo), challenge, future);
+                        }
+                        catch(Exception e) {
+                            failPcrManifest(future, e);
+                        }
+                    }
+                });
+            }
+            @Override
+            public void failed(Throwable e) {
+                failPcrManifest(future, e);
+            }
+        }));
+        return future;
+    }
+
+    // second and third steps of getPcrManifestAsync
+    private void getAikAndQuoteAsync(TxtHostRecord host, Nonce challenge, final HostAgentFuture<PcrManifest> future) throws IOException {
+        final TAHelper helper = new TAHelper(host);
+        final byte[] nonce = helper.getQuoteNonce(challenge);
+        final String pcrBanks = host.PcrBanks;
+        // like TAHelper.getQuoteInformationForHost, ensure the host has an AIK before asking for the quote
+        future.setPending(client.getAikAsync(new InvocationCallback<X509Certificate>() {
+            @Override
+            public void completed(X509Certificate aik) {
+                isTpmAvailable = true;
+                aikCertificate = aik;
+                try {
+                    helper.setTrustedAik(X509Util.encodePemCertificate(aik));
+                }
+                catch(Exception e) {
+                    failed(e);
+                    return;
+                }
+                future.setPending(client.getTpmQuoteAsync(nonce, TAHelper.ALL_PCRS, pcrBanks, new InvocationCallback<TpmQuoteResponse>() {
+                    @Override
+                    public void completed(final TpmQuoteResponse tpmQuoteResponse) {
+                        log.debug("got response from server [{}]", hostAddress);
+                        verify(future, new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    pcrManifest = helper.getQuoteInformationForHost(hostAddress.toString(), nonce, tpmQuoteResponse);
+                                    future.complete(pcrManifest);
+                                }
+                                catch(Exception e) {
+                                    failPcrManifest(future, e);
+                                }
+                            }
+                        });
+                    }
+                    @Override
+                    public void failed(Throwable e) {
+                        failPcrManifest(future, e);
+                    }
+                }));
+            }
+            @Override
+            public void failed(Throwable e) {
+                failPcrManifest(future, e);
+            }
+        }));
+    }
+
+    // called from the callbacks of the trust agent client, which must not block
+    private void verify(HostAgentFuture<PcrManifest> future, Runnable work) {
+        if( future.isDone() ) {
+            return; // cancelled while the call was in flight
+        }
+        try {
+            verifier.execute(work);
+        }
+        catch(RejectedExecutionException e) {
+            failPcrManifest(future, e);
+        }
+    }
+
+    // the error is remembered so that getPcrManifest does not contact the host again
+    private void failPcrManifest(HostAgentFuture<PcrManifest> future, Throwable e) {
+        pcrManifestError = new IOException("Cannot retrieve PCR Manifest from "+hostAddress.toString(), e);
+        future.fail(pcrManifestError);
+    }
+
+    @Override
+    public Future<X509Certificate> getAikCertificateAsync(HostAgentCallback<X509Certificate> callback) {
+        final HostAgentFuture<X509Certificate> future = new HostAgentFuture<>(callback);
+        if( aikCertificate != null ) {
+            future.complete(aikCertificate);
+            return future;
+        }
+        future.setPending(client.getAikAsync(new InvocationCallback<X509Certificate>() {
+            @Override
+            public void completed(X509Certificate aik) {
+                isTpmAvailable = true;
+                aikCertificate = aik;
+                future.complete(aik);
+            }
+            @Override
+            public void failed(Throwable e) {
+                log.debug("Cannot retrieve AIK certificate: {}", e.toString(), e);
+                future.fail(new IOException("Cannot retrieve AIK certificate from "+hostAddress.toString(), e));
+            }
+        }));
+        return future;
+    }
+
+    @Override
+    public Future<VMQuoteResponse> getVMAttestationReportAsync(VMAttestationRequest obj, HostAgentCallback<VMQuoteResponse> callback) {
+        final HostAgentFuture<VMQuoteResponse> future = new HostAgentFuture<>(callback);
+        future.setPending(client.getVMAttestationReportAsync(obj, new InvocationCallback<VMQuoteResponse>() {
+            @Override
+            public void completed(VMQuoteResponse vmAttestationReport) {
+                log.debug("VM Attestation report is {}", vmAttestationReport);
+                future.complete(vmAttestationReport);
+            }
+            @Override
+            public void failed(Throwable e) {
+                log.error("Cannot retrieve VM attestation report: {}", e.toString(), e);
+                future.fail(new IOException("Cannot retrieve VM attestation report from "+hostAddress.toString(), e));
+            }
+        }));
+        return future;
+    }
+
     @Override
     public TxtHostRecord getHostDetails() throws IOException {
-        HostInfo hostInfo = client.getHostInfo();
+        return toTxtHostRecord(client.getHostInfo());
+    }
+
+    private TxtHostRecord toTxtHostRecord(HostInfo hostInfo) {
         TxtHostRecord host = new TxtHostRecord();
         host.BIOS_Name = hostInfo.getBiosOem().trim();
         host.BIOS_Oem = hostInfo.getBiosOem().trim();
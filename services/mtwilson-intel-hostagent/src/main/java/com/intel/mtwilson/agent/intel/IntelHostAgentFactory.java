@@ -5,6 +5,7 @@
 package com.intel.mtwilson.agent.intel;
 
 import com.intel.mtwilson.agent.HostAgent;
+import com.intel.mtwilson.agent.PooledHostAgentFactory;
 import com.intel.mtwilson.agent.VendorHostAgentFactory;
 import com.intel.mtwilson.model.InternetAddress;
 import com.intel.dcsg.cpg.tls.policy.TlsConnection;
@@ -15,6 +16,7 @@ import com.intel.mtwilson.datatypes.ConnectionString;
 import com.intel.mtwilson.datatypes.Vendor;
 import com.intel.mtwilson.trustagent.client.jaxrs.TrustAgentClient;
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Properties;
 import javax.ws.rs.core.UriBuilder;
@@ -26,7 +28,7 @@ import org.slf4j.LoggerFactory;
  * not create instances of IntelClient. It uses the IntelClientFactory to do that.
  * @author jbuhacoff
  */
-public class IntelHostAgentFactory implements VendorHostAgentFactory {
+public class IntelHostAgentFactory implements VendorHostAgentFactory, PooledHostAgentFactory {
     private Logger log = LoggerFactory.getLogger(getClass());
     private String intelVendorConnectionString = "";
     
@@ -80,7 +82,7 @@ public class IntelHostAgentFactory implements VendorHostAgentFactory {
                     log.debug("Rewritten intel host url: {}", url.toExternalForm());
                 }
                 
-                TrustAgentClient client = new TrustAgentClient(properties, new TlsConnection(url, tlsPolicy));
+                TrustAgentClient client = TrustAgentConnectionPool.getInstance().getClient(url, properties, tlsPolicy);
                 return new IntelHostAgent2(client, hostAddress);
             }
             else /*if( url.getPort() == 9999 )*/ {
@@ -107,6 +109,16 @@ public class IntelHostAgentFactory implements VendorHostAgentFactory {
         }
     }
 
+    @Override
+    public void closeConnections(String vendorConnectionString) {
+        try {
+            TrustAgentConnectionPool.getInstance().remove(new URL(vendorConnectionString).getHost());
+        }
+        catch(MalformedURLException e) {
+            log.debug("Cannot close trust agent connections: {}", e.toString());
+        }
+    }
+
     @Override
     public String getVendorConnectionString() {
         return intelVendorConnectionString;
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent.intel;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.model.PcrFactory;
+import com.intel.mtwilson.model.PcrIndex;
+import com.intel.mtwilson.model.PcrManifest;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies a TPM quote in memory and returns the quoted PCR values. This is
+ * the Java equivalent of the native aikqverify, aikqverify2, aikqverifywin
+ * and aikqverifywin2 commands: it accepts the same quote, nonce and AIK
+ * public key inputs (as byte arrays instead of files) and applies the same
+ * checks, so the two implementations can be compared using the aikqverify
+ * test fixtures.
+ *
+ * Instances are stateless and thread-safe.
+ */
+public class QuoteVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(QuoteVerifier.class);
+    private static final int SHA1_SIZE = 20;
+    private static final int SHA256_SIZE = 32;
+    private static final int MAX_BANKS = 3; // same limit as aikqverify2
+    private static final int TPM_ALG_SHA1 = 0x0004;
+    private static final int TPM_ALG_SHA256 = 0x000B;
+    private static final int PCP_PLATFORM_TPM20 = 2;
+
+    /**
+     * The quote formats produced by the supported trust agents; each one
+     * corresponds to one of the native aikqverify commands.
+     */
+    public static enum QuoteFormat {
+        /** Linux TPM 1.2 (aikqverify) */
+        TPM12,
+        /** Linux TPM 2.0 (aikqverify2) */
+        TPM20,
+        /** Windows PCP attestation blob with a TPM 1.2 quote (aikqverifywin) */
+        WINDOWS_TPM12,
+        /** Windows PCP attestation blob with a TPM 2.0 quote (aikqverifywin2) */
+        WINDOWS_TPM20;
+
+        public static QuoteFormat valueOf(String osName, String tpmVersion) {
+            boolean windows = osName != null && osName.toLowerCase().contains("microsoft");
+            boolean tpm20 = "2.0".equals(tpmVersion);
+            if (windows) {
+                return tpm20 ? WINDOWS_TPM20 : WINDOWS_TPM12;
+            }
+            return tpm20 ? TPM20 : TPM12;
+        }
+    }
+
+    /**
+     *
+     * @param format of the quote
+     * @param nonce the challenge sent to the host, after any ip address or asset tag extension; may be null to skip the nonce check like aikqverify without the -c option
+     * @param aikPublicKey the trusted AIK public key
+     * @param quote the quote bytes as returned by the trust agent
+     * @return a PcrManifest containing the verified PCR values (without event logs)
+     * @throws SignatureException if the signature, nonce, or PCR digest does not match
+     * @throws IllegalArgumentException if the quote is malformed
+     * @throws GeneralSecurityException if the signature cannot be checked
+     */
+    public PcrManifest verify(QuoteFormat format, byte[] nonce, PublicKey aikPublicKey, byte[] quote) throws GeneralSecurityException {
+        if (quote == null || aikPublicKey == null) {
+            throw new IllegalArgumentException("Quote and AIK public key are required");
+        }
+        try {
+            switch (format) {
+                case TPM12:
+                    return verifyTpm12(nonce, aikPublicKey, quote);
+                case TPM20:
+                    return verifyTpm20(nonce, aikPublicKey, quote);
+                case WINDOWS_TPM12:
+                    return verifyWindowsTpm12(nonce, aikPublicKey, quote);
+                case WINDOWS_TPM20:
+                    return verifyWindowsTpm20(nonce, aikPublicKey, quote);
+                default:
+                    throw new UnsupportedOperationException("Quote format not supported: " + format);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Input AIK quote incorrect format", e);
+        }
+    }
+
+    /**
+     * TPM 1.2 quote as produced by aikquote:
+     * UINT16 selectLen, select[selectLen], UINT32 pcrLen, pcrs[pcrLen], signature
+     * (all in network byte order). The signature is over TPM_QUOTE_INFO.
+     */
+    private PcrManifest verifyTpm12(byte[] nonce, PublicKey aikPublicKey, byte[] quote) throws GeneralSecurityException {
+        ByteBuffer buffer = ByteBuffer.wrap(quote).order(ByteOrder.BIG_ENDIAN);
+        int selectLen = buffer.getShort() & 0xFFFF;
+        byte[] select = get(buffer, selectLen);
+        int pcrLen = buffer.getInt();
+        if (pcrLen < 0 || 2 + selectLen + 4 + pcrLen + SHA1_SIZE > quote.length) {
+            throw new IllegalArgumentException("Input AIK quote incorrect format");
+        }
+        byte[] pcrs = get(buffer, pcrLen);
+        byte[] signature = get(buffer, buffer.remaining());
+
+        // TPM_QUOTE_INFO: version 1.1.0.0, "QUOT", sha1(TPM_PCR_COMPOSITE), sha1(nonce)
+        ByteBuffer quoteInfo = ByteBuffer.allocate(8 + SHA1_SIZE + SHA1_SIZE);
+        quoteInfo.put(new byte[]{1, 1, 0, 0, 'Q', 'U', 'O', 'T'});
+        quoteInfo.put(sha1(quote, 0, 2 + selectLen + 4 + pcrLen));
+        quoteInfo.put(nonce == null ? new byte[SHA1_SIZE] : sha1(nonce, 0, nonce.length));
+        verifySignature("SHA1withRSA", aikPublicKey, quoteInfo.array(), 0, quoteInfo.capacity(), signature);
+
+        PcrManifest pcrManifest = new PcrManifest();
+        int pcrPos = 0;
+        for (int pcr = 0; pcr < 8 * selectLen; pcr++) {
+            if (isSelected(select, pcr)) {
+                if (pcrPos + SHA1_SIZE > pcrs.length) {
+                    throw new IllegalArgumentException("Input AIK quote incorrect format");
+                }
+                setPcr(pcrManifest, DigestAlgorithm.SHA1, pcr, Arrays.copyOfRange(pcrs, pcrPos, pcrPos + SHA1_SIZE));
+                pcrPos += SHA1_SIZE;
+            }
+        }
+        return pcrManifest;
+    }
+
+    /**
+     * TPM 2.0 quote as produced by the trust agent:
+     * UINT16 attestLen (host byte order), TPMS_ATTEST[attestLen],
+     * TPMT_SIGNATURE (sigAlg, hashAlg, size in host byte order), PCR values.
+     * As in aikqverify2 the "host byte order" fields are little-endian.
+     */
+    private PcrManifest verifyTpm20(byte[] nonce, PublicKey aikPublicKey, byte[] quote) throws GeneralSecurityException {
+        ByteBuffer buffer = ByteBuffer.wrap(quote).order(ByteOrder.LITTLE_ENDIAN);
+        int quotedInfoLen = buffer.getShort() & 0xFFFF;
+        int quotedInfoPos = buffer.position();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.position(quotedInfoPos + 6); // skip magic and type
+        skip(buffer, buffer.getShort() & 0xFFFF); // qualifiedSigner
+        byte[] receivedNonce = get(buffer, buffer.getShort() & 0xFFFF); // extraData
+        if (nonce != null && !Arrays.equals(receivedNonce, nonce)) {
+            throw new SignatureException("Error in comparing the received nonce with the challenge");
+        }
+        skip(buffer, 17); // TPMS_CLOCK_INFO
+        skip(buffer, 8); // firmwareVersion
+        int pcrBankCount = buffer.getInt();
+        if (pcrBankCount < 0 || pcrBankCount > MAX_BANKS) {
+            throw new IllegalArgumentException(String.format("Number of PCR selection array in the quote is greater than %d", MAX_BANKS));
+        }
+        int[] hashAlg = new int[pcrBankCount];
+        byte[][] pcrSelected = new byte[pcrBankCount][];
+        for (int i = 0; i < pcrBankCount; i++) {
+            hashAlg[i] = buffer.getShort() & 0xFFFF;
+            pcrSelected[i] = get(buffer, buffer.get() & 0xFF);
+        }
+        byte[] pcrDigest = get(buffer, buffer.getShort() & 0xFFFF);
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(quotedInfoPos + quotedInfoLen); // TPMT_SIGNATURE
+        skip(buffer, 2); // sigAlg, TPM_ALG_RSASSA
+        skip(buffer, 2); // hashAlg, TPM_ALG_SHA256
+        byte[] signature = get(buffer, buffer.getShort() & 0xFFFF);
+        byte[] pcrs = get(buffer, buffer.remaining());
+        if (pcrs.length == 0) {
+            throw new IllegalArgumentException("No PCR values included in quote");
+        }
+
+        verifySignature("SHA256withRSA", aikPublicKey, quote, quotedInfoPos, quotedInfoLen, signature);
+
+        // recompute the digest of the concatenated PCR values and compare to the signed digest
+        PcrManifest pcrManifest = new PcrManifest();
+        MessageDigest concat = MessageDigest.getInstance("SHA-256");
+        int pcrPos = 0;
+        for (int j = 0; j < pcrBankCount; j++) {
+            DigestAlgorithm bank;
+            int pcrSize;
+            if (hashAlg[j] == TPM_ALG_SHA1) {
+                bank = DigestAlgorithm.SHA1;
+                pcrSize = SHA1_SIZE;
+            } else if (hashAlg[j] == TPM_ALG_SHA256) {
+                bank = DigestAlgorithm.SHA256;
+                pcrSize = SHA256_SIZE;
+            } else {
+                throw new IllegalArgumentException(String.format("Not supported PCR banks (%02x) in quote", hashAlg[j]));
+            }
+            for (int pcr = 0; pcr < 8 * pcrSelected[j].length; pcr++) {
+                if (isSelected(pcrSelected[j], pcr)) {
+                    if (pcrPos + pcrSize > pcrs.length) {
+                        throw new IllegalArgumentException("Input AIK quote incorrect format");
+                    }
+                    concat.update(pcrs, pcrPos, pcrSize);
+                    setPcr(pcrManifest, bank, pcr, Arrays.copyOfRange(pcrs, pcrPos, pcrPos + pcrSize));
+                    pcrPos += pcrSize;
+                }
+            }
+        }
+        if (pcrPos == 0) {
+            throw new IllegalArgumentException("No PCRs selected for quote");
+        }
+        if (!Arrays.equals(concat.digest(), pcrDigest)) {
+            throw new SignatureException("Error in comparing the concatenated PCR digest with the digest in quote");
+        }
+        return pcrManifest;
+    }
+
+    /**
+     * Windows quotes are wrapped in a PCP_PLATFORM_ATTESTATION_BLOB whose
+     * header fields are little-endian UINT32: Magic, Platform, HeaderSize,
+     * cbPcrValues, cbQuote, cbSignature, cbLog. The PCR values are always
+     * 24 SHA1 registers.
+     */
+    private PcrManifest verifyWindowsTpm12(byte[] nonce, PublicKey aikPublicKey, byte[] quote) throws GeneralSecurityException {
+        PcpAttestationBlob blob = new PcpAttestationBlob(quote);
+        if (nonce != null && blob.quoteLen > 0) {
+            // TPM_QUOTE_INFO2: tag (2), "QUT2" (4), externalData (20), ...
+            byte[] receivedNonce = Arrays.copyOfRange(quote, blob.quotePos + 6, blob.quotePos + 6 + SHA1_SIZE);
+            if (!Arrays.equals(receivedNonce, sha1(nonce, 0, nonce.length))) {
+                throw new SignatureException("Error, bad Nonce in quote");
+            }
+        }
+        verifySignature("SHA1withRSA", aikPublicKey, quote, blob.quotePos, blob.quoteLen, blob.signature(quote));
+        return blob.sha1PcrManifest(quote);
+    }
+
+    private PcrManifest verifyWindowsTpm20(byte[] nonce, PublicKey aikPublicKey, byte[] quote) throws GeneralSecurityException {
+        PcpAttestationBlob blob = new PcpAttestationBlob(quote);
+        if (blob.quoteLen == 0) {
+            throw new IllegalArgumentException("Error, cbQuote is 0");
+        }
+        if (blob.signatureLen == 0) {
+            throw new IllegalArgumentException("Error, cbSignature is 0");
+        }
+        // the PCP tool still uses a SHA1 hash for the signature
+        verifySignature("SHA1withRSA", aikPublicKey, quote, blob.quotePos, blob.quoteLen, blob.signature(quote));
+        if (nonce != null && blob.platform == PCP_PLATFORM_TPM20) {
+            // the quote from the PCP tool is TPMS_ATTEST without the TPM2B_ATTEST size prefix
+            ByteBuffer buffer = ByteBuffer.wrap(quote, blob.quotePos, blob.quoteLen).order(ByteOrder.BIG_ENDIAN);
+            skip(buffer, 6); // skip magic and type
+            skip(buffer, buffer.getShort() & 0xFFFF); // qualifiedSigner
+            byte[] receivedNonce = get(buffer, buffer.getShort() & 0xFFFF); // extraData
+            if (!Arrays.equals(receivedNonce, sha1(nonce, 0, nonce.length))) {
+                throw new SignatureException("Error in comparing the received nonce with the challenge");
+            }
+        }
+        return blob.sha1PcrManifest(quote);
+    }
+
+    private static class PcpAttestationBlob {
+        private final int platform;
+        private final int pcrValuesPos;
+        private final int pcrValuesLen;
+        private final int quotePos;
+        private final int quoteLen;
+        private final int signaturePos;
+        private final int signatureLen;
+
+        PcpAttestationBlob(byte[] quote) {
+            ByteBuffer header = ByteBuffer.wrap(quote).order(ByteOrder.LITTLE_ENDIAN);
+            header.getInt(); // Magic
+            platform = header.getInt();
+            int headerSize = header.getInt();
+            pcrValuesLen = header.getInt();
+            quoteLen = header.getInt();
+            signatureLen = header.getInt();
+            header.getInt(); // cbLog
+            if (headerSize < 0 || pcrValuesLen < 0 || quoteLen < 0 || signatureLen < 0
+                    || (long) headerSize + pcrValuesLen + quoteLen + signatureLen > quote.length) {
+                throw new IllegalArgumentException("Input AIK quote incorrect format");
+            }
+            pcrValuesPos = headerSize;
+            quotePos = pcrValuesPos + pcrValuesLen;
+            signaturePos = quotePos + quoteLen;
+        }
+
+        byte[] signature(byte[] quote) {
+            return Arrays.copyOfRange(quote, signaturePos, signaturePos + signatureLen);
+        }
+
+        PcrManifest sha1PcrManifest(byte[] quote) {
+            if (pcrValuesLen < SHA1_SIZE * (PcrIndex.MAX_VALUE + 1)) {
+                throw new IllegalArgumentException("Input AIK quote incorrect format");
+            }
+            PcrManifest pcrManifest = new PcrManifest();
+            for (int pcr = 0; pcr <= PcrIndex.MAX_VALUE; pcr++) {
+                int pos = pcrValuesPos + SHA1_SIZE * pcr;
+                setPcr(pcrManifest, DigestAlgorithm.SHA1, pcr, Arrays.copyOfRange(quote, pos, pos + SHA1_SIZE));
+            }
+            return pcrManifest;
+        }
+    }
+
+    private static boolean isSelected(byte[] select, int pcr) {
+        return (select[pcr / 8] & (1 << (pcr % 8))) != 0;
+    }
+
+    private static void setPcr(PcrManifest pcrManifest, DigestAlgorithm bank, int pcr, byte[] value) {
+        if (pcr > PcrIndex.MAX_VALUE) {
+            log.warn("Ignoring PCR {} outside of supported range", pcr);
+            return;
+        }
+        pcrManifest.setPcr(PcrFactory.newInstance(bank, PcrIndex.valueOf(pcr), value));
+    }
+
+    private static void verifySignature(String algorithm, PublicKey aikPublicKey, byte[] data, int offset, int length, byte[] signatureBytes) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance(algorithm);
+        signature.initVerify(aikPublicKey);
+        signature.update(data, offset, length);
+        if (!signature.verify(signatureBytes)) {
+            throw new SignatureException("Error, bad RSA signature in quote");
+        }
+    }
+
+    private static byte[] sha1(byte[] data, int offset, int length) throws GeneralSecurityException {
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        sha1.update(data, offset, length);
+        return sha1.digest();
+    }
+
+    private static byte[] get(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void skip(ByteBuffer buffer, int length) {
+        buffer.position(buffer.position() + length);
+    }
+}
@@ -14,6 +14,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -88,6 +89,10 @@ import org.slf4j.LoggerFactory;
  * com.intel.mountwilson.as.aikqverify.cmd=aikqverify.exe
  * com.intel.mountwilson.as.openssl.cmd=openssl.bat
  *
+ * Set mtwilson.tpm.quote.verify.java=true to verify quotes in memory with
+ * QuoteVerifier instead of writing them to the data folder and running
+ * aikqverify; in that mode the aikverify files are not required.
+ *
  * The corresponding files must exist. From the above example:
  *
  * C:/Intel/CloudSecurity/AttestationServiceData/aikverifyhome
@@ -116,6 +121,9 @@ public class TAHelper {
     private String[] openSourceHostSpecificModules = {"initrd","vmlinuz"};
     private TxtHostRecord host = null;
     boolean isHostWindows = false;
+    private boolean verifyQuoteInJava = false;
+    private final QuoteVerifier quoteVerifier = new QuoteVerifier();
+    static final int[] ALL_PCRS = new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23}; // the v2 quote always has all the pcrs
 
 
     public TAHelper(/*EntityManagerFactory entityManagerFactory*/) throws IOException {
@@ -140,6 +148,10 @@ public class TAHelper {
             aikverifyCmd = aikverifyhomeBin + File.separator + config.getString("com.intel.mountwilson.as.aikqverify.cmd", "aikqverify.exe");
         }
         quoteWithIPAddress = My.configuration().getConfiguration().getBoolean("mtwilson.tpm.quote.ipv4", true); // issue #1038
+        verifyQuoteInJava = My.configuration().getConfiguration().getBoolean("mtwilson.tpm.quote.verify.java", false);
+        if (verifyQuoteInJava) {
+            return; // quotes are verified in memory so the aikverify files and data folder are not needed
+        }
         boolean foundAllRequiredFiles = true;
         String required[] = new String[]{aikverifyCmd, aikverifyhomeData};
         for (String filename : required) {
@@ -207,6 +219,10 @@ public class TAHelper {
             aikverifyCmd = aikverifyhomeBin + File.separator + config.getString("com.intel.mountwilson.as.aikqverify.cmd", "aikqverify.exe");
         }
         quoteWithIPAddress = My.configuration().getConfiguration().getBoolean("mtwilson.tpm.quote.ipv4", true); // issue #1038
+        verifyQuoteInJava = My.configuration().getConfiguration().getBoolean("mtwilson.tpm.quote.verify.java", false);
+        if (verifyQuoteInJava) {
+            return; // quotes are verified in memory so the aikverify files and data folder are not needed
+        }
         boolean foundAllRequiredFiles = true;
         String required[] = new String[]{aikverifyCmd, aikverifyhomeData};
         for (String filename : required) {
@@ -424,6 +440,16 @@ public class TAHelper {
         String quote = clientRequestType.getQuote();
         log.debug("extracted quote from response: " + quote);
 
+        if (verifyQuoteInJava) {
+            String aikCertificate = trustedAik == null ? clientRequestType.getAikcert() : trustedAik;
+            PcrManifest pcrManifest = verifyQuoteAndGetPcr(Base64.decodeBase64(quote), verifyNonce, aikCertificate, decodeEventLog(clientRequestType.getEventLog()));
+            log.info("Got PCR map");
+            String tcbMeasurementString = clientRequestType.getTcbMeasurement();
+            if (tcbMeasurementString != null && !tcbMeasurementString.isEmpty())
+                pcrManifest.setMeasurementXml(tcbMeasurementString);
+            return pcrManifest;
+        }
+
         q = saveQuote(quote, sessionId);
         log.debug("saved quote with session id: " + sessionId);
 
@@ -508,18 +534,50 @@ public class TAHelper {
     //        with the ip address like the v1 does)
     public PcrManifest getQuoteInformationForHost(String hostname, TrustAgentClient client, Nonce challenge) throws NoSuchAlgorithmException, PropertyException, JAXBException,
             UnknownHostException, IOException, KeyManagementException, CertificateException, XMLStreamException {
+        byte[] nonce = getQuoteNonce(challenge);
+
+        // FIrst let us ensure that we have an AIK cert created on the host before trying to retrieve the quote. The trust agent
+        // would verify if a AIK is already present or not. If not it will create a new one.
+        trustedAik = X509Util.encodePemCertificate(client.getAik());
+
+        // to fix issue #1038 trust agent relay we send 20 random bytes nonce to the host (base64-encoded) but if mtwilson.tpm.quote.ipaddress is enabled then in our copy we replace the last 4 bytes with the host's ip address, and when the host generates the quote it does the same thing, and we can verify it later
+        // we select best PCR bank but we will change to all PCR banks once it's supported
+        TpmQuoteResponse tpmQuoteResponse = client.getTpmQuote(nonce, ALL_PCRS, host.PcrBanks); // pcrList used to be a comma-separated list passed to this method... but now we are returning a quote with ALL the PCR's ALL THE TIME.
+        log.debug("got response from server [" + hostname + "] ");
+        return getQuoteInformationForHost(hostname, nonce, tpmQuoteResponse);
+    }
+
+    /**
+     * @param challenge optional; may be null
+     * @return the nonce to send to the v2 trust agent: the challenge if one was provided, otherwise 20 random bytes
+     */
+    public byte[] getQuoteNonce(Nonce challenge) {
+        if( challenge == null ) {
+            return generateNonce(); // 20 random bytes
+        }
+        return challenge.toByteArray(); // issue #4978: use specified nonce, if available
+    }
+
+    /**
+     * The part of getQuoteInformationForHost(hostname, client, challenge)
+     * that runs after the quote has been received from the v2 trust agent,
+     * for callers that retrieve the AIK and the quote themselves, for example
+     * with the asynchronous methods of TrustAgentClient. The caller must
+     * provide the AIK retrieved from the host with setTrustedAik before
+     * calling this method.
+     *
+     * @param hostname
+     * @param nonce that was sent to the trust agent, from getQuoteNonce
+     * @param tpmQuoteResponse
+     * @return the verified PCR manifest
+     */
+    public PcrManifest getQuoteInformationForHost(String hostname, byte[] nonce, TpmQuoteResponse tpmQuoteResponse) throws NoSuchAlgorithmException,
+            UnknownHostException, IOException, CertificateException {
         //  BUG #497  START CODE SNIPPET MOVED TO INTEL HOST AGENT
         File q;
         File n;
         File c;
         File r;
-        byte[] nonce;        
-        if( challenge == null ) {
-            nonce = generateNonce(); // 20 random bytes
-        }
-        else {
-            nonce = challenge.toByteArray(); // issue #4978: use specified nonce, if available
-        }
 
         // to fix issue #1038 we have a new option to put the host ip address in the nonce (we don't send this to the host - the hsot automatically would do the same thing)
         byte[] verifyNonce = nonce; // verifyNonce is what we save to verify against host's tpm quote response
@@ -536,16 +594,25 @@ public class TAHelper {
 
         String sessionId = generateSessionId();
 
-        // FIrst let us ensure that we have an AIK cert created on the host before trying to retrieve the quote. The trust agent
-        // would verify if a AIK is already present or not. If not it will create a new one.
-        trustedAik = X509Util.encodePemCertificate(client.getAik());
+        log.debug("extracted quote from response: {}", Base64.encodeBase64String(tpmQuoteResponse.quote));
 
-        // to fix issue #1038 trust agent relay we send 20 random bytes nonce to the host (base64-encoded) but if mtwilson.tpm.quote.ipaddress is enabled then in our copy we replace the last 4 bytes with the host's ip address, and when the host generates the quote it does the same thing, and we can verify it later
-        // we select best PCR bank but we will change to all PCR banks once it's supported
-        TpmQuoteResponse tpmQuoteResponse = client.getTpmQuote(nonce, new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23}, host.PcrBanks); // pcrList used to be a comma-separated list passed to this method... but now we are returning a quote with ALL the PCR's ALL THE TIME.
-        log.debug("got response from server [" + hostname + "] ");
+        // for Windows host, we generate a new nonce by sha1(nonce | tag)
+        // Now is done for ALL hosts, not only Windows
+        if (tpmQuoteResponse.isTagProvisioned) {
+            log.debug("tpmQuoteResponse.isTagProvisioned is true");
+            verifyNonce = Sha1Digest.digestOf(verifyNonce).extend(tpmQuoteResponse.assetTag).toByteArray();
+        }
 
-        log.debug("extracted quote from response: {}", Base64.encodeBase64String(tpmQuoteResponse.quote));
+        if (verifyQuoteInJava) {
+            String aikCertificate = trustedAik == null ? X509Util.encodePemCertificate(tpmQuoteResponse.aik) : trustedAik;
+            PcrManifest pcrManifest = verifyQuoteAndGetPcr(tpmQuoteResponse.quote, verifyNonce, aikCertificate, decodeEventLog(tpmQuoteResponse.eventLog));
+            log.info("Got PCR map");
+            String tcbMeasurementString = tpmQuoteResponse.tcbMeasurement;
+            if (tcbMeasurementString != null && !tcbMeasurementString.isEmpty())
+                pcrManifest.setMeasurementXml(tcbMeasurementString);
+            pcrManifest.setProvisionedTag(tpmQuoteResponse.assetTag);
+            return pcrManifest;
+        }
 
         q = saveQuote(tpmQuoteResponse.quote, sessionId);
         log.debug("saved quote with session id: " + sessionId);
@@ -562,13 +629,6 @@ public class TAHelper {
             log.debug("saved database-provided trusted AIK certificate with session id: " + sessionId);
         }
 
-        // for Windows host, we generate a new nonce by sha1(nonce | tag)
-        // Now is done for ALL hosts, not only Windows
-        if (tpmQuoteResponse.isTagProvisioned) {
-            log.debug("tpmQuoteResponse.isTagProvisioned is true");
-            verifyNonce = Sha1Digest.digestOf(verifyNonce).extend(tpmQuoteResponse.assetTag).toByteArray();
-        }
-        
         n = saveNonce(verifyNonce, sessionId);
 
         log.debug("saved nonce with session id: " + sessionId);
@@ -913,6 +973,46 @@ public class TAHelper {
              */
         }
 
+        addPcrEventLogs(pcrManifest, eventLog);
+        return pcrManifest;
+
+    }
+
+    /**
+     * Verifies the quote in memory with QuoteVerifier, without writing any
+     * files or running aikqverify.
+     *
+     * @param quote bytes as returned by the trust agent
+     * @param nonce the nonce to verify, after any ip address or asset tag extension
+     * @param aikCertificate PEM-encoded AIK certificate
+     * @param eventLog decoded measurement log, or null
+     * @return the verified PCR values and the event logs
+     */
+    private PcrManifest verifyQuoteAndGetPcr(byte[] quote, byte[] nonce, String aikCertificate, String eventLog) throws CertificateException {
+        QuoteVerifier.QuoteFormat format = host == null ? QuoteVerifier.QuoteFormat.TPM12 : QuoteVerifier.QuoteFormat.valueOf(host.VMM_OSName, host.TpmVersion);
+        log.debug("verifyQuoteAndGetPcr in memory with format {}", format);
+        X509Certificate aikcert = X509Util.decodePemCertificate(aikCertificate);
+        PcrManifest pcrManifest;
+        try {
+            pcrManifest = quoteVerifier.verify(format, nonce, aikcert.getPublicKey(), quote);
+        } catch (GeneralSecurityException e) {
+            throw new ASException(e);
+        }
+        addPcrEventLogs(pcrManifest, eventLog);
+        return pcrManifest;
+    }
+
+    private String decodeEventLog(String eventLogBase64) {
+        log.debug("Event log: {}", eventLogBase64); // issue #879
+        byte[] eventLogBytes = Base64.decodeBase64(eventLogBase64);// issue #879
+        log.debug("Decoded event log length: {}", eventLogBytes == null ? null : eventLogBytes.length);// issue #879
+        if (eventLogBytes == null) {
+            return null;
+        }
+        return new String(eventLogBytes);
+    }
+
+    private void addPcrEventLogs(PcrManifest pcrManifest, String eventLog) {
         // Now that we captured the PCR details, we need to capture the module information also into the PcrManifest object
         // Sample Format:
         // <modules>
@@ -981,9 +1081,6 @@ public class TAHelper {
                 throw new IllegalStateException("Invalid measurement log", ex);
             }
         }
-
-        return pcrManifest;
-
     }
 
     /**
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent.intel;
+
+import com.intel.dcsg.cpg.crypto.digest.Digest;
+import com.intel.dcsg.cpg.tls.policy.TlsConnection;
+import com.intel.dcsg.cpg.tls.policy.TlsPolicy;
+import com.intel.mtwilson.My;
+import com.intel.mtwilson.tls.policy.factory.TlsPolicyIdentity;
+import com.intel.mtwilson.trustagent.client.jaxrs.TrustAgentClient;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps trust agent v2 clients open between attestations, the same way
+ * VMwareConnectionPool keeps vCenter connections open.
+ *
+ * A TrustAgentClient owns its own SSL context and HTTP connector, so reusing
+ * the client for the same trust agent lets the JDK keep the underlying HTTPS
+ * connection alive and resume the TLS session instead of doing a full
+ * handshake for every attestation. All the calls made by one IntelHostAgent2
+ * (host info, AIK, quote) already go through the same client.
+ *
+ * Clients are keyed by URL, credentials, and the identity of the TLS policy
+ * from TlsPolicyIdentity, so a host whose credentials or TLS policy change
+ * gets a new client instead of the stale one. The limits count clients, not
+ * sockets: each client keeps its own keep-alive connections to its host, as
+ * many as were in use at the same time. Clients that have not been used for
+ * the configured idle time are evicted, and when a host has more than the
+ * configured number of clients (for example after its TLS policy changed
+ * several times) the least recently used ones are evicted. Evicted clients
+ * are closed once they have not been handed out for the close delay, so an
+ * attestation that is still using one is not cut off. Clients of a host are
+ * evicted when the host is deleted or updated.
+ *
+ * Trust agent v1 clients are not pooled because the v1 protocol uses one
+ * socket per request.
+ *
+ * Configuration:
+ * mtwilson.trustagent.pool.enabled (default true)
+ * mtwilson.trustagent.pool.max.idle.seconds clients unused for this long are evicted (default 300)
+ * mtwilson.trustagent.pool.max.clients.per.host maximum number of pooled clients for one host address (default 2)
+ * mtwilson.trustagent.pool.max.size maximum number of pooled clients (default 1000)
+ * mtwilson.trustagent.pool.close.delay.seconds how long after it was last handed out an evicted client is closed (default 300)
+ */
+public class TrustAgentConnectionPool {
+    private static final Logger log = LoggerFactory.getLogger(TrustAgentConnectionPool.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static TrustAgentConnectionPool instance = null;
+
+    private final boolean enabled;
+    private final ClientPool<TrustAgentClient> pool;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    public TrustAgentConnectionPool(boolean enabled, long maxIdleMillis, int maxClientsPerHost, int maxSize, long closeDelayMillis) {
+        this.enabled = enabled;
+        this.pool = new ClientPool<>(maxIdleMillis, maxClientsPerHost, maxSize, closeDelayMillis, new ClientPool.Closer<TrustAgentClient>() {
+            @Override
+            public void close(TrustAgentClient client) {
+                client.close();
+            }
+        });
+    }
+
+    public static synchronized TrustAgentConnectionPool getInstance() {
+        if( instance == null ) {
+            Configuration config = My.configuration().getConfiguration();
+            boolean enabled = config.getBoolean("mtwilson.trustagent.pool.enabled", true);
+            long maxIdleSeconds = config.getLong("mtwilson.trustagent.pool.max.idle.seconds", 300);
+            int maxClientsPerHost = config.getInt("mtwilson.trustagent.pool.max.clients.per.host", 2);
+            int maxSize = config.getInt("mtwilson.trustagent.pool.max.size", 1000);
+            long closeDelaySeconds = config.getLong("mtwilson.trustagent.pool.close.delay.seconds", 300);
+            log.debug("Creating trust agent connection pool enabled={} max idle={}s max clients per host={} max size={} close delay={}s", enabled, maxIdleSeconds, maxClientsPerHost, maxSize, closeDelaySeconds);
+            instance = new TrustAgentConnectionPool(enabled, maxIdleSeconds * 1000, maxClientsPerHost, maxSize, closeDelaySeconds * 1000);
+        }
+        return instance;
+    }
+
+    /**
+     * If a client is already open for the given URL, credentials, and TLS
+     * policy it is returned. Otherwise a new client is created and added to
+     * the pool.
+     *
+     * @param url of the trust agent, including the /v2 path
+     * @param properties with the mtwilson.api.username and mtwilson.api.password for the trust agent
+     * @param tlsPolicy
+     * @return a client which may be shared with other threads
+     * @throws Exception if a new client cannot be created
+     */
+    public TrustAgentClient getClient(URL url, Properties properties, TlsPolicy tlsPolicy) throws Exception {
+        if( !enabled ) {
+            return new TrustAgentClient(properties, new TlsConnection(url, tlsPolicy));
+        }
+        String key = getPoolKey(url, properties, tlsPolicy);
+        TrustAgentClient client = pool.get(key);
+        if( client != null ) {
+            hits.incrementAndGet();
+            log.debug("Reusing trust agent connection for {}", url.getHost());
+            return client;
+        }
+        misses.incrementAndGet();
+        log.debug("Creating trust agent connection for {}", url.getHost());
+        // if another thread created a client for the same key while we were creating ours, ours is closed and theirs is returned
+        return pool.put(key, url.getHost(), new TrustAgentClient(properties, new TlsConnection(url, tlsPolicy)));
+    }
+
+    /**
+     * Removes all clients for the given host address, for example after the
+     * host was deleted or its connection string was updated.
+     *
+     * @param host address as it appears in the trust agent URL
+     */
+    public void remove(String host) {
+        int removed = pool.remove(host);
+        if( removed > 0 ) {
+            log.debug("Removed {} trust agent connections for {}", removed, host);
+        }
+    }
+
+    public void clear() {
+        pool.clear();
+    }
+
+    public int size() {
+        return pool.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return pool.getEvictions();
+    }
+
+    /**
+     * @return number of clients that were closed after they were evicted, or because another thread pooled one for the same key first
+     */
+    public long getClosed() {
+        return pool.getClosed();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d hits=%d misses=%d evictions=%d closed=%d", size(), getHits(), getMisses(), getEvictions(), getClosed());
+    }
+
+    /**
+     * The key identifies the URL, the credentials, and the TLS policy. The
+     * password and the policy identity are hashed so they do not appear in
+     * the key.
+     */
+    static String getPoolKey(URL url, Properties properties, TlsPolicy tlsPolicy) {
+        ByteArrayOutputStream identity = new ByteArrayOutputStream();
+        write(identity, properties.getProperty("mtwilson.api.password", ""));
+        write(identity, TlsPolicyIdentity.get(tlsPolicy));
+        return url.toExternalForm() + "|" + properties.getProperty("mtwilson.api.username", "") + "|" + Digest.sha256().digest(identity.toByteArray()).toHex();
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(UTF8);
+        out.write(bytes, 0, bytes.length);
+        out.write(0);
+    }
+}
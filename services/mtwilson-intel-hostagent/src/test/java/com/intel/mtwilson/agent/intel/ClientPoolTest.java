@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.agent.intel;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ClientPoolTest {
+
+    private static class TestCloser implements ClientPool.Closer<String> {
+        final List<String> closed = new ArrayList<>();
+
+        @Override
+        public synchronized void close(String client) {
+            closed.add(client);
+        }
+    }
+
+    @Test
+    public void testReuse() {
+        TestCloser closer = new TestCloser();
+        ClientPool<String> pool = new ClientPool<>(0, 2, 10, 0, closer);
+        assertNull(pool.get("key1"));
+        assertEquals("client1", pool.put("key1", "host1", "client1"));
+        assertEquals("client1", pool.get("key1"));
+        assertEquals(1, pool.size());
+        assertTrue(closer.closed.isEmpty());
+    }
+
+    @Test
+    public void testSecondClientForSameKeyIsClosed() {
+        TestCloser closer = new TestCloser();
+        ClientPool<String> pool = new ClientPool<>(0, 2, 10, 60000, closer);
+        pool.put("key1", "host1", "client1");
+        // another thread created a client for the same key at the same time
+        assertEquals("client1", pool.put("key1", "host1", "client2"));
+        assertEquals(1, closer.closed.size());
+        assertEquals("client2", closer.closed.get(0));
+        assertEquals(1, pool.getClosed());
+    }
+
+    @Test
+    public void testMaxClientsPerHost() {
+        TestCloser closer = new TestCloser();
+        ClientPool<String> pool = new ClientPool<>(0, 2, 10, 0, closer);
+        pool.put("key1", "host1", "client1");
+        pool.put("key2", "host1", "client2");
+        pool.put("key3", "host2", "client3");
+        pool.get("key1");
+        pool.put("key4", "host1", "client4");
+        // client2 was the least recently used client of host1
+        assertNull(pool.get("key2"));
+        assertEquals("client1", pool.get("key1"));
+        assertEquals("client3", pool.get("key3"));
+        assertEquals(3, pool.size());
+        assertEquals(1, pool.getEvictions());
+        assertEquals(1, closer.closed.size());
+        assertEquals("client2", closer.closed.get(0));
+    }
+
+    @Test
+    public void testMaxSize() {
+        TestCloser closer = new TestCloser();
+        ClientPool<String> pool = new ClientPool<>(0, 2, 2, 0, closer);
+        pool.put("key1", "host1", "client1");
+        pool.put("key2", "host2", "client2");
+        pool.put("key3", "host3", "client3");
+        assertEquals(2, pool.size());
+        assertNull(pool.get("key1"));
+        assertEquals("client1", closer.closed.get(0));
+    }
+
+    @Test
+    public void testIdleClientsAreEvictedAndClosed() throws InterruptedException {
+        TestCloser closer = new TestCloser();
+        ClientPool<String> pool = new ClientPool<>(50, 2, 10, 50, closer);
+        pool.put("key1", "host1", "client1");
+        Thread.sleep(100);
+        assertNull(pool.get("key1"));
+        assertEquals(0, pool.size());
+        assertEquals(1, closer.closed.size());
+        assertEquals(0, pool.getRetired());
+    }
+
+    @Test
+    public void testEvictedClientIsClosedAfterDelay() throws InterruptedException {
+        TestCloser closer = new TestCloser();
+        ClientPool<String> pool = new ClientPool<>(0, 2, 10, 100, closer);
+        pool.put("key1", "host1", "client1");
+        pool.put("key2", "host2", "client2");
+        assertEquals(1, pool.remove("host1"));
+        assertNull(pool.get("key1"));
+        // it was just handed out, so it may still be in use
+        assertTrue(closer.closed.isEmpty());
+        assertEquals(1, pool.getRetired());
+        Thread.sleep(150);
+        pool.get("key2");
+        assertEquals(1, closer.closed.size());
+        assertEquals("client1", closer.closed.get(0));
+        assertEquals(0, pool.getRetired());
+        assertEquals("client2", pool.get("key2"));
+    }
+
+    @Test
+    public void testClear() {
+        TestCloser closer = new TestCloser();
+        ClientPool<String> pool = new ClientPool<>(0, 2, 10, 0, closer);
+        pool.put("key1", "host1", "client1");
+        pool.put("key2", "host2", "client2");
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertEquals(2, closer.closed.size());
+        assertEquals(2, pool.getEvictions());
+    }
+}
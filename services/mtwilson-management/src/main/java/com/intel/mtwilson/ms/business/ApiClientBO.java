@@ -29,6 +29,8 @@ import com.intel.mtwilson.ms.data.ApiClientX509;
 import com.intel.mtwilson.ms.data.ApiRoleX509;
 import com.intel.mtwilson.ms.data.ApiRoleX509PK;
 import com.intel.mtwilson.ms.data.MwPortalUser;
+import com.intel.mtwilson.security.core.X509UserCache;
+import com.intel.mtwilson.shiro.jdbi.LoginCache;
 import com.intel.mtwilson.shiro.jdbi.LoginDAO;
 import com.intel.mtwilson.shiro.jdbi.MyJdbi;
 import com.intel.mtwilson.user.management.rest.v2.model.Status;
@@ -105,6 +107,8 @@ public class ApiClientBO {
         } catch (Exception ex) {
             log.error("Error during API Client registration. ", ex);
             throw new MSException(ErrorCode.MS_API_USER_REGISTRATION_ERROR, ex.getClass().getSimpleName());
+        } finally {
+            clearCachedLogins();
         }
     }
 
@@ -492,6 +496,8 @@ public class ApiClientBO {
             // throw new MSException(ex);
             log.error("Error during API user update. ", ex);
             throw new MSException(ErrorCode.MS_API_USER_UPDATE_ERROR, ex.getClass().getSimpleName());
+        } finally {
+            clearCachedLogins();
         }
     }
 
@@ -589,6 +595,8 @@ public class ApiClientBO {
             // throw new MSException(ex);
             log.error("Error during API user delete. ", ex);
             throw new MSException(ErrorCode.MS_API_USER_DELETION_ERROR, ex.getClass().getSimpleName());
+        } finally {
+            clearCachedLogins();
         }
     }
         
@@ -632,9 +640,20 @@ public class ApiClientBO {
             // throw new MSException(ex);
             log.error("Error during API user update. ", ex);
             throw new MSException(ErrorCode.MS_API_USER_UPDATE_ERROR, ex.getClass().getSimpleName());
+        } finally {
+            clearCachedLogins();
         }
     }
     
+    /**
+     * The authentication filters and realms cache the API clients and their
+     * roles, so they must be cleared when an API client changes.
+     */
+    private void clearCachedLogins() {
+        X509UserCache.getInstance().clear();
+        LoginCache.getInstance().clear();
+    }
+    
     /**
      * 
      * @param apiClientX509
@@ -34,6 +34,7 @@ import com.intel.mountwilson.as.common.ASException;
 import com.intel.mtwilson.as.business.BulkHostMgmtBO;
 import com.intel.mtwilson.as.business.trust.HostTrustBO;
 import com.intel.mtwilson.as.controller.MwMeasurementXmlJpaController;
+import com.intel.mtwilson.as.controller.WhitelistVersion;
 import com.intel.mtwilson.as.controller.exceptions.IllegalOrphanException;
 import com.intel.mtwilson.as.controller.exceptions.NonexistentEntityException;
 import com.intel.mtwilson.as.data.MwMeasurementXml;
@@ -1387,11 +1388,13 @@ public class HostBO {
                     measurementXml.setContent(measurementXmlLog);
 
                     mxJpa.create(measurementXml);
+                    WhitelistVersion.whitelistChanged();
                     log.debug("Succesfully added the measurement xml log for Mle {}", tblMleObj.getName());
 
                 } else {
                     measurementXml.setContent(measurementXmlLog);
                     mxJpa.edit(measurementXml);
+                    WhitelistVersion.whitelistChanged();
                     log.debug("Succesfully updated the measurement xml log for Mle {}", tblMleObj.getName());
                 }
             }
@@ -1486,6 +1489,7 @@ public class HostBO {
                                 continue;
                             }
                             My.jpa().mwModuleManifest().destroy(moduleObj.getId());
+                            WhitelistVersion.whitelistChanged();
                         }
                     }
                 }
@@ -1755,6 +1759,8 @@ public class HostBO {
             }
             emt.getTransaction().commit();
             emt.close();
+            // MleBO counted the changes before this commit; count them again now that other readers can see them
+            WhitelistVersion.whitelistChanged();
 
         } catch (MSException me) {
             log.error("Error during white list upload to database. " + me.getErrorCode() + " :" + me.getErrorMessage());
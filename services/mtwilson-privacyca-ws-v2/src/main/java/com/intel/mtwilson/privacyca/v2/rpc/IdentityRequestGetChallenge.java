@@ -4,7 +4,6 @@
  */
 package com.intel.mtwilson.privacyca.v2.rpc;
 
-import com.intel.dcsg.cpg.x509.X509Util;
 import com.intel.mtwilson.My;
 import com.intel.mtwilson.launcher.ws.ext.RPC;
 import com.intel.mtwilson.privacyca.v2.model.IdentityChallenge;
@@ -22,8 +21,6 @@ import gov.niarl.his.privacyca.TpmSymmetricKey;
 import gov.niarl.his.privacyca.TpmUtils;
 import gov.niarl.his.privacyca.TpmUtils.TpmUnsignedConversionException;
 import java.io.File;
-import java.util.List;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
@@ -34,16 +31,13 @@ import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
 import java.security.PublicKey;
 import java.security.SignatureException;
-import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -101,35 +95,29 @@ public class IdentityRequestGetChallenge implements Callable<IdentityChallenge>
         return endorsementCertificate;
     }
 
-    private Map<String, X509Certificate> getEndorsementCertificates() throws IOException, CertificateException {
-        Map<String, X509Certificate> endorsementCerts = new HashMap<>();
-        File ekCacertsPemFile = My.configuration().getPrivacyCaEndorsementCacertsFile();
-        try (FileInputStream in = new FileInputStream(ekCacertsPemFile)) {
-            String ekCacertsPem = IOUtils.toString(in); // throws IOException
-            List<X509Certificate> ekCacerts = X509Util.decodePemCertificates(ekCacertsPem); // throws CertificateException
-            for (X509Certificate ekCacert : ekCacerts) {
-                log.debug("Adding issuer {}", ekCacert.getSubjectX500Principal().getName());
-                endorsementCerts.put(ekCacert.getSubjectDN().getName(), ekCacert);
-            }
-        }
-        return endorsementCerts;
-    }
-
     @Override
     @RequiresPermissions("host_aiks:certify")
     public IdentityChallenge call() throws Exception {
-        log.debug("PrivacyCA.p12: {}", My.configuration().getPrivacyCaIdentityP12().getAbsolutePath());
-        RSAPrivateKey caPrivKey = TpmUtils.privKeyFromP12(My.configuration().getPrivacyCaIdentityP12().getAbsolutePath(), My.configuration().getPrivacyCaIdentityPassword());
-        X509Certificate caPubCert = TpmUtils.certFromP12(My.configuration().getPrivacyCaIdentityP12().getAbsolutePath(), My.configuration().getPrivacyCaIdentityPassword());
+        long started = System.nanoTime();
+        try {
+            return createChallenge();
+        }
+        finally {
+            PrivacyCaCredentials.getInstance().addChallenge(System.nanoTime() - started);
+        }
+    }
 
-        // load the trusted ek cacerts
-        Map<String, X509Certificate> endorsementCerts = getEndorsementCertificates();
+    private IdentityChallenge createChallenge() throws Exception {
+        // the Privacy CA key and the trusted ek cacerts are loaded once and kept until the files change
+        PrivacyCaCredentials.Credentials credentials = PrivacyCaCredentials.getInstance().getCredentials();
+        RSAPrivateKey caPrivKey = credentials.getPrivateKey();
+        X509Certificate caPubCert = credentials.getCertificate();
 
         TpmIdentityRequest tempEC = new TpmIdentityRequest(endorsementCertificate);
         X509Certificate ekCert = TpmUtils.certFromBytes(tempEC.decryptRaw(caPrivKey));
         log.debug("Validating endorsement certificate");
-        if (!isEkCertificateVerifiedByAuthority(ekCert, endorsementCerts.get(ekCert.getIssuerDN().getName().replaceAll("\\x00", "")))
-                && !isEkCertificateVerifiedByAnyAuthority(ekCert, endorsementCerts.values())
+        if (!isEkCertificateVerifiedByAuthority(ekCert, credentials.getEndorsementAuthority(ekCert.getIssuerDN().getName().replaceAll("\\x00", "")))
+                && !isEkCertificateVerifiedByAnyAuthority(ekCert, credentials.getEndorsementAuthorities())
                 && !isEkCertificateRegistered(ekCert)) {
             // cannot trust the EC because it's not signed by any of our trusted EC CAs and is not in the mw_tpm_ec table
             log.debug("EC is not trusted");
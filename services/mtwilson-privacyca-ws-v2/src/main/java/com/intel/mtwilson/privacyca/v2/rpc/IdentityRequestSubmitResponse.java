@@ -76,8 +76,19 @@ public class IdentityRequestSubmitResponse implements Callable<IdentityBlob> {
     @Override
     @RequiresPermissions("host_aiks:certify")
     public IdentityBlob call() throws Exception {
-        RSAPrivateKey caPrivKey = TpmUtils.privKeyFromP12(My.configuration().getPrivacyCaIdentityP12().getAbsolutePath(), My.configuration().getPrivacyCaIdentityPassword());
-        X509Certificate caPubCert = TpmUtils.certFromP12(My.configuration().getPrivacyCaIdentityP12().getAbsolutePath(), My.configuration().getPrivacyCaIdentityPassword());
+        long started = System.nanoTime();
+        try {
+            return createIdentity();
+        }
+        finally {
+            PrivacyCaCredentials.getInstance().addResponse(System.nanoTime() - started);
+        }
+    }
+
+    private IdentityBlob createIdentity() throws Exception {
+        PrivacyCaCredentials.Credentials credentials = PrivacyCaCredentials.getInstance().getCredentials();
+        RSAPrivateKey caPrivKey = credentials.getPrivateKey();
+        X509Certificate caPubCert = credentials.getCertificate();
         int validityDays = My.configuration().getPrivacyCaIdentityValidityDays();
 
         //decrypt response
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.privacyca.v2.rpc;
+
+import com.intel.dcsg.cpg.x509.X509Util;
+import com.intel.mtwilson.My;
+import gov.niarl.his.privacyca.TpmUtils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Keeps the Privacy CA signing key and the trusted endorsement CA
+ * certificates in memory, so identity requests do not read and decode the
+ * PKCS#12 file and the PEM bundle every time.
+ *
+ * The files are loaded again when their size or modification time changes,
+ * or when the Privacy CA password changes. Because modification times can
+ * have a resolution of a second or more, a file that was modified just
+ * before it was loaded is checked again on the next request.
+ *
+ * Also counts the identity requests and how long they took, and logs the
+ * request rate and average time of each REPORT_INTERVAL requests.
+ */
+public class PrivacyCaCredentials {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PrivacyCaCredentials.class);
+    private static final PrivacyCaCredentials instance = new PrivacyCaCredentials();
+    private static final long MTIME_RESOLUTION_MILLIS = 2000;
+    private static final long REPORT_INTERVAL = 1000;
+
+    private volatile Credentials current = null;
+    private final AtomicLong reloads = new AtomicLong(0);
+    private final RequestStats challenges = new RequestStats("challenges", System.currentTimeMillis());
+    private final RequestStats responses = new RequestStats("responses", System.currentTimeMillis());
+
+    /**
+     * Counts one kind of identity request. The rate is reported for the
+     * last REPORT_INTERVAL requests, so a change in load shows up in the
+     * next report instead of being averaged with the requests since startup.
+     */
+    static class RequestStats {
+        private final String name;
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong nanos = new AtomicLong(0);
+        private long windowStarted;
+        private long windowNanos = 0;
+
+        RequestStats(String name, long started) {
+            this.name = name;
+            this.windowStarted = started;
+        }
+
+        /**
+         * @param requestNanos time taken by the request
+         * @param now current time in milliseconds
+         * @return the report if this request completes a window, or null
+         */
+        String add(long requestNanos, long now) {
+            long c = count.incrementAndGet();
+            long total = nanos.addAndGet(requestNanos);
+            if( c % REPORT_INTERVAL != 0 ) {
+                return null;
+            }
+            synchronized(this) {
+                long millis = Math.max(1, now - windowStarted);
+                String report = String.format("Identity request %s: %d total, %d per second over the last %d, average %d ms",
+                        name, c, REPORT_INTERVAL * 1000 / millis, REPORT_INTERVAL, (total - windowNanos) / REPORT_INTERVAL / 1000000);
+                windowStarted = now;
+                windowNanos = total;
+                return report;
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getNanos() {
+            return nanos.get();
+        }
+    }
+
+    /**
+     * The key, certificate, and endorsement authorities loaded at one time.
+     */
+    public static class Credentials {
+        private final String key;
+        private final String password;
+        private final long loaded;
+        private final long newestModified;
+        private final RSAPrivateKey privateKey;
+        private final X509Certificate certificate;
+        private final Map<String, X509Certificate> endorsementAuthorities;
+
+        private Credentials(String key, String password, long loaded, long newestModified, RSAPrivateKey privateKey, X509Certificate certificate, Map<String, X509Certificate> endorsementAuthorities) {
+            this.key = key;
+            this.password = password;
+            this.loaded = loaded;
+            this.newestModified = newestModified;
+            this.privateKey = privateKey;
+            this.certificate = certificate;
+            this.endorsementAuthorities = endorsementAuthorities;
+        }
+
+        public RSAPrivateKey getPrivateKey() {
+            return privateKey;
+        }
+
+        public X509Certificate getCertificate() {
+            return certificate;
+        }
+
+        /**
+         * @param subjectDn
+         * @return the trusted endorsement CA with the subject, or null
+         */
+        public X509Certificate getEndorsementAuthority(String subjectDn) {
+            return endorsementAuthorities.get(subjectDn);
+        }
+
+        public Collection<X509Certificate> getEndorsementAuthorities() {
+            return endorsementAuthorities.values();
+        }
+    }
+
+    public static PrivacyCaCredentials getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the Privacy CA credentials, loaded again if the files changed
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws javax.security.cert.CertificateException
+     */
+    public Credentials getCredentials() throws IOException, GeneralSecurityException, javax.security.cert.CertificateException {
+        return getCredentials(My.configuration().getPrivacyCaIdentityP12(), My.configuration().getPrivacyCaIdentityPassword(), My.configuration().getPrivacyCaEndorsementCacertsFile());
+    }
+
+    Credentials getCredentials(File p12File, String password, File ekCacertsPemFile) throws IOException, GeneralSecurityException, javax.security.cert.CertificateException {
+        String key = getKey(p12File) + "|" + getKey(ekCacertsPemFile);
+        Credentials credentials = current;
+        if( isCurrent(credentials, key, password) ) {
+            return credentials;
+        }
+        synchronized(this) {
+            credentials = current;
+            if( isCurrent(credentials, key, password) ) {
+                return credentials;
+            }
+            current = load(key, password, p12File, ekCacertsPemFile);
+            return current;
+        }
+    }
+
+    private boolean isCurrent(Credentials credentials, String key, String password) {
+        return credentials != null
+                && credentials.key.equals(key)
+                && credentials.password.equals(password)
+                && credentials.newestModified < credentials.loaded - MTIME_RESOLUTION_MILLIS;
+    }
+
+    private Credentials load(String key, String password, File p12File, File ekCacertsPemFile) throws IOException, GeneralSecurityException, javax.security.cert.CertificateException {
+        long loaded = System.currentTimeMillis();
+        log.debug("PrivacyCA.p12: {}", p12File.getAbsolutePath());
+        RSAPrivateKey privateKey = TpmUtils.privKeyFromP12(p12File.getAbsolutePath(), password);
+        X509Certificate certificate = TpmUtils.certFromP12(p12File.getAbsolutePath(), password);
+        HashMap<String, X509Certificate> endorsementAuthorities = new HashMap<>();
+        try (FileInputStream in = new FileInputStream(ekCacertsPemFile)) {
+            String ekCacertsPem = IOUtils.toString(in); // throws IOException
+            List<X509Certificate> ekCacerts = X509Util.decodePemCertificates(ekCacertsPem); // throws CertificateException
+            for (X509Certificate ekCacert : ekCacerts) {
+                log.debug("Adding issuer {}", ekCacert.getSubjectX500Principal().getName());
+                endorsementAuthorities.put(ekCacert.getSubjectDN().getName(), ekCacert);
+            }
+        }
+        reloads.incrementAndGet();
+        log.info("Loaded Privacy CA key and {} endorsement authorities", endorsementAuthorities.size());
+        long newestModified = Math.max(p12File.lastModified(), ekCacertsPemFile.lastModified());
+        return new Credentials(key, password, loaded, newestModified, privateKey, certificate, Collections.unmodifiableMap(endorsementAuthorities));
+    }
+
+    private String getKey(File file) {
+        return file.getAbsolutePath() + ":" + file.lastModified() + ":" + file.length();
+    }
+
+    public void addChallenge(long nanos) {
+        report(challenges.add(nanos, System.currentTimeMillis()));
+    }
+
+    public void addResponse(long nanos) {
+        report(responses.add(nanos, System.currentTimeMillis()));
+    }
+
+    private void report(String report) {
+        if( report != null ) {
+            log.info(report);
+        }
+    }
+
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    public long getChallenges() {
+        return challenges.getCount();
+    }
+
+    public long getResponses() {
+        return responses.getCount();
+    }
+
+    @Override
+    public String toString() {
+        long c = getChallenges();
+        long r = getResponses();
+        return String.format("reloads=%d challenges=%d average challenge=%dms responses=%d average response=%dms",
+                getReloads(), c, c == 0 ? 0 : challenges.getNanos() / c / 1000000,
+                r, r == 0 ? 0 : responses.getNanos() / r / 1000000);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.privacyca.v2.rpc;
+
+import com.intel.dcsg.cpg.crypto.RsaUtil;
+import com.intel.dcsg.cpg.x509.X509Builder;
+import com.intel.dcsg.cpg.x509.X509Util;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PrivacyCaCredentialsTest {
+    private static final String PASSWORD = "password";
+
+    private X509Certificate createCertificate(String subject, KeyPair keyPair) throws Exception {
+        return X509Builder.factory().selfSigned(subject, keyPair).expires(365, TimeUnit.DAYS).build();
+    }
+
+    private void writeP12(File file, KeyPair keyPair, X509Certificate certificate, String password) throws Exception {
+        KeyStore keystore = KeyStore.getInstance("PKCS12");
+        keystore.load(null, null);
+        keystore.setKeyEntry("privacyca", keyPair.getPrivate(), password.toCharArray(), new Certificate[] { certificate });
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            keystore.store(out, password.toCharArray());
+        }
+    }
+
+    private void writePem(File file, X509Certificate... certificates) throws Exception {
+        StringBuilder pem = new StringBuilder();
+        for(X509Certificate certificate : certificates) {
+            pem.append(X509Util.encodePemCertificate(certificate));
+        }
+        FileUtils.writeStringToFile(file, pem.toString(), "UTF-8");
+    }
+
+    private File createTempDirectory() throws Exception {
+        File dir = File.createTempFile("privacyca", "");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    @Test
+    public void testEndorsementAuthoritiesBySubject() throws Exception {
+        File dir = createTempDirectory();
+        try {
+            KeyPair privacyCaKeys = RsaUtil.generateRsaKeyPair(RsaUtil.MINIMUM_RSA_KEY_SIZE);
+            X509Certificate privacyCa = createCertificate("CN=Privacy CA", privacyCaKeys);
+            X509Certificate ekCa1 = createCertificate("CN=Endorsement CA 1", RsaUtil.generateRsaKeyPair(RsaUtil.MINIMUM_RSA_KEY_SIZE));
+            X509Certificate ekCa2 = createCertificate("CN=Endorsement CA 2", RsaUtil.generateRsaKeyPair(RsaUtil.MINIMUM_RSA_KEY_SIZE));
+            File p12 = new File(dir, "PrivacyCA.p12");
+            File pem = new File(dir, "EndorsementCA.pem");
+            writeP12(p12, privacyCaKeys, privacyCa, PASSWORD);
+            writePem(pem, ekCa1, ekCa2);
+            PrivacyCaCredentials.Credentials credentials = new PrivacyCaCredentials().getCredentials(p12, PASSWORD, pem);
+            assertEquals(privacyCaKeys.getPrivate(), credentials.getPrivateKey());
+            assertEquals(privacyCa, credentials.getCertificate());
+            assertEquals(2, credentials.getEndorsementAuthorities().size());
+            assertEquals(ekCa1, credentials.getEndorsementAuthority(ekCa1.getSubjectDN().getName()));
+            assertEquals(ekCa2, credentials.getEndorsementAuthority(ekCa2.getSubjectDN().getName()));
+            assertNull(credentials.getEndorsementAuthority("CN=Unknown CA"));
+        }
+        finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testReloadWhenFilesChange() throws Exception {
+        File dir = createTempDirectory();
+        try {
+            KeyPair privacyCaKeys = RsaUtil.generateRsaKeyPair(RsaUtil.MINIMUM_RSA_KEY_SIZE);
+            X509Certificate privacyCa = createCertificate("CN=Privacy CA", privacyCaKeys);
+            X509Certificate ekCa1 = createCertificate("CN=Endorsement CA 1", RsaUtil.generateRsaKeyPair(RsaUtil.MINIMUM_RSA_KEY_SIZE));
+            X509Certificate ekCa2 = createCertificate("CN=Endorsement CA 2", RsaUtil.generateRsaKeyPair(RsaUtil.MINIMUM_RSA_KEY_SIZE));
+            File p12 = new File(dir, "PrivacyCA.p12");
+            File pem = new File(dir, "EndorsementCA.pem");
+            writeP12(p12, privacyCaKeys, privacyCa, PASSWORD);
+            writePem(pem, ekCa1);
+            // files that were written well before they are loaded
+            long old = System.currentTimeMillis() - 60000;
+            p12.setLastModified(old);
+            pem.setLastModified(old);
+            PrivacyCaCredentials cache = new PrivacyCaCredentials();
+            PrivacyCaCredentials.Credentials first = cache.getCredentials(p12, PASSWORD, pem);
+            assertSame(first, cache.getCredentials(p12, PASSWORD, pem));
+            assertEquals(1, cache.getReloads());
+            // a new endorsement CA
+            writePem(pem, ekCa1, ekCa2);
+            pem.setLastModified(old + 10000);
+            PrivacyCaCredentials.Credentials second = cache.getCredentials(p12, PASSWORD, pem);
+            assertEquals(2, cache.getReloads());
+            assertEquals(ekCa2, second.getEndorsementAuthority(ekCa2.getSubjectDN().getName()));
+            assertSame(second, cache.getCredentials(p12, PASSWORD, pem));
+            // a new Privacy CA key with a new password
+            KeyPair newKeys = RsaUtil.generateRsaKeyPair(RsaUtil.MINIMUM_RSA_KEY_SIZE);
+            writeP12(p12, newKeys, createCertificate("CN=Privacy CA", newKeys), "new password");
+            p12.setLastModified(old + 10000);
+            assertEquals(newKeys.getPrivate(), cache.getCredentials(p12, "new password", pem).getPrivateKey());
+            assertEquals(3, cache.getReloads());
+        }
+        finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testRecentlyModifiedFileIsCheckedAgain() throws Exception {
+        File dir = createTempDirectory();
+        try {
+            KeyPair privacyCaKeys = RsaUtil.generateRsaKeyPair(RsaUtil.MINIMUM_RSA_KEY_SIZE);
+            File p12 = new File(dir, "PrivacyCA.p12");
+            File pem = new File(dir, "EndorsementCA.pem");
+            writeP12(p12, privacyCaKeys, createCertificate("CN=Privacy CA", privacyCaKeys), PASSWORD);
+            writePem(pem, createCertificate("CN=Endorsement CA 1", RsaUtil.generateRsaKeyPair(RsaUtil.MINIMUM_RSA_KEY_SIZE)));
+            // modified within the mtime resolution before loading, so a rewrite with the same size and mtime could still follow
+            long recent = System.currentTimeMillis();
+            p12.setLastModified(recent);
+            pem.setLastModified(recent);
+            PrivacyCaCredentials cache = new PrivacyCaCredentials();
+            cache.getCredentials(p12, PASSWORD, pem);
+            cache.getCredentials(p12, PASSWORD, pem);
+            assertEquals(2, cache.getReloads());
+            // once the files are older than the mtime resolution the loaded credentials are kept
+            long old = recent - 60000;
+            p12.setLastModified(old);
+            pem.setLastModified(old);
+            PrivacyCaCredentials.Credentials credentials = cache.getCredentials(p12, PASSWORD, pem);
+            assertSame(credentials, cache.getCredentials(p12, PASSWORD, pem));
+            assertEquals(3, cache.getReloads());
+        }
+        finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testRequestRateIsReportedPerWindow() {
+        PrivacyCaCredentials.RequestStats stats = new PrivacyCaCredentials.RequestStats("challenges", 0);
+        for(int i = 1; i < 1000; i++) {
+            assertNull(stats.add(2000000, 1000));
+        }
+        assertEquals("Identity request challenges: 1000 total, 500 per second over the last 1000, average 2 ms", stats.add(2000000, 2000));
+        for(int i = 1; i < 1000; i++) {
+            assertNull(stats.add(4000000, 5000));
+        }
+        // 1000 requests in the 10 seconds since the previous report, not 2000 in the 12 seconds since startup
+        assertEquals("Identity request challenges: 2000 total, 100 per second over the last 1000, average 4 ms", stats.add(4000000, 12000));
+        assertEquals(2000, stats.getCount());
+    }
+}
@@ -3,6 +3,7 @@ package com.intel.mtwilson.saml;
 import java.io.*;
 import java.security.*;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.crypto.MarshalException;
 import javax.xml.crypto.dsig.CanonicalizationMethod;
 import javax.xml.crypto.dsig.DigestMethod;
@@ -33,13 +34,55 @@ import org.w3c.dom.NodeList;
  */
 public class SAMLSignature {
 
-    private final XMLSignatureFactory factory;
+    private final Provider provider;
     private final IssuerConfiguration issuerConfiguration;
-    private final KeyInfo keyInfo;
+    private final ThreadLocal<SigningContext> signingContext;
+    private final AtomicLong signatures = new AtomicLong(0);
+    private final AtomicLong signingNanos = new AtomicLong(0);
 
     /**
-     * Loads a keystore and builds a stock key-info structure for use by base
-     * classes.
+     * An XMLSignatureFactory instance may not be used by more than one thread
+     * at a time, so each thread that signs assertions gets its own factory
+     * together with the parts of the signature that are the same for every
+     * assertion.
+     */
+    private static class SigningContext {
+        private final XMLSignatureFactory factory;
+        private final KeyInfo keyInfo;
+        private final SignatureMethod signatureMethod;
+        private final DigestMethod digestMethod;
+
+        private SigningContext(Provider provider, IssuerConfiguration issuerConfiguration) throws GeneralSecurityException {
+            factory = XMLSignatureFactory.getInstance("DOM", provider);
+            KeyInfoFactory kFactory = factory.getKeyInfoFactory();
+            keyInfo = kFactory.newKeyInfo(Collections.singletonList(kFactory.newX509Data(Collections.singletonList(issuerConfiguration.getCertificate()))));
+            signatureMethod = factory.newSignatureMethod(SignatureMethod.RSA_SHA1, null);
+            digestMethod = factory.newDigestMethod(DigestMethod.SHA1, null);
+        }
+
+        /**
+         * A Reference keeps its digest after it is used to sign, and the
+         * transform and canonicalization method keep the document they were
+         * first used with, so these are new for every signature.
+         */
+        private SignedInfo newSignedInfo(String referenceUri) throws GeneralSecurityException {
+            Reference ref = factory.newReference(referenceUri, digestMethod,
+                    Collections.singletonList(factory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null)),
+                    null,
+                    null);
+            return factory.newSignedInfo(factory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE_WITH_COMMENTS, (C14NMethodParameterSpec) null),
+                    signatureMethod,
+                    Collections.singletonList(ref));
+        }
+    }
+
+    /**
+     * Loads the JSR105 provider and builds a stock key-info structure for use
+     * by base classes.
+     * 
+     * An instance is thread-safe and should be kept for as long as the
+     * issuer configuration does not change; see SamlGenerator.
+     * 
      * @param issuerConfiguration with the private key, issuer certificate, and JSR105 provider
      * @throws java.lang.ReflectiveOperationException could be ClassNotFoundException, IllegalAccessException, or IntantiationException
      * @throws java.security.GeneralSecurityException could be KeyStoreException, NoSuchAlgorithmException, UnrecoverableEntryException, or CertificateException when accessing the private key and issuer certificate
@@ -49,11 +92,20 @@ public class SAMLSignature {
         this.issuerConfiguration = issuerConfiguration;
         
         String providerName = issuerConfiguration.getJsr105Provider();
-        factory = XMLSignatureFactory.getInstance("DOM", (Provider) Class.forName(providerName).newInstance());
-
-
-        KeyInfoFactory kFactory = factory.getKeyInfoFactory();
-        keyInfo = kFactory.newKeyInfo(Collections.singletonList(kFactory.newX509Data(Collections.singletonList(issuerConfiguration.getCertificate()))));
+        provider = (Provider) Class.forName(providerName).newInstance();
+        
+        // fail now instead of at the first signature if the provider or the certificate cannot be used
+        new SigningContext(provider, issuerConfiguration);
+        signingContext = new ThreadLocal<SigningContext>() {
+            @Override
+            protected SigningContext initialValue() {
+                try {
+                    return new SigningContext(provider, issuerConfiguration);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("Cannot create XML signature context", e);
+                }
+            }
+        };
     }
 
     /**
@@ -68,18 +120,11 @@ public class SAMLSignature {
      */
     public void signSAMLObject(Element target)
             throws GeneralSecurityException, XMLSignatureException, MarshalException {
-        Reference ref = factory.newReference("#" + target.getAttribute("ID"),
-                factory.newDigestMethod(DigestMethod.SHA1, null),
-                Collections.singletonList(factory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null)),
-                null,
-                null);
-
-        SignedInfo signedInfo = factory.newSignedInfo(factory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE_WITH_COMMENTS,
-                (C14NMethodParameterSpec) null),
-                factory.newSignatureMethod(SignatureMethod.RSA_SHA1, null),
-                Collections.singletonList(ref));
-
-        XMLSignature signature = factory.newXMLSignature(signedInfo, keyInfo);
+        long start = System.nanoTime();
+        SigningContext context = signingContext.get();
+        SignedInfo signedInfo = context.newSignedInfo("#" + target.getAttribute("ID"));
+
+        XMLSignature signature = context.factory.newXMLSignature(signedInfo, context.keyInfo);
         DOMSignContext signContext = new DOMSignContext(issuerConfiguration.getPrivateKey(), target);
         signature.sign(signContext);
 
@@ -113,5 +158,37 @@ public class SAMLSignature {
                     ? elementAfterIssuer
                     : target.getFirstChild());
         }
+        signingNanos.addAndGet(System.nanoTime() - start);
+        signatures.incrementAndGet();
+    }
+
+    /**
+     * @return number of objects signed by this instance
+     */
+    public long getSignatures() {
+        return signatures.get();
+    }
+
+    /**
+     * @return total time spent in signSAMLObject by all threads, in milliseconds
+     */
+    public long getSigningMillis() {
+        return signingNanos.get() / 1000000L;
+    }
+
+    /**
+     * The signing time is added up over all threads, so this is the rate of
+     * a single thread, not of the whole server. For the server throughput
+     * divide the change in getSignatures by the elapsed wall clock time, as
+     * BulkHostTrustBO does for each bulk request.
+     * 
+     * @return average number of signatures per second of signing time of one thread, or 0 if nothing was signed yet
+     */
+    public double getSignaturesPerSecondPerThread() {
+        long nanos = signingNanos.get();
+        if (nanos == 0) {
+            return 0;
+        }
+        return signatures.get() * 1000000000.0 / nanos;
     }
 }
@@ -48,6 +48,11 @@ import org.w3c.dom.Element;
  * Pragma: no-cache
  * But there is no harm in the client caching the attestation results for as long as THEY feel comfortable with it.
  * 
+ * A SamlGenerator is thread-safe. Keep one instance for as long as the issuer
+ * configuration does not change instead of creating one for every assertion,
+ * so the JSR105 provider is loaded and the signing contexts are created only
+ * once; see SAMLSignature.
+ * 
  * @author jbuhacoff
  */
 public class SamlGenerator {
@@ -57,7 +62,7 @@ public class SamlGenerator {
     private final IssuerConfiguration issuerConfiguration;
     private final Integer validitySeconds; // for example 3600 for one hour
     private final SAMLSignature signatureGenerator;
-    private SamlAssertion samlAssertion = null;
+    private volatile String localAddress = null;
 //    private Resource keystoreResource = null;
     
     private static class XMLObjectBuilderFactoryHolder {
@@ -92,18 +97,37 @@ public class SamlGenerator {
      * @throws ConfigurationException 
      */
     public SamlGenerator(IssuerConfiguration issuerConfiguration) throws ConfigurationException {
+        this(issuerConfiguration, createSignatureGenerator(issuerConfiguration));
+    }
+    
+    /**
+     * @param issuerConfiguration
+     * @param signatureGenerator for the same issuer configuration
+     */
+    public SamlGenerator(IssuerConfiguration issuerConfiguration, SAMLSignature signatureGenerator) {
         this.issuerConfiguration = issuerConfiguration;
         this.builderFactory = XMLObjectBuilderFactoryHolder.builderFactory;
+        this.signatureGenerator = signatureGenerator;
+        //setValiditySeconds(Integer.valueOf(configuration.get("saml.validity.seconds", "3600")));
+        this.validitySeconds = issuerConfiguration.getValiditySeconds();
+        log.debug("IssuerConfiguration validitySeconds: {}", this.validitySeconds);
+        assert validitySeconds != null;
+    }
+    
+    private static SAMLSignature createSignatureGenerator(IssuerConfiguration issuerConfiguration) throws ConfigurationException {
         try {
-            signatureGenerator = new SAMLSignature(issuerConfiguration);
+            return new SAMLSignature(issuerConfiguration);
         } catch (ReflectiveOperationException | GeneralSecurityException | IOException ex) {
             log.error("Cannot load SAML signature generator: "+ex.getMessage(), ex);
             throw new ConfigurationException("Failed to initialize SAML signature generator", ex);
         }
-        //setValiditySeconds(Integer.valueOf(configuration.get("saml.validity.seconds", "3600")));
-        this.validitySeconds = issuerConfiguration.getValiditySeconds();
-        log.debug("IssuerConfiguration validitySeconds: {}", this.validitySeconds);
-        assert validitySeconds != null;
+    }
+    
+    /**
+     * @return the signer, with the number of signatures and the signing throughput
+     */
+    public SAMLSignature getSignatureGenerator() {
+        return signatureGenerator;
     }
     
     
@@ -126,8 +150,8 @@ public class SamlGenerator {
      * @throws MarshallingException 
      */
     public SamlAssertion generateHostAssertion(TxtHost host, X509AttributeCertificate tagCertificate, Map<String, String> vmMetaData) throws MarshallingException, ConfigurationException, UnknownHostException, GeneralSecurityException, XMLSignatureException, MarshalException {
-        samlAssertion = new SamlAssertion();
-        Assertion assertion = createAssertion(host, tagCertificate, vmMetaData);
+        SamlAssertion samlAssertion = new SamlAssertion();
+        Assertion assertion = createAssertion(host, tagCertificate, vmMetaData, samlAssertion);
 
         log.debug("Generating XML elements for assertion");
         AssertionMarshaller marshaller = new AssertionMarshaller();
@@ -159,7 +183,7 @@ public class SamlGenerator {
      */
     public SamlAssertion generateHostAssertions(Collection<TxtHostWithAssetTag> hosts) throws SamlException {
         try {
-            samlAssertion = new SamlAssertion();
+            SamlAssertion samlAssertion = new SamlAssertion();
             Assertion assertion = createAssertion(hosts);
 
             AssertionMarshaller marshaller = new AssertionMarshaller();
@@ -209,11 +233,11 @@ public class SamlGenerator {
         
         // create the Subject and Subject Confirmation
         
-        private SubjectConfirmation createSubjectConfirmation(TxtHost host) throws ConfigurationException, UnknownHostException {
+        private SubjectConfirmation createSubjectConfirmation(TxtHost host, SamlAssertion samlAssertion) throws ConfigurationException, UnknownHostException {
             SAMLObjectBuilder subjectConfirmationBuilder = (SAMLObjectBuilder)  builderFactory.getBuilder(SubjectConfirmation.DEFAULT_ELEMENT_NAME);
             SubjectConfirmation subjectConfirmation = (SubjectConfirmation) subjectConfirmationBuilder.buildObject();
             subjectConfirmation.setMethod(SubjectConfirmation.METHOD_SENDER_VOUCHES); 
-            subjectConfirmation.setSubjectConfirmationData(createSubjectConfirmationData());
+            subjectConfirmation.setSubjectConfirmationData(createSubjectConfirmationData(samlAssertion));
             // Create the NameIdentifier
             SAMLObjectBuilder nameIdBuilder = (SAMLObjectBuilder) builderFactory.getBuilder(NameID.DEFAULT_ELEMENT_NAME);
             NameID nameId = (NameID) nameIdBuilder.buildObject();
@@ -230,12 +254,12 @@ public class SamlGenerator {
          * 
          * See also section 2.4.1.2 Element <SubjectConfirmationData> of http://docs.oasis-open.org/security/saml/v2.0/saml-core-2.0-os.pdf
          * 
-         * @param host
+         * @param samlAssertion receives the created and expiry times of the assertion
          * @return
          * @throws ConfigurationException
          * @throws UnknownHostException 
          */
-        private SubjectConfirmationData createSubjectConfirmationData() throws ConfigurationException, UnknownHostException {
+        private SubjectConfirmationData createSubjectConfirmationData(SamlAssertion samlAssertion) throws ConfigurationException, UnknownHostException {
             SAMLObjectBuilder confirmationMethodBuilder = (SAMLObjectBuilder)  builderFactory.getBuilder(SubjectConfirmationData.DEFAULT_ELEMENT_NAME);
             SubjectConfirmationData confirmationMethod = (SubjectConfirmationData) confirmationMethodBuilder.buildObject();
             DateTime now = new DateTime();
@@ -248,17 +272,25 @@ public class SamlGenerator {
                 // Required to add to cache
                 samlAssertion.expiry_ts = confirmationMethod.getNotOnOrAfter().toDate();
             }
-            InetAddress localhost = InetAddress.getLocalHost();
-            confirmationMethod.setAddress(localhost.getHostAddress()); // NOTE: This is the ATTESTATION SERVICE IP ADDRESS,  **NOT** THE HOST ADDRESS
+            confirmationMethod.setAddress(getLocalAddress()); // NOTE: This is the ATTESTATION SERVICE IP ADDRESS,  **NOT** THE HOST ADDRESS
             return confirmationMethod;
         }
         
-        private Subject createSubject(TxtHost host) throws ConfigurationException, UnknownHostException {
+        private String getLocalAddress() throws UnknownHostException {
+            // the local host lookup can be slow so it is done once per generator
+            if( localAddress == null ) {
+                InetAddress localhost = InetAddress.getLocalHost();
+                localAddress = localhost.getHostAddress();
+            }
+            return localAddress;
+        }
+        
+        private Subject createSubject(TxtHost host, SamlAssertion samlAssertion) throws ConfigurationException, UnknownHostException {
             // Create the Subject
             SAMLObjectBuilder subjectBuilder = (SAMLObjectBuilder)  builderFactory.getBuilder(Subject.DEFAULT_ELEMENT_NAME);
             Subject subject = (Subject) subjectBuilder.buildObject();
             subject.setNameID(createNameID(host));
-            subject.getSubjectConfirmations().add(createSubjectConfirmation(host));
+            subject.getSubjectConfirmations().add(createSubjectConfirmation(host, samlAssertion));
             return subject;
         }
         
@@ -452,7 +484,7 @@ public class SamlGenerator {
          * @param host
          * @return 
          */
-        private Assertion createAssertion(TxtHost host, X509AttributeCertificate tagCertificate, Map<String, String> vmMetaData) throws ConfigurationException, UnknownHostException {
+        private Assertion createAssertion(TxtHost host, X509AttributeCertificate tagCertificate, Map<String, String> vmMetaData, SamlAssertion samlAssertion) throws ConfigurationException, UnknownHostException {
             // Create the assertion
             log.debug("createAssertion for hostname: {}", host.getHostName());
             SAMLObjectBuilder assertionBuilder = (SAMLObjectBuilder)  builderFactory.getBuilder(Assertion.DEFAULT_ELEMENT_NAME);
@@ -462,7 +494,7 @@ public class SamlGenerator {
             DateTime now = new DateTime();
             assertion.setIssueInstant(now);
             assertion.setVersion(SAMLVersion.VERSION_20);
-            assertion.setSubject(createSubject(host));
+            assertion.setSubject(createSubject(host, samlAssertion));
             assertion.getAttributeStatements().add(createHostAttributes(host, tagCertificate, vmMetaData));
 
             return assertion;
@@ -519,7 +551,7 @@ public class SamlGenerator {
         }
         
     public SamlAssertion generateVMAssertion(TxtHost host, Map<String, String> vmMetaData) throws MarshallingException, ConfigurationException, UnknownHostException, GeneralSecurityException, XMLSignatureException, MarshalException {
-        samlAssertion = new SamlAssertion();
+        SamlAssertion samlAssertion = new SamlAssertion();
 
         SAMLObjectBuilder assertionBuilder = (SAMLObjectBuilder) builderFactory.getBuilder(Assertion.DEFAULT_ELEMENT_NAME);
         Assertion assertion = (Assertion) assertionBuilder.buildObject();
@@ -537,7 +569,7 @@ public class SamlGenerator {
         SAMLObjectBuilder subjectConfirmationBuilder = (SAMLObjectBuilder)  builderFactory.getBuilder(SubjectConfirmation.DEFAULT_ELEMENT_NAME);
         SubjectConfirmation subjectConfirmation = (SubjectConfirmation) subjectConfirmationBuilder.buildObject();
         subjectConfirmation.setMethod(SubjectConfirmation.METHOD_SENDER_VOUCHES); 
-        subjectConfirmation.setSubjectConfirmationData(createSubjectConfirmationData());
+        subjectConfirmation.setSubjectConfirmationData(createSubjectConfirmationData(samlAssertion));
         // Create the NameIdentifier
         SAMLObjectBuilder nameIdBuilder = (SAMLObjectBuilder) builderFactory.getBuilder(NameID.DEFAULT_ELEMENT_NAME);
         NameID nameId = (NameID) nameIdBuilder.buildObject();
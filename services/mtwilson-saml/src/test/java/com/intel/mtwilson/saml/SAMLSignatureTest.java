@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.saml;
+
+import com.intel.dcsg.cpg.configuration.PropertiesConfiguration;
+import com.intel.dcsg.cpg.crypto.RsaUtil;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+public class SAMLSignatureTest {
+    private static final String SAML2 = "urn:oasis:names:tc:SAML:2.0:assertion";
+
+    private IssuerConfiguration createIssuerConfiguration(KeyPair issuerKey) throws Exception {
+        PropertiesConfiguration configuration = new PropertiesConfiguration();
+        configuration.set("saml.issuer", "junit-test");
+        X509Certificate issuerCert = RsaUtil.generateX509Certificate("CN=test", issuerKey, 1); // test cert valid for 1 day
+        return new IssuerConfiguration(issuerKey.getPrivate(), issuerCert, configuration);
+    }
+
+    private Element createAssertion(String id) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().newDocument();
+        Element assertion = document.createElementNS(SAML2, "saml2:Assertion");
+        assertion.setAttribute("ID", id);
+        assertion.setIdAttribute("ID", true);
+        document.appendChild(assertion);
+        Element issuer = document.createElementNS(SAML2, "saml2:Issuer");
+        issuer.setTextContent("junit-test");
+        assertion.appendChild(issuer);
+        Element subject = document.createElementNS(SAML2, "saml2:Subject");
+        subject.setTextContent(id);
+        assertion.appendChild(subject);
+        return assertion;
+    }
+
+    private void assertValidSignature(Element assertion, KeyPair issuerKey) throws Exception {
+        NodeList signatures = assertion.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        assertEquals(1, signatures.getLength());
+        Node signatureElement = signatures.item(0);
+        // the signature must follow the issuer
+        assertEquals("Issuer", signatureElement.getPreviousSibling().getLocalName());
+        DOMValidateContext context = new DOMValidateContext(issuerKey.getPublic(), signatureElement);
+        context.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.FALSE); // newer JDKs reject RSA_SHA1, which the assertions are signed with
+        XMLSignature signature = XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(context);
+        assertTrue(signature.validate(context));
+    }
+
+    @Test
+    public void testSign() throws Exception {
+        KeyPair issuerKey = RsaUtil.generateRsaKeyPair(1024); // weak key for testing only
+        SAMLSignature signer = new SAMLSignature(createIssuerConfiguration(issuerKey));
+        // the same thread signs twice with its signing context
+        for(int i = 0; i < 2; i++) {
+            Element assertion = createAssertion("assertion" + i);
+            signer.signSAMLObject(assertion);
+            assertValidSignature(assertion, issuerKey);
+        }
+        assertEquals(2, signer.getSignatures());
+    }
+
+    @Test
+    public void testSignOnManyThreads() throws Exception {
+        final KeyPair issuerKey = RsaUtil.generateRsaKeyPair(1024);
+        final SAMLSignature signer = new SAMLSignature(createIssuerConfiguration(issuerKey));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Element>> results = new ArrayList<>();
+            for(int i = 0; i < 40; i++) {
+                final String id = "assertion" + i;
+                results.add(executor.submit(new Callable<Element>() {
+                    @Override
+                    public Element call() throws Exception {
+                        Element assertion = createAssertion(id);
+                        signer.signSAMLObject(assertion);
+                        return assertion;
+                    }
+                }));
+            }
+            for(Future<Element> result : results) {
+                assertValidSignature(result.get(), issuerKey);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        assertEquals(40, signer.getSignatures());
+        assertTrue(signer.getSignaturesPerSecondPerThread() > 0);
+    }
+}
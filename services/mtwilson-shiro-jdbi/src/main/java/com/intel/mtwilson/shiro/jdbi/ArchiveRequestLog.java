@@ -13,7 +13,10 @@ import java.util.Date;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 
 /**
- *
+ * Deletes request log entries that are older than the anti-replay window.
+ * Replay detection does not use the request log, so there is nothing to do
+ * unless mtwilson.request.log.enabled is true.
+ * 
  * @author jbuhacoff
  */
 @Background
@@ -23,6 +26,9 @@ public class ArchiveRequestLog implements Runnable {
 
     @Override
     public void run() {
+        if( !My.configuration().getConfiguration().getBoolean("mtwilson.request.log.enabled", false) ) {
+            return;
+        }
         try (LoginDAO dao = MyJdbi.authz()) {
             // get the configured window size (in time) 
             int expiresAfter = My.configuration().getAntiReplayProtectionWindowMilliseconds(); 
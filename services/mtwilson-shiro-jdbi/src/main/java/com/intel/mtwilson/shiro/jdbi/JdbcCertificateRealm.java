@@ -6,10 +6,14 @@ package com.intel.mtwilson.shiro.jdbi;
 
 import com.intel.dcsg.cpg.crypto.Sha1Digest;
 import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.dcsg.cpg.io.UUID;
 import com.intel.mtwilson.shiro.*;
 import com.intel.dcsg.cpg.net.NetUtils;
 import com.intel.dcsg.cpg.rfc822.Rfc822Date;
 import com.intel.dcsg.cpg.x509.X509Util;
+import com.intel.mtwilson.My;
+import com.intel.mtwilson.security.core.ReplayCache;
+import com.intel.mtwilson.security.core.RequestLogWriter;
 import com.intel.mtwilson.shiro.authc.x509.Credential;
 import com.intel.mtwilson.shiro.authc.x509.Fingerprint;
 import com.intel.mtwilson.shiro.authc.x509.LoginCertificateId;
@@ -19,6 +23,7 @@ import com.intel.mtwilson.user.management.rest.v2.model.Role;
 import com.intel.mtwilson.user.management.rest.v2.model.RolePermission;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginCertificate;
 import com.intel.mtwilson.user.management.rest.v2.model.User;
+import java.io.IOException;
 import java.net.SocketException;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
@@ -44,11 +49,23 @@ import org.apache.shiro.subject.SimplePrincipalCollection;
  * Authorization: X509 fingerprint="H1PPayM0FcOHtdUhHOuZlBaeynVrYl9yJV3JqqAsMHc=", headers="X-Nonce,Date", algorithm="SHA256withRSA", signature="BRlDe76PQLkKWgG982Su+/wPdDRIOa6eKdstpxI6tPWKUod8H46yqaPSyapjufnOPuknJ6IXOBY42xSjD/Dl4Les/JciodI/4BGuThMZDPRft+hnijM2A876OX4L60J/pMW+1/s6Ar/zTofK0d4oOpGyyu2QdZ8pGMlRhUXejGEChRjBKYMpf0Z+EsTaRQqhya18G/NeqJufjx571X50JJE4UaX3MIkpiSsX+em9sCtMayvUBzfnaQDZcRG5/DDTnfsbPQaMhhOtpZ9W4xJYWH1/6BwWVT+PLRz0Ztpq5atDhZ82XEk92nwXY9hYJ/VpoBb3ZhCZUNIildEceW/TiQ=="
  * </pre>
  * 
+ * Replayed requests are detected with a ReplayCache that remembers the
+ * requests received within the anti-replay window. A request is only added
+ * to the cache after its signature was verified, so made up requests cannot
+ * fill it. The cache is per server, see ReplayCache. Writing the requests to
+ * mw_request_log is optional and is done on a background thread.
+ * 
+ * Configuration:
+ * mtwilson.replay.cache.max.size maximum number of requests to remember (default 100000)
+ * mtwilson.request.log.enabled true to also write the requests to mw_request_log (default false)
+ * 
  * @author jbuhacoff
  */
 public class JdbcCertificateRealm extends AuthorizingRealm {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(JdbcCertificateRealm.class);
+    private static ReplayCache replayCache = null;
+    private static boolean requestLogEnabled = false;
     private String localAddress;
 
     public JdbcCertificateRealm() {
@@ -74,6 +91,40 @@ public class JdbcCertificateRealm extends AuthorizingRealm {
         return id;
     }
     
+    private static synchronized ReplayCache getReplayCache() throws IOException {
+        if( replayCache == null ) {
+            int maxSize = My.configuration().getConfiguration().getInt("mtwilson.replay.cache.max.size", 100000);
+            replayCache = new ReplayCache(My.configuration().getAntiReplayProtectionWindowMilliseconds(), maxSize);
+            requestLogEnabled = My.configuration().getConfiguration().getBoolean("mtwilson.request.log.enabled", false);
+        }
+        return replayCache;
+    }
+    
+    private static void writeRequestLogEntry(final RequestLogEntry requestLogEntry) {
+        RequestLogWriter.write(new Runnable() {
+            @Override
+            public void run() {
+                try (LoginDAO dao = MyJdbi.authz()) {
+                    dao.insertRequestLogEntry(requestLogEntry);
+                }
+                catch(Exception e) {
+                    log.error("Cannot write request log entry", e);
+                }
+            }
+        });
+    }
+    
+    private RequestLogEntry createRequestLogEntry(X509AuthenticationToken xToken) {
+        Credential credential = (Credential)xToken.getCredentials();
+        RequestLogEntry requestLogEntry = new RequestLogEntry();
+        requestLogEntry.setDigest(Base64.encodeBase64String(credential.getDigest()));
+        requestLogEntry.setSource(xToken.getHost());
+        requestLogEntry.setInstance(localAddress);
+        requestLogEntry.setReceived(new Date());
+        requestLogEntry.setContent(xToken.getSignatureInput().toString());
+        return requestLogEntry;
+    }
+    
     
     @Override
     public boolean supports(AuthenticationToken token) {
@@ -93,28 +144,20 @@ public class JdbcCertificateRealm extends AuthorizingRealm {
         for (Username username : usernames) {
             log.debug("doGetAuthorizationInfo for username: {}", username.getUsername());
         }
-        try (LoginDAO dao = MyJdbi.authz()) {
-            log.debug("doGetAuthorizationInfo got DAO instance: {}", dao);
-            Collection<LoginCertificateId> loginCertificateIds = pc.byType(LoginCertificateId.class);
+        LoginCache cache = LoginCache.getInstance();
+        Collection<LoginCertificateId> loginCertificateIds = pc.byType(LoginCertificateId.class);
+        try {
             for (LoginCertificateId loginCertificateId : loginCertificateIds) {
                 log.debug("doGetAuthorizationInfo for login certificate id: {}", loginCertificateId.getLoginCertificateId());
-                
-                
-                List<Role> roles = dao.findRolesByUserLoginCertificateId(loginCertificateId.getLoginCertificateId());
-                HashSet<String> roleIds = new HashSet<>();
-                for (Role role : roles) {
-                    log.debug("doGetAuthorizationInfo found role: {}", role.getRoleName());
-                    roleIds.add(role.getId().toString());
-                    authzInfo.addRole(role.getRoleName());
-                }
-                if (!roleIds.isEmpty()) {
-                    List<RolePermission> permissions = dao.findRolePermissionsByCertificateRoleIds(roleIds);
-                    for (RolePermission permission : permissions) {
-                        log.debug("doGetAuthorizationInfo found permission: {} {} {}", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection());
-                        authzInfo.addStringPermission(String.format("%s:%s:%s", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection()));
+                LoginCache.Authorization authorization = cache.getCertificateAuthorization(loginCertificateId.getLoginCertificateId());
+                if( authorization == null ) {
+                    try (LoginDAO dao = MyJdbi.authz()) {
+                        authorization = findAuthorization(dao, loginCertificateId.getLoginCertificateId());
                     }
+                    cache.putCertificateAuthorization(loginCertificateId.getLoginCertificateId(), authorization);
                 }
-                
+                authzInfo.addRoles(authorization.getRoles());
+                authzInfo.addStringPermissions(authorization.getPermissions());
             }
         } catch (Exception e) {
             log.debug("doGetAuthorizationInfo error", e);
@@ -124,6 +167,26 @@ public class JdbcCertificateRealm extends AuthorizingRealm {
         return authzInfo;
     }
     
+    private LoginCache.Authorization findAuthorization(LoginDAO dao, UUID loginCertificateId) {
+        HashSet<String> roleNames = new HashSet<>();
+        HashSet<String> stringPermissions = new HashSet<>();
+        List<Role> roles = dao.findRolesByUserLoginCertificateId(loginCertificateId);
+        HashSet<String> roleIds = new HashSet<>();
+        for (Role role : roles) {
+            log.debug("doGetAuthorizationInfo found role: {}", role.getRoleName());
+            roleIds.add(role.getId().toString());
+            roleNames.add(role.getRoleName());
+        }
+        if (!roleIds.isEmpty()) {
+            List<RolePermission> permissions = dao.findRolePermissionsByCertificateRoleIds(roleIds);
+            for (RolePermission permission : permissions) {
+                log.debug("doGetAuthorizationInfo found permission: {} {} {}", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection());
+                stringPermissions.add(String.format("%s:%s:%s", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection()));
+            }
+        }
+        return new LoginCache.Authorization(roleNames, stringPermissions);
+    }
+    
     @Override
     protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
         X509AuthenticationToken xToken = (X509AuthenticationToken) token;
@@ -136,13 +199,7 @@ public class JdbcCertificateRealm extends AuthorizingRealm {
                 // anti-replay protection: check the database to see if we have already received a request with this signature
                 // it should not affect legitimate clients because if they send the same logical request twice, the timestamp and
                 // nonce would be different which would result in a different digest and signature and thus would still have be unique
-                Credential credential = (Credential)xToken.getCredentials();
-                RequestLogEntry requestLogEntry = new RequestLogEntry();
-                requestLogEntry.setDigest(Base64.encodeBase64String(credential.getDigest()));
-                requestLogEntry.setSource(xToken.getHost());
-                requestLogEntry.setInstance(localAddress);
-                requestLogEntry.setReceived(new Date());
-                requestLogEntry.setContent(xToken.getSignatureInput().toString());
+                RequestLogEntry requestLogEntry = createRequestLogEntry(xToken);
                 try {
                     // first, look at the date header in the request and compare to our current time; if it's earlier than
                     // the earliest entry in the request log, then we have to reject it in order to prevent replay attacks
@@ -161,22 +218,16 @@ public class JdbcCertificateRealm extends AuthorizingRealm {
                             return null;
                         }
                     }
-                    // third, ensure that the request is not earlier than the start of our anti-replay protection window (represented by the earliest request received in the request log) 
+                    // third, ensure that the request is within our anti-replay protection window and was not already received in it;
+                    // the request is only recorded in assertCredentialsMatch after its signature is verified
                     Date requestDate = Rfc822Date.parse(xToken.getSignatureInput().headers.get("Date"));
-                    RequestLogEntry earliest = dao.findRequestLogEntryByEarliestDate();
-                    if( earliest != null && requestDate.before(earliest.getReceived()) ) {
-                        log.debug("request date is before anti-replay window; must be rejected");
+                    if( !getReplayCache().accepts(requestLogEntry.getSource(), requestLogEntry.getDigest(), requestDate.getTime()) ) {
+                        log.debug("request is a duplicate or is outside the anti-replay window; must be rejected");
                         return null;
                     }
-                    // fourth, try to insert the request into the log - it will fail if there is already a request with the same digest
-                    log.debug("inserting request log entry with digest {} from source {} received at {} by {}", requestLogEntry.getDigest(), requestLogEntry.getSource(), requestLogEntry.getReceived(), requestLogEntry.getInstance());
-                    dao.insertRequestLogEntry(requestLogEntry);
-                    // so at this point, we have inserted a new request into the request log 
-                    // and it's protected from replay because the request digest is in the log so
-                    // if a duplicate request comes in then it won't be able to insert (above)
                 }
                 catch(Exception e) {
-                    log.debug("Cannot insert request log entry", e); // probably a duplicate, but could also be database connection issue
+                    log.debug("Cannot check request for replay", e);
                     return null;
                 }
                 
@@ -223,5 +274,35 @@ public class JdbcCertificateRealm extends AuthorizingRealm {
 
         return info;
     }
+    
+    /**
+     * Verifies the signature, then records the request in the replay cache
+     * and, if configured, in the request log. Two copies of a request that
+     * arrive at the same time both pass the check in doGetAuthenticationInfo,
+     * but only the first one can be added to the cache.
+     */
+    @Override
+    protected void assertCredentialsMatch(AuthenticationToken token, AuthenticationInfo info) throws AuthenticationException {
+        super.assertCredentialsMatch(token, info);
+        X509AuthenticationToken xToken = (X509AuthenticationToken) token;
+        RequestLogEntry requestLogEntry = createRequestLogEntry(xToken);
+        boolean added;
+        try {
+            Date requestDate = Rfc822Date.parse(xToken.getSignatureInput().headers.get("Date"));
+            added = getReplayCache().add(requestLogEntry.getSource(), requestLogEntry.getDigest(), requestDate.getTime());
+        }
+        catch(Exception e) {
+            log.debug("Cannot check request for replay", e);
+            throw new AuthenticationException("Internal server error", e);
+        }
+        if( !added ) {
+            log.debug("request is a duplicate or is outside the anti-replay window; must be rejected");
+            throw new AuthenticationException("Duplicate request");
+        }
+        if( requestLogEnabled ) {
+            log.debug("writing request log entry with digest {} from source {} received at {} by {}", requestLogEntry.getDigest(), requestLogEntry.getSource(), requestLogEntry.getReceived(), requestLogEntry.getInstance());
+            writeRequestLogEntry(requestLogEntry);
+        }
+    }
         
 }
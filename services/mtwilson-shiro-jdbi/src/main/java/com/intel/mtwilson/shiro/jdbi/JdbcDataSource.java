@@ -14,7 +14,9 @@ import java.util.logging.Logger;
 import javax.sql.DataSource;
 
 /**
- *
+ * Borrows connections from the pool shared by the JDBI DAOs, see 
+ * MyJdbc.dataSource().
+ * 
  * @author jbuhacoff
  */
 public class JdbcDataSource implements DataSource {
@@ -22,14 +24,11 @@ public class JdbcDataSource implements DataSource {
     @Override
     public Connection getConnection() throws SQLException {
         try {
-            return My.jdbc().connection();
+            return My.jdbc().dataSource().getConnection();
         }
         catch(IOException e) {
             throw new SQLException(e);
         }
-        catch(ClassNotFoundException e) {
-            throw new SQLException(e);
-        }
     }
 
     @Override
@@ -4,6 +4,7 @@
  */
 package com.intel.mtwilson.shiro.jdbi;
 
+import com.intel.dcsg.cpg.io.UUID;
 import com.intel.mtwilson.shiro.UserId;
 import com.intel.mtwilson.shiro.Username;
 import com.intel.mtwilson.shiro.UsernameWithPermissions;
@@ -56,28 +57,20 @@ public class JdbcPasswordRealm extends AuthorizingRealm {
         for (Username username : usernames) {
             log.debug("doGetAuthorizationInfo for username: {}", username.getUsername());
         }
-        try (LoginDAO dao = MyJdbi.authz()) {
-            
-            Collection<LoginPasswordId> loginPasswordIds = pc.byType(LoginPasswordId.class);
+        LoginCache cache = LoginCache.getInstance();
+        Collection<LoginPasswordId> loginPasswordIds = pc.byType(LoginPasswordId.class);
+        try {
             for (LoginPasswordId loginPasswordId : loginPasswordIds) {
                 log.debug("doGetAuthorizationInfo for login password id: {}", loginPasswordId.getLoginPasswordId());
-                
-                
-                List<Role> roles = dao.findRolesByUserLoginPasswordId(loginPasswordId.getLoginPasswordId());
-                HashSet<String> roleIds = new HashSet<>();
-                for (Role role : roles) {
-                    log.debug("doGetAuthorizationInfo found role: {}", role.getRoleName());
-                    roleIds.add(role.getId().toString());
-                    authzInfo.addRole(role.getRoleName());
-                }
-                if (!roleIds.isEmpty()) {
-                    List<RolePermission> permissions = dao.findRolePermissionsByPasswordRoleIds(roleIds);
-                    for (RolePermission permission : permissions) {
-                        log.debug("doGetAuthorizationInfo found permission: {} {} {}", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection());
-                        authzInfo.addStringPermission(String.format("%s:%s:%s", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection()));
+                LoginCache.Authorization authorization = cache.getPasswordAuthorization(loginPasswordId.getLoginPasswordId());
+                if( authorization == null ) {
+                    try (LoginDAO dao = MyJdbi.authz()) {
+                        authorization = findAuthorization(dao, loginPasswordId.getLoginPasswordId());
                     }
+                    cache.putPasswordAuthorization(loginPasswordId.getLoginPasswordId(), authorization);
                 }
-                
+                authzInfo.addRoles(authorization.getRoles());
+                authzInfo.addStringPermissions(authorization.getPermissions());
             }
         } catch (Exception e) {
             log.debug("doGetAuthorizationInfo error", e);
@@ -99,35 +92,33 @@ public class JdbcPasswordRealm extends AuthorizingRealm {
         UserLoginPassword userLoginPassword;
         User user;
         UsernameWithPermissions usernameWithPermissions = null;
-        try (LoginDAO dao = MyJdbi.authz()) {
-            userLoginPassword = dao.findUserLoginPasswordByUsernameEnabled(username, true);
-            if( userLoginPassword != null && userLoginPassword.isEnabled() ) {
-                user = dao.findUserById(userLoginPassword.getUserId());
-                
-                // now get the permissions and associate with the username
-                HashSet<String> stringPermissions = new HashSet<>();
-                List<Role> roles = dao.findRolesByUserLoginPasswordId(userLoginPassword.getId());
-                if (!roles.isEmpty()) {
-                    HashSet<String> roleIds = new HashSet<>();
-                    for(Role role : roles) {
-                        roleIds.add(role.getId().toString());
-                    }
-                    List<RolePermission> permissions = dao.findRolePermissionsByPasswordRoleIds(roleIds);
-                    for (RolePermission permission : permissions) {
-                        log.debug("doGetAuthorizationInfo found permission: {} {} {}", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection());
-                        stringPermissions.add(String.format("%s:%s:%s", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection()));
+        LoginCache cache = LoginCache.getInstance();
+        LoginCache.PasswordLogin passwordLogin = cache.getPasswordLogin(username);
+        if( passwordLogin != null ) {
+            userLoginPassword = passwordLogin.getUserLoginPassword();
+            user = passwordLogin.getUser();
+            usernameWithPermissions = new UsernameWithPermissions(user.getUsername(), new HashSet<>(passwordLogin.getAuthorization().getPermissions()));
+        }
+        else {
+            try (LoginDAO dao = MyJdbi.authz()) {
+                userLoginPassword = dao.findUserLoginPasswordByUsernameEnabled(username, true);
+                if( userLoginPassword != null && userLoginPassword.isEnabled() ) {
+                    user = dao.findUserById(userLoginPassword.getUserId());
+
+                    // now get the permissions and associate with the username
+                    LoginCache.Authorization authorization = findAuthorization(dao, userLoginPassword.getId());
+                    if( user != null ) {
+                        usernameWithPermissions = new UsernameWithPermissions(user.getUsername(), new HashSet<>(authorization.getPermissions()));
+                        cache.putPasswordLogin(username, new LoginCache.PasswordLogin(userLoginPassword, user, authorization));
                     }
+
+                } else {
+                    user = null;
                 }
-                
-                usernameWithPermissions = new UsernameWithPermissions(user.getUsername(), stringPermissions);
-                
-                
-            } else {
-                user = null;
+            } catch (Exception e) {
+                log.debug("doGetAuthenticationInfo error", e);
+                throw new AuthenticationException("Internal server error", e);
             }
-        } catch (Exception e) {
-            log.debug("doGetAuthenticationInfo error", e);
-            throw new AuthenticationException("Internal server error", e);
         }
         if (userLoginPassword == null || user == null ) {
             return null;
@@ -151,6 +142,26 @@ public class JdbcPasswordRealm extends AuthorizingRealm {
         return info;
     }
     
+    private LoginCache.Authorization findAuthorization(LoginDAO dao, UUID loginPasswordId) {
+        HashSet<String> roleNames = new HashSet<>();
+        HashSet<String> stringPermissions = new HashSet<>();
+        List<Role> roles = dao.findRolesByUserLoginPasswordId(loginPasswordId);
+        HashSet<String> roleIds = new HashSet<>();
+        for (Role role : roles) {
+            log.debug("doGetAuthorizationInfo found role: {}", role.getRoleName());
+            roleIds.add(role.getId().toString());
+            roleNames.add(role.getRoleName());
+        }
+        if (!roleIds.isEmpty()) {
+            List<RolePermission> permissions = dao.findRolePermissionsByPasswordRoleIds(roleIds);
+            for (RolePermission permission : permissions) {
+                log.debug("doGetAuthorizationInfo found permission: {} {} {}", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection());
+                stringPermissions.add(String.format("%s:%s:%s", permission.getPermitDomain(), permission.getPermitAction(), permission.getPermitSelection()));
+            }
+        }
+        return new LoginCache.Authorization(roleNames, stringPermissions);
+    }
+    
     private HashedPassword toHashedPassword(UserLoginPassword userLoginPassword) {
         HashedPassword hashedPassword = new HashedPassword();
         hashedPassword.setAlgorithm(userLoginPassword.getAlgorithm());
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import com.intel.mtwilson.My;
+import com.intel.mtwilson.user.management.rest.v2.model.User;
+import com.intel.mtwilson.user.management.rest.v2.model.UserLoginPassword;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Keeps the login records and the resolved roles and permissions of recently
+ * authenticated users in memory so that the JDBC realms do not query the
+ * login, role, and permission tables on every request.
+ *
+ * Only successful lookups are cached; an unknown or disabled username always
+ * goes to the database. The user management repositories clear the cache
+ * whenever a user, login, role, or permission is created, changed, or
+ * deleted, so changes made through the API take effect immediately on this
+ * server. Changes made by another server that shares the database, or
+ * directly in the database, are seen when the cached entry is older than
+ * mtwilson.login.cache.ttl.seconds.
+ *
+ * Configuration:
+ * mtwilson.login.cache.enabled (default true)
+ * mtwilson.login.cache.max.size maximum number of cached logins and permission sets (default 1000)
+ * mtwilson.login.cache.ttl.seconds maximum age of a cached entry (default 60)
+ */
+public class LoginCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LoginCache.class);
+    private static LoginCache instance = null;
+
+    private final boolean enabled;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<String,Entry> cache = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    private static class Entry {
+        private final Object value;
+        private final long created;
+
+        private Entry(Object value) {
+            this.value = value;
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The role names and permission strings ("domain:action:selection") of a
+     * login.
+     */
+    public static class Authorization {
+        private final Set<String> roles;
+        private final Set<String> permissions;
+
+        public Authorization(Set<String> roles, Set<String> permissions) {
+            this.roles = Collections.unmodifiableSet(new HashSet<String>(roles));
+            this.permissions = Collections.unmodifiableSet(new HashSet<String>(permissions));
+        }
+
+        public Set<String> getRoles() {
+            return roles;
+        }
+
+        public Set<String> getPermissions() {
+            return permissions;
+        }
+    }
+
+    /**
+     * An enabled password login with its user and resolved authorization.
+     * Callers must not modify the login or user records.
+     */
+    public static class PasswordLogin {
+        private final UserLoginPassword userLoginPassword;
+        private final User user;
+        private final Authorization authorization;
+
+        public PasswordLogin(UserLoginPassword userLoginPassword, User user, Authorization authorization) {
+            this.userLoginPassword = userLoginPassword;
+            this.user = user;
+            this.authorization = authorization;
+        }
+
+        public UserLoginPassword getUserLoginPassword() {
+            return userLoginPassword;
+        }
+
+        public User getUser() {
+            return user;
+        }
+
+        public Authorization getAuthorization() {
+            return authorization;
+        }
+    }
+
+    public LoginCache(boolean enabled, int maxSize, long ttlMillis) {
+        this.enabled = enabled;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static synchronized LoginCache getInstance() {
+        if( instance == null ) {
+            Configuration config = My.configuration().getConfiguration();
+            boolean enabled = config.getBoolean("mtwilson.login.cache.enabled", true);
+            int maxSize = config.getInt("mtwilson.login.cache.max.size", 1000);
+            long ttlSeconds = config.getLong("mtwilson.login.cache.ttl.seconds", 60);
+            log.debug("Creating login cache enabled={} max size={} ttl={}s", enabled, maxSize, ttlSeconds);
+            instance = new LoginCache(enabled, maxSize, ttlSeconds * 1000);
+        }
+        return instance;
+    }
+
+    /**
+     * @param username
+     * @return the cached enabled password login for the username, or null if it is not cached
+     */
+    public PasswordLogin getPasswordLogin(String username) {
+        return (PasswordLogin)get("password-login:" + username);
+    }
+
+    public void putPasswordLogin(String username, PasswordLogin passwordLogin) {
+        put("password-login:" + username, passwordLogin);
+        put("password-authz:" + passwordLogin.getUserLoginPassword().getId(), passwordLogin.getAuthorization());
+    }
+
+    /**
+     * @param loginPasswordId
+     * @return the cached roles and permissions of the password login, or null if they are not cached
+     */
+    public Authorization getPasswordAuthorization(Object loginPasswordId) {
+        return (Authorization)get("password-authz:" + loginPasswordId);
+    }
+
+    public void putPasswordAuthorization(Object loginPasswordId, Authorization authorization) {
+        put("password-authz:" + loginPasswordId, authorization);
+    }
+
+    /**
+     * @param loginCertificateId
+     * @return the cached roles and permissions of the certificate login, or null if they are not cached
+     */
+    public Authorization getCertificateAuthorization(Object loginCertificateId) {
+        return (Authorization)get("certificate-authz:" + loginCertificateId);
+    }
+
+    public void putCertificateAuthorization(Object loginCertificateId, Authorization authorization) {
+        put("certificate-authz:" + loginCertificateId, authorization);
+    }
+
+    /**
+     * Called when users, logins, roles, or permissions change. A change to a
+     * role or permission affects every login that has the role, so the whole
+     * cache is cleared rather than looking for the affected entries.
+     */
+    public synchronized void clear() {
+        if( !cache.isEmpty() ) {
+            log.debug("Clearing login cache {}", this);
+            cache.clear();
+        }
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the fraction of lookups that were found in the cache, or 0 if there were none
+     */
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : (double)h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d hits=%d misses=%d evictions=%d hit rate=%.2f", size(), getHits(), getMisses(), getEvictions(), getHitRate());
+    }
+
+    private synchronized Object get(String key) {
+        if( !enabled ) {
+            return null;
+        }
+        Entry entry = cache.get(key);
+        if( entry != null && ttlMillis > 0 && System.currentTimeMillis() - entry.created > ttlMillis ) {
+            cache.remove(key);
+            evictions.incrementAndGet();
+            entry = null;
+        }
+        if( entry == null ) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    private synchronized void put(String key, Object value) {
+        if( !enabled ) {
+            return;
+        }
+        cache.put(key, new Entry(value));
+        // the map is in access order so the least recently used entries are at the front
+        Iterator<Entry> it = cache.values().iterator();
+        while(cache.size() > maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+}
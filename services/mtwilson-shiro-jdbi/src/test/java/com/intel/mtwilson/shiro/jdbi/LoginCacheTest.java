@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.jdbi;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LoginCacheTest {
+
+    private LoginCache.Authorization authorization(String role, String... permissions) {
+        return new LoginCache.Authorization(new HashSet<>(Arrays.asList(role)), new HashSet<>(Arrays.asList(permissions)));
+    }
+
+    @Test
+    public void testHitsMissesAndClear() {
+        LoginCache cache = new LoginCache(true, 10, 60000);
+        assertNull(cache.getCertificateAuthorization("a"));
+        cache.putCertificateAuthorization("a", authorization("admin", "*:*:*"));
+        assertTrue(cache.getCertificateAuthorization("a").getPermissions().contains("*:*:*"));
+        // password and certificate logins do not share entries
+        assertNull(cache.getPasswordAuthorization("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        cache.clear();
+        assertNull(cache.getCertificateAuthorization("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        LoginCache cache = new LoginCache(true, 2, 60000);
+        cache.putPasswordAuthorization("a", authorization("a"));
+        cache.putPasswordAuthorization("b", authorization("b"));
+        cache.getPasswordAuthorization("a");
+        cache.putPasswordAuthorization("c", authorization("c"));
+        assertNotNull(cache.getPasswordAuthorization("a"));
+        assertNull(cache.getPasswordAuthorization("b"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testExpiredEntryIsNotReturned() throws InterruptedException {
+        LoginCache cache = new LoginCache(true, 10, 1);
+        cache.putPasswordAuthorization("a", authorization("a"));
+        Thread.sleep(10);
+        assertNull(cache.getPasswordAuthorization("a"));
+    }
+
+    @Test
+    public void testDisabled() {
+        LoginCache cache = new LoginCache(false, 10, 60000);
+        cache.putPasswordAuthorization("a", authorization("a"));
+        assertNull(cache.getPasswordAuthorization("a"));
+        assertEquals(0, cache.size());
+    }
+}
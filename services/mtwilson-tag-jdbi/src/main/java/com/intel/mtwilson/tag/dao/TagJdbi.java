@@ -4,7 +4,6 @@
  */
 package com.intel.mtwilson.tag.dao;
 
-import com.intel.dcsg.cpg.jpa.PersistenceManager;
 import com.intel.mtwilson.tag.dao.jdbi.CertificateRequestDAO;
 import com.intel.mtwilson.tag.dao.jdbi.CertificateDAO;
 import com.intel.mtwilson.tag.dao.jdbi.TpmPasswordDAO;
@@ -14,7 +13,6 @@ import com.intel.mtwilson.tag.dao.jdbi.SelectionKvAttributeDAO;
 import com.intel.mtwilson.tag.dao.jdbi.ConfigurationDAO;
 import com.intel.mtwilson.My;
 import com.intel.mtwilson.tag.dao.jdbi.FileDAO;
-import com.intel.mtwilson.MyPersistenceManager;
 import com.intel.mtwilson.jooq.util.JooqContainer;
 import java.io.IOException;
 import java.sql.Connection;
@@ -36,7 +34,7 @@ public class TagJdbi {
 
     synchronized public static void createDataSource() throws IOException {
         if (ds == null) {
-            ds = PersistenceManager.createDataSource(MyPersistenceManager.getASDataJpaProperties(My.configuration()));
+            ds = My.jdbc().dataSource(); // shared with the other JDBI DAOs
         }
     }
 
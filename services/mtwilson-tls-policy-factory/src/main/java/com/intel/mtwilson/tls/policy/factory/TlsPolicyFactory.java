@@ -90,6 +90,7 @@ public abstract class TlsPolicyFactory {
             throw new TlsPolicyNotFoundException(getHostDescriptor().getInternetAddress()); 
         }
         TlsPolicy tlsPolicy = createTlsPolicy(tlsPolicyChoiceReport); // throws illegal argument exception if cannot create it
+        TlsPolicyIdentity.register(tlsPolicy, tlsPolicyChoiceReport.getDescriptor()); // so connection pools can compare policies
         return tlsPolicy;
     }
     
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.tls.policy.factory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.intel.dcsg.cpg.tls.policy.TlsPolicy;
+import com.intel.mtwilson.tls.policy.TlsPolicyDescriptor;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Remembers the descriptor each TlsPolicy was created from, so that
+ * connection pools can tell whether two TlsPolicy instances make the same
+ * trust decisions. The trust manager of a TlsPolicy does not show this: for
+ * digest and insecure policies it has no accepted issuers at all.
+ *
+ * TlsPolicyFactory registers every policy it creates. A policy that was not
+ * registered gets an identity of its own, so it is never mistaken for
+ * another one.
+ */
+public class TlsPolicyIdentity {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TlsPolicyIdentity.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final ObjectMapper mapper = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    private static final Map<TlsPolicy,String> identities = Collections.synchronizedMap(new WeakHashMap<TlsPolicy,String>());
+    private static final AtomicLong unregistered = new AtomicLong(0);
+
+    /**
+     * @param tlsPolicy
+     * @param descriptor the effective descriptor the policy was created from, may be null
+     */
+    public static void register(TlsPolicy tlsPolicy, TlsPolicyDescriptor descriptor) {
+        if( tlsPolicy == null || descriptor == null ) {
+            return;
+        }
+        String digest = digest(descriptor);
+        if( digest != null ) {
+            identities.put(tlsPolicy, digest);
+        }
+    }
+
+    /**
+     * @param tlsPolicy
+     * @return the same string for policies created from equal descriptors
+     */
+    public static String get(TlsPolicy tlsPolicy) {
+        synchronized(identities) {
+            String identity = identities.get(tlsPolicy);
+            if( identity == null ) {
+                identity = "unregistered-" + unregistered.incrementAndGet();
+                identities.put(tlsPolicy, identity);
+            }
+            return identity;
+        }
+    }
+
+    /**
+     * @param descriptor
+     * @return hex SHA-256 of the JSON form of the descriptor, or null if it cannot be serialized
+     */
+    static String digest(TlsPolicyDescriptor descriptor) {
+        try {
+            byte[] json = mapper.writeValueAsString(descriptor).getBytes(UTF8);
+            return Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(json));
+        }
+        catch(JsonProcessingException | NoSuchAlgorithmException e) {
+            log.debug("Cannot compute identity of TLS policy descriptor", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.tls.policy.factory;
+
+import com.intel.mtwilson.tls.policy.TlsPolicyDescriptor;
+import java.util.Arrays;
+import java.util.HashMap;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TlsPolicyIdentityTest {
+
+    private TlsPolicyDescriptor createDescriptor(String policyType, String... data) {
+        TlsPolicyDescriptor descriptor = new TlsPolicyDescriptor();
+        descriptor.setPolicyType(policyType);
+        descriptor.setData(Arrays.asList(data));
+        HashMap<String,String> meta = new HashMap<>();
+        meta.put("digestAlgorithm", "SHA-256");
+        meta.put("encoding", "hex");
+        descriptor.setMeta(meta);
+        return descriptor;
+    }
+
+    @Test
+    public void testEqualDescriptorsHaveSameDigest() {
+        String digest1 = TlsPolicyIdentity.digest(createDescriptor("certificate-digest", "aa", "bb"));
+        String digest2 = TlsPolicyIdentity.digest(createDescriptor("certificate-digest", "aa", "bb"));
+        assertNotNull(digest1);
+        assertEquals(digest1, digest2);
+    }
+
+    @Test
+    public void testDifferentDataHasDifferentDigest() {
+        String digest1 = TlsPolicyIdentity.digest(createDescriptor("certificate-digest", "aa"));
+        String digest2 = TlsPolicyIdentity.digest(createDescriptor("certificate-digest", "bb"));
+        assertFalse(digest1.equals(digest2));
+    }
+
+    @Test
+    public void testDifferentPolicyTypeHasDifferentDigest() {
+        // neither policy has accepted issuers, but they do not make the same trust decisions
+        String digest1 = TlsPolicyIdentity.digest(createDescriptor("INSECURE"));
+        String digest2 = TlsPolicyIdentity.digest(createDescriptor("public-key-digest", "aa"));
+        assertFalse(digest1.equals(digest2));
+    }
+}
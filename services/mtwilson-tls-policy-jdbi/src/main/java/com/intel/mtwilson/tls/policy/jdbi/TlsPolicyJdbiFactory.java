@@ -4,8 +4,8 @@
  */
 package com.intel.mtwilson.tls.policy.jdbi;
 
-import com.intel.mtwilson.jdbi.util.JdbiUtil;
 import com.intel.mtwilson.My;
+import org.skife.jdbi.v2.DBI;
 
 /**
  *
@@ -15,7 +15,7 @@ public class TlsPolicyJdbiFactory {
 
     public static TlsPolicyDAO tlsPolicyDAO() {
         try {
-            return JdbiUtil.getDBI(My.jdbc().connection()).open(TlsPolicyDAO.class);
+            return new DBI(My.jdbc().dataSource()).open(TlsPolicyDAO.class); // the connection goes back to the pool when the DAO is closed
         }
         catch(Exception e) {
             throw new RuntimeException(e);
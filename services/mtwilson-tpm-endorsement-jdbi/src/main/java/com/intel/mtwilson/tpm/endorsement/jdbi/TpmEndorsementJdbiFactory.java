@@ -5,7 +5,7 @@
 package com.intel.mtwilson.tpm.endorsement.jdbi;
 
 import com.intel.mtwilson.My;
-import com.intel.mtwilson.jdbi.util.JdbiUtil;
+import org.skife.jdbi.v2.DBI;
 
 /**
  *
@@ -15,7 +15,7 @@ public class TpmEndorsementJdbiFactory {
 
     public static TpmEndorsementDAO tpmEndorsementDAO() {
         try {
-            return JdbiUtil.getDBI(My.jdbc().connection()).open(TpmEndorsementDAO.class);
+            return new DBI(My.jdbc().dataSource()).open(TpmEndorsementDAO.class); // the connection goes back to the pool when the DAO is closed
         }
         catch(Exception e) {
             throw new RuntimeException(e);
@@ -7,44 +7,182 @@ package com.intel.mtwilson.policy;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * By default the rules are applied one after another on the calling thread.
+ *
+ * In parallel mode the rules are applied concurrently on a fork-join pool
+ * shared by all PolicyEngine instances. Rules must already be reusable and
+ * stateless (see Rule) so they can be applied independently.
+ *
+ * In verdict only mode a rule is skipped when every one of its markers already
+ * has an untrusted result, so the report is only good for isTrusted() and
+ * isTrustedForMarker(); it does not list every fault. Rules without markers
+ * are always applied.
+ *
+ * The time spent in each rule is recorded on its RuleResult in both modes.
+ *
  * @author jbuhacoff
  */
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
 @JsonIgnoreProperties(ignoreUnknown=true)
 public class PolicyEngine {
     private Logger log = LoggerFactory.getLogger(getClass());
-    
+    private static ForkJoinPool pool = null;
+    private boolean parallel = false;
+    private boolean verdictOnly = false;
+
+    public PolicyEngine() {
+    }
+
+    public PolicyEngine(boolean parallel, boolean verdictOnly) {
+        this.parallel = parallel;
+        this.verdictOnly = verdictOnly;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isVerdictOnly() {
+        return verdictOnly;
+    }
+
+    public void setVerdictOnly(boolean verdictOnly) {
+        this.verdictOnly = verdictOnly;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if( pool == null ) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return pool;
+    }
+
     // this is the normal case - given a list of policies, apply them all, and combine the results into one report.
     public List<RuleResult> applyAll(HostReport hostReport, Rule... rules) {
         log.debug("PolicyEngine.applyAll(... {} rules)", rules.length);
+        return applyRules(hostReport, Arrays.asList(rules));
+    }
+
+    public List<RuleResult> applyAll(HostReport hostReport, Set<Rule> rules) {
+        log.debug("PolicyEngine.applyAll(set of {} rules)", rules.size());
+        return applyRules(hostReport, rules);
+    }
+
+    private List<RuleResult> applyRules(HostReport hostReport, Collection<Rule> rules) {
+        if( parallel && rules.size() > 1 ) {
+            return applyRulesParallel(hostReport, rules);
+        }
         ArrayList<RuleResult> list = new ArrayList<RuleResult>();
+        HashSet<String> untrustedMarkers = new HashSet<String>();
         for(Rule rule : rules) {
-            log.debug("Applying rule {}", rule.getClass().getName());
-            RuleResult result = rule.apply(hostReport);
+            if( isSkipped(rule, untrustedMarkers) ) {
+                continue;
+            }
+            RuleResult result = applyRule(hostReport, rule);
+            addUntrustedMarkers(result, untrustedMarkers);
             list.add(result);
         }
         return list;
     }
-    
-    public List<RuleResult> applyAll(HostReport hostReport, Set<Rule> rules) {
-        log.debug("PolicyEngine.applyAll(set of {} rules)", rules.size());
+
+    private List<RuleResult> applyRulesParallel(final HostReport hostReport, Collection<Rule> rules) {
+        final Set<String> untrustedMarkers = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+        ArrayList<Callable<RuleResult>> tasks = new ArrayList<Callable<RuleResult>>();
+        for(final Rule rule : rules) {
+            tasks.add(new Callable<RuleResult>() {
+                @Override
+                public RuleResult call() {
+                    if( isSkipped(rule, untrustedMarkers) ) {
+                        return null;
+                    }
+                    RuleResult result = applyRule(hostReport, rule);
+                    addUntrustedMarkers(result, untrustedMarkers);
+                    return result;
+                }
+            });
+        }
         ArrayList<RuleResult> list = new ArrayList<RuleResult>();
-        for(Rule rule : rules) {
-            log.debug("Applying rule {}", rule.getClass().getName());
-            RuleResult result = rule.apply(hostReport);
-            list.add(result);
+        for(Future<RuleResult> future : getPool().invokeAll(tasks)) {
+            try {
+                RuleResult result = future.get();
+                if( result != null ) {
+                    list.add(result);
+                }
+            }
+            catch(ExecutionException e) {
+                // same as the sequential mode where the rule's exception reaches the caller
+                if( e.getCause() instanceof RuntimeException ) {
+                    throw (RuntimeException)e.getCause();
+                }
+                if( e.getCause() instanceof Error ) {
+                    throw (Error)e.getCause();
+                }
+                throw new IllegalStateException("Cannot apply rule", e.getCause());
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while applying rules", e);
+            }
         }
         return list;
     }
-    
-    // this was formerly called "applyAny" because if ANY ONE of the policies says isTrusted then it's fine. 
+
+    private RuleResult applyRule(HostReport hostReport, Rule rule) {
+        log.debug("Applying rule {}", rule.getClass().getName());
+        long start = System.nanoTime();
+        RuleResult result = rule.apply(hostReport);
+        long elapsed = System.nanoTime() - start;
+        if( result != null ) {
+            result.setElapsedNanos(elapsed);
+        }
+        log.trace("performance: rule {}: {}us", rule.getClass().getSimpleName(), elapsed / 1000);
+        return result;
+    }
+
+    private boolean isSkipped(Rule rule, Set<String> untrustedMarkers) {
+        if( !verdictOnly ) {
+            return false;
+        }
+        String[] markers = rule.getMarkers();
+        if( markers == null || markers.length == 0 ) {
+            return false;
+        }
+        for(String marker : markers) {
+            if( !untrustedMarkers.contains(marker) ) {
+                return false;
+            }
+        }
+        log.debug("Skipping rule {} because its markers are already untrusted", rule.getClass().getName());
+        return true;
+    }
+
+    private void addUntrustedMarkers(RuleResult result, Set<String> untrustedMarkers) {
+        if( verdictOnly && result != null && !result.isTrusted() && result.getRule() != null && result.getRule().getMarkers() != null ) {
+            untrustedMarkers.addAll(Arrays.asList(result.getRule().getMarkers()));
+        }
+    }
+
+    // this was formerly called "applyAny" because if ANY ONE of the policies says isTrusted then it's fine.
     // however,  this is not the right spot to check that... so where do we check it ??? in the app?? that
     // would then be a feature of the app. which is fine.
     public List<TrustReport> applyAll(HostReport hostReport, Policy... policies) {
@@ -57,14 +195,14 @@ public class PolicyEngine {
         }
         return list;
     }
-    
+
     /*
     public TrustReport applyAny(HostReport hostReport, TrustPolicy... policies) {
         RequireAny requireAny = new RequireAny(Arrays.asList(policies));
         TrustReport report = requireAny.apply(hostReport);
         return report;
     }*/
-    
+
     public TrustReport apply(HostReport hostReport, Policy policy) {
         log.debug("PolicyEngine.apply policy {}", policy.getName());
         TrustReport policyReport = new TrustReport(hostReport, policy.getName());
@@ -76,5 +214,5 @@ public class PolicyEngine {
         }
         return policyReport;
     }
-    
+
 }
@@ -33,6 +33,7 @@ public class RuleResult {
     private final transient Logger log = LoggerFactory.getLogger(getClass().getName());
     private final Rule rule;
     private final ArrayList<Fault> faults = new ArrayList<Fault>();
+    private long elapsedNanos = 0;
     
     private RuleResult() { this.rule = null; } // for json deserialization support only
     public RuleResult(Rule rule) {
@@ -72,6 +73,18 @@ public class RuleResult {
     }    
 
 
+    /**
+     * @return the time spent applying the rule, as recorded by the PolicyEngine
+     */
+    @JsonIgnore
+    public final long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public final void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+    
     /**
      * @return true if the host meets the policy  (host is trusted) or false if there are faults - which you can access with getFaults()
      */
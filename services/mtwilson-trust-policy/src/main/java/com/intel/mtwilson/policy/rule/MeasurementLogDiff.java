@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.policy.rule;
+
+import com.intel.mtwilson.model.Measurement;
+import com.intel.mtwilson.model.VmMeasurement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares actual measurements against a whitelist in time proportional to
+ * the number of entries, for the measurement log rules.
+ *
+ * The expected measurements are indexed once by digest and by label, so a
+ * rule can keep one instance and compare it against many hosts. As with
+ * Measurement.equals, two entries are the same if their digests are equal;
+ * the labels are only used to pair an unexpected entry with a missing entry
+ * that has the same label (ignoring case), which is reported as a mismatch
+ * instead of as one unexpected and one missing entry.
+ *
+ * Instances are immutable and can be used by several threads.
+ *
+ * @param <T> Measurement or VmMeasurement
+ */
+public abstract class MeasurementLogDiff<T> {
+    private final List<T> expected;
+    private final HashMap<T,Integer> positions = new HashMap<>(); // digest -> position of its first occurrence in expected
+    private final int[] firstPositions; // for each expected entry, the position of the first entry with the same digest
+    private final HashMap<String,List<Integer>> labels = new HashMap<>(); // lowercase label -> positions in expected
+
+    /**
+     * An expected entry and the actual entry with the same label but a
+     * different digest.
+     */
+    public static class Mismatch<T> {
+        private final T expected;
+        private final T actual;
+
+        public Mismatch(T expected, T actual) {
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        public T getExpected() {
+            return expected;
+        }
+
+        public T getActual() {
+            return actual;
+        }
+    }
+
+    public static class Result<T> {
+        private final List<T> missing;
+        private final List<T> unexpected;
+        private final List<Mismatch<T>> mismatched;
+
+        public Result(List<T> missing, List<T> unexpected, List<Mismatch<T>> mismatched) {
+            this.missing = missing;
+            this.unexpected = unexpected;
+            this.mismatched = mismatched;
+        }
+
+        /**
+         * @return expected entries whose digest is not in the actual log, in whitelist order
+         */
+        public List<T> getMissing() {
+            return missing;
+        }
+
+        /**
+         * @return actual entries whose digest is not in the whitelist, in the order they were reported
+         */
+        public List<T> getUnexpected() {
+            return unexpected;
+        }
+
+        /**
+         * @return pairs of missing and unexpected entries with the same label; these are not included in getMissing or getUnexpected when labels are matched
+         */
+        public List<Mismatch<T>> getMismatched() {
+            return mismatched;
+        }
+
+        public boolean isEmpty() {
+            return missing.isEmpty() && unexpected.isEmpty() && mismatched.isEmpty();
+        }
+    }
+
+    protected MeasurementLogDiff(Collection<T> expected) {
+        this.expected = new ArrayList<>(expected);
+        this.firstPositions = new int[this.expected.size()];
+        for(int i = 0; i < this.expected.size(); i++) {
+            T entry = this.expected.get(i);
+            Integer first = positions.get(entry);
+            if( first == null ) {
+                first = i;
+                positions.put(entry, first);
+            }
+            firstPositions[i] = first;
+            String label = getLabel(entry);
+            if( label != null ) {
+                String key = label.toLowerCase(Locale.ROOT);
+                List<Integer> list = labels.get(key);
+                if( list == null ) {
+                    list = new ArrayList<>(1);
+                    labels.put(key, list);
+                }
+                list.add(i);
+            }
+        }
+    }
+
+    public static MeasurementLogDiff<Measurement> forMeasurements(Collection<Measurement> expected) {
+        return new MeasurementLogDiff<Measurement>(expected) {
+            @Override
+            protected String getLabel(Measurement measurement) {
+                return measurement.getLabel();
+            }
+        };
+    }
+
+    public static MeasurementLogDiff<VmMeasurement> forVmMeasurements(Collection<VmMeasurement> expected) {
+        return new MeasurementLogDiff<VmMeasurement>(expected) {
+            @Override
+            protected String getLabel(VmMeasurement measurement) {
+                return measurement.getLabel();
+            }
+        };
+    }
+
+    protected abstract String getLabel(T measurement);
+
+    public int size() {
+        return expected.size();
+    }
+
+    /**
+     * @param measurement
+     * @return true if the whitelist has an entry with the same digest
+     */
+    public boolean contains(T measurement) {
+        return positions.containsKey(measurement);
+    }
+
+    /**
+     * Finds the missing and unexpected entries without pairing them by label.
+     *
+     * @param actual
+     * @return the result, with an empty list of mismatches
+     */
+    public Result<T> compare(Collection<T> actual) {
+        return compare(actual, false);
+    }
+
+    /**
+     * Finds the missing and unexpected entries and pairs them by label.
+     *
+     * @param actual
+     * @return the result
+     */
+    public Result<T> compareByLabel(Collection<T> actual) {
+        return compare(actual, true);
+    }
+
+    /**
+     * Finds only the missing entries, for rules that allow additional
+     * entries in the actual log.
+     *
+     * @param actual
+     * @return expected entries whose digest is not in the actual log, in whitelist order
+     */
+    public List<T> findMissing(Collection<T> actual) {
+        boolean[] found = new boolean[expected.size()]; // indexed by first position of each digest
+        for(T entry : actual) {
+            Integer position = positions.get(entry);
+            if( position != null ) {
+                found[position] = true;
+            }
+        }
+        ArrayList<T> missing = new ArrayList<>();
+        for(int i = 0; i < expected.size(); i++) {
+            if( !found[firstPositions[i]] ) {
+                missing.add(expected.get(i));
+            }
+        }
+        return missing;
+    }
+
+    private Result<T> compare(Collection<T> actual, boolean matchLabels) {
+        boolean[] found = new boolean[expected.size()]; // indexed by first position of each digest
+        ArrayList<T> unexpected = new ArrayList<>();
+        for(T entry : actual) {
+            Integer position = positions.get(entry);
+            if( position == null ) {
+                unexpected.add(entry);
+            }
+            else {
+                found[position] = true;
+            }
+        }
+        boolean[] paired = new boolean[expected.size()]; // indexed by position
+        List<Mismatch<T>> mismatched = Collections.emptyList();
+        if( matchLabels && !unexpected.isEmpty() ) {
+            mismatched = new ArrayList<>();
+            ArrayList<T> unpaired = new ArrayList<>();
+            for(T entry : unexpected) {
+                boolean match = false;
+                String label = getLabel(entry);
+                List<Integer> candidates = label == null ? null : labels.get(label.toLowerCase(Locale.ROOT));
+                if( candidates != null ) {
+                    for(Integer position : candidates) {
+                        if( !found[firstPositions[position]] && !paired[position] ) {
+                            paired[position] = true;
+                            mismatched.add(new Mismatch<>(expected.get(position), entry));
+                            match = true;
+                        }
+                    }
+                }
+                if( !match ) {
+                    unpaired.add(entry);
+                }
+            }
+            unexpected = unpaired;
+        }
+        ArrayList<T> missing = new ArrayList<>();
+        for(int i = 0; i < expected.size(); i++) {
+            if( !found[firstPositions[i]] && !paired[i] ) {
+                missing.add(expected.get(i));
+            }
+        }
+        return new Result<>(missing, unexpected, mismatched);
+    }
+}
@@ -14,7 +14,6 @@ import com.intel.mtwilson.policy.RuleResult;
 import com.intel.mtwilson.policy.fault.PcrEventLogContainsUnexpectedEntries;
 import com.intel.mtwilson.policy.fault.PcrEventLogMissing;
 import com.intel.mtwilson.policy.fault.PcrEventLogMissingExpectedEntries;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -35,6 +34,7 @@ import org.slf4j.LoggerFactory;
 public class PcrEventLogEquals extends BaseRule {
     private Logger log = LoggerFactory.getLogger(getClass());
     private PcrEventLog expected;
+    private transient MeasurementLogDiff<Measurement> diff; // index of the expected event log, created when first used
 
     protected PcrEventLogEquals() { } // for desearializing jackson
     
@@ -67,17 +67,15 @@ public class PcrEventLogEquals extends BaseRule {
                 }
                 else {                    
                     // we check that for the PCR defined in the policy, the HostReport's PcrModuleManifest contains the exact set of expected modules
-                    ArrayList<Measurement> hostActualUnexpected = new ArrayList<Measurement>(moduleManifest);
-                    hostActualUnexpected.removeAll(expected.getEventLog()); //  hostActualUnexpected = actual modules - expected modules = only extra modules that shouldn't be there;  comparison is done BY HASH VALUE,  not by name or any "other info"
-                    if( !hostActualUnexpected.isEmpty() ) {
-                        log.debug("PcrEventLogEquals : Host is having #{} additional modules compared to the white list.", hostActualUnexpected.size());
-                        report.fault(new PcrEventLogContainsUnexpectedEntries(expected.getPcrIndex(), hostActualUnexpected));
+                    // comparison is done BY HASH VALUE,  not by name or any "other info"
+                    MeasurementLogDiff.Result<Measurement> result = getDiff().compare(moduleManifest);
+                    if( !result.getUnexpected().isEmpty() ) {
+                        log.debug("PcrEventLogEquals : Host is having #{} additional modules compared to the white list.", result.getUnexpected().size());
+                        report.fault(new PcrEventLogContainsUnexpectedEntries(expected.getPcrIndex(), result.getUnexpected()));
                     }
-                    ArrayList<Measurement> hostActualMissing = new ArrayList<Measurement>(expected.getEventLog());
-                    hostActualMissing.removeAll(moduleManifest); // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't 
-                    if( !hostActualMissing.isEmpty() ) {
-                        log.debug("PcrEventLogEquals : Host is missing #{} modules compared to the white list.", hostActualMissing.size());
-                        report.fault(new PcrEventLogMissingExpectedEntries(expected.getPcrIndex(), new HashSet<Measurement>(hostActualMissing)));
+                    if( !result.getMissing().isEmpty() ) {
+                        log.debug("PcrEventLogEquals : Host is missing #{} modules compared to the white list.", result.getMissing().size());
+                        report.fault(new PcrEventLogMissingExpectedEntries(expected.getPcrIndex(), new HashSet<Measurement>(result.getMissing())));
                     }   
                 }
             }
@@ -85,6 +83,13 @@ public class PcrEventLogEquals extends BaseRule {
         return report;
     }
     
+    private MeasurementLogDiff<Measurement> getDiff() {
+        if( diff == null ) {
+            diff = MeasurementLogDiff.forMeasurements(expected.getEventLog());
+        }
+        return diff;
+    }
+    
     protected PcrEventLog getPcrEventLog(HostReport hostReport) {
         return hostReport.pcrManifest.getPcrEventLog(expected.getPcrIndex());        
     }
@@ -35,6 +35,7 @@ public class PcrEventLogIncludes extends BaseRule {
     private DigestAlgorithm pcrBank;
     private PcrIndex pcrIndex;
     private Set<Measurement> expected;
+    private transient MeasurementLogDiff<Measurement> diff; // index of the expected measurements, created when first used
     
     protected PcrEventLogIncludes() { } // for desearializing jackson
     
@@ -73,10 +74,9 @@ public class PcrEventLogIncludes extends BaseRule {
                     report.fault(new PcrEventLogMissing(pcrIndex));
                 }
                 else {
-                    HashSet<Measurement> hostActualMissing = new HashSet<Measurement>(expected);
-                    hostActualMissing.removeAll(moduleManifest); // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't 
+                    List<Measurement> hostActualMissing = getDiff().findMissing(moduleManifest); // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't 
                     if( !hostActualMissing.isEmpty() ) {
-                        report.fault(new PcrEventLogMissingExpectedEntries(pcrIndex, hostActualMissing));
+                        report.fault(new PcrEventLogMissingExpectedEntries(pcrIndex, new HashSet<Measurement>(hostActualMissing)));
                     }   
                 }
             }
@@ -84,4 +84,11 @@ public class PcrEventLogIncludes extends BaseRule {
         return report;
     }
     
+    private MeasurementLogDiff<Measurement> getDiff() {
+        if( diff == null ) {
+            diff = MeasurementLogDiff.forMeasurements(expected);
+        }
+        return diff;
+    }
+    
 }
@@ -13,7 +13,6 @@ import com.intel.mtwilson.policy.RuleResult;
 import com.intel.mtwilson.policy.fault.VMMeasurementLogValueMismatchEntries;
 import com.intel.mtwilson.policy.fault.VmMeasurementLogContainsUnexpectedEntries;
 import com.intel.mtwilson.policy.fault.VmMeasurementLogMissingExpectedEntries;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import org.slf4j.Logger;
@@ -44,29 +43,22 @@ public class VmMeasurementLogEquals extends BaseRule {
         log.debug("VmMeasurementLogEquals: About to apply the VmMeasurementLogEquals policy");
         RuleResult report = new RuleResult(this);
 
-        ArrayList<VmMeasurement> vmActualUnexpected = new ArrayList<>(actualModules);
-        vmActualUnexpected.removeAll(whitelistModules); 
-
-        ArrayList<VmMeasurement> vmActualMissing = new ArrayList<>(whitelistModules);
-
         log.debug("VmMeasurementLogEquals: About to check VM entries {} against the whitelist which has {} entries.", 
-                actualModules.size(), vmActualMissing.size());
-        log.debug("VmMeasurementLogEquals: Verifying {} against {}", whitelistModules.toString(), actualModules.toString());
-
-        vmActualMissing.removeAll(actualModules);
+                actualModules.size(), whitelistModules.size());
+        MeasurementLogDiff.Result<VmMeasurement> result = MeasurementLogDiff.forVmMeasurements(whitelistModules).compareByLabel(actualModules);
 
-        raiseFaultForModifiedEntries(vmActualUnexpected, vmActualMissing, report);        
+        raiseFaultForModifiedEntries(result.getMismatched(), report);        
                 
-        if( !vmActualUnexpected.isEmpty() ) {
-            log.debug("VmMeasurementLogEquals : VM is having #{} additional modules compared to the white list.", vmActualUnexpected.size());
-            report.fault(new VmMeasurementLogContainsUnexpectedEntries(vmActualUnexpected));
+        if( !result.getUnexpected().isEmpty() ) {
+            log.debug("VmMeasurementLogEquals : VM is having #{} additional modules compared to the white list.", result.getUnexpected().size());
+            report.fault(new VmMeasurementLogContainsUnexpectedEntries(result.getUnexpected()));
         } else {
             log.debug("VmMeasurementLogEquals: VM is not having any additional modules compared to the white list");
         }
 
-        if( !vmActualMissing.isEmpty() ) {
-            log.debug("VmMeasurementLogEquals : Host is missing #{} modules compared to the white list.", vmActualMissing.size());
-            report.fault(new VmMeasurementLogMissingExpectedEntries(new HashSet<>(vmActualMissing)));
+        if( !result.getMissing().isEmpty() ) {
+            log.debug("VmMeasurementLogEquals : Host is missing #{} modules compared to the white list.", result.getMissing().size());
+            report.fault(new VmMeasurementLogMissingExpectedEntries(new HashSet<>(result.getMissing())));
         } else {                       
             log.debug("VmMeasurementLogEquals: Host is not missing any modules compared to the white list");
         }                    
@@ -76,32 +68,22 @@ public class VmMeasurementLogEquals extends BaseRule {
     /**
      * This function raises the faults for the modules that were updated. The faults for missing and new modules would be raised
      * by the calling function.
-     * @param vmActualUnexpected
-     * @param vmActualMissing
+     * @param mismatched
      * @param report 
      */
-    private void raiseFaultForModifiedEntries(ArrayList<VmMeasurement> vmActualUnexpected, ArrayList<VmMeasurement> vmActualMissing, RuleResult report) {
-        ArrayList<VmMeasurement> vmModifiedModules = new ArrayList<>();
-        ArrayList<VmMeasurement> tempVMActualUnexpected = new ArrayList<>(vmActualUnexpected);
-        ArrayList<VmMeasurement> tempVMActualMissing = new ArrayList<>(vmActualMissing);
+    private void raiseFaultForModifiedEntries(List<MeasurementLogDiff.Mismatch<VmMeasurement>> mismatched, RuleResult report) {
+        HashSet<VmMeasurement> vmModifiedModules = new HashSet<>();
         
         try {
-            for (VmMeasurement tempUnexpected : tempVMActualUnexpected) {
-                for (VmMeasurement tempMissing : tempVMActualMissing) {
-                    log.debug("RaiseFaultForModifiedEntries: Comparing module {} with hash {} to module {} with hash {}.", tempUnexpected.getLabel(), 
-                            tempUnexpected.getValue().toString(), tempMissing.getLabel(), tempMissing.getValue().toString());
-                    if (tempUnexpected.getLabel().equalsIgnoreCase(tempMissing.getLabel())) {
-                        log.debug("Adding the entry to the list of modified modules and deleting from the other 2 lists.");
-                        vmModifiedModules.add(tempUnexpected);
-                        vmActualMissing.remove(tempMissing);
-                        vmActualUnexpected.remove(tempUnexpected);
-                    }
-                }
+            for (MeasurementLogDiff.Mismatch<VmMeasurement> mismatch : mismatched) {
+                log.debug("RaiseFaultForModifiedEntries: Module {} has hash {} instead of {}.", mismatch.getExpected().getLabel(), 
+                        mismatch.getActual().getValue().toString(), mismatch.getExpected().getValue().toString());
+                vmModifiedModules.add(mismatch.getActual());
             }                        
                        
             if (!vmModifiedModules.isEmpty()) {
                 log.debug("RaiseFaultForModifiedEntries : Host has updated #{} modules compared to the white list.", vmModifiedModules.size());
-                report.fault(new VMMeasurementLogValueMismatchEntries(new HashSet<>(vmModifiedModules)));                
+                report.fault(new VMMeasurementLogValueMismatchEntries(vmModifiedModules));                
             } else {
                 log.debug("RaiseFaultForModifiedEntries: No updated modules found.");
             }
@@ -18,10 +18,8 @@ import com.intel.mtwilson.policy.fault.XmlMeasurementLogContainsUnexpectedEntrie
 import com.intel.mtwilson.policy.fault.XmlMeasurementLogMissing;
 import com.intel.mtwilson.policy.fault.XmlMeasurementLogMissingExpectedEntries;
 import com.intel.mtwilson.policy.fault.XmlMeasurementLogValueMismatchEntries;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +48,7 @@ public class XmlMeasurementLogEquals extends BaseRule {
     private Logger log = LoggerFactory.getLogger(getClass());
     private XmlMeasurementLog expected;
     private PcrIndex pcrIndex; 
+    private transient MeasurementLogDiff<Measurement> diff; // index of the expected measurements, created when first used
 
     protected XmlMeasurementLogEquals() {
         this.expected = new XmlMeasurementLog(PcrIndex.PCR19);
@@ -83,32 +82,24 @@ public class XmlMeasurementLogEquals extends BaseRule {
                 report.fault(new XmlMeasurementLogMissing());
             }
             else {                    
-                // We will first check if the host provided any additional modules as part of the log
-                // hostActualUnexpected = actual modules - expected modules = only extra modules that shouldn't be there;  
-                // comparison is done BY HASH VALUE,  not by name or any "other info"
-                ArrayList<Measurement> hostActualUnexpected = new ArrayList<>(actualModules);
-                hostActualUnexpected.removeAll(expected.getMeasurements()); 
-
-                ArrayList<Measurement> hostActualMissing = new ArrayList<>(expected.getMeasurements());
-
+                // comparison is done BY HASH VALUE, not by name or any "other info"; an unexpected
+                // and a missing module with the same name are reported as a modified module
                 log.debug("XmlMeasurementLogEquals: About to check host entries {} against the whitelist which has {} entries.", 
-                        actualModules.size(), hostActualMissing.size());
-                log.debug("XmlMeasurementLogEquals: Verifying {} against {}", expected.toString(), actualModules.toString());
+                        actualModules.size(), getDiff().size());
+                MeasurementLogDiff.Result<Measurement> result = getDiff().compareByLabel(actualModules);
 
-                hostActualMissing.removeAll(actualModules); // hostActualMissing = expected modules - actual modules = only modules that should be there but aren't 
-
-                raiseFaultForModifiedEntries(hostActualUnexpected, hostActualMissing, report);
+                raiseFaultForModifiedEntries(result.getMismatched(), report);
                 
-                if( !hostActualUnexpected.isEmpty() ) {
-                    log.debug("XmlMeasurementLogEquals : Host is having #{} additional modules compared to the white list.", hostActualUnexpected.size());
-                    report.fault(new XmlMeasurementLogContainsUnexpectedEntries(expected.getPcrIndex(), hostActualUnexpected));
+                if( !result.getUnexpected().isEmpty() ) {
+                    log.debug("XmlMeasurementLogEquals : Host is having #{} additional modules compared to the white list.", result.getUnexpected().size());
+                    report.fault(new XmlMeasurementLogContainsUnexpectedEntries(expected.getPcrIndex(), result.getUnexpected()));
                 } else {
                     log.debug("XmlMeasurementLogEquals: Host is not having any additional modules compared to the white list");
                 }
                 
-                if( !hostActualMissing.isEmpty() ) {
-                    log.debug("XmlMeasurementLogEquals : Host is missing #{} modules compared to the white list.", hostActualMissing.size());
-                    report.fault(new XmlMeasurementLogMissingExpectedEntries(expected.getPcrIndex(), new HashSet<>(hostActualMissing)));
+                if( !result.getMissing().isEmpty() ) {
+                    log.debug("XmlMeasurementLogEquals : Host is missing #{} modules compared to the white list.", result.getMissing().size());
+                    report.fault(new XmlMeasurementLogMissingExpectedEntries(expected.getPcrIndex(), new HashSet<>(result.getMissing())));
                 } else {                       
                     log.debug("XmlMeasurementLogEquals: Host is not missing any modules compared to the white list");
                 }                    
@@ -117,34 +108,30 @@ public class XmlMeasurementLogEquals extends BaseRule {
         return report;
     }
     
-    private void raiseFaultForModifiedEntries(ArrayList<Measurement> hostActualUnexpected, ArrayList<Measurement> hostActualMissing, RuleResult report) {
-        ArrayList<Measurement> hostModifiedModules = new ArrayList<>();
-        ArrayList<Measurement> tempHostActualUnexpected = new ArrayList<>(hostActualUnexpected);
-        ArrayList<Measurement> tempHostActualMissing = new ArrayList<>(hostActualMissing);
+    private MeasurementLogDiff<Measurement> getDiff() {
+        if( diff == null ) {
+            diff = MeasurementLogDiff.forMeasurements(expected.getMeasurements());
+        }
+        return diff;
+    }
+    
+    private void raiseFaultForModifiedEntries(List<MeasurementLogDiff.Mismatch<Measurement>> mismatched, RuleResult report) {
+        HashSet<Measurement> hostModifiedModules = new HashSet<>();
         
         try {
-            for (Measurement tempUnexpected : tempHostActualUnexpected) {
-                for (Measurement tempMissing : tempHostActualMissing) {
-                    log.debug("RaiseFaultForModifiedEntries: Comparing module {} with hash {} to module {} with hash {}.", tempUnexpected.getLabel(), 
-                            tempUnexpected.getValue().toString(), tempMissing.getLabel(), tempMissing.getValue().toString());
-                    if (tempUnexpected.getLabel().equalsIgnoreCase(tempMissing.getLabel())) {
-                        log.debug("Adding the entry to the list of modified modules and deleting from the other 2 lists.");
-                        
-                        // We are storing the whitelist value and the actual value so that we do not need to compare again when generating the reports.
-                        HashMap<String, String> tempHashMapToAdd = new HashMap<>();
-                        tempHashMapToAdd.put("Actual_Value", tempUnexpected.getValue().toString());
-                        Measurement toMeasurementToAdd = new MeasurementSha1((Sha1Digest)tempMissing.getValue(), tempMissing.getLabel(), tempHashMapToAdd);
-                        
-                        hostModifiedModules.add(toMeasurementToAdd);
-                        hostActualUnexpected.remove(tempUnexpected);
-                        hostActualMissing.remove(tempMissing);
-                    }
-                }
+            for (MeasurementLogDiff.Mismatch<Measurement> mismatch : mismatched) {
+                log.debug("RaiseFaultForModifiedEntries: Module {} has hash {} instead of {}.", mismatch.getExpected().getLabel(), 
+                        mismatch.getActual().getValue().toString(), mismatch.getExpected().getValue().toString());
+                // We are storing the whitelist value and the actual value so that we do not need to compare again when generating the reports.
+                HashMap<String, String> tempHashMapToAdd = new HashMap<>();
+                tempHashMapToAdd.put("Actual_Value", mismatch.getActual().getValue().toString());
+                Measurement toMeasurementToAdd = new MeasurementSha1((Sha1Digest)mismatch.getExpected().getValue(), mismatch.getExpected().getLabel(), tempHashMapToAdd);
+                hostModifiedModules.add(toMeasurementToAdd);
             }                        
             
             if (!hostModifiedModules.isEmpty()) {
                 log.debug("XmlMeasurementLogEquals : Host has updated #{} modules compared to the white list.", hostModifiedModules.size());
-                report.fault(new XmlMeasurementLogValueMismatchEntries(expected.getPcrIndex(), new HashSet<>(hostModifiedModules)));                
+                report.fault(new XmlMeasurementLogValueMismatchEntries(expected.getPcrIndex(), hostModifiedModules));                
             } else {
                 log.debug("RaiseFaultForModifiedEntries: No updated modules found.");
             }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package test.policy;
+
+import com.intel.mtwilson.policy.rule.MeasurementLogDiff;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MeasurementLogDiffTest {
+
+    /**
+     * Like Measurement, equal when the digests are equal.
+     */
+    public static class Entry {
+        private final String digest;
+        private final String label;
+
+        public Entry(String digest, String label) {
+            this.digest = digest;
+            this.label = label;
+        }
+
+        @Override
+        public int hashCode() {
+            return digest.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Entry && ((Entry)obj).digest.equals(digest);
+        }
+
+        @Override
+        public String toString() {
+            return digest + " " + label;
+        }
+    }
+
+    public static class EntryDiff extends MeasurementLogDiff<Entry> {
+        public EntryDiff(Collection<Entry> expected) {
+            super(expected);
+        }
+
+        @Override
+        protected String getLabel(Entry entry) {
+            return entry.label;
+        }
+    }
+
+    private final Entry a = new Entry("aa", "/boot/a");
+    private final Entry b = new Entry("bb", "/boot/b");
+    private final Entry c = new Entry("cc", "/boot/c");
+    private final Entry bModified = new Entry("b2", "/BOOT/B");
+    private final Entry d = new Entry("dd", "/boot/d");
+
+    @Test
+    public void testEqual() {
+        EntryDiff diff = new EntryDiff(Arrays.asList(a, b, c));
+        MeasurementLogDiff.Result<Entry> result = diff.compareByLabel(Arrays.asList(c, new Entry("aa", "renamed"), b));
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void testMissingAndUnexpected() {
+        EntryDiff diff = new EntryDiff(Arrays.asList(a, b, c));
+        MeasurementLogDiff.Result<Entry> result = diff.compare(Arrays.asList(a, bModified, d));
+        assertEquals(Arrays.asList(b, c), result.getMissing());
+        assertEquals(Arrays.asList(bModified, d), result.getUnexpected());
+        assertTrue(result.getMismatched().isEmpty());
+        assertEquals(Arrays.asList(b, c), diff.findMissing(Arrays.asList(a, bModified, d)));
+    }
+
+    @Test
+    public void testMismatchByLabel() {
+        EntryDiff diff = new EntryDiff(Arrays.asList(a, b, c));
+        MeasurementLogDiff.Result<Entry> result = diff.compareByLabel(Arrays.asList(a, bModified, d));
+        assertEquals(Arrays.asList(c), result.getMissing());
+        assertEquals(Arrays.asList(d), result.getUnexpected());
+        assertEquals(1, result.getMismatched().size());
+        assertSame(b, result.getMismatched().get(0).getExpected());
+        assertSame(bModified, result.getMismatched().get(0).getActual());
+    }
+
+    @Test
+    public void testDuplicateDigests() {
+        Entry a2 = new Entry("aa", "/boot/a-copy");
+        EntryDiff diff = new EntryDiff(Arrays.asList(a, a2, b));
+        // both expected entries with the digest are found by one actual entry, as with removeAll
+        assertEquals(Arrays.asList(b), diff.compare(Arrays.asList(a)).getMissing());
+        assertEquals(Arrays.asList(a, a2), diff.compare(Arrays.asList(b)).getMissing());
+    }
+
+    @Test
+    public void testReusedForManyComparisons() {
+        ArrayList<Entry> expected = new ArrayList<>();
+        ArrayList<Entry> actual = new ArrayList<>();
+        for(int i = 0; i < 20000; i++) {
+            expected.add(new Entry("e" + i, "/file/" + i));
+            actual.add(new Entry(i % 100 == 0 ? "x" + i : "e" + i, "/file/" + i));
+        }
+        EntryDiff diff = new EntryDiff(expected);
+        for(int n = 0; n < 10; n++) {
+            MeasurementLogDiff.Result<Entry> result = diff.compareByLabel(actual);
+            assertEquals(200, result.getMismatched().size());
+            assertTrue(result.getMissing().isEmpty());
+            assertTrue(result.getUnexpected().isEmpty());
+        }
+        List<Entry> missing = diff.findMissing(actual);
+        assertEquals(200, missing.size());
+    }
+}
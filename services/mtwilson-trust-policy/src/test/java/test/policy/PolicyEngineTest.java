@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package test.policy;
+
+import com.intel.mtwilson.policy.BaseRule;
+import com.intel.mtwilson.policy.HostReport;
+import com.intel.mtwilson.policy.Policy;
+import com.intel.mtwilson.policy.PolicyEngine;
+import com.intel.mtwilson.policy.RuleResult;
+import com.intel.mtwilson.policy.TrustReport;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PolicyEngineTest {
+
+    public static class TestRule extends BaseRule {
+        private final boolean trusted;
+        private final AtomicInteger applied;
+
+        public TestRule(boolean trusted, AtomicInteger applied, String... markers) {
+            this.trusted = trusted;
+            this.applied = applied;
+            setMarkers(markers);
+        }
+
+        @Override
+        public RuleResult apply(HostReport hostReport) {
+            applied.incrementAndGet();
+            RuleResult report = new RuleResult(this);
+            if( !trusted ) {
+                report.fault("untrusted");
+            }
+            return report;
+        }
+    }
+
+    private Policy createPolicy(AtomicInteger applied) {
+        return new Policy("test",
+                new TestRule(true, applied, "BIOS"),
+                new TestRule(false, applied, "BIOS"),
+                new TestRule(false, applied, "BIOS"),
+                new TestRule(true, applied, "VMM"),
+                new TestRule(true, applied, "VMM"));
+    }
+
+    @Test
+    public void testSequential() {
+        AtomicInteger applied = new AtomicInteger(0);
+        TrustReport report = new PolicyEngine().apply(new HostReport(), createPolicy(applied));
+        assertEquals(5, applied.get());
+        assertEquals(5, report.getResults().size());
+        assertFalse(report.isTrustedForMarker("BIOS"));
+        assertTrue(report.isTrustedForMarker("VMM"));
+    }
+
+    @Test
+    public void testParallel() {
+        AtomicInteger applied = new AtomicInteger(0);
+        TrustReport report = new PolicyEngine(true, false).apply(new HostReport(), createPolicy(applied));
+        assertEquals(5, applied.get());
+        assertEquals(5, report.getResults().size());
+        assertFalse(report.isTrustedForMarker("BIOS"));
+        assertTrue(report.isTrustedForMarker("VMM"));
+        for(RuleResult result : report.getResults()) {
+            assertTrue(result.getElapsedNanos() >= 0);
+        }
+    }
+
+    @Test
+    public void testVerdictOnly() {
+        AtomicInteger applied = new AtomicInteger(0);
+        TrustReport report = new PolicyEngine(false, true).apply(new HostReport(), createPolicy(applied));
+        assertTrue(applied.get() < 5);
+        assertFalse(report.isTrustedForMarker("BIOS"));
+        assertTrue(report.isTrustedForMarker("VMM"));
+        assertFalse(report.isTrusted());
+    }
+
+    @Test
+    public void testParallelVerdictOnly() {
+        AtomicInteger applied = new AtomicInteger(0);
+        TrustReport report = new PolicyEngine(true, true).apply(new HostReport(), createPolicy(applied));
+        assertFalse(report.isTrustedForMarker("BIOS"));
+        assertTrue(report.isTrustedForMarker("VMM"));
+    }
+}
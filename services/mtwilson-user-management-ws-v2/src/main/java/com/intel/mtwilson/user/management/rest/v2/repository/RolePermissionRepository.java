@@ -14,6 +14,7 @@ import com.intel.mtwilson.repository.RepositoryCreateException;
 import com.intel.mtwilson.repository.RepositoryDeleteException;
 import com.intel.mtwilson.repository.RepositoryException;
 import com.intel.mtwilson.repository.RepositorySearchException;
+import com.intel.mtwilson.shiro.jdbi.LoginCache;
 import com.intel.mtwilson.shiro.jdbi.LoginDAO;
 import com.intel.mtwilson.shiro.jdbi.MyJdbi;
 import java.util.List;
@@ -115,6 +116,8 @@ public class RolePermissionRepository implements DocumentRepository<RolePermissi
         } catch (Exception ex) {
             log.error("Error during role permission creation.", ex);
             throw new RepositoryCreateException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
 
@@ -138,6 +141,8 @@ public class RolePermissionRepository implements DocumentRepository<RolePermissi
         } catch (Exception ex) {
             log.error("Error during role permission deletion.", ex);
             throw new RepositoryDeleteException(ex);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
     
@@ -19,6 +19,7 @@ import com.intel.mtwilson.repository.RepositorySearchException;
 import com.intel.mtwilson.repository.RepositoryStoreConflictException;
 import com.intel.mtwilson.repository.RepositoryStoreException;
 import com.intel.mtwilson.user.management.rest.v2.model.RolePermissionFilterCriteria;
+import com.intel.mtwilson.shiro.jdbi.LoginCache;
 import com.intel.mtwilson.shiro.jdbi.LoginDAO;
 import com.intel.mtwilson.shiro.jdbi.MyJdbi;
 import java.util.List;
@@ -115,6 +116,8 @@ public class RoleRepository implements DocumentRepository<Role, RoleCollection,
         } catch (Exception ex) {
             log.error("Error during role update.", ex);
             throw new RepositoryStoreException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
         
     }
@@ -143,6 +146,8 @@ public class RoleRepository implements DocumentRepository<Role, RoleCollection,
         } catch (Exception ex) {
             log.error("Error during role creation.", ex);
             throw new RepositoryCreateException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
 
@@ -178,6 +183,8 @@ public class RoleRepository implements DocumentRepository<Role, RoleCollection,
         } catch (Exception ex) {
             log.error("Error during role deletion.", ex);
             throw new RepositoryDeleteException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
     
@@ -26,6 +26,7 @@ import com.intel.mtwilson.user.management.rest.v2.model.Status;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginCertificateRole;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginCertificateRoleCollection;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginCertificateRoleFilterCriteria;
+import com.intel.mtwilson.shiro.jdbi.LoginCache;
 import com.intel.mtwilson.shiro.jdbi.LoginDAO;
 import com.intel.mtwilson.shiro.jdbi.MyJdbi;
 import java.util.ArrayList;
@@ -164,6 +165,8 @@ public class UserLoginCertificateRepository implements DocumentRepository<UserLo
         } catch (Exception ex) {
             log.error("Error during user update.", ex);
             throw new RepositoryStoreException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
         
     }
@@ -203,6 +206,8 @@ public class UserLoginCertificateRepository implements DocumentRepository<UserLo
         } catch (Exception ex) {
             log.error("Error during user login certificate creation.", ex);
             throw new RepositoryCreateException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
 
@@ -229,6 +234,8 @@ public class UserLoginCertificateRepository implements DocumentRepository<UserLo
         } catch (Exception ex) {
             log.error("Error during user deletion.", ex);
             throw new RepositoryDeleteException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
     
@@ -13,6 +13,7 @@ import com.intel.mtwilson.repository.RepositoryCreateException;
 import com.intel.mtwilson.repository.RepositoryDeleteException;
 import com.intel.mtwilson.repository.RepositoryException;
 import com.intel.mtwilson.repository.RepositorySearchException;
+import com.intel.mtwilson.shiro.jdbi.LoginCache;
 import com.intel.mtwilson.shiro.jdbi.LoginDAO;
 import com.intel.mtwilson.shiro.jdbi.MyJdbi;
 import java.util.List;
@@ -101,6 +102,8 @@ public class UserLoginCertificateRoleRepository implements DocumentRepository<Us
         } catch (Exception ex) {
             log.error("Error during User login certificate role creation.", ex);
             throw new RepositoryCreateException(ex);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
 
@@ -130,6 +133,8 @@ public class UserLoginCertificateRoleRepository implements DocumentRepository<Us
         } catch (Exception ex) {
             log.error("Error during user login certificate role deletion.", ex);
             throw new RepositoryDeleteException(ex);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
     
@@ -23,6 +23,7 @@ import com.intel.mtwilson.user.management.rest.v2.model.RoleLocator;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginPasswordRole;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginPasswordRoleCollection;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginPasswordRoleFilterCriteria;
+import com.intel.mtwilson.shiro.jdbi.LoginCache;
 import com.intel.mtwilson.shiro.jdbi.LoginDAO;
 import com.intel.mtwilson.shiro.jdbi.MyJdbi;
 import com.intel.mtwilson.user.management.rest.v2.model.Status;
@@ -160,6 +161,8 @@ public class UserLoginPasswordRepository implements DocumentRepository<UserLogin
         } catch (Exception ex) {
             log.error("Error during user login password update.", ex);
             throw new RepositoryStoreException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
         
     }
@@ -197,6 +200,8 @@ public class UserLoginPasswordRepository implements DocumentRepository<UserLogin
         } catch (Exception ex) {
             log.error("Error during user login password creation.", ex);
             throw new RepositoryCreateException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
 
@@ -223,6 +228,8 @@ public class UserLoginPasswordRepository implements DocumentRepository<UserLogin
         } catch (Exception ex) {
             log.error("Error during user login password deletion.", ex);
             throw new RepositoryDeleteException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
     
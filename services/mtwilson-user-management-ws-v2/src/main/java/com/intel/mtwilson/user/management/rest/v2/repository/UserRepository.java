@@ -18,6 +18,7 @@ import com.intel.mtwilson.repository.RepositoryRetrieveException;
 import com.intel.mtwilson.repository.RepositorySearchException;
 import com.intel.mtwilson.repository.RepositoryStoreConflictException;
 import com.intel.mtwilson.repository.RepositoryStoreException;
+import com.intel.mtwilson.shiro.jdbi.LoginCache;
 import com.intel.mtwilson.shiro.jdbi.LoginDAO;
 import com.intel.mtwilson.shiro.jdbi.MyJdbi;
 import com.intel.mtwilson.user.management.rest.v2.model.UserLoginCertificateFilterCriteria;
@@ -115,6 +116,8 @@ public class UserRepository implements DocumentRepository<User, UserCollection,
         } catch (Exception ex) {
             log.error("User:Store - Error during user update.", ex);
             throw new RepositoryStoreException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
         
     }
@@ -145,6 +148,8 @@ public class UserRepository implements DocumentRepository<User, UserCollection,
         } catch (Exception ex) {
             log.error("User:Create - Error during user creation.", ex);
             throw new RepositoryCreateException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
 
@@ -177,6 +182,8 @@ public class UserRepository implements DocumentRepository<User, UserCollection,
         } catch (Exception ex) {
             log.error("User:Delete - Error during user deletion.", ex);
             throw new RepositoryDeleteException(ex, locator);
+        } finally {
+            LoginCache.getInstance().clear();
         }
     }
     
@@ -211,6 +211,7 @@ public class MleBO {
             throw new ASException(ErrorCode.WS_MLE_UPDATE_ERROR, e.getClass().getSimpleName());
         }
 
+        WhitelistVersion.whitelistChanged();
         return "true";
     }
 
@@ -285,6 +286,7 @@ public class MleBO {
             throw new ASException(ErrorCode.WS_MLE_DELETE_ERROR, e.getClass().getSimpleName());
         }
 
+        WhitelistVersion.whitelistChanged();
         return "true";
     }
 
@@ -780,6 +782,7 @@ public class MleBO {
             log.error("Error during PCR whitelist creation.", e);
             throw new ASException(ErrorCode.WS_PCR_WHITELIST_CREATE_ERROR, e.getClass().getSimpleName());
         }
+        WhitelistVersion.whitelistChanged();
         return "true";
     }   
     
@@ -852,6 +855,7 @@ public class MleBO {
             log.error("Error during PCR whitelist update.", e);
             throw new ASException(ErrorCode.WS_PCR_WHITELIST_UPDATE_ERROR, e.getClass().getSimpleName());
         }
+        WhitelistVersion.whitelistChanged();
         return "true";
     }
 
@@ -919,6 +923,7 @@ public class MleBO {
             log.error("Error during PCR whitelist deletion.", e);
             throw new ASException(ErrorCode.WS_PCR_WHITELIST_DELETE_ERROR, e.getClass().getSimpleName());
         }
+        WhitelistVersion.whitelistChanged();
         return "true";
     }
 
@@ -1075,6 +1080,7 @@ public class MleBO {
             log.error("Error during Module whitelist creation.", e);
             throw new ASException(ErrorCode.WS_MODULE_WHITELIST_CREATE_ERROR, e.getClass().getSimpleName());
         }
+        WhitelistVersion.whitelistChanged();
         return "true";
     }
 
@@ -1182,6 +1188,7 @@ public class MleBO {
             throw new ASException(ErrorCode.WS_MODULE_WHITELIST_UPDATE_ERROR, e.getClass().getSimpleName());
         }
 
+        WhitelistVersion.whitelistChanged();
         return "true";
     }
 
@@ -1269,6 +1276,7 @@ public class MleBO {
             throw new ASException(ErrorCode.WS_MODULE_WHITELIST_DELETE_ERROR, e.getClass().getSimpleName());
         }
 
+        WhitelistVersion.whitelistChanged();
         return "true";
     }
 
@@ -13,7 +13,15 @@ import com.intel.mtwilson.trustagent.model.VMAttestationResponse;
 import com.intel.mtwilson.trustagent.model.*;
 import java.security.cert.X509Certificate;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.core.MediaType;
 import org.apache.commons.lang.StringUtils;
 
@@ -23,10 +31,44 @@ import org.apache.commons.lang.StringUtils;
  */
 public class TrustAgentClient extends MtWilsonClient {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TrustAgentClient.class);
+    /**
+     * The async methods run the blocking calls on this pool, which is shared
+     * by all clients. The JAX-RS async invoker of Jersey 2.4 would start a
+     * pool for every client, and there is one client for every trust agent.
+     * Calls beyond the pool size wait in its queue without holding a thread.
+     * The HTTP connector is still blocking, so this bounds the number of
+     * concurrent async calls, not the number of calls in flight.
+     */
+    private static final int ASYNC_THREADS = 16;
+    private static final ThreadPoolExecutor asyncExecutor = createAsyncExecutor();
     
     public TrustAgentClient(Properties properties, TlsConnection tlsConnection) throws Exception {
         super(properties, tlsConnection);
     }
+
+    // idle threads exit so they do not outlive an undeployed application
+    private static ThreadPoolExecutor createAsyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "trust-agent-client-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Closes the JAX-RS client and releases its connections. The client
+     * cannot be used after it is closed.
+     */
+    public void close() {
+        getClient().close();
+    }
     
      /**
      * Retrieves the Attestation Identity Key (AIK) certificate for the host. The required content type can also be specified
@@ -70,6 +112,23 @@ public class TrustAgentClient extends MtWilsonClient {
         return aik;
     }
 
+    /**
+     * Same as getAik but returns immediately. The callback is called on a
+     * thread of the shared async pool when the response arrives, so it should
+     * not block.
+     *
+     * @param callback
+     * @return a future for the AIK certificate
+     */
+    public Future<X509Certificate> getAikAsync(InvocationCallback<X509Certificate> callback) {
+        return submit(new Callable<X509Certificate>() {
+            @Override
+            public X509Certificate call() {
+                return getAik();
+            }
+        }, callback);
+    }
+
      /**
      * Retrieves the CA certificate that signed the Attestation Identity Key (AIK) certificate for the host. 
      * @return AIK CA x509 certificate
@@ -133,6 +192,20 @@ public class TrustAgentClient extends MtWilsonClient {
                 .get(HostInfo.class);
         return hostInfo;
     }
+
+    /**
+     * Same as getHostInfo but returns immediately.
+     * @param callback
+     * @return a future for the host info
+     */
+    public Future<HostInfo> getHostInfoAsync(InvocationCallback<HostInfo> callback) {
+        return submit(new Callable<HostInfo>() {
+            @Override
+            public HostInfo call() {
+                return getHostInfo();
+            }
+        }, callback);
+    }
     
     
      /**
@@ -263,6 +336,23 @@ public class TrustAgentClient extends MtWilsonClient {
         return tpmQuoteResponse;
     }
 
+    /**
+     * Same as getTpmQuote(nonce, pcrs, pcrBank) but returns immediately.
+     * @param nonce
+     * @param pcrs
+     * @param pcrBank
+     * @param callback
+     * @return a future for the quote
+     */
+    public Future<TpmQuoteResponse> getTpmQuoteAsync(final byte[] nonce, final int[] pcrs, final String pcrBank, InvocationCallback<TpmQuoteResponse> callback) {
+        return submit(new Callable<TpmQuoteResponse>() {
+            @Override
+            public TpmQuoteResponse call() {
+                return getTpmQuote(nonce, pcrs, pcrBank);
+            }
+        }, callback);
+    }
+
     public X509Certificate getBindingKeyCertificate() {
         log.debug("target: {}", getTarget().getUri().toString());
         X509Certificate aik = getTarget()
@@ -309,4 +399,43 @@ public class TrustAgentClient extends MtWilsonClient {
                 
         return vmQuoteResponse;
     }
+
+    /**
+     * Same as getVMAttestationReport but returns immediately.
+     * @param obj
+     * @param callback
+     * @return a future for the VM attestation report
+     */
+    public Future<VMQuoteResponse> getVMAttestationReportAsync(final VMAttestationRequest obj, InvocationCallback<VMQuoteResponse> callback) {
+        return submit(new Callable<VMQuoteResponse>() {
+            @Override
+            public VMQuoteResponse call() {
+                return getVMAttestationReport(obj);
+            }
+        }, callback);
+    }
+
+    /**
+     * Runs the call on the shared pool and then passes its result or its
+     * exception to the callback. A call that is cancelled while it waits in
+     * the queue is not made; the blocking connector does not stop a call
+     * that already started.
+     */
+    private static <T> Future<T> submit(final Callable<T> call, final InvocationCallback<T> callback) {
+        return asyncExecutor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                T response;
+                try {
+                    response = call.call();
+                }
+                catch(Exception e) {
+                    callback.failed(e);
+                    throw e;
+                }
+                callback.completed(response);
+                return response;
+            }
+        });
+    }
 }
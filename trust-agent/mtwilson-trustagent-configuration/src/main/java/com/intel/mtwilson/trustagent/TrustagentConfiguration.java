@@ -19,10 +19,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.codec.DecoderException;
@@ -71,7 +75,18 @@ public class TrustagentConfiguration {
     public static final String TRUSTAGENT_ADMIN_USERNAME = "trustagent.admin.username";
     public final static String JETTY_THREAD_MIN = "jetty.thread.min";
     public final static String JETTY_THREAD_MAX = "jetty.thread.max";
+    public final static String TPM_QUEUE_SIZE = "tpm.queue.size"; // default 32, requests waiting for the TPM beyond this are rejected
                
+    private static final long MTIME_RESOLUTION_MILLIS = 2000;
+    private static final Object cacheLock = new Object();
+    private static TrustagentConfiguration cached = null;
+    private static File cachedFile = null;
+    private static String cachedSha256 = null;
+    private static long cachedLastModified = 0;
+    private static long cachedLength = -1;
+    private static long cachedReadTime = 0;
+    private static final AtomicLong reloadCount = new AtomicLong(0);
+    
     private Configuration conf;
 
     public Configuration getConf() {
@@ -139,6 +154,9 @@ public class TrustagentConfiguration {
     public String getJettyThreadMax() {
         return conf.get(JETTY_THREAD_MAX, "0");
     }     
+    public int getTpmQueueSize() {
+        return Integer.parseInt(conf.get(TPM_QUEUE_SIZE, "32"));
+    }
     public byte[] getTpmOwnerSecret() {
         try {
             return Hex.decodeHex(getTpmOwnerSecretHex().toCharArray());
@@ -354,26 +372,83 @@ public class TrustagentConfiguration {
     }
     
     
+    /**
+     * Returns the configuration in trustagent.properties. The file is parsed,
+     * and decrypted if it is encrypted, only when it changes: if its
+     * modification time and size are the same as when it was last read the
+     * previous configuration is returned, and if they are different but the
+     * content has the same SHA-256 digest it is not parsed again.
+     * 
+     * The returned configuration is shared by all callers and must not be
+     * modified. The number of times the file was parsed is logged by
+     * TrustagentMetrics.
+     * 
+     * @return the current configuration
+     * @throws IOException 
+     */
     public static TrustagentConfiguration loadConfiguration() throws IOException {
-        File file = new File(Folders.configuration() + File.separator + "trustagent.properties");
-        if( file.exists() ) {
-            try(FileInputStream in = new FileInputStream(file)) {
-                String content = IOUtils.toString(in);
-                if (Pem.isPem(content)) {
-                    String password = Environment.get(PASSWORD);
-                    Configuration configuration = new EncryptedConfigurationProvider(new FileResource(file), password).load();
-                    return new TrustagentConfiguration(configuration);
-                }
-                Properties properties = new Properties();
-                //should not use properties.load(in) here since the line String content = IOUtils.toString(in) above already move the inputstream to the end of stream
-                properties.load(new StringReader(content));
-                TrustagentConfiguration configuration = new TrustagentConfiguration(new PropertiesConfiguration(properties));
+        return loadConfiguration(new File(Folders.configuration() + File.separator + "trustagent.properties"));
+    }
+    
+    static TrustagentConfiguration loadConfiguration(File file) throws IOException {
+        synchronized(cacheLock) {
+            if( !file.exists() ) {
+                cached = null;
+                TrustagentConfiguration configuration = new TrustagentConfiguration(new PropertiesConfiguration());
                 return configuration;
             }
+            long lastModified = file.lastModified();
+            long length = file.length();
+            // a change within the resolution of the modification time after the file was read would not be noticed, so check the content until the file is older than that
+            if( cached != null && file.equals(cachedFile) && lastModified == cachedLastModified && length == cachedLength && lastModified < cachedReadTime - MTIME_RESOLUTION_MILLIS ) {
+                return cached;
+            }
+            long readTime = System.currentTimeMillis();
+            String content;
+            try(FileInputStream in = new FileInputStream(file)) {
+                content = IOUtils.toString(in);
+            }
+            String sha256 = sha256Hex(content);
+            if( cached == null || !file.equals(cachedFile) || !sha256.equals(cachedSha256) ) {
+                cached = parseConfiguration(file, content);
+                cachedFile = file;
+                cachedSha256 = sha256;
+                long count = reloadCount.incrementAndGet();
+                log.debug("Loaded trustagent.properties, reload count {}", count);
+            }
+            cachedLastModified = lastModified;
+            cachedLength = length;
+            cachedReadTime = readTime;
+            return cached;
+        }
+    }
+    
+    /**
+     * @return number of times trustagent.properties was parsed because it was new or changed
+     */
+    public static long getReloadCount() {
+        return reloadCount.get();
+    }
+    
+    private static TrustagentConfiguration parseConfiguration(File file, String content) throws IOException {
+        if (Pem.isPem(content)) {
+            String password = Environment.get(PASSWORD);
+            Configuration configuration = new EncryptedConfigurationProvider(new FileResource(file), password).load();
+            return new TrustagentConfiguration(configuration);
+        }
+        Properties properties = new Properties();
+        //should not use properties.load(in) here since the line String content = IOUtils.toString(in) above already move the inputstream to the end of stream
+        properties.load(new StringReader(content));
+        TrustagentConfiguration configuration = new TrustagentConfiguration(new PropertiesConfiguration(properties));
+        return configuration;
+    }
+    
+    private static String sha256Hex(String content) {
+        try {
+            return Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(content.getBytes(Charset.forName("UTF-8"))));
         }
-        else {
-            TrustagentConfiguration configuration = new TrustagentConfiguration(new PropertiesConfiguration());
-            return configuration;
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
     }
     
@@ -4,8 +4,12 @@
  */
 package com.intel.mtwilson.trustagent;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.SocketException;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.*;
 import org.junit.Test;
 
 /**
@@ -33,4 +37,55 @@ public class TrustagentConfigurationTest {
         long end = System.currentTimeMillis();
         log.debug("time={}ms",(end-start));
     }
+    
+    private File writeProperties(File file, String content, long lastModified) throws IOException {
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        file.setLastModified(lastModified);
+        return file;
+    }
+    
+    @Test
+    public void testLoadConfigurationCache() throws IOException {
+        File file = File.createTempFile("trustagent", ".properties");
+        try {
+            // unchanged file, older than the mtime resolution
+            long old = System.currentTimeMillis() - 60000;
+            writeProperties(file, "tpm.queue.size=16\n", old);
+            long reloads = TrustagentConfiguration.getReloadCount();
+            TrustagentConfiguration first = TrustagentConfiguration.loadConfiguration(file);
+            assertEquals(16, first.getTpmQueueSize());
+            assertSame(first, TrustagentConfiguration.loadConfiguration(file));
+            assertEquals(reloads + 1, TrustagentConfiguration.getReloadCount());
+            // same content written again is not parsed again
+            writeProperties(file, "tpm.queue.size=16\n", old + 10000);
+            assertSame(first, TrustagentConfiguration.loadConfiguration(file));
+            assertEquals(reloads + 1, TrustagentConfiguration.getReloadCount());
+            // content change with a new size
+            writeProperties(file, "tpm.queue.size=64\n", old + 20000);
+            assertEquals(64, TrustagentConfiguration.loadConfiguration(file).getTpmQueueSize());
+            assertEquals(reloads + 2, TrustagentConfiguration.getReloadCount());
+        }
+        finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testLoadConfigurationSameSizeRewrite() throws IOException {
+        File file = File.createTempFile("trustagent", ".properties");
+        try {
+            // written just before it is read, so another write could follow within the mtime resolution
+            long recent = System.currentTimeMillis();
+            writeProperties(file, "tpm.queue.size=16\n", recent);
+            long reloads = TrustagentConfiguration.getReloadCount();
+            assertEquals(16, TrustagentConfiguration.loadConfiguration(file).getTpmQueueSize());
+            // same size and modification time, different content
+            writeProperties(file, "tpm.queue.size=48\n", recent);
+            assertEquals(48, TrustagentConfiguration.loadConfiguration(file).getTpmQueueSize());
+            assertEquals(reloads + 2, TrustagentConfiguration.getReloadCount());
+        }
+        finally {
+            file.delete();
+        }
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mountwilson.trustagent.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Keeps one value that only changes when the host reboots, such as the
+ * module manifest or the host information, so the commands that produce it
+ * do not run for every request.
+ *
+ * The value is loaded again when the boot id changes or when the key part
+ * given by the caller changes, for example because a file the value is
+ * read from was replaced. A failed load is not kept, so the next request
+ * tries again.
+ *
+ * @param <T> the cached value
+ */
+public class BootScopedCache<T> {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BootScopedCache.class);
+    public static final File BOOT_ID_FILE = new File("/proc/sys/kernel/random/boot_id");
+
+    private final String name;
+    private final File bootIdFile;
+    private String key = null;
+    private T value = null;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong loads = new AtomicLong(0);
+    private final AtomicLong loadNanos = new AtomicLong(0);
+
+    /**
+     * Creates the value when it is not cached or has changed.
+     *
+     * @param <T> the value
+     * @param <E> the checked exception thrown when the value cannot be created
+     */
+    public static interface Loader<T, E extends Exception> {
+        T load() throws E;
+    }
+
+    /**
+     * @param name of the value, for the log
+     * @param bootIdFile file with an id that changes on every boot
+     */
+    public BootScopedCache(String name, File bootIdFile) {
+        this.name = name;
+        this.bootIdFile = bootIdFile;
+    }
+
+    /**
+     * @param <E>
+     * @param keyPart what else the value depends on besides the boot; the value is loaded again when it changes
+     * @param loader creates the value if it is not cached
+     * @return the value
+     * @throws E if the value is not cached and cannot be created
+     */
+    public synchronized <E extends Exception> T get(String keyPart, Loader<T, E> loader) throws E {
+        // the key is computed before loading so that a change during loading causes another load next time
+        String current = getBootId() + "|" + keyPart;
+        if( value != null && current.equals(key) ) {
+            hits.incrementAndGet();
+            return value;
+        }
+        long started = System.nanoTime();
+        T loaded = loader.load();
+        long elapsed = System.nanoTime() - started;
+        loads.incrementAndGet();
+        loadNanos.addAndGet(elapsed);
+        log.debug("Loaded {} in {} ms", name, elapsed / 1000000);
+        key = current;
+        value = loaded;
+        return value;
+    }
+
+    public synchronized void clear() {
+        key = null;
+        value = null;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * @return total time spent loading the value, in nanoseconds
+     */
+    public long getLoadNanos() {
+        return loadNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        long l = getLoads();
+        return String.format("hits=%d loads=%d average load=%dms", getHits(), l, l == 0 ? 0 : getLoadNanos() / l / 1000000);
+    }
+
+    private String getBootId() {
+        try {
+            return FileUtils.readFileToString(bootIdFile, "UTF-8").trim();
+        }
+        catch(IOException e) {
+            log.debug("Cannot read {}: {}", bootIdFile.getPath(), e.getMessage());
+            return "";
+        }
+    }
+}
@@ -40,7 +40,19 @@ public class GenerateModulesCmd implements ICommand {
     @Override
     public void execute() throws TAException {
         try {
-            getXmlFromMeasureLog();
+            final File measureLogXmlFile = context.getMeasureLogXmlFile();
+            String moduleInfo = ModuleManifestCache.getInstance().getModules(measureLogXmlFile, new BootScopedCache.Loader<String,TAException>() {
+                @Override
+                public String load() throws TAException {
+                    try {
+                        return getXmlFromMeasureLog(measureLogXmlFile);
+                    }
+                    catch(IOException e) {
+                        throw new TAException(ErrorCode.ERROR, "Cannot read the measure log", e);
+                    }
+                }
+            });
+            context.setModules(moduleInfo);
 
         } catch (Exception ex) {
             throw new TAException(ErrorCode.ERROR, "Error while getting Module details.", ex);
@@ -49,14 +61,20 @@ public class GenerateModulesCmd implements ICommand {
     }
 
     /**
-     * calls OAT script prepares XML from measureLog
+     * Reads the measure log saved by the OAT script, or calls the script to
+     * prepare XML from measureLog if it has not been saved yet
      *
      * @author skaja
      */
-    private void getXmlFromMeasureLog() throws TAException, IOException {
+    private String getXmlFromMeasureLog(File measureLogXmlFile) throws TAException, IOException {
+        // the script only copies the saved measure log when it exists, so read it directly
+        if( measureLogXmlFile.exists() && measureLogXmlFile.length() > 0 ) {
+            log.debug("Reading saved measure log {}", measureLogXmlFile.getAbsolutePath());
+            return getModulesFromMeasureLogXml(FileUtils.readFileToString(measureLogXmlFile));
+        }
         log.debug("About to run the command: " + context.getMeasureLogLaunchScript());
         long startTime = System.currentTimeMillis();
-        String outputPath = String.format("%s.%s", context.getMeasureLogXmlFile().getAbsolutePath(), RandomUtil.randomHexString(16));
+        String outputPath = String.format("%s.%s", measureLogXmlFile.getAbsolutePath(), RandomUtil.randomHexString(16));
         log.info("Module output file: {}", String.format("OUTFILE=%s", outputPath));
         Map<String, String> variables = new HashMap<>();
         variables.put("OUTFILE", EscapeUtil.doubleQuoteEscapeShellArgument(outputPath));
@@ -76,8 +94,8 @@ public class GenerateModulesCmd implements ICommand {
         String content = FileUtils.readFileToString(outputFile);
         log.debug("Content of the XML file before getting modules: " + content);
         
-        getModulesFromMeasureLogXml(content);
         outputFile.delete();
+        return getModulesFromMeasureLogXml(content);
         }
         else {
             throw new TAException(ErrorCode.BAD_REQUEST, "Cannot read module log");
@@ -88,11 +106,11 @@ public class GenerateModulesCmd implements ICommand {
     }
 
     /**
-     * Obtains <modules> tag under <txt> and add the string to TADataContext
+     * Obtains <modules> tag under <txt> and returns it base64-encoded for TADataContext
      *
      * @author skaja
      */
-    private void getModulesFromMeasureLogXml(String xmlInput) throws TAException {
+    private String getModulesFromMeasureLogXml(String xmlInput) throws TAException {
         try {
 
             // Since the output from the script will have lot of details and we are interested in just the module section, we will
@@ -110,7 +128,7 @@ public class GenerateModulesCmd implements ICommand {
             // If we have XML data, we we will have issues mapping the response to the ClientRequestType using JaxB unmarshaller. So,
             // we will encode the string and send it.
             moduleInfo = Base64.encodeBase64String(moduleInfo.getBytes());
-            context.setModules(moduleInfo);
+            return moduleInfo;
             
 
         } catch (Exception e) {
@@ -239,6 +239,8 @@ public class GenerateQuoteCmd implements ICommand {
                 }
             } else {
                 try {   
+                        // aikquote reads the nonce from a file it can seek, so it cannot be piped in
+                        new CreateNonceFileCmd(context).execute();
                         CommandLine command = new CommandLine("/opt/trustagent/bin/aikquote");
                         command.addArgument("-p");
                         command.addArgument(identityAuthKey);
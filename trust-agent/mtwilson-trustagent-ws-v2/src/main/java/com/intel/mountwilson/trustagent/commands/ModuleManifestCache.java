@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mountwilson.trustagent.commands;
+
+import com.intel.mountwilson.common.TAException;
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Keeps the module manifest that GenerateModulesCmd extracts from the
+ * measure log, so the measure log script does not run for every quote.
+ *
+ * The measure log only changes when the host reboots, so the manifest is
+ * kept until the boot id changes, the values of PCR 17, 18, or 19 change,
+ * or the saved measure log file is replaced. The PCR values are read from
+ * the TPM driver's sysfs "pcrs" file when the driver provides one (TPM 1.2);
+ * otherwise only the boot id and the saved measure log are checked.
+ *
+ * The cache hits and the time spent creating the manifest are logged by
+ * TrustagentMetrics.
+ */
+public class ModuleManifestCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ModuleManifestCache.class);
+    private static final ModuleManifestCache instance = new ModuleManifestCache(
+            BootScopedCache.BOOT_ID_FILE,
+            new File[] { new File("/sys/class/tpm/tpm0/device/pcrs"), new File("/sys/class/misc/tpm0/device/pcrs") });
+    private static final String[] PCRS = { "PCR-17:", "PCR-18:", "PCR-19:" };
+
+    private final BootScopedCache<String> cache;
+    private final File[] pcrsFiles;
+
+    /**
+     * @param bootIdFile file with an id that changes on every boot
+     * @param pcrsFiles possible locations of the TPM driver's list of PCR values
+     */
+    public ModuleManifestCache(File bootIdFile, File[] pcrsFiles) {
+        this.cache = new BootScopedCache<>("module manifest", bootIdFile);
+        this.pcrsFiles = pcrsFiles;
+    }
+
+    public static ModuleManifestCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param measureLogXmlFile the measure log saved by the measure log script
+     * @param loader creates the manifest if it is not cached
+     * @return the module manifest
+     * @throws TAException
+     */
+    public String getModules(File measureLogXmlFile, BootScopedCache.Loader<String, TAException> loader) throws TAException {
+        return cache.get(getKeyPart(measureLogXmlFile), loader);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public String toString() {
+        return cache.toString();
+    }
+
+    String getKeyPart(File measureLogXmlFile) {
+        StringBuilder builder = new StringBuilder();
+        for(File pcrsFile : pcrsFiles) {
+            if( pcrsFile.exists() ) {
+                String pcrs = readQuietly(pcrsFile);
+                for(String line : pcrs.split("\n")) {
+                    for(String pcr : PCRS) {
+                        if( line.startsWith(pcr) ) {
+                            builder.append(line.trim()).append('|');
+                        }
+                    }
+                }
+                break;
+            }
+        }
+        if( measureLogXmlFile.exists() ) {
+            builder.append(measureLogXmlFile.lastModified()).append('|').append(measureLogXmlFile.length());
+        }
+        return builder.toString();
+    }
+
+    private String readQuietly(File file) {
+        try {
+            return FileUtils.readFileToString(file, "UTF-8");
+        }
+        catch(IOException e) {
+            log.debug("Cannot read {}: {}", file.getPath(), e.getMessage());
+            return "";
+        }
+    }
+}
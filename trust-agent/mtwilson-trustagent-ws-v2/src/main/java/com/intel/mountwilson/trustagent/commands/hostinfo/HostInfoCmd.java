@@ -11,8 +11,14 @@ import com.intel.mountwilson.trustagent.data.TADataContext;
 import com.intel.mtwilson.util.exec.ExecUtil;
 import com.intel.mtwilson.util.exec.Result;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.exec.CommandLine;
 
 /**
@@ -29,28 +35,68 @@ public class HostInfoCmd implements ICommand {
         this.context = context;
     }
 
+    /**
+     * Runs the system-info commands in parallel; each one sets different
+     * fields of the context. The VMM is looked up after the OS because on
+     * XenServer the OS name and version are used instead.
+     */
     @Override
     public void execute() throws TAException {
-        try {
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() throws TAException, IOException {
+                getOsAndVersion();
+                if (context.getOsName() != null && context.getOsName().toLowerCase().contains("xenserver")) {
+                    context.setVmmName(context.getOsName());
+                    context.setVmmVersion(context.getOsVersion());
+                    log.debug("VMM Name: " + context.getVmmName());
+                    log.debug("VMM Version: " + context.getVmmVersion());
 
-            getOsAndVersion();
-            getBiosAndVersion();
-            if (context.getOsName() != null && context.getOsName().toLowerCase().contains("xenserver")) {
-                context.setVmmName(context.getOsName());
-                context.setVmmVersion(context.getOsVersion());
-                log.debug("VMM Name: " + context.getVmmName());
-                log.debug("VMM Version: " + context.getVmmVersion());
-
-            } else {
-                getVmmAndVersion();
+                } else {
+                    getVmmAndVersion();
 
+                }
+                return null;
+            }
+        });
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() throws TAException, IOException {
+                getBiosAndVersion();
+                return null;
+            }
+        });
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() throws TAException, IOException {
+                // Retrieve the processor information as well.
+                getProcessorInfo();
+                return null;
+            }
+        });
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() throws TAException, IOException {
+                getHostUUID();
+                return null;
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            List<Future<Void>> results = executor.invokeAll(tasks);
+            for (Future<Void> result : results) {
+                result.get();
             }
-            // Retrieve the processor information as well.
-            getProcessorInfo();
-            getHostUUID();
-        } catch (TAException | IOException ex) {
-            log.debug("Error while getting OS details", ex);
-            throw new TAException(ErrorCode.ERROR, "Error while getting OS details.", ex);
+        } catch (ExecutionException ex) {
+            Exception cause = ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex;
+            log.debug("Error while getting OS details", cause);
+            throw new TAException(ErrorCode.ERROR, "Error while getting OS details.", cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TAException(ErrorCode.ERROR, "Interrupted while getting OS details.", ex);
+        } finally {
+            executor.shutdownNow();
         }
 
     }
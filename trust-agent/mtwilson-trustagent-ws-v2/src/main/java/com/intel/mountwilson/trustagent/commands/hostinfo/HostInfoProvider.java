@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mountwilson.trustagent.commands.hostinfo;
+
+import com.intel.mountwilson.common.ErrorCode;
+import com.intel.mountwilson.common.ICommand;
+import com.intel.mountwilson.common.TAException;
+import com.intel.mountwilson.trustagent.commands.BootScopedCache;
+import com.intel.mountwilson.trustagent.data.TADataContext;
+import com.intel.mtwilson.Folders;
+import com.intel.mtwilson.trustagent.TpmScheduler;
+import com.intel.mtwilson.trustagent.model.HostInfo;
+import com.intel.mtwilson.trustagent.tpmmodules.Tpm;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.ws.rs.WebApplicationException;
+
+/**
+ * Keeps the host information reported by the /host resource, so the
+ * system-info commands run once per boot instead of for every request.
+ *
+ * The information is collected again when the boot id changes, when a
+ * setup task rewrites trustagent.properties, or when refresh is called.
+ * A failed collection is not kept, so the next request tries again.
+ * TrustagentMetrics logs the cache hits and collection time.
+ */
+public class HostInfoProvider {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(HostInfoProvider.class);
+    private static final HostInfoProvider instance = new HostInfoProvider(
+            BootScopedCache.BOOT_ID_FILE,
+            new File(Folders.configuration() + File.separator + "trustagent.properties"),
+            new DefaultCollector());
+
+    private final BootScopedCache<HostInfo> cache;
+    private final File setupFile;
+    private final BootScopedCache.Loader<HostInfo, TAException> collector;
+
+    /**
+     * @param bootIdFile file with an id that changes on every boot
+     * @param setupFile file that is written by setup tasks
+     * @param collector
+     */
+    public HostInfoProvider(File bootIdFile, File setupFile, BootScopedCache.Loader<HostInfo, TAException> collector) {
+        this.cache = new BootScopedCache<>("host information", bootIdFile);
+        this.setupFile = setupFile;
+        this.collector = collector;
+    }
+
+    public static HostInfoProvider getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the host information
+     * @throws TAException if it is not cached and cannot be collected
+     */
+    public HostInfo getHostInfo() throws TAException {
+        return cache.get(String.valueOf(setupFile.lastModified()), collector);
+    }
+
+    /**
+     * Collects the host information again even if it has not changed.
+     *
+     * @return the host information
+     * @throws TAException
+     */
+    public synchronized HostInfo refresh() throws TAException {
+        cache.clear();
+        return getHostInfo();
+    }
+
+    /**
+     * Starts collecting the host information in the background, so the
+     * first request does not wait for the system-info commands.
+     */
+    public void prefetch() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getHostInfo();
+                }
+                catch(TAException | RuntimeException e) {
+                    log.warn("Cannot collect host information: {}", e.getMessage());
+                }
+            }
+        }, "host-info-prefetch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public String toString() {
+        return cache.toString();
+    }
+
+    /**
+     * Runs HostInfoCmd, or HostInfoCmdWin on Windows, while the PCR banks
+     * are read from the TPM.
+     */
+    public static class DefaultCollector implements BootScopedCache.Loader<HostInfo, TAException> {
+        @Override
+        public HostInfo load() throws TAException {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<String> pcrBanks = executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws IOException {
+                        return TpmScheduler.getInstance().execute(TpmScheduler.Priority.MAINTENANCE, "getPcrBanks", new TpmScheduler.TpmCommand<String,RuntimeException>() {
+                            @Override
+                            public String call() {
+                                return Tpm.getpcrBanks();
+                            }
+                        });
+                    }
+                });
+                TADataContext context = new TADataContext();
+                ICommand cmd;
+                String osName = System.getProperty("os.name");
+                if (osName.toLowerCase().contains("windows"))
+                    cmd = new HostInfoCmdWin(context);
+                else
+                    cmd = new HostInfoCmd(context);
+
+                cmd.execute();
+                HostInfo host = new HostInfo();
+                host.timestamp = System.currentTimeMillis();
+                host.errorCode = context.getErrorCode().name();
+                host.errorMessage = context.getErrorCode().getMessage();
+                host.osName = context.getOsName();
+                host.osVersion = context.getOsVersion();
+                host.biosOem = context.getBiosOem();
+                host.biosVersion = context.getBiosVersion();
+                host.vmmName = context.getVmmName();
+                host.vmmVersion = context.getVmmVersion();
+                host.processorInfo = context.getProcessorInfo();
+                host.hardwareUuid = context.getHostUUID();
+                host.tpmVersion = Tpm.getTpmVersion();
+                host.pcrBanks = pcrBanks.get();
+                return host;
+            }
+            catch(ExecutionException e) {
+                if( e.getCause() instanceof WebApplicationException ) {
+                    // the TPM scheduler rejected the command; keep its 503 status for the client
+                    throw (WebApplicationException)e.getCause();
+                }
+                throw new TAException(ErrorCode.ERROR, "Error while getting PCR banks.", e);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TAException(ErrorCode.ERROR, "Interrupted while getting host information.", e);
+            }
+            finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
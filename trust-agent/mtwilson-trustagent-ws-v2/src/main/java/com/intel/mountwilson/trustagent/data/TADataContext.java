@@ -16,6 +16,7 @@ import com.intel.mtwilson.util.ResourceFinder;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
+import org.apache.commons.io.FileUtils;
 
 /**
  *
@@ -47,6 +48,7 @@ public class TADataContext {
     private String sessionId;
     private String tcbMeasurement;
     private String selectedPcrBanks;
+    private File dataFolder; // created when a command first needs a file
 
     public String getSelectedPcrBanks() {
         return selectedPcrBanks;
@@ -181,18 +183,38 @@ public class TADataContext {
     }
 
     public String getDataFolder() {
-        String path = Folders.repository() + File.separator + getSessionId();
-        File dir = new File(path);
-        if( !dir.exists() ) {
-            if( dir.mkdirs() ) {
-                log.debug("Created session data folder {}", path);
-            }
-            else {
-                log.error("Error creating data folder {}", path);
+        if( dataFolder == null ) {
+            String path = Folders.repository() + File.separator + getSessionId();
+            File dir = new File(path);
+            if( !dir.exists() ) {
+                if( dir.mkdirs() ) {
+                    log.debug("Created session data folder {}", path);
+                }
+                else {
+                    log.error("Error creating data folder {}", path);
+                }
             }
+            dataFolder = dir;
         }
         //return Config.getHomeFolder() + File.separator + Config.getInstance().getProperty("data.folder") + File.separator;
-        return path;
+        return dataFolder.getPath();
+    }
+
+    /**
+     * Deletes the session data folder and its files, if a command created it.
+     */
+    public void deleteDataFolder() {
+        if( dataFolder == null ) {
+            return;
+        }
+        try {
+            FileUtils.deleteDirectory(dataFolder);
+            log.debug("Deleted session data folder {}", dataFolder.getPath());
+        }
+        catch(IOException e) {
+            log.error("Error deleting data folder {}", dataFolder.getPath(), e);
+        }
+        dataFolder = null;
     }
 
     public void setAIKCertificate(String certBytes) {
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.trustagent;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how many times each named step of a request ran and how long it
+ * took, so the time spent in each step can be reported without enabling
+ * debug logging.
+ */
+public class TimingStats {
+    private final ConcurrentHashMap<String,Step> steps = new ConcurrentHashMap<>();
+
+    public static class Step {
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong totalNanos = new AtomicLong(0);
+        private final AtomicLong maxNanos = new AtomicLong(0);
+
+        private void add(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while( nanos > max && !maxNanos.compareAndSet(max, nanos) ) {
+                max = maxNanos.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * @return average duration in microseconds, or 0 if the step did not run
+         */
+        public long getAverageMicros() {
+            long c = getCount();
+            return c == 0 ? 0 : getTotalNanos() / c / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d average=%dus max=%dus", getCount(), getAverageMicros(), getMaxNanos() / 1000);
+        }
+    }
+
+    public void add(String name, long nanos) {
+        Step step = steps.get(name);
+        if( step == null ) {
+            Step created = new Step();
+            step = steps.putIfAbsent(name, created);
+            if( step == null ) {
+                step = created;
+            }
+        }
+        step.add(nanos);
+    }
+
+    /**
+     * @param name
+     * @return the step, or null if it has not run
+     */
+    public Step getStep(String name) {
+        return steps.get(name);
+    }
+
+    /**
+     * @return the steps sorted by name
+     */
+    public Map<String,Step> getSteps() {
+        return new TreeMap<>(steps);
+    }
+
+    @Override
+    public String toString() {
+        return getSteps().toString();
+    }
+}
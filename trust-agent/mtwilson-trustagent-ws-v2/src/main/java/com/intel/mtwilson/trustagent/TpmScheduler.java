@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.trustagent;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * Runs the trust agent's TPM commands one at a time, so concurrent requests
+ * wait in the trust agent instead of competing for the TPM in the TPM tools.
+ *
+ * Quotes run before maintenance commands such as writing the asset tag;
+ * commands with the same priority run in the order they were submitted.
+ * When the queue is full the command is rejected immediately with
+ * 503 Service Unavailable so the client can retry later.
+ *
+ * The time each command waited in the queue and the time it used the TPM
+ * are recorded for each command name, and TrustagentMetrics logs them
+ * periodically.
+ */
+public class TpmScheduler {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TpmScheduler.class);
+    private static final int DEFAULT_QUEUE_SIZE = 32;
+    private static TpmScheduler instance = null;
+
+    private final int queueSize;
+    private final PriorityBlockingQueue<Job<?>> queue = new PriorityBlockingQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final TimingStats waitStats = new TimingStats();
+    private final TimingStats commandStats = new TimingStats();
+    private final Thread worker;
+
+    public static enum Priority {
+        QUOTE, MAINTENANCE
+    }
+
+    /**
+     * A command that uses the TPM.
+     *
+     * @param <T> the result
+     * @param <E> the checked exception thrown by the command in addition to IOException
+     */
+    public static interface TpmCommand<T, E extends Exception> {
+        T call() throws IOException, E;
+    }
+
+    private class Job<T> extends FutureTask<T> implements Comparable<Job<?>> {
+        private final Priority priority;
+        private final String name;
+        private final long number = sequence.incrementAndGet();
+        private final long submitted = System.nanoTime();
+        private long started;
+
+        private Job(Priority priority, String name, Callable<T> callable) {
+            super(callable);
+            this.priority = priority;
+            this.name = name;
+        }
+
+        @Override
+        public int compareTo(Job<?> other) {
+            int result = priority.compareTo(other.priority);
+            if( result == 0 ) {
+                result = Long.compare(number, other.number);
+            }
+            return result;
+        }
+
+        @Override
+        public void run() {
+            if( isCancelled() ) {
+                return;
+            }
+            started = System.nanoTime();
+            waitStats.add(name, started - submitted);
+            super.run();
+        }
+
+        // the time is recorded before the result is available to the caller
+        @Override
+        protected void set(T result) {
+            finished();
+            super.set(result);
+        }
+
+        @Override
+        protected void setException(Throwable e) {
+            finished();
+            super.setException(e);
+        }
+
+        private void finished() {
+            long elapsed = System.nanoTime() - started;
+            commandStats.add(name, elapsed);
+            log.debug("TPM command {} waited {} ms and ran {} ms", name, (started - submitted) / 1000000, elapsed / 1000000);
+        }
+    }
+
+    /**
+     * @param queueSize maximum number of commands that can wait for the TPM
+     */
+    public TpmScheduler(int queueSize) {
+        this.queueSize = queueSize;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while( true ) {
+                    Job<?> job;
+                    try {
+                        job = queue.take();
+                    }
+                    catch(InterruptedException e) {
+                        log.debug("TPM scheduler stopped");
+                        return;
+                    }
+                    pending.decrementAndGet();
+                    job.run();
+                }
+            }
+        }, "tpm-scheduler");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @return the scheduler for this trust agent, with the queue size from
+     * the tpm.queue.size setting
+     */
+    public static synchronized TpmScheduler getInstance() {
+        if( instance == null ) {
+            int size = DEFAULT_QUEUE_SIZE;
+            try {
+                size = TrustagentConfiguration.loadConfiguration().getTpmQueueSize();
+            }
+            catch(IOException | NumberFormatException e) {
+                log.warn("Cannot read TPM queue size, using {}: {}", DEFAULT_QUEUE_SIZE, e.getMessage());
+            }
+            instance = new TpmScheduler(size);
+        }
+        return instance;
+    }
+
+    /**
+     * Runs the command when the TPM is available and waits for its result.
+     *
+     * @param <T>
+     * @param <E>
+     * @param priority
+     * @param name the command name used for the metrics
+     * @param command
+     * @return the result of the command
+     * @throws IOException
+     * @throws E
+     * @throws WebApplicationException with status 503 if the queue is full
+     */
+    @SuppressWarnings("unchecked")
+    public <T, E extends Exception> T execute(Priority priority, String name, final TpmCommand<T, E> command) throws IOException, E {
+        if( Thread.currentThread() == worker ) {
+            // a command that runs another TPM command already has the TPM
+            return command.call();
+        }
+        if( pending.incrementAndGet() > queueSize ) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            log.warn("Rejected TPM command {}: {} commands are waiting", name, queueSize);
+            throw new WebApplicationException(Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Error", "TPM is busy").header("Retry-After", "1").build());
+        }
+        Job<T> job = new Job<>(priority, name, new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return command.call();
+            }
+        });
+        queue.add(job);
+        try {
+            return job.get();
+        }
+        catch(InterruptedException e) {
+            // a command that has already started is not interrupted
+            job.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the TPM", e);
+        }
+        catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if( cause instanceof IOException ) {
+                throw (IOException)cause;
+            }
+            if( cause instanceof RuntimeException ) {
+                throw (RuntimeException)cause;
+            }
+            if( cause instanceof Error ) {
+                throw (Error)cause;
+            }
+            throw (E)cause;
+        }
+    }
+
+    /**
+     * @return number of commands waiting for the TPM
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * @return number of commands rejected because the queue was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return time commands waited in the queue, by command name
+     */
+    public TimingStats getWaitStats() {
+        return waitStats;
+    }
+
+    /**
+     * @return time commands used the TPM, by command name
+     */
+    public TimingStats getCommandStats() {
+        return commandStats;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pending=%d rejected=%d wait=%s command=%s", getPending(), getRejected(), waitStats, commandStats);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.trustagent;
+
+import com.intel.mountwilson.trustagent.commands.ModuleManifestCache;
+import com.intel.mountwilson.trustagent.commands.hostinfo.HostInfoProvider;
+import com.intel.mtwilson.trustagent.ws.v2.Tpm;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs the trust agent's performance counters at info level, at most once
+ * per report interval, so they can be seen in production without enabling
+ * debug logging. The report is written after a quote when the interval has
+ * passed since the previous report.
+ */
+public class TrustagentMetrics {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TrustagentMetrics.class);
+    private static final long REPORT_INTERVAL_MILLIS = 10 * 60 * 1000;
+    private static final TrustagentMetrics instance = new TrustagentMetrics(REPORT_INTERVAL_MILLIS);
+
+    private final long reportIntervalMillis;
+    private final AtomicLong lastReport = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong reports = new AtomicLong(0);
+
+    /**
+     * @param reportIntervalMillis minimum time between reports
+     */
+    public TrustagentMetrics(long reportIntervalMillis) {
+        this.reportIntervalMillis = reportIntervalMillis;
+    }
+
+    public static TrustagentMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Logs the counters if the report interval has passed since the previous
+     * report. When several threads call it at the same time only one of them
+     * logs.
+     *
+     * @param now
+     * @return true if the counters were logged
+     */
+    public boolean reportIfDue(long now) {
+        long last = lastReport.get();
+        if( now - last < reportIntervalMillis || !lastReport.compareAndSet(last, now) ) {
+            return false;
+        }
+        report();
+        return true;
+    }
+
+    /**
+     * Logs the counters now.
+     */
+    public void report() {
+        reports.incrementAndGet();
+        log.info("Quote steps: {}", Tpm.getQuoteStats());
+        TpmScheduler scheduler = TpmScheduler.getInstance();
+        log.info("TPM queue: pending={} rejected={}", scheduler.getPending(), scheduler.getRejected());
+        log.info("TPM queue wait by command: {}", scheduler.getWaitStats());
+        log.info("TPM time by command: {}", scheduler.getCommandStats());
+        log.info("Module manifest cache: {}", ModuleManifestCache.getInstance());
+        log.info("Host info cache: {}", HostInfoProvider.getInstance());
+        log.info("Configuration reloads: {}", TrustagentConfiguration.getReloadCount());
+    }
+
+    /**
+     * @return number of times the counters were logged
+     */
+    public long getReports() {
+        return reports.get();
+    }
+}
@@ -9,6 +9,7 @@ import com.intel.mountwilson.trustagent.commands.daa.ChallengeResponseDaaCmd;
 import com.intel.mountwilson.trustagent.data.TADataContext;
 import com.intel.mtwilson.My;
 import com.intel.mtwilson.launcher.ws.ext.V2;
+import com.intel.mtwilson.trustagent.TpmScheduler;
 import com.intel.mtwilson.trustagent.TrustagentConfiguration;
 import com.intel.mtwilson.trustagent.model.DaaChallenge;
 import com.intel.mtwilson.trustagent.model.DaaResponse;
@@ -33,9 +34,16 @@ public class Daa {
         if( !configuration.isDaaEnabled() ) {
             throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).build());
         }
-        TADataContext context = new TADataContext();
+        final TADataContext context = new TADataContext();
         context.setDaaChallenge(daaChallenge.getChallenge());
-        new ChallengeResponseDaaCmd(context).execute();
+        // aikrespond activates the identity in the TPM
+        TpmScheduler.getInstance().execute(TpmScheduler.Priority.MAINTENANCE, "daaChallenge", new TpmScheduler.TpmCommand<Void,TAException>() {
+            @Override
+            public Void call() throws TAException {
+                new ChallengeResponseDaaCmd(context).execute();
+                return null;
+            }
+        });
         DaaResponse daaResponse = new DaaResponse();
         daaResponse.setResponse(context.getDaaResponse());
         return daaResponse; 
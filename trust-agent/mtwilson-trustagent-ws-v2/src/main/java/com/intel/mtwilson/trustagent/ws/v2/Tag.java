@@ -10,6 +10,7 @@ import com.intel.mountwilson.trustagent.commands.SetAssetTag;
 import com.intel.mountwilson.trustagent.commands.SetAssetTagWindows;
 import com.intel.mountwilson.trustagent.data.TADataContext;
 import com.intel.mtwilson.launcher.ws.ext.V2;
+import com.intel.mtwilson.trustagent.TpmScheduler;
 import com.intel.mtwilson.trustagent.TrustagentConfiguration;
 import com.intel.mtwilson.trustagent.model.TagWriteRequest;
 import com.intel.mtwilson.trustagent.tpmmodules.TpmModuleProvider;
@@ -35,11 +36,17 @@ public class Tag {
     
     @POST
     @Consumes({MediaType.APPLICATION_XML,MediaType.APPLICATION_JSON})
-    public void writeTag(TagWriteRequest tagInfo, @Context HttpServletResponse response) throws IOException, TpmModule.TpmModuleException {
+    public void writeTag(final TagWriteRequest tagInfo, @Context HttpServletResponse response) throws IOException, TpmModule.TpmModuleException {
         log.debug("writeTag uuid {} sha1 {}", tagInfo.getHardwareUuid(), Hex.encodeHexString(tagInfo.getTag()));       
-        TrustagentConfiguration config = new TrustagentConfiguration(TAConfig.getConfiguration());        
+        final TrustagentConfiguration config = new TrustagentConfiguration(TAConfig.getConfiguration());        
         
-        Tpm.getModule().setAssetTag(config.getTpmOwnerSecret(), tagInfo.getTag());                
+        TpmScheduler.getInstance().execute(TpmScheduler.Priority.MAINTENANCE, "setAssetTag", new TpmScheduler.TpmCommand<Void,TpmModule.TpmModuleException>() {
+            @Override
+            public Void call() throws IOException, TpmModule.TpmModuleException {
+                Tpm.getModule().setAssetTag(config.getTpmOwnerSecret(), tagInfo.getTag());
+                return null;
+            }
+        });
         
         log.debug("writeTag returning 204 status");
         response.setStatus(Response.Status.NO_CONTENT.getStatusCode());
@@ -7,17 +7,18 @@ package com.intel.mtwilson.trustagent.ws.v2;
 import com.intel.dcsg.cpg.net.IPv4Address;
 import com.intel.mountwilson.common.TAException;
 import com.intel.mountwilson.trustagent.commands.BuildQuoteXMLCmd;
-import com.intel.mountwilson.trustagent.commands.CreateNonceFileCmd;
 import com.intel.mountwilson.trustagent.commands.GenerateModulesCmd;
 import com.intel.mountwilson.trustagent.commands.GenerateQuoteCmd;
 import com.intel.mountwilson.trustagent.commands.ReadIdentityCmd;
 import com.intel.mountwilson.trustagent.data.TADataContext;
 import com.intel.mtwilson.launcher.ws.ext.V2;
 import com.intel.dcsg.cpg.crypto.Sha1Digest;
-import com.intel.mountwilson.common.ErrorCode;
 import com.intel.mountwilson.trustagent.commands.ReadAssetTag;
 import com.intel.mountwilson.trustagent.commands.RetrieveTcbMeasurement;
+import com.intel.mtwilson.trustagent.TimingStats;
+import com.intel.mtwilson.trustagent.TpmScheduler;
 import com.intel.mtwilson.trustagent.TrustagentConfiguration;
+import com.intel.mtwilson.trustagent.TrustagentMetrics;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
@@ -25,10 +26,6 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import com.intel.mtwilson.trustagent.model.TpmQuoteRequest;
 import com.intel.mtwilson.trustagent.model.TpmQuoteResponse;
-import com.intel.mtwilson.util.exec.EscapeUtil;
-import java.io.File;
-import com.intel.mtwilson.util.exec.ExecUtil;
-import com.intel.mtwilson.util.exec.Result;
 import gov.niarl.his.privacyca.TpmModule;
 import java.io.IOException;
 import java.util.logging.Level;
@@ -39,9 +36,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.exec.CommandLine;
 import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -52,7 +47,8 @@ import org.apache.commons.lang3.StringUtils;
 @Path("/tpm")
 public class Tpm {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Tpm.class);
-    private long t0 = System.currentTimeMillis();
+    private static final TimingStats quoteStats = new TimingStats();
+    private long t0 = System.nanoTime();
     
 
     /*
@@ -66,16 +62,26 @@ public class Tpm {
     */
     
     private void logPerformance(String message) {
-        long t1 = System.currentTimeMillis();
-        log.debug("performance: after {} ms: {}", t1-t0, message);
+        long t1 = System.nanoTime();
+        quoteStats.add(message, t1-t0);
+        log.debug("performance: after {} ms: {}", (t1-t0)/1000000, message);
         t0 = t1;
     }
     
+    /**
+     * @return the time spent in each step of tpmQuote since the trust agent
+     * started; TrustagentMetrics logs it periodically
+     */
+    public static TimingStats getQuoteStats() {
+        return quoteStats;
+    }
+    
     @POST
     @Path("/quote")
     @Consumes({MediaType.APPLICATION_XML,MediaType.APPLICATION_JSON})
     @Produces({MediaType.APPLICATION_XML,MediaType.APPLICATION_JSON})
     public TpmQuoteResponse tpmQuote(TpmQuoteRequest tpmQuoteRequest, @Context HttpServletRequest request) throws IOException, TAException {
+        long started = System.nanoTime();
         logPerformance("inside tpmQuote");
         /**
          * issue #1038 we will hash this ip address together with the input
@@ -93,6 +99,7 @@ public class Tpm {
          */
         TrustagentConfiguration configuration = TrustagentConfiguration.loadConfiguration();
         logPerformance("TrustagentConfiguration.loadConfiguration()");
+        TpmScheduler scheduler = TpmScheduler.getInstance();
         if( configuration.isTpmQuoteWithIpAddress() ) {
             if( IPv4Address.isValid(request.getLocalAddr()) ) {
                 IPv4Address ipv4 = new IPv4Address(request.getLocalAddr());
@@ -105,7 +112,7 @@ public class Tpm {
             }
         }
           
-        TADataContext context = new TADataContext(); // when we call getSessionId it will create a new random one
+        final TADataContext context = new TADataContext(); // when we call getSessionId it will create a new random one
         String osName = System.getProperty("os.name");
         context.setOsName(osName);
         
@@ -119,10 +126,15 @@ public class Tpm {
            As of now, we still keep the same geotag provisioning mechanism by writing it to TPM. there are other approaches as well, but not in implementation.
         */  
         boolean isTagProvisioned = false;        
-        byte[] ownerAuth = configuration.getTpmOwnerSecret();
+        final byte[] ownerAuth = configuration.getTpmOwnerSecret();
         byte[] assetTagHash = null;
         try {
-            assetTagHash = com.intel.mtwilson.trustagent.tpmmodules.Tpm.getModule().readAssetTag(ownerAuth);
+            assetTagHash = scheduler.execute(TpmScheduler.Priority.QUOTE, "readAssetTag", new TpmScheduler.TpmCommand<byte[],TpmModule.TpmModuleException>() {
+                @Override
+                public byte[] call() throws IOException, TpmModule.TpmModuleException {
+                    return com.intel.mtwilson.trustagent.tpmmodules.Tpm.getModule().readAssetTag(ownerAuth);
+                }
+            });
             log.debug("Asset Tag is: {}", assetTagHash);
             byte[] extendedNoncewithAssetTag = Sha1Digest.digestOf(tpmQuoteRequest.getNonce()).extend(assetTagHash).toByteArray();
             tpmQuoteRequest.setNonce(extendedNoncewithAssetTag);
@@ -136,53 +148,51 @@ public class Tpm {
         context.setSelectedPCRs(joinIntegers(tpmQuoteRequest.getPcrs(), ' '));
 
         logPerformance("new TADataContext()");
-        new CreateNonceFileCmd(context).execute(); // FileUtils.write to file nonce (binary)
-        logPerformance("CreateNonceFileCmd");
-        new ReadIdentityCmd(context).execute();  // trustagentrepository.getaikcertificate
-        logPerformance("ReadIdentityCmd");
+        // the nonce stays in the context; GenerateQuoteCmd writes it to a file only for a tool that needs one
+        try {
+            new ReadIdentityCmd(context).execute();  // trustagentrepository.getaikcertificate
+            logPerformance("ReadIdentityCmd");
 
-        // Get the module information
-        if (!osName.toLowerCase().contains("windows")) {
-            new GenerateModulesCmd(context).execute(); // String moduleXml = getXmlFromMeasureLog(configuration);
-            logPerformance("GenerateModulesCmd");
-            new RetrieveTcbMeasurement(context).execute(); //does nothing if measurement.xml does not exist
-            logPerformance("RetrieveTcbMeasurement");
-        }
-        new GenerateQuoteCmd(context).execute();
-        logPerformance("GenerateQuoteCmd");
-        new BuildQuoteXMLCmd(context).execute();
-        logPerformance("BuildQuoteXMLCmd");
+            // Get the module information
+            if (!osName.toLowerCase().contains("windows")) {
+                new GenerateModulesCmd(context).execute(); // String moduleXml = getXmlFromMeasureLog(configuration);
+                logPerformance("GenerateModulesCmd");
+                new RetrieveTcbMeasurement(context).execute(); //does nothing if measurement.xml does not exist
+                logPerformance("RetrieveTcbMeasurement");
+            }
+            scheduler.execute(TpmScheduler.Priority.QUOTE, "quote", new TpmScheduler.TpmCommand<Void,TAException>() {
+                @Override
+                public Void call() throws TAException {
+                    new GenerateQuoteCmd(context).execute();
+                    return null;
+                }
+            });
+            logPerformance("GenerateQuoteCmd");
+            new BuildQuoteXMLCmd(context).execute();
+            logPerformance("BuildQuoteXMLCmd");
             
-        // return context.getResponseXML();
-        TpmQuoteResponse response = context.getTpmQuoteResponse();
-        logPerformance("context.getTpmQuoteResponse()");
+            // return context.getResponseXML();
+            TpmQuoteResponse response = context.getTpmQuoteResponse();
+            logPerformance("context.getTpmQuoteResponse()");
 
-        //assetTag 
-        //#6560: Null pointer dereference of 'response' where null is returned from a method
-        if (response != null){
-            response.isTagProvisioned = isTagProvisioned;
-            if (isTagProvisioned) 
-                response.assetTag = assetTagHash;
-        }
-
-        // delete temporary session directory
-        if (!osName.toLowerCase().contains("windows")) {
-            CommandLine command = new CommandLine("rm");
-            command.addArgument("-rf");
-            command.addArgument(EscapeUtil.doubleQuoteEscapeShellArgument(context.getDataFolder()));
-            Result result = ExecUtil.execute(command);
-            logPerformance("ExecUtil.execute(command)");
-            if (result.getExitCode() != 0) {
-                log.error("Error running command [{}]: {}", command.getExecutable(), result.getStderr());
-                throw new TAException(ErrorCode.ERROR, result.getStderr());
+            //assetTag 
+            //#6560: Null pointer dereference of 'response' where null is returned from a method
+            if (response != null){
+                response.isTagProvisioned = isTagProvisioned;
+                if (isTagProvisioned) 
+                    response.assetTag = assetTagHash;
             }
-            log.debug("command stdout: {}", result.getStdout());
-        } else {
-            // we should use more neutral ways to delete the folder
-            FileUtils.forceDelete(new File(context.getDataFolder())); 
+
+            logPerformance("before return response");
+            quoteStats.add("tpmQuote", System.nanoTime() - started);
+            return response;
+        }
+        finally {
+            // delete the temporary session directory, if a command needed one
+            context.deleteDataFolder();
+            logPerformance("context.deleteDataFolder()");
+            TrustagentMetrics.getInstance().reportIfDue(System.currentTimeMillis());
         }
-        logPerformance("before return response");
-        return response;
     }
     
     private String joinIntegers(int[] pcrs, char separator) {
@@ -6,6 +6,7 @@ package com.intel.mtwilson.trustagent.ws.v2;
 
 import com.intel.mountwilson.common.TAException;
 import com.intel.mtwilson.launcher.ws.ext.V2;
+import com.intel.mtwilson.trustagent.TpmScheduler;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
@@ -64,13 +65,19 @@ public class Vrtm {
     public VMQuoteResponse getVMAttestationReport(VMAttestationRequest vmAttestationRequest) {
         try {
             
-            String vmInstanceId = vmAttestationRequest.getVmInstanceId();
-            String nonce = vmAttestationRequest.getNonce();
+            final String vmInstanceId = vmAttestationRequest.getVmInstanceId();
+            final String nonce = vmAttestationRequest.getNonce();
             
-            // Call into the vRTM API and get the path information
-            RPClient rpcInstance = new RPClient("127.0.0.1", 16005);
-            String instanceFolderPath = rpcInstance.getVMAttestationReportPath(vmInstanceId, nonce);
-            rpcInstance.close();
+            // Call into the vRTM API and get the path information; the vRTM quotes the TPM to sign the report
+            String instanceFolderPath = TpmScheduler.getInstance().execute(TpmScheduler.Priority.QUOTE, "vrtmReport", new TpmScheduler.TpmCommand<String,IOException>() {
+                @Override
+                public String call() throws IOException {
+                    RPClient rpcInstance = new RPClient("127.0.0.1", 16005);
+                    String path = rpcInstance.getVMAttestationReportPath(vmInstanceId, nonce);
+                    rpcInstance.close();
+                    return path;
+                }
+            });
             
             if (instanceFolderPath == null || instanceFolderPath.isEmpty()) {
                 String errorInfo = "Error during retrieval of the instance path. Please verify the input parameters.";
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mountwilson.trustagent.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class BootScopedCacheTest {
+
+    private static class CountingLoader implements BootScopedCache.Loader<String, RuntimeException> {
+        private final AtomicInteger loads = new AtomicInteger(0);
+
+        @Override
+        public String load() {
+            return "value-" + loads.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testLoadWhenBootOrKeyPartChanges() throws Exception {
+        File dir = File.createTempFile("boot", "");
+        dir.delete();
+        dir.mkdirs();
+        try {
+            File bootId = new File(dir, "boot_id");
+            FileUtils.writeStringToFile(bootId, "boot-1\n", "UTF-8");
+            BootScopedCache<String> cache = new BootScopedCache<>("test", bootId);
+            CountingLoader loader = new CountingLoader();
+            assertEquals("value-1", cache.get("a", loader));
+            assertEquals("value-1", cache.get("a", loader));
+            assertEquals("value-2", cache.get("b", loader));
+            FileUtils.writeStringToFile(bootId, "boot-2\n", "UTF-8");
+            assertEquals("value-3", cache.get("b", loader));
+            assertEquals("value-3", cache.get("b", loader));
+            cache.clear();
+            assertEquals("value-4", cache.get("b", loader));
+            assertEquals(2, cache.getHits());
+            assertEquals(4, cache.getLoads());
+        }
+        finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        BootScopedCache<String> cache = new BootScopedCache<>("test", new File("/nonexistent/boot_id"));
+        BootScopedCache.Loader<String, IOException> failing = new BootScopedCache.Loader<String, IOException>() {
+            @Override
+            public String load() throws IOException {
+                throw new IOException("script failed");
+            }
+        };
+        try {
+            cache.get("a", failing);
+            fail("expected IOException");
+        }
+        catch(IOException e) {
+            // expected
+        }
+        assertEquals(0, cache.getLoads());
+        assertEquals("value-1", cache.get("a", new CountingLoader()));
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mountwilson.trustagent.commands;
+
+import java.io.File;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ModuleManifestCacheTest {
+
+    @Test
+    public void testKeyPartChangesWithPcrsOrMeasureLog() throws Exception {
+        File dir = File.createTempFile("modules", "");
+        dir.delete();
+        dir.mkdirs();
+        try {
+            File pcrs = new File(dir, "pcrs");
+            File measureLog = new File(dir, "measureLog.xml");
+            FileUtils.writeStringToFile(pcrs, "PCR-00: 00 11\nPCR-17: AA BB\nPCR-18: CC DD\nPCR-19: EE FF\n", "UTF-8");
+            ModuleManifestCache cache = new ModuleManifestCache(new File(dir, "boot_id"), new File[] { new File(dir, "missing"), pcrs });
+            String key = cache.getKeyPart(measureLog);
+            assertEquals("PCR-17: AA BB|PCR-18: CC DD|PCR-19: EE FF|", key);
+            // a PCR that is not part of the key
+            FileUtils.writeStringToFile(pcrs, "PCR-00: 00 22\nPCR-17: AA BB\nPCR-18: CC DD\nPCR-19: EE FF\n", "UTF-8");
+            assertEquals(key, cache.getKeyPart(measureLog));
+            FileUtils.writeStringToFile(pcrs, "PCR-00: 00 22\nPCR-17: AA BB\nPCR-18: CC DD\nPCR-19: 00 00\n", "UTF-8");
+            assertFalse(key.equals(cache.getKeyPart(measureLog)));
+            key = cache.getKeyPart(measureLog);
+            FileUtils.writeStringToFile(measureLog, "<measureLog/>", "UTF-8");
+            assertFalse(key.equals(cache.getKeyPart(measureLog)));
+        }
+        finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.trustagent;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TimingStatsTest {
+
+    @Test
+    public void testSteps() {
+        TimingStats stats = new TimingStats();
+        assertNull(stats.getStep("GenerateQuoteCmd"));
+        stats.add("GenerateQuoteCmd", 3000000);
+        stats.add("GenerateQuoteCmd", 1000000);
+        stats.add("BuildQuoteXMLCmd", 500000);
+        TimingStats.Step quote = stats.getStep("GenerateQuoteCmd");
+        assertEquals(2, quote.getCount());
+        assertEquals(4000000, quote.getTotalNanos());
+        assertEquals(3000000, quote.getMaxNanos());
+        assertEquals(2000, quote.getAverageMicros());
+        assertEquals("[BuildQuoteXMLCmd, GenerateQuoteCmd]", stats.getSteps().keySet().toString());
+    }
+}
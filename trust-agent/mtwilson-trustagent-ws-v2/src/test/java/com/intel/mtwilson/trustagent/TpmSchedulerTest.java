@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.trustagent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.WebApplicationException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TpmSchedulerTest {
+
+    private static class BlockingCommand implements TpmScheduler.TpmCommand<Void,RuntimeException> {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public Void call() {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
+
+    private Thread submit(final TpmScheduler scheduler, final TpmScheduler.Priority priority, final String name, final List<String> order) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.execute(priority, name, new TpmScheduler.TpmCommand<Void,RuntimeException>() {
+                        @Override
+                        public Void call() {
+                            order.add(name);
+                            return null;
+                        }
+                    });
+                }
+                catch(IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void waitForPending(TpmScheduler scheduler, int count) throws InterruptedException {
+        for(int i = 0; i < 500 && scheduler.getPending() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, scheduler.getPending());
+    }
+
+    @Test
+    public void testQuotesBeforeMaintenance() throws Exception {
+        final TpmScheduler scheduler = new TpmScheduler(8);
+        final BlockingCommand blocking = new BlockingCommand();
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.execute(TpmScheduler.Priority.MAINTENANCE, "block", blocking);
+                }
+                catch(IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        first.start();
+        assertTrue(blocking.started.await(10, TimeUnit.SECONDS));
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        ArrayList<Thread> threads = new ArrayList<>();
+        threads.add(submit(scheduler, TpmScheduler.Priority.MAINTENANCE, "setAssetTag", order));
+        waitForPending(scheduler, 1);
+        threads.add(submit(scheduler, TpmScheduler.Priority.QUOTE, "quote1", order));
+        waitForPending(scheduler, 2);
+        threads.add(submit(scheduler, TpmScheduler.Priority.QUOTE, "quote2", order));
+        waitForPending(scheduler, 3);
+        blocking.release.countDown();
+        first.join();
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(3, order.size());
+        assertEquals("quote1", order.get(0));
+        assertEquals("quote2", order.get(1));
+        assertEquals("setAssetTag", order.get(2));
+        assertEquals(1, scheduler.getCommandStats().getStep("quote1").getCount());
+        assertEquals(1, scheduler.getWaitStats().getStep("setAssetTag").getCount());
+    }
+
+    @Test
+    public void testRejectWhenFull() throws Exception {
+        final TpmScheduler scheduler = new TpmScheduler(1);
+        final BlockingCommand blocking = new BlockingCommand();
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.execute(TpmScheduler.Priority.QUOTE, "block", blocking);
+                }
+                catch(IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        first.start();
+        assertTrue(blocking.started.await(10, TimeUnit.SECONDS));
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        Thread waiting = submit(scheduler, TpmScheduler.Priority.QUOTE, "quote", order);
+        waitForPending(scheduler, 1);
+        try {
+            scheduler.execute(TpmScheduler.Priority.QUOTE, "rejected", new BlockingCommand());
+            fail("expected WebApplicationException");
+        }
+        catch(WebApplicationException e) {
+            assertEquals(503, e.getResponse().getStatus());
+        }
+        assertEquals(1, scheduler.getRejected());
+        blocking.release.countDown();
+        first.join();
+        waiting.join();
+        assertEquals(1, order.size());
+        assertEquals(0, scheduler.getPending());
+    }
+
+    @Test
+    public void testExceptionFromCommand() throws Exception {
+        TpmScheduler scheduler = new TpmScheduler(4);
+        try {
+            scheduler.execute(TpmScheduler.Priority.QUOTE, "quote", new TpmScheduler.TpmCommand<Void,IllegalArgumentException>() {
+                @Override
+                public Void call() throws IOException {
+                    throw new IOException("tpm2_quote failed");
+                }
+            });
+            fail("expected IOException");
+        }
+        catch(IOException e) {
+            assertEquals("tpm2_quote failed", e.getMessage());
+        }
+        assertEquals(1, scheduler.getCommandStats().getStep("quote").getCount());
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2016 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.trustagent;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TrustagentMetricsTest {
+
+    @Test
+    public void testReportIfDue() {
+        TrustagentMetrics metrics = new TrustagentMetrics(1000);
+        long now = System.currentTimeMillis();
+        assertFalse(metrics.reportIfDue(now + 500));
+        assertTrue(metrics.reportIfDue(now + 1000));
+        // the interval starts over after a report
+        assertFalse(metrics.reportIfDue(now + 1999));
+        assertTrue(metrics.reportIfDue(now + 2000));
+        assertEquals(2, metrics.getReports());
+    }
+}